@@ -0,0 +1,89 @@
+package iudx.aaa.server.apiserver;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import iudx.aaa.server.apiserver.Response.ResponseBuilder;
+import iudx.aaa.server.apiserver.util.Urn;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building a {@link Response} using the {@link ResponseBuilder} and serializing it, as is
+ * done for every token and introspection response. The results are the same shape as those sent by
+ * the token APIs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ResponseBenchmark {
+
+  private JsonObject tokenResult;
+  private JsonObject introspectResult;
+
+  @Setup
+  public void setup() {
+    tokenResult =
+        new JsonObject()
+            .put("accessToken", "eyJ0eXAiOiJKV1QiLCJhbGciOiJFUzI1NiJ9." + UUID.randomUUID())
+            .put("expiry", System.currentTimeMillis() / 1000 + 43200)
+            .put("server", "rs.iudx.io");
+
+    introspectResult =
+        new JsonObject()
+            .put("sub", UUID.randomUUID().toString())
+            .put("iss", "auth.iudx.org.in")
+            .put("aud", "rs.iudx.io")
+            .put("exp", System.currentTimeMillis() / 1000 + 43200)
+            .put("iat", System.currentTimeMillis() / 1000)
+            .put("iid", "ri:" + UUID.randomUUID())
+            .put("role", "consumer")
+            .put("cons", new JsonObject().put("access", new JsonArray().add("api").add("sub")))
+            .put("rg", UUID.randomUUID().toString());
+  }
+
+  @Benchmark
+  public String tokenResponse() {
+    return new ResponseBuilder()
+        .status(200)
+        .type(Urn.URN_SUCCESS)
+        .title("Token created")
+        .objectResults(tokenResult)
+        .build()
+        .toJsonString();
+  }
+
+  @Benchmark
+  public String introspectResponse() {
+    return new ResponseBuilder()
+        .status(200)
+        .type(Urn.URN_SUCCESS)
+        .title("Token authenticated")
+        .objectResults(introspectResult)
+        .build()
+        .toJsonString();
+  }
+
+  @Benchmark
+  public String errorResponse() {
+    return new ResponseBuilder()
+        .status(401)
+        .type(Urn.URN_INVALID_AUTH_TOKEN)
+        .title("Token authentication failed")
+        .arrayResults(new JsonArray().add(new JsonObject().put("status", "deny")))
+        .build()
+        .toJsonString();
+  }
+}
@@ -0,0 +1,103 @@
+package iudx.aaa.server.token;
+
+import io.vertx.core.json.JsonObject;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares signing and verification of access tokens using ES256 and EdDSA (Ed25519). Tokens are
+ * signed using the {@link JwtEncoder} and verified using a JCA {@link Signature}, as a resource
+ * server would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JwtSigningAlgorithmBenchmark {
+
+  private static final String ISSUER = "auth.iudx.org.in";
+  private static final String AUDIENCE = "rs.iudx.io";
+
+  @Param({"ES256", "EdDSA"})
+  public String algorithm;
+
+  private JwtEncoder encoder;
+  private Signature verifier;
+  private String userId;
+  private String itemId;
+  private JsonObject constraints;
+
+  private byte[] signingInput;
+  private byte[] signature;
+
+  @Setup
+  public void setup() throws GeneralSecurityException {
+    JwtSigningAlgorithm alg = JwtSigningAlgorithm.fromConfig(algorithm);
+
+    KeyPairGenerator generator;
+    if (alg == JwtSigningAlgorithm.ES256) {
+      generator = KeyPairGenerator.getInstance("EC");
+      generator.initialize(new ECGenParameterSpec("secp256r1"));
+    } else {
+      generator = KeyPairGenerator.getInstance(alg.getJcaAlgorithm());
+    }
+    KeyPair keyPair = generator.generateKeyPair();
+
+    JsonObject header =
+        new JsonObject().put("typ", "JWT").put("alg", alg.getJwtName()).put("iss", ISSUER);
+    encoder = JwtEncoder.create(header, keyPair.getPrivate(), alg.getJcaAlgorithm());
+    verifier = Signature.getInstance(alg.getJcaAlgorithm());
+    verifier.initVerify(keyPair.getPublic());
+
+    userId = UUID.randomUUID().toString();
+    itemId = UUID.randomUUID().toString();
+    constraints = new JsonObject().put("access", new JsonObject().put("api", "all"));
+
+    String token = sign();
+    int dot = token.lastIndexOf('.');
+    signingInput = token.substring(0, dot).getBytes(StandardCharsets.US_ASCII);
+    signature = Base64.getUrlDecoder().decode(token.substring(dot + 1));
+  }
+
+  @Benchmark
+  public String sign() throws GeneralSecurityException {
+    long timestamp = System.currentTimeMillis() / 1000;
+    return encoder.encode(
+        claims ->
+            claims
+                .put("sub", userId)
+                .put("iss", ISSUER)
+                .put("aud", AUDIENCE)
+                .put("exp", timestamp + 43200)
+                .put("iat", timestamp)
+                .put("iid", "ri", ':', itemId)
+                .put("role", "consumer")
+                .put("cons", constraints));
+  }
+
+  @Benchmark
+  public boolean verify() throws GeneralSecurityException {
+    verifier.update(signingInput);
+    return verifier.verify(signature);
+  }
+}
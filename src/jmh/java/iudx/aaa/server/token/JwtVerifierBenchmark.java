@@ -0,0 +1,108 @@
+package iudx.aaa.server.token;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.auth.authentication.TokenCredentials;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares token verification using {@link JWTAuth#authenticate(TokenCredentials)}, as was done in
+ * <code>TokenServiceImpl.validateToken</code> earlier, with the {@link JwtVerifier}. Both return
+ * the decoded claims of an ES256 resource access token. Run with <code>-prof gc</code> to compare
+ * the bytes allocated per verification (<code>gc.alloc.rate.norm</code>).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JwtVerifierBenchmark {
+
+  private static final String ISSUER = "auth.iudx.org.in";
+
+  private Vertx vertx;
+  private JWTAuth provider;
+  private JwtVerifier verifier;
+  private String token;
+
+  @Setup
+  public void setup() throws GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec("secp256r1"));
+    KeyPair keyPair = generator.generateKeyPair();
+    String publicPem =
+        "-----BEGIN PUBLIC KEY-----\n"
+            + Base64.getMimeEncoder().encodeToString(keyPair.getPublic().getEncoded())
+            + "\n-----END PUBLIC KEY-----";
+
+    vertx = Vertx.vertx();
+    provider =
+        JWTAuth.create(
+            vertx,
+            new JWTAuthOptions()
+                .addPubSecKey(new PubSecKeyOptions().setAlgorithm("ES256").setBuffer(publicPem)));
+    verifier = new JwtVerifier(keyPair.getPublic(), JwtSigningAlgorithm.ES256);
+
+    JsonObject header = new JsonObject().put("typ", "JWT").put("alg", "ES256").put("iss", ISSUER);
+    JwtEncoder encoder =
+        JwtEncoder.create(header, keyPair.getPrivate(), JwtEncoder.ES256_JCA_ALGORITHM);
+    JsonObject constraints = new JsonObject().put("access", new JsonObject().put("api", "all"));
+    long timestamp = System.currentTimeMillis() / 1000;
+    token =
+        encoder.encode(
+            claims ->
+                claims
+                    .put("sub", UUID.randomUUID().toString())
+                    .put("iss", ISSUER)
+                    .put("aud", "rs.iudx.io")
+                    .put("exp", timestamp + 43200)
+                    .put("iat", timestamp)
+                    .put("iid", "ri", ':', UUID.randomUUID().toString())
+                    .put("role", "consumer")
+                    .put("cons", constraints));
+  }
+
+  @TearDown
+  public void tearDown() {
+    vertx.close();
+  }
+
+  @Benchmark
+  public JsonObject provider() throws Exception {
+    User user =
+        provider
+            .authenticate(new TokenCredentials(token))
+            .toCompletionStage()
+            .toCompletableFuture()
+            .get(10, TimeUnit.SECONDS);
+    return user.attributes().getJsonObject("accessToken");
+  }
+
+  @Benchmark
+  public JsonObject verifier() throws GeneralSecurityException {
+    return verifier.verify(token);
+  }
+}
@@ -0,0 +1,214 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.ACCESS_TOKEN;
+import static iudx.aaa.server.token.Constants.CONSTRAINTS;
+import static iudx.aaa.server.token.Constants.ISS;
+import static iudx.aaa.server.token.Constants.ITEM_ID;
+import static iudx.aaa.server.token.Constants.ITEM_TYPE;
+import static iudx.aaa.server.token.Constants.JWT_ALGORITHM;
+import static iudx.aaa.server.token.Constants.KID;
+import static iudx.aaa.server.token.Constants.LINK;
+import static iudx.aaa.server.token.Constants.ROLE;
+import static iudx.aaa.server.token.Constants.SESSION_ID;
+import static iudx.aaa.server.token.Constants.URL;
+import static iudx.aaa.server.token.Constants.USER_ID;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import iudx.aaa.server.apiserver.IntrospectToken;
+import iudx.aaa.server.token.TokenServiceImpl.TokenServiceImplBuilder;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-token cost of {@link TokenServiceImpl#getJwt(JsonObject)}, {@link
+ * TokenServiceImpl#getApdJwt(JsonObject)} and {@link TokenServiceImpl#validateToken(
+ * IntrospectToken)}, with and without the {@link IntrospectionCache}. The token service is set up
+ * as in the <code>TokenVerticle</code>, using a local PKCS12 keystore with an ES256 key that is
+ * created for the run.
+ *
+ * <p>Token creation includes the hand off to the signing pool and back, so the results show the
+ * cost seen by a caller of the service. Introspection covers decoding and verifying a resource
+ * access token, which does not need the database or the registration service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TokenServiceBenchmark {
+
+  private static final String ISSUER = "auth.iudx.org.in";
+  private static final String AUDIENCE = "rs.iudx.io";
+  private static final String KEYSTORE_PASSWORD = "secret";
+
+  private Vertx vertx;
+  private File keystore;
+  private JwtSigningEngine signingEngine;
+  private JwtVerificationEngine verificationEngine;
+  private TokenServiceImpl tokenService;
+  private TokenServiceImpl cachedTokenService;
+
+  private JsonObject tokenRequest;
+  private JsonObject apdTokenRequest;
+  private IntrospectToken introspectRequest;
+
+  @Setup
+  public void setup() throws Exception {
+    Constants.CLAIM_ISSUER = ISSUER;
+    vertx = Vertx.vertx();
+    keystore = createKeystore();
+
+    KeyStore ks = KeyStore.getInstance("pkcs12");
+    try (InputStream in = new FileInputStream(keystore)) {
+      ks.load(in, KEYSTORE_PASSWORD.toCharArray());
+    }
+    JwtKeySet keySet = JwtKeySet.load(ks, KEYSTORE_PASSWORD, JwtSigningAlgorithm.ES256);
+
+    JsonObject header =
+        new JsonObject()
+            .put("typ", "JWT")
+            .put("alg", JwtSigningAlgorithm.ES256.getJwtName())
+            .put(ISS, ISSUER)
+            .put(KID, keySet.getSigningKey().getKid());
+    JwtEncoder encoder =
+        JwtEncoder.create(
+            header, keySet.getSigningPrivateKey(), JwtSigningAlgorithm.ES256.getJcaAlgorithm());
+    signingEngine =
+        new JwtSigningEngine(vertx, encoder, Runtime.getRuntime().availableProcessors(), 1024);
+    verificationEngine =
+        new JwtVerificationEngine(vertx, Runtime.getRuntime().availableProcessors(), 1024);
+
+    tokenService =
+        new TokenServiceImplBuilder()
+            .signingEngine(signingEngine)
+            .verificationEngine(verificationEngine)
+            .verifier(new JwtVerifier(keySet))
+            .build();
+    cachedTokenService =
+        new TokenServiceImplBuilder()
+            .signingEngine(signingEngine)
+            .verificationEngine(verificationEngine)
+            .verifier(new JwtVerifier(keySet))
+            .introspectionCache(new IntrospectionCache(1000, 3600))
+            .build();
+
+    tokenRequest =
+        new JsonObject()
+            .put(USER_ID, UUID.randomUUID().toString())
+            .put(URL, AUDIENCE)
+            .put(ROLE, "consumer")
+            .put(ITEM_TYPE, "resource")
+            .put(ITEM_ID, UUID.randomUUID().toString())
+            .put(CONSTRAINTS, new JsonObject().put("access", new JsonObject().put("api", "all")));
+    apdTokenRequest =
+        new JsonObject()
+            .put(USER_ID, UUID.randomUUID().toString())
+            .put(URL, "apd.iudx.io")
+            .put(SESSION_ID, UUID.randomUUID().toString())
+            .put(LINK, "https://apd.iudx.io/verify");
+
+    String token = await(tokenService.getJwt(tokenRequest)).getString(ACCESS_TOKEN);
+    introspectRequest = new IntrospectToken();
+    introspectRequest.setAccessToken(token);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    signingEngine.close();
+    verificationEngine.close();
+    await(vertx.close());
+    keystore.delete();
+  }
+
+  private static File createKeystore() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec("secp256r1"));
+    KeyPair keyPair = generator.generateKeyPair();
+
+    X500Name name = new X500Name("CN=" + ISSUER);
+    Date notBefore = new Date();
+    Date notAfter = new Date(notBefore.getTime() + TimeUnit.DAYS.toMillis(1));
+    JcaX509v3CertificateBuilder builder =
+        new JcaX509v3CertificateBuilder(
+            name,
+            BigInteger.valueOf(notBefore.getTime()),
+            notBefore,
+            notAfter,
+            name,
+            keyPair.getPublic());
+    X509Certificate cert =
+        new JcaX509CertificateConverter()
+            .getCertificate(
+                builder.build(
+                    new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate())));
+
+    KeyStore ks = KeyStore.getInstance("pkcs12");
+    ks.load(null, null);
+    ks.setKeyEntry(
+        JWT_ALGORITHM,
+        keyPair.getPrivate(),
+        KEYSTORE_PASSWORD.toCharArray(),
+        new Certificate[] {cert});
+
+    File file = File.createTempFile("jmh-keystore", ".p12");
+    try (OutputStream out = new FileOutputStream(file)) {
+      ks.store(out, KEYSTORE_PASSWORD.toCharArray());
+    }
+    return file;
+  }
+
+  private static <T> T await(Future<T> future) throws Exception {
+    return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+  }
+
+  @Benchmark
+  public JsonObject getJwt() throws Exception {
+    return await(tokenService.getJwt(tokenRequest));
+  }
+
+  @Benchmark
+  public JsonObject getApdJwt() throws Exception {
+    return await(tokenService.getApdJwt(apdTokenRequest));
+  }
+
+  @Benchmark
+  public JsonObject validateToken() throws Exception {
+    return await(tokenService.validateToken(introspectRequest));
+  }
+
+  @Benchmark
+  public JsonObject validateTokenCached() throws Exception {
+    return await(cachedTokenService.validateToken(introspectRequest));
+  }
+}
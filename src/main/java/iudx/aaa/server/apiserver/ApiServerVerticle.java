@@ -1,11 +1,16 @@
 package iudx.aaa.server.apiserver;
 
 import static iudx.aaa.server.apiserver.util.Constants.*;
+import static iudx.aaa.server.apiserver.util.Urn.URN_INVALID_ROLE;
+import static iudx.aaa.server.apiserver.util.Urn.URN_MISSING_INFO;
+import static iudx.aaa.server.token.Constants.INVALIDATE_USER_IDS;
+import static iudx.aaa.server.token.Constants.KEYSTORE_RELOAD_ADDRESS;
+import static iudx.aaa.server.token.Constants.TOKEN_CACHE_INVALIDATE_ADDRESS;
 
-import com.nimbusds.jose.jwk.ECKey;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.eventbus.MessageConsumer;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.http.HttpServerOptions;
@@ -13,7 +18,6 @@ import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.core.net.JksOptions;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
@@ -28,21 +32,24 @@ import iudx.aaa.server.admin.AdminService;
 import iudx.aaa.server.apd.ApdService;
 import iudx.aaa.server.apiserver.Response.ResponseBuilder;
 import iudx.aaa.server.apiserver.util.ClientAuthentication;
+import iudx.aaa.server.apiserver.util.ClientCredentialCache;
 import iudx.aaa.server.apiserver.util.DelegationIdAuthorization;
 import iudx.aaa.server.apiserver.util.FailureHandler;
 import iudx.aaa.server.apiserver.util.FetchRoles;
 import iudx.aaa.server.apiserver.util.OIDCAuthentication;
+import iudx.aaa.server.apiserver.util.PublicKeyDocuments;
+import iudx.aaa.server.apiserver.util.PublicKeyDocuments.Document;
+import iudx.aaa.server.apiserver.util.RevocationStream;
 import iudx.aaa.server.auditing.AuditingService;
 import iudx.aaa.server.policy.PolicyService;
 import iudx.aaa.server.registration.RegistrationService;
+import iudx.aaa.server.token.JwtSigningAlgorithm;
 import iudx.aaa.server.token.TokenService;
-import java.security.KeyStore;
-import java.security.cert.Certificate;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import org.apache.commons.codec.binary.Base64;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -69,8 +76,11 @@ public class ApiServerVerticle extends AbstractVerticle {
   private HttpServer server;
   private Router router;
   private int port;
-  private String jwtKeystorePath;
-  private String jwtKeystorePassword;
+  private PublicKeyDocuments publicKeyDocuments;
+  private MessageConsumer<Object> keystoreReloadConsumer;
+  private OIDCAuthentication oidcFlow;
+  private MessageConsumer<JsonObject> clientCredentialConsumer;
+  private ClientCredentialCache clientCredentialCache;
 
   private String databaseIP;
   private int databasePort;
@@ -99,6 +109,7 @@ public class ApiServerVerticle extends AbstractVerticle {
   private AdminService adminService;
   private AuditingService auditingService;
   private ApdService apdService;
+  private RevocationStream revocationStream;
 
   /**
    * This method is used to start the Verticle. It deploys a verticle in a cluster, reads the
@@ -119,8 +130,24 @@ public class ApiServerVerticle extends AbstractVerticle {
     poolSize = Integer.parseInt(config().getString(POOLSIZE));
     serverTimeout = Long.parseLong(config().getString(SERVER_TIMEOUT_MS));
     corsRegex = config().getString(CORS_REGEX);
-    jwtKeystorePath = config().getString(KEYSTORE_PATH);
-    jwtKeystorePassword = config().getString(KEYSTPRE_PASSWORD);
+
+    /* The keystore is parsed once here; it is read again when the token verticle rotates keys */
+    publicKeyDocuments =
+        new PublicKeyDocuments(
+            vertx,
+            config().getString(KEYSTORE_PATH),
+            config().getString(KEYSTPRE_PASSWORD),
+            JwtSigningAlgorithm.fromConfig(config().getString(JWT_SIGNING_ALGORITHM)));
+    keystoreReloadConsumer =
+        vertx
+            .eventBus()
+            .consumer(
+                KEYSTORE_RELOAD_ADDRESS,
+                message ->
+                    publicKeyDocuments
+                        .reload()
+                        .onSuccess(reloaded -> message.reply(null))
+                        .onFailure(fail -> message.fail(500, fail.getMessage())));
 
     /* Set Connection Object and schema */
     if (connectOptions == null) {
@@ -173,9 +200,28 @@ public class ApiServerVerticle extends AbstractVerticle {
 
     /* Passing the full config to OIDC auth, as the config has all the required keycloak
      * options */
-    OIDCAuthentication oidcFlow = new OIDCAuthentication(vertx, config());
+    oidcFlow = new OIDCAuthentication(vertx, config());
     FetchRoles fetchRoles = new FetchRoles(pgPool, config());
-    ClientAuthentication clientFlow = new ClientAuthentication(pgPool);
+    if (config().getBoolean(CLIENT_CREDENTIAL_CACHE_ENABLED, true)) {
+      long cacheMaxSize =
+          config()
+              .getLong(CLIENT_CREDENTIAL_CACHE_MAX_SIZE, DEFAULT_CLIENT_CREDENTIAL_CACHE_MAX_SIZE);
+      long cacheTtlSec =
+          config()
+              .getLong(CLIENT_CREDENTIAL_CACHE_TTL_SEC, DEFAULT_CLIENT_CREDENTIAL_CACHE_TTL_SEC);
+      clientCredentialCache = new ClientCredentialCache(cacheMaxSize, cacheTtlSec);
+
+      /* Client secret resets on any node invalidate the cached credentials of the client */
+      clientCredentialConsumer =
+          vertx
+              .eventBus()
+              .consumer(
+                  CLIENT_CREDENTIAL_INVALIDATE_ADDRESS,
+                  message ->
+                      clientCredentialCache.invalidate(
+                          message.body().getString(INVALIDATE_CLIENT_ID)));
+    }
+    ClientAuthentication clientFlow = new ClientAuthentication(pgPool, clientCredentialCache);
     DelegationIdAuthorization delegationAuth = new DelegationIdAuthorization(pgPool);
     FailureHandler failureHandler = new FailureHandler();
 
@@ -200,12 +246,49 @@ public class ApiServerVerticle extends AbstractVerticle {
                   .handler(this::createTokenHandler)
                   .failureHandler(failureHandler);
 
+              // Post batch token create
+              routerBuilder
+                  .operation(CREATE_TOKEN_BATCH)
+                  .handler(clientFlow)
+                  .handler(ctx -> fetchRoles.fetch(ctx, Roles.allRoles))
+                  .handler(delegationAuth)
+                  .handler(this::createTokenBatchHandler)
+                  .failureHandler(failureHandler);
+
               // Post token introspect
               routerBuilder
                   .operation(TIP_TOKEN)
                   .handler(this::validateTokenHandler)
                   .failureHandler(failureHandler);
 
+              // Post batch token introspect
+              routerBuilder
+                  .operation(TIP_TOKEN_BATCH)
+                  .handler(this::validateTokenBatchHandler)
+                  .failureHandler(failureHandler);
+
+              // Read revocation log
+              routerBuilder
+                  .operation(GET_REVOCATIONS)
+                  .handler(clientFlow)
+                  .handler(ctx -> fetchRoles.fetch(ctx, Set.of(Roles.ADMIN, Roles.TRUSTEE)))
+                  .handler(this::getRevocationsHandler)
+                  .failureHandler(failureHandler);
+
+              // Stream revocations
+              routerBuilder
+                  .operation(GET_REVOCATIONS_STREAM)
+                  .handler(clientFlow)
+                  .handler(ctx -> fetchRoles.fetch(ctx, Set.of(Roles.ADMIN, Roles.TRUSTEE)))
+                  .handler(this::streamRevocationsHandler)
+                  .failureHandler(
+                      ctx -> {
+                        /* The stream stays open past the server timeout once it has started */
+                        if (!ctx.response().headWritten()) {
+                          failureHandler.handle(ctx);
+                        }
+                      });
+
               // Post token revoke
               routerBuilder
                   .operation(REVOKE_TOKEN)
@@ -213,6 +296,13 @@ public class ApiServerVerticle extends AbstractVerticle {
                   .handler(this::revokeTokenHandler)
                   .failureHandler(failureHandler);
 
+              // Post bulk token revoke
+              routerBuilder
+                  .operation(REVOKE_TOKEN_BULK)
+                  .handler(ctx -> fetchRoles.fetch(ctx, Set.of(Roles.ADMIN)))
+                  .handler(this::revokeTokenBulkHandler)
+                  .failureHandler(failureHandler);
+
               // Post user profile
               routerBuilder
                   .operation(ADD_ROLES)
@@ -394,9 +484,12 @@ public class ApiServerVerticle extends AbstractVerticle {
 
               serverOptions.setCompressionSupported(true).setCompressionLevel(5);
               server = vertx.createHttpServer(serverOptions);
-              server
-                  .requestHandler(router)
-                  .listen(port)
+
+              /* Authenticated APIs cannot be served until Keycloak is discovered, so the server
+               * only starts listening (and is seen as ready) after discovery */
+              oidcFlow
+                  .ready()
+                  .compose(discovered -> server.requestHandler(router).listen(port))
                   .onSuccess(
                       success -> {
                         LOGGER.debug("Info: Started HTTP server");
@@ -414,6 +507,12 @@ public class ApiServerVerticle extends AbstractVerticle {
               adminService = AdminService.createProxy(vertx, ADMIN_SERVICE_ADDRESS);
               auditingService = AuditingService.createProxy(vertx, AUDITING_SERVICE_ADDRESS);
               apdService = ApdService.createProxy(vertx, APD_SERVICE_ADDRESS);
+              int maxSubscribers =
+                  config()
+                      .getInteger(
+                          REVOCATION_STREAM_MAX_SUBSCRIBERS,
+                          DEFAULT_REVOCATION_STREAM_MAX_SUBSCRIBERS);
+              revocationStream = new RevocationStream(vertx, tokenService, maxSubscribers);
             });
   }
 
@@ -441,6 +540,43 @@ public class ApiServerVerticle extends AbstractVerticle {
         .onFailure(failure -> processResponse(context.response(), failure.getLocalizedMessage()));
   }
 
+  /**
+   * Handler to handle batch create token request. The client authentication, roles and delegation
+   * information are resolved once for all items in the batch, and the items that were issued a
+   * token are audited as one record.
+   *
+   * @param context which is RoutingContext
+   */
+  private void createTokenBatchHandler(RoutingContext context) {
+
+    /* Mapping request body to Objects */
+    JsonArray jsonRequest = context.body().asJsonObject().getJsonArray(REQUEST);
+    List<RequestToken> request = RequestToken.jsonArrayToList(jsonRequest);
+    User user = context.get(USER);
+
+    DelegationInformation delegationInfo = context.get(DELEGATION_INFO);
+
+    tokenService
+        .createTokenBatch(request, delegationInfo, user)
+        .onSuccess(
+            result -> {
+              JsonArray results = result.getJsonArray(RESULTS, new JsonArray());
+              JsonArray issued = new JsonArray();
+              for (int i = 0; i < results.size() && i < jsonRequest.size(); i++) {
+                if (results.getJsonObject(i).getInteger(STATUS, 400) == 200) {
+                  issued.add(jsonRequest.getValue(i));
+                }
+              }
+
+              if (!issued.isEmpty()) {
+                Future.future(
+                    future -> writeAuditLog(context, new JsonObject().put(REQUEST, issued)));
+              }
+              processResponse(context.response(), result);
+            })
+        .onFailure(failure -> processResponse(context.response(), failure.getLocalizedMessage()));
+  }
+
   /**
    * Handle the Token Introspection.
    *
@@ -456,6 +592,21 @@ public class ApiServerVerticle extends AbstractVerticle {
         .onFailure(failure -> processResponse(context.response(), failure.getLocalizedMessage()));
   }
 
+  /**
+   * Handle batch Token Introspection.
+   *
+   * @param context
+   */
+  private void validateTokenBatchHandler(RoutingContext context) {
+    JsonArray jsonRequest = context.body().asJsonObject().getJsonArray(REQUEST);
+    List<IntrospectToken> request = IntrospectToken.jsonArrayToList(jsonRequest);
+
+    tokenService
+        .validateTokenBatch(request)
+        .onSuccess(result -> processResponse(context.response(), result))
+        .onFailure(failure -> processResponse(context.response(), failure.getLocalizedMessage()));
+  }
+
   /**
    * Handles the Token revocation.
    *
@@ -478,6 +629,134 @@ public class ApiServerVerticle extends AbstractVerticle {
         .onFailure(failure -> processResponse(context.response(), failure.getLocalizedMessage()));
   }
 
+  /**
+   * Handles bulk token revocation by an admin of a resource server.
+   *
+   * @param context
+   */
+  private void revokeTokenBulkHandler(RoutingContext context) {
+    /* Mapping request body to Object */
+    JsonObject tokenRequestJson = context.body().asJsonObject();
+    RevokeTokenBulk revokeTokenBulkDTO = tokenRequestJson.mapTo(RevokeTokenBulk.class);
+
+    User user = context.get(USER);
+
+    tokenService
+        .revokeTokenBulk(revokeTokenBulkDTO, user)
+        .onSuccess(
+            result -> {
+              Future.future(future -> handleAuditLogs(context, result));
+              processResponse(context.response(), result);
+            })
+        .onFailure(failure -> processResponse(context.response(), failure.getLocalizedMessage()));
+  }
+
+  /**
+   * Handles reading the revocation log of a resource server or APD. The ETag of a response is the
+   * cursor it returns, so that a server polling with an unchanged cursor gets a 304 response until
+   * there are new revocations.
+   *
+   * @param context
+   */
+  private void getRevocationsHandler(RoutingContext context) {
+    String audience = context.queryParam(QUERY_AUDIENCE).get(0).toLowerCase();
+    if (!ownsAudience(context.get(USER), audience)) {
+      processResponse(context.response(), notAudienceOwner());
+      return;
+    }
+
+    List<String> sinceList = context.queryParam(QUERY_SINCE);
+    List<String> limitList = context.queryParam(QUERY_LIMIT);
+    long since = sinceList.isEmpty() ? 0 : Long.parseLong(sinceList.get(0));
+    int limit =
+        limitList.isEmpty() ? DEFAULT_REVOCATIONS_LIMIT : Integer.parseInt(limitList.get(0));
+
+    tokenService
+        .getRevocations(audience, since, limit)
+        .onSuccess(
+            result -> {
+              HttpServerResponse response = context.response();
+              String etag = "\"" + result.getJsonObject(RESULTS).getLong(CURSOR) + "\"";
+              response
+                  .putHeader(HEADER_ETAG, etag)
+                  .putHeader(HEADER_CACHE_CONTROL, CACHE_CONTROL_NO_CACHE);
+
+              if (etag.equals(context.request().getHeader(HEADER_IF_NONE_MATCH))) {
+                response.setStatusCode(304).end();
+                return;
+              }
+              processResponse(response, result);
+            })
+        .onFailure(failure -> processResponse(context.response(), failure.getLocalizedMessage()));
+  }
+
+  /**
+   * Check if a user may read the revocations of an audience, i.e. is the admin of the resource
+   * server or the trustee of the APD.
+   *
+   * @param user the user, with the admin and trustee roles fetched
+   * @param audience the URL of the resource server or APD
+   * @return true if the user owns the audience
+   */
+  private static boolean ownsAudience(User user, String audience) {
+    return user.getResServersForRole(Roles.ADMIN).contains(audience)
+        || user.getResServersForRole(Roles.TRUSTEE).contains(audience);
+  }
+
+  private static JsonObject notAudienceOwner() {
+    return new ResponseBuilder()
+        .status(403)
+        .type(URN_INVALID_ROLE)
+        .title(ERR_TITLE_NOT_AUDIENCE_OWNER)
+        .detail(ERR_DETAIL_NOT_AUDIENCE_OWNER)
+        .build()
+        .toJson();
+  }
+
+  /**
+   * Handles subscribing a resource server or APD to the revocation stream of its audience. A server
+   * reconnecting to the stream resumes from the cursor in the <i>Last-Event-ID</i> header, which
+   * takes precedence over the <i>since</i> query parameter.
+   *
+   * @param context
+   */
+  private void streamRevocationsHandler(RoutingContext context) {
+    String audience = context.queryParam(QUERY_AUDIENCE).get(0).toLowerCase();
+    if (!ownsAudience(context.get(USER), audience)) {
+      processResponse(context.response(), notAudienceOwner());
+      return;
+    }
+
+    List<String> sinceList = context.queryParam(QUERY_SINCE);
+    String lastEventId = context.request().getHeader(HEADER_LAST_EVENT_ID);
+
+    long since;
+    try {
+      if (lastEventId != null) {
+        since = Long.parseLong(lastEventId);
+      } else {
+        since = sinceList.isEmpty() ? 0 : Long.parseLong(sinceList.get(0));
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(ERR_DETAIL_INVALID_EVENT_ID);
+    }
+
+    if (revocationStream.isFull()) {
+      Response rs =
+          new ResponseBuilder()
+              .status(503)
+              .type(URN_MISSING_INFO)
+              .title(ERR_TIMEOUT)
+              .detail(ERR_DETAIL_STREAM_FULL)
+              .build();
+      context.response().putHeader(HEADER_RETRY_AFTER, String.valueOf(STREAM_FULL_RETRY_AFTER_SEC));
+      processResponse(context.response(), rs.toJson());
+      return;
+    }
+
+    revocationStream.subscribe(context.response(), audience, since);
+  }
+
   /**
    * Handles user profile creation.
    *
@@ -493,6 +772,7 @@ public class ApiServerVerticle extends AbstractVerticle {
         .onSuccess(
             result -> {
               Future.future(future -> handleAuditLogs(context, result));
+              invalidateTokenCache(result, new JsonArray().add(user.getUserId()));
               processResponse(context.response(), result);
             })
         .onFailure(failure -> processResponse(context.response(), failure.getLocalizedMessage()));
@@ -559,6 +839,7 @@ public class ApiServerVerticle extends AbstractVerticle {
         .onSuccess(
             result -> {
               Future.future(future -> handleAuditLogs(context, result));
+              invalidateTokenCache(result, new JsonArray());
               processResponse(context.response(), result);
             })
         .onFailure(failure -> processResponse(context.response(), failure.getLocalizedMessage()));
@@ -607,6 +888,7 @@ public class ApiServerVerticle extends AbstractVerticle {
         .onSuccess(
             result -> {
               Future.future(future -> handleAuditLogs(context, result));
+              invalidateTokenCache(result, resultUserIds(result));
               processResponse(context.response(), result);
             })
         .onFailure(failure -> processResponse(context.response(), failure.getLocalizedMessage()));
@@ -643,6 +925,7 @@ public class ApiServerVerticle extends AbstractVerticle {
         .onSuccess(
             result -> {
               Future.future(future -> handleAuditLogs(context, result));
+              invalidateTokenCache(result, new JsonArray().add(user.getUserId()));
               processResponse(context.response(), result);
             })
         .onFailure(failure -> processResponse(context.response(), failure.getLocalizedMessage()));
@@ -686,6 +969,7 @@ public class ApiServerVerticle extends AbstractVerticle {
         .onSuccess(
             result -> {
               Future.future(future -> handleAuditLogs(context, result));
+              invalidateTokenCache(result, new JsonArray().add(user.getUserId()));
               processResponse(context.response(), result);
             })
         .onFailure(failure -> processResponse(context.response(), failure.getLocalizedMessage()));
@@ -807,52 +1091,43 @@ public class ApiServerVerticle extends AbstractVerticle {
    * @param context
    */
   private void pubCertHandler(RoutingContext context) {
-
-    JksOptions options = new JksOptions().setPath(jwtKeystorePath).setPassword(jwtKeystorePassword);
-    try {
-      KeyStore ks = options.loadKeyStore(vertx);
-      if (ks.containsAlias(KS_ALIAS)) {
-        Certificate cert = ks.getCertificate(KS_ALIAS);
-        String pubKeyCertEncoded = Base64.encodeBase64String(cert.getEncoded());
-
-        String certKeyString =
-            "-----BEGIN CERTIFICATE-----\n" + pubKeyCertEncoded + "\n-----END CERTIFICATE-----";
-
-        context
-            .response()
-            .putHeader(HEADER_CONTENT_TYPE, MIME_APPLICATION_JSON)
-            .end(new JsonObject().put(CERTIFICATE, certKeyString).encode());
-
-      } else {
-        processResponse(context.response(), KS_PARSE_ERROR);
-      }
-    } catch (Exception e) {
-      processResponse(context.response(), KS_PARSE_ERROR);
-    }
+    publicKeyHandler(context, publicKeyDocuments.certificate());
   }
 
   /**
-   * Loads the keystore using the provided path and password, and retrieves the public key
-   * information.
+   * Lists the public key in JWKS format. An EC key is returned for ES256 and an OKP (Ed25519) key
+   * is returned for EdDSA.
    *
    * @param context The routing context
    */
   private void retrievePublicKey(RoutingContext context) {
+    publicKeyHandler(context, publicKeyDocuments.jwks());
+  }
 
-    JksOptions options = new JksOptions().setPath(jwtKeystorePath).setPassword(jwtKeystorePassword);
-    try {
-      KeyStore ks = options.loadKeyStore(vertx);
-      {
-        ECKey ecKey = ECKey.load(ks, "ES256", jwtKeystorePassword.toCharArray());
-        JsonArray result = new JsonArray().add(ecKey.toPublicJWK().toJSONObject());
-        context
-            .response()
-            .putHeader(HEADER_CONTENT_TYPE, MIME_APPLICATION_JSON)
-            .end(new JsonObject().put("keys", result).encode());
-      }
-    } catch (Exception e) {
+  /**
+   * Serves a public key document parsed from the keystore at startup. The ETag of the document
+   * lets resource servers polling with <tt>If-None-Match</tt> get a 304 response until the
+   * keystore is reloaded with a different key.
+   *
+   * @param context The routing context
+   * @param document the document, null if the keystore could not be parsed
+   */
+  private void publicKeyHandler(RoutingContext context, Document document) {
+    if (document == null) {
       processResponse(context.response(), KS_PARSE_ERROR);
+      return;
+    }
+
+    HttpServerResponse response = context.response();
+    response
+        .putHeader(HEADER_ETAG, document.getEtag())
+        .putHeader(HEADER_CACHE_CONTROL, CACHE_CONTROL_PUBLIC_KEYS);
+
+    if (document.getEtag().equals(context.request().getHeader(HEADER_IF_NONE_MATCH))) {
+      response.setStatusCode(304).end();
+      return;
     }
+    response.putHeader(HEADER_CONTENT_TYPE, MIME_APPLICATION_JSON).end(document.getBody());
   }
 
   /**
@@ -894,17 +1169,29 @@ public class ApiServerVerticle extends AbstractVerticle {
    */
   private Future<Void> handleAuditLogs(RoutingContext context, JsonObject result) {
 
-    Promise<Void> promise = Promise.promise();
-
     int status = result.getInteger(STATUS, 400);
 
     if (!successStatus.contains(status)) {
-      return promise.future();
+      return Promise.<Void>promise().future();
     }
 
+    return writeAuditLog(context, context.body().asJsonObject());
+  }
+
+  /**
+   * Passes an audit log of the request, with the given request body, to the {@link
+   * AuditingService}. Used directly when only a part of the request succeeded, e.g. a batch.
+   *
+   * @param context which is {@link RoutingContext}
+   * @param requestBody the request body to be audited
+   * @return void which is {@link Future}
+   */
+  private Future<Void> writeAuditLog(RoutingContext context, JsonObject requestBody) {
+
+    Promise<Void> promise = Promise.promise();
+
     HttpServerRequest request = context.request();
     User user = context.get(USER);
-    JsonObject requestBody = context.body().asJsonObject();
     String userId = user.getUserId();
 
     JsonObject auditLog = new JsonObject();
@@ -929,8 +1216,58 @@ public class ApiServerVerticle extends AbstractVerticle {
     return promise.future();
   }
 
+  /**
+   * Publishes a token reuse cache invalidation message to all nodes when an API changing the roles
+   * or delegations of users succeeds. Tokens issued to these users, or issued to delegates on their
+   * behalf, are not reused after this. An empty list of user IDs invalidates all tokens.
+   *
+   * @param result the result of the API
+   * @param userIds the user IDs whose roles or delegations changed
+   */
+  private void invalidateTokenCache(JsonObject result, JsonArray userIds) {
+    int status = result.getInteger(STATUS, 400);
+
+    if (!successStatus.contains(status)) {
+      return;
+    }
+
+    JsonObject message = new JsonObject().put(INVALIDATE_USER_IDS, userIds);
+    vertx.eventBus().publish(TOKEN_CACHE_INVALIDATE_ADDRESS, message);
+  }
+
+  /**
+   * Collects the <i>userId</i> field of each object in the <i>results</i> array of an API result.
+   *
+   * @param result the result of the API
+   * @return JsonArray of user IDs
+   */
+  private JsonArray resultUserIds(JsonObject result) {
+    JsonArray userIds = new JsonArray();
+    JsonArray results = result.getJsonArray("results", new JsonArray());
+    results.stream()
+        .map(obj -> ((JsonObject) obj).getString(USER_ID))
+        .filter(Objects::nonNull)
+        .forEach(userIds::add);
+    return userIds;
+  }
+
   @Override
   public void stop() {
     LOGGER.info("Stopping the API server");
+    if (keystoreReloadConsumer != null) {
+      keystoreReloadConsumer.unregister();
+    }
+    if (revocationStream != null) {
+      revocationStream.close();
+    }
+    if (oidcFlow != null) {
+      oidcFlow.close();
+    }
+    if (clientCredentialConsumer != null) {
+      clientCredentialConsumer.unregister();
+    }
+    if (clientCredentialCache != null) {
+      clientCredentialCache.close();
+    }
   }
 }
@@ -1,13 +1,18 @@
 package iudx.aaa.server.apiserver;
 
 import io.vertx.codegen.annotations.DataObject;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Vert.x data object for the introspect token API. */
 @DataObject(generateConverter = true)
 public class IntrospectToken {
 
   private String accessToken;
+  /* If user info should be added to the response for identity tokens */
+  private boolean includeUserInfo = true;
 
   public JsonObject toJson() {
     JsonObject request = new JsonObject();
@@ -28,4 +33,21 @@ public class IntrospectToken {
   public void setAccessToken(String accessToken) {
     this.accessToken = accessToken;
   }
+
+  public boolean isIncludeUserInfo() {
+    return includeUserInfo;
+  }
+
+  public void setIncludeUserInfo(boolean includeUserInfo) {
+    this.includeUserInfo = includeUserInfo;
+  }
+
+  public static List<IntrospectToken> jsonArrayToList(JsonArray json) {
+    List<IntrospectToken> reg = new ArrayList<>();
+    json.forEach(
+        obj -> {
+          reg.add(new IntrospectToken((JsonObject) obj));
+        });
+    return reg;
+  }
 }
@@ -1,7 +1,10 @@
 package iudx.aaa.server.apiserver;
 
 import io.vertx.codegen.annotations.DataObject;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Vert.x data object for the create token API. */
 @DataObject(generateConverter = true)
@@ -60,4 +63,13 @@ public class RequestToken {
   public void setContext(JsonObject context) {
     this.context = context;
   }
+
+  public static List<RequestToken> jsonArrayToList(JsonArray json) {
+    List<RequestToken> reg = new ArrayList<>();
+    json.forEach(
+        obj -> {
+          reg.add(new RequestToken((JsonObject) obj));
+        });
+    return reg;
+  }
 }
@@ -0,0 +1,42 @@
+package iudx.aaa.server.apiserver;
+
+import io.vertx.codegen.annotations.DataObject;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Vert.x data object for the bulk revoke token API. */
+@DataObject(generateConverter = true)
+public class RevokeTokenBulk {
+
+  private String rsUrl;
+  private List<String> userIds = new ArrayList<String>();
+
+  public JsonObject toJson() {
+    JsonObject request = new JsonObject();
+    RevokeTokenBulkConverter.toJson(this, request);
+    return request;
+  }
+
+  public RevokeTokenBulk(JsonObject request) {
+    RevokeTokenBulkConverter.fromJson(request, this);
+  }
+
+  public RevokeTokenBulk() {}
+
+  public String getRsUrl() {
+    return rsUrl;
+  }
+
+  public void setRsUrl(String rsUrl) {
+    this.rsUrl = rsUrl.toLowerCase();
+  }
+
+  public List<String> getUserIds() {
+    return userIds;
+  }
+
+  public void setUserIds(List<String> userIds) {
+    this.userIds = userIds;
+  }
+}
@@ -13,33 +13,53 @@ import static iudx.aaa.server.token.Constants.LOG_DB_ERROR;
 import static iudx.aaa.server.token.Constants.LOG_UNAUTHORIZED;
 import static iudx.aaa.server.token.Constants.LOG_USER_SECRET;
 
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
-import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.pgclient.PgPool;
 import io.vertx.sqlclient.Tuple;
 import iudx.aaa.server.apiserver.Response;
 import iudx.aaa.server.apiserver.Response.ResponseBuilder;
+import iudx.aaa.server.apiserver.util.ClientCredentialCache.ClientCredential;
 import java.security.MessageDigest;
 import java.util.Objects;
+import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * Handles client ID - client secret authentication, specifically for the get token API. Validates
- * that client ID exists and the corresponding client secret matches. If validation successful, add
- * user ID obtained from client ID lookup to the routing context.
+ * Handles client ID - client secret authentication, specifically for the get token, get
+ * revocations and revocation stream APIs. Validates that client ID exists and the corresponding
+ * client secret matches. If validation successful, add user ID obtained from client ID lookup to
+ * the routing context.
+ *
+ * <p>If a {@link ClientCredentialCache} is given, client IDs are looked up in the cache before the
+ * database, so that clients repeatedly requesting tokens are authenticated without a database
+ * query.
  */
 public class ClientAuthentication implements Handler<RoutingContext> {
 
   private static final Logger LOGGER = LogManager.getLogger(ClientAuthentication.class);
   private PgPool pgPool;
+  private ClientCredentialCache credentialCache;
 
   public ClientAuthentication(PgPool pgPool) {
+    this(pgPool, null);
+  }
+
+  /**
+   * Create the handler.
+   *
+   * @param pgPool the Postgres pool
+   * @param credentialCache the client credential cache, or null if client IDs are always looked up
+   *     in the database
+   */
+  public ClientAuthentication(PgPool pgPool, ClientCredentialCache credentialCache) {
     this.pgPool = pgPool;
+    this.credentialCache = credentialCache;
   }
 
   @Override
@@ -58,84 +78,72 @@ public class ClientAuthentication implements Handler<RoutingContext> {
 
       if (clientId != null && !clientId.isBlank()) {
 
-        pgPool
-            .withConnection(
-                connection ->
-                    connection
-                        .preparedQuery(SQL_GET_DETAILS_BY_CLIENT_ID)
-                        .execute(Tuple.of(clientId))
-                        .map(
-                            rows ->
-                                rows.rowCount() > 0
-                                    ? rows.iterator().next().toJson()
-                                    : new JsonObject()))
-            .onComplete(
-                dbHandler -> {
-                  if (dbHandler.failed()) {
-
-                    LOGGER.error(LOG_DB_ERROR, dbHandler.cause());
-                    Response rs =
-                        new ResponseBuilder()
-                            .title(INTERNAL_SVR_ERR)
-                            .status(500)
-                            .detail(INTERNAL_SVR_ERR)
-                            .build();
-                    routingContext.fail(new Throwable(rs.toJsonString()));
-                    return;
-                  } else if (dbHandler.succeeded()) {
-                    if (dbHandler.result().isEmpty()) {
-                      Response rs =
-                          new ResponseBuilder()
-                              .status(401)
-                              .type(URN_INVALID_INPUT)
-                              .title(INVALID_CLIENT_ID_SEC)
-                              .detail(INVALID_CLIENT_ID_SEC)
-                              .build();
-                      routingContext.fail(new Throwable(rs.toJsonString()));
-                      return;
-                    }
-                  }
-
-                  JsonObject result = dbHandler.result();
-                  String dbClientSecret = result.getString("client_secret");
-
-                  /* Validating clientSecret hash - default value of `valid` is false */
-                  boolean valid;
-                  try {
-                    byte[] requestSecretHashed = DigestUtils.sha512(clientSecret);
-                    byte[] dbSecretHashed = Hex.decodeHex(dbClientSecret.toCharArray());
-
-                    valid = MessageDigest.isEqual(dbSecretHashed, requestSecretHashed);
-                  } catch (Exception e) {
-                    LOGGER.error(LOG_USER_SECRET, e.getLocalizedMessage());
-                    Response resp =
-                        new ResponseBuilder()
-                            .status(400)
-                            .type(URN_INVALID_INPUT)
-                            .title(INVALID_CLIENT_ID_SEC)
-                            .detail(INVALID_CLIENT_ID_SEC)
-                            .build();
-                    routingContext.fail(new Throwable(resp.toJson().toString()));
-                    return;
-                  }
-
-                  if (valid == false) {
-                    LOGGER.error(LOG_UNAUTHORIZED + INVALID_CLIENT_ID_SEC);
-                    Response resp =
-                        new ResponseBuilder()
-                            .status(401)
-                            .type(URN_INVALID_INPUT)
-                            .title(INVALID_CLIENT_ID_SEC)
-                            .detail(INVALID_CLIENT_ID_SEC)
-                            .build();
-                    routingContext.fail(new Throwable(resp.toJson().toString()));
-                    return;
-                  }
-
-                  LOGGER.info("Info: client authenticated");
-
-                  routingContext.put(OBTAINED_USER_ID, result.getString("user_id")).next();
-                });
+        ClientCredential cached = credentialCache == null ? null : credentialCache.get(clientId);
+        Future<ClientCredential> lookup =
+            cached != null ? Future.succeededFuture(cached) : fetchCredential(clientId);
+
+        lookup.onComplete(
+            dbHandler -> {
+              if (dbHandler.failed()) {
+                if (dbHandler.cause() instanceof DecoderException) {
+                  LOGGER.error(LOG_USER_SECRET, dbHandler.cause().getLocalizedMessage());
+                  Response resp =
+                      new ResponseBuilder()
+                          .status(400)
+                          .type(URN_INVALID_INPUT)
+                          .title(INVALID_CLIENT_ID_SEC)
+                          .detail(INVALID_CLIENT_ID_SEC)
+                          .build();
+                  routingContext.fail(new Throwable(resp.toJson().toString()));
+                  return;
+                }
+
+                LOGGER.error(LOG_DB_ERROR, dbHandler.cause());
+                Response rs =
+                    new ResponseBuilder()
+                        .title(INTERNAL_SVR_ERR)
+                        .status(500)
+                        .detail(INTERNAL_SVR_ERR)
+                        .build();
+                routingContext.fail(new Throwable(rs.toJsonString()));
+                return;
+              }
+
+              ClientCredential credential = dbHandler.result();
+              if (credential == null) {
+                Response rs =
+                    new ResponseBuilder()
+                        .status(401)
+                        .type(URN_INVALID_INPUT)
+                        .title(INVALID_CLIENT_ID_SEC)
+                        .detail(INVALID_CLIENT_ID_SEC)
+                        .build();
+                routingContext.fail(new Throwable(rs.toJsonString()));
+                return;
+              }
+
+              /* Validating clientSecret hash */
+              byte[] requestSecretHashed = DigestUtils.sha512(clientSecret);
+              boolean valid =
+                  MessageDigest.isEqual(credential.getSecretHash(), requestSecretHashed);
+
+              if (valid == false) {
+                LOGGER.error(LOG_UNAUTHORIZED + INVALID_CLIENT_ID_SEC);
+                Response resp =
+                    new ResponseBuilder()
+                        .status(401)
+                        .type(URN_INVALID_INPUT)
+                        .title(INVALID_CLIENT_ID_SEC)
+                        .detail(INVALID_CLIENT_ID_SEC)
+                        .build();
+                routingContext.fail(new Throwable(resp.toJson().toString()));
+                return;
+              }
+
+              LOGGER.info("Info: client authenticated");
+
+              routingContext.put(OBTAINED_USER_ID, credential.getUserId()).next();
+            });
       } else {
         LOGGER.error("Fail: {}; {}", INVALID_CLIENT_ID_SEC, "null clientId/token");
         Response rs =
@@ -159,4 +167,45 @@ public class ClientAuthentication implements Handler<RoutingContext> {
       routingContext.fail(new Throwable(rs.toJsonString()));
     }
   }
+
+  /**
+   * Looks up the user ID and client secret hash of a client in the database, and stores them in
+   * the cache if there is one.
+   *
+   * @param clientId the client ID
+   * @return a Future of the credential, null if the client ID does not exist. Fails with a {@link
+   *     DecoderException} if the stored client secret hash is malformed
+   */
+  private Future<ClientCredential> fetchCredential(String clientId) {
+    long generation = credentialCache == null ? 0 : credentialCache.generation();
+
+    return pgPool
+        .withConnection(
+            connection ->
+                connection
+                    .preparedQuery(SQL_GET_DETAILS_BY_CLIENT_ID)
+                    .execute(Tuple.of(clientId))
+                    .map(rows -> rows.rowCount() > 0 ? rows.iterator().next().toJson() : null))
+        .compose(
+            result -> {
+              if (result == null) {
+                return Future.succeededFuture(null);
+              }
+
+              ClientCredential credential;
+              try {
+                credential =
+                    new ClientCredential(
+                        result.getString("user_id"),
+                        Hex.decodeHex(result.getString("client_secret").toCharArray()));
+              } catch (DecoderException e) {
+                return Future.failedFuture(e);
+              }
+
+              if (credentialCache != null) {
+                credentialCache.put(clientId, credential, generation);
+              }
+              return Future.succeededFuture(credential);
+            });
+  }
 }
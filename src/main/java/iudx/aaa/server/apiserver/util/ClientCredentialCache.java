@@ -0,0 +1,137 @@
+package iudx.aaa.server.apiserver.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import iudx.aaa.server.apiserver.util.MetricsRegistry.InstanceMeters;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of client credentials looked up by {@link ClientAuthentication}, mapping a client ID to
+ * the user ID and the SHA-512 hash of the client secret. Machine clients request tokens constantly
+ * using the same credentials; a cached client is authenticated without a database query.
+ *
+ * <p>The entry of a client must be invalidated when its secret is reset. Since the lookup of a
+ * client may be in progress while its secret is reset, each lookup takes the current
+ * {@link #generation()} before querying the database, and its result is only stored if no entry
+ * has been invalidated since. An entry is also kept for at most the configured TTL.
+ *
+ * <p>Only client IDs in the canonical (lower case) UUID format are cached, so that every client ID
+ * has a single entry that can be invalidated.
+ *
+ * <p>Hit, miss, eviction and size metrics are registered with the cache name
+ * <em>aaa.client.credentials</em>, tagged with the <em>instance</em> of the cache.
+ */
+public class ClientCredentialCache {
+
+  private final Cache<String, ClientCredential> cache;
+  private final InstanceMeters meters;
+  private long generation = 0;
+
+  /**
+   * Create a client credential cache.
+   *
+   * @param maxSize the maximum number of clients held by the cache
+   * @param maxTtlSec the maximum time (in seconds) that a client is held by the cache
+   */
+  public ClientCredentialCache(long maxSize, long maxTtlSec) {
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(maxTtlSec, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+    this.meters = MetricsRegistry.instanceMeters("aaa.client.credentials");
+    meters.monitor(cache, "aaa.client.credentials");
+  }
+
+  /** Remove the metrics of the cache, once the API server is stopped. */
+  public void close() {
+    meters.close();
+  }
+
+  /**
+   * Get the key of a client ID in the cache.
+   *
+   * @param clientId the client ID
+   * @return the key, or null if the client ID is not a canonical UUID and must not be cached
+   */
+  private static String key(String clientId) {
+    String key = clientId.toLowerCase(Locale.ROOT);
+    try {
+      return UUID.fromString(key).toString().equals(key) ? key : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Get the current generation, to be passed to {@link #put(String, ClientCredential, long)} once
+   * the client has been looked up.
+   *
+   * @return the generation
+   */
+  public synchronized long generation() {
+    return generation;
+  }
+
+  /**
+   * Get the credential of a client.
+   *
+   * @param clientId the client ID
+   * @return the credential, or null if the client is not cached
+   */
+  public ClientCredential get(String clientId) {
+    String key = key(clientId);
+    return key == null ? null : cache.getIfPresent(key);
+  }
+
+  /**
+   * Store the credential of a client, unless an entry has been invalidated since the generation
+   * was taken.
+   *
+   * @param clientId the client ID
+   * @param credential the credential read from the database
+   * @param generation the generation taken before reading the credential
+   */
+  public synchronized void put(String clientId, ClientCredential credential, long generation) {
+    String key = key(clientId);
+    if (key != null && generation == this.generation) {
+      cache.put(key, credential);
+    }
+  }
+
+  /**
+   * Invalidate the credential of a client, e.g. when its secret has been reset.
+   *
+   * @param clientId the client ID
+   */
+  public synchronized void invalidate(String clientId) {
+    generation++;
+    String key = key(clientId);
+    if (key != null) {
+      cache.invalidate(key);
+    }
+  }
+
+  /** The user ID and client secret hash of a client. */
+  public static class ClientCredential {
+    private final String userId;
+    private final byte[] secretHash;
+
+    public ClientCredential(String userId, byte[] secretHash) {
+      this.userId = userId;
+      this.secretHash = secretHash;
+    }
+
+    public String getUserId() {
+      return userId;
+    }
+
+    public byte[] getSecretHash() {
+      return secretHash;
+    }
+  }
+}
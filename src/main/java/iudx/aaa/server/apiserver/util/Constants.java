@@ -20,6 +20,13 @@ public class Constants {
   public static final String HEADER_REFERER = "Referer";
   public static final String HEADER_ALLOW_ORIGIN = "Access-Control-Allow-Origin";
   public static final String HEADER_OPTIONS = "options";
+  public static final String HEADER_ETAG = "ETag";
+  public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+  public static final String HEADER_CACHE_CONTROL = "Cache-Control";
+  public static final String CACHE_CONTROL_NO_CACHE = "no-cache";
+  public static final String CACHE_CONTROL_PUBLIC_KEYS = "public, max-age=300";
+  public static final String HEADER_LAST_EVENT_ID = "Last-Event-ID";
+  public static final String HEADER_RETRY_AFTER = "Retry-After";
   public static final String BEARER = "Bearer";
   public static final String X_CONTENT_TYPE_OPTIONS_NOSNIFF = "nosniff";
 
@@ -40,6 +47,7 @@ public class Constants {
   public static final String POOLSIZE = "poolSize";
   public static final String KEYSTORE_PATH = "keystorePath";
   public static final String KEYSTPRE_PASSWORD = "keystorePassword";
+  public static final String JWT_SIGNING_ALGORITHM = "jwtSigningAlgorithm";
   public static final String COS_DOMAIN = "cosDomain";
   public static final String KEYCLOACK_OPTIONS = "keycloakOptions";
   public static final int PG_CONNECTION_TIMEOUT = 10000;
@@ -47,6 +55,17 @@ public class Constants {
   public static final long DB_RECONNECT_INTERVAL_MS = 10000;
   public static final String SERVER_TIMEOUT_MS = "serverTimeoutMs";
   public static final String CORS_REGEX = "corsRegexString";
+  public static final String CLIENT_CREDENTIAL_CACHE_ENABLED = "clientCredentialCacheEnabled";
+  public static final String CLIENT_CREDENTIAL_CACHE_MAX_SIZE = "clientCredentialCacheMaxSize";
+  public static final String CLIENT_CREDENTIAL_CACHE_TTL_SEC = "clientCredentialCacheTtlSec";
+  public static final long DEFAULT_CLIENT_CREDENTIAL_CACHE_MAX_SIZE = 10000;
+  public static final long DEFAULT_CLIENT_CREDENTIAL_CACHE_TTL_SEC = 300;
+  /* published by the registration service when a client secret is reset */
+  public static final String CLIENT_CREDENTIAL_INVALIDATE_ADDRESS =
+      "iudx.aaa.client.credential.invalidate";
+  public static final String INVALIDATE_CLIENT_ID = "clientId";
+  public static final String REVOCATION_STREAM_MAX_SUBSCRIBERS = "revocationStreamMaxSubscribers";
+  public static final int DEFAULT_REVOCATION_STREAM_MAX_SUBSCRIBERS = 1000;
 
   // API Documentation endpoint
   public static final String ROUTE_STATIC_SPEC = "/apis/spec";
@@ -55,13 +74,17 @@ public class Constants {
   // Accept Headers and CORS
   public static final String MIME_APPLICATION_JSON = "application/json";
   public static final String MIME_TEXT_HTML = "text/html";
+  public static final String MIME_TEXT_EVENT_STREAM = "text/event-stream";
 
   public static final String NIL_UUID = "00000000-0000-0000-0000-000000000000";
 
   /* API Server Operations/Routes */
   public static final String CREATE_TOKEN = "post-auth-v1-token";
+  public static final String CREATE_TOKEN_BATCH = "post-auth-v1-token-batch";
   public static final String TIP_TOKEN = "post-auth-v1-introspect";
+  public static final String TIP_TOKEN_BATCH = "post-auth-v1-introspect-batch";
   public static final String REVOKE_TOKEN = "post-auth-v1-revoke";
+  public static final String REVOKE_TOKEN_BULK = "post-auth-v1-revoke-bulk";
   public static final String ADD_ROLES = "post-auth-v1-user-roles";
   public static final String GET_USER_ROLES = "get-auth-v1-user-roles";
   public static final String RESET_CLIENT_CRED = "put-auth-v1-user-clientcredentials";
@@ -80,7 +103,12 @@ public class Constants {
   public static final String GET_JWKS = "get-auth-v1-jwks";
   public static final String GET_DEFAULT_CLIENT_CREDS = "get-auth-v1-user-clientcredentials";
   public static final String SEARCH_USER = "get-auth-v1-user-search";
+  public static final String GET_REVOCATIONS = "get-auth-v1-token-revocations";
+  public static final String GET_REVOCATIONS_STREAM = "get-auth-v1-token-revocations-stream";
   public static final String TOKEN_ROUTE = "/auth/v1/token";
+  public static final String TOKEN_BATCH_ROUTE = "/auth/v1/token/batch";
+  public static final String REVOCATIONS_ROUTE = "/auth/v1/token/revocations";
+  public static final String REVOCATIONS_STREAM_ROUTE = "/auth/v1/token/revocations/stream";
 
   /* Query Params */
   public static final String QUERY_FILTER = "filter";
@@ -88,6 +116,10 @@ public class Constants {
   public static final String QUERY_USERID = "userId";
   public static final String QUERY_ROLE = "role";
   public static final String QUERY_RESOURCE_SERVER = "resourceServer";
+  public static final String QUERY_AUDIENCE = "audience";
+  public static final String QUERY_SINCE = "since";
+  public static final String QUERY_LIMIT = "limit";
+  public static final int DEFAULT_REVOCATIONS_LIMIT = 1000;
 
   public static final String TOKEN_FAILED = "Token authentication failed";
   public static final String MISSING_TOKEN = "Missing accessToken";
@@ -97,6 +129,10 @@ public class Constants {
   public static final String ERR_TITLE_BAD_REQUEST =
       "Malformed request/missing or malformed request parameters";
   public static final String ERR_DETAIL_BAD_FILTER = "Invalid 'filter' value";
+  public static final String ERR_DETAIL_INVALID_EVENT_ID = "Invalid 'Last-Event-ID' header";
+  public static final String ERR_TITLE_NOT_AUDIENCE_OWNER = "Not an owner of the audience";
+  public static final String ERR_DETAIL_NOT_AUDIENCE_OWNER =
+      "Revocations can only be read by the admin of the resource server or the trustee of the APD";
   public static final String ERR_DETAIL_SEARCH_BOTH_PARAMS =
       "Cannot have both `email` and `userId` query params in search";
   public static final String ERR_DETAIL_SEARCH_MISSING_PARAMS =
@@ -104,7 +140,12 @@ public class Constants {
   public static final String INVALID_CLIENT = "Invalid clientId";
   public static final String LOG_FAILED_DISCOVERY =
       "Fail: Unable to discover keycloak instance; {}";
+  public static final String LOG_RETRY_DISCOVERY =
+      "Info: Retrying keycloak discovery in {} ms (attempt {})";
   public static final String ERR_TIMEOUT = "Service unavailable";
+  public static final String ERR_DETAIL_STREAM_FULL =
+      "Too many revocation stream subscribers, retry later";
+  public static final int STREAM_FULL_RETRY_AFTER_SEC = 30;
   public static final String ERR_TITLE_NO_SUCH_API = "No such API/method";
   public static final String ERR_DETAIL_NO_SUCH_API =
       "Refer to the " + ROUTE_DOC + " endpoint for documentation";
@@ -152,12 +193,30 @@ public class Constants {
   public static final String KEYCLOAK_URL = "keycloakUrl";
   public static final String KEYCLOAK_REALM = "keycloakRealm";
   public static final String KEYCLOAK_JWT_LEEWAY = "keycloakJwtLeeway";
+  public static final String KEYCLOAK_CLAIMS_FROM_TOKEN = "keycloakClaimsFromToken";
+  public static final String KC_ACCESS_TOKEN_ATTRIBUTE = "accessToken";
+  public static final String KC_EXP = "exp";
+  public static final String KEYCLOAK_USERINFO_CACHE_ENABLED = "keycloakUserInfoCacheEnabled";
+  public static final String KEYCLOAK_USERINFO_CACHE_MAX_SIZE = "keycloakUserInfoCacheMaxSize";
+  public static final String KEYCLOAK_USERINFO_CACHE_TTL_SEC = "keycloakUserInfoCacheTtlSec";
+  public static final long DEFAULT_KEYCLOAK_USERINFO_CACHE_MAX_SIZE = 10000;
+  public static final long DEFAULT_KEYCLOAK_USERINFO_CACHE_TTL_SEC = 300;
+  public static final String KEYCLOAK_DISCOVERY_RETRY_MS = "keycloakDiscoveryRetryMs";
+  public static final String KEYCLOAK_DISCOVERY_MAX_RETRY_MS = "keycloakDiscoveryMaxRetryMs";
+  public static final String KEYCLOAK_JWKS_REFRESH_SEC = "keycloakJwksRefreshSec";
+  public static final String KEYCLOAK_JWKS_MIN_REFRESH_SEC = "keycloakJwksMinRefreshSec";
+  public static final long DEFAULT_KEYCLOAK_DISCOVERY_RETRY_MS = 1000;
+  public static final long DEFAULT_KEYCLOAK_DISCOVERY_MAX_RETRY_MS = 60000;
+  public static final long DEFAULT_KEYCLOAK_JWKS_REFRESH_SEC = 300;
+  public static final long DEFAULT_KEYCLOAK_JWKS_MIN_REFRESH_SEC = 30;
   public static final String STATUS = "status";
   public static final String SSL = "ssl";
   public static final String KS_ALIAS = "ES256";
   public static final String PUB_KEY = "publicKey";
   public static final String CERTIFICATE = "cert";
   public static final String REQUEST = "request";
+  public static final String RESULTS = "results";
+  public static final String CURSOR = "cursor";
   public static final String DELEGATION_INFO = "delegation_info_object";
   public static final String CONTEXT_SEARCH_USER = "searchUserData";
   public static final String BODY = "body";
@@ -0,0 +1,62 @@
+package iudx.aaa.server.apiserver.util;
+
+/**
+ * Decides when the Keycloak JWKS may be refreshed. Only one refresh runs at a time, and a refresh
+ * triggered by a token with an unknown <i>kid</i> is skipped if the JWKS was refreshed less than a
+ * minimum interval ago. Periodic refreshes are not rate limited.
+ *
+ * <p>Not thread safe; the {@link OIDCAuthentication} handler uses it on a single context.
+ */
+class JwksRefreshThrottle {
+
+  private final long minIntervalMs;
+  private long lastRefresh;
+  private boolean refreshing = false;
+
+  /**
+   * Create the throttle.
+   *
+   * @param minIntervalMs the minimum time between refreshes triggered by unknown key IDs
+   * @param lastRefresh the time (in epoch milliseconds) the JWKS was last fetched
+   */
+  JwksRefreshThrottle(long minIntervalMs, long lastRefresh) {
+    this.minIntervalMs = minIntervalMs;
+    this.lastRefresh = lastRefresh;
+  }
+
+  /**
+   * Start a periodic refresh, unless a refresh is in progress.
+   *
+   * @param now the current time in epoch milliseconds
+   * @return true if the refresh should be done, in which case {@link #done()} must be called once
+   *     it completes
+   */
+  boolean tryStart(long now) {
+    if (refreshing) {
+      return false;
+    }
+    refreshing = true;
+    lastRefresh = now;
+    return true;
+  }
+
+  /**
+   * Start a refresh for an unknown key ID, unless a refresh is in progress or the JWKS was
+   * refreshed recently.
+   *
+   * @param now the current time in epoch milliseconds
+   * @return true if the refresh should be done, in which case {@link #done()} must be called once
+   *     it completes
+   */
+  boolean tryStartForKid(long now) {
+    if (now - lastRefresh < minIntervalMs) {
+      return false;
+    }
+    return tryStart(now);
+  }
+
+  /** Mark the refresh in progress as complete. */
+  void done() {
+    refreshing = false;
+  }
+}
@@ -0,0 +1,154 @@
+package iudx.aaa.server.apiserver.util;
+
+import com.google.common.cache.Cache;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import io.micrometer.core.instrument.search.Search;
+import io.vertx.micrometer.backends.BackendRegistries;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the Micrometer registry that service level meters (caches, executors etc.) should be
+ * registered on. When Vert.x metrics are enabled (clustered deployment), the default Vert.x backend
+ * registry is used so that the meters are exported along with the Vert.x metrics. Otherwise (dev
+ * deployment, unit tests) the Micrometer global registry is used, which is a no-op unless a
+ * registry has been added to it.
+ *
+ * <p>Micrometer keeps only the first gauge (or cache binder) registered with a given name and
+ * tags, so components that are created once per verticle instance register such meters through
+ * {@link #instanceMeters(String)}.
+ */
+public class MetricsRegistry {
+
+  public static final String INSTANCE_TAG = "instance";
+
+  private static final Map<String, BitSet> INSTANCES = new HashMap<String, BitSet>();
+
+  private MetricsRegistry() {}
+
+  /**
+   * Get the registry to register meters on.
+   *
+   * @return the {@link MeterRegistry}
+   */
+  public static MeterRegistry get() {
+    MeterRegistry registry = BackendRegistries.getDefaultNow();
+    if (registry == null) {
+      return Metrics.globalRegistry;
+    }
+    return registry;
+  }
+
+  /**
+   * Claim an instance of a meter. Instances are tagged with the lowest number (from 0) not held by
+   * a live instance, so the number of tag values is bounded by the number of instances alive at
+   * once, e.g. the gauges of the first verticle instance are tagged with <em>instance=0</em>, and
+   * the instance deployed after it was undeployed gets the same tag.
+   *
+   * @param name the name of the meter, along with the values of any other tags if instances are to
+   *     be numbered separately per tag value
+   * @return the {@link InstanceMeters}, which must be closed when the component is stopped
+   */
+  public static InstanceMeters instanceMeters(String name) {
+    return new InstanceMeters(name, claim(name));
+  }
+
+  private static synchronized int claim(String name) {
+    BitSet claimed = INSTANCES.computeIfAbsent(name, k -> new BitSet());
+    int instance = claimed.nextClearBit(0);
+    claimed.set(instance);
+    return instance;
+  }
+
+  private static synchronized void unclaim(String name, int instance) {
+    INSTANCES.get(name).clear(instance);
+  }
+
+  /**
+   * The meters of one instance of a component. Closing it removes the meters from the registry, so
+   * that the registry does not keep a stopped component reachable, and frees the instance number.
+   */
+  public static final class InstanceMeters {
+    private final String name;
+    private final int instance;
+    private final Tags tags;
+    private final MeterRegistry registry = get();
+    private final List<Meter> meters = new ArrayList<Meter>();
+    private boolean closed = false;
+
+    private InstanceMeters(String name, int instance) {
+      this.name = name;
+      this.instance = instance;
+      this.tags = Tags.of(INSTANCE_TAG, String.valueOf(instance));
+    }
+
+    /**
+     * Get the tags identifying the instance.
+     *
+     * @return the {@link Tags} containing the instance tag
+     */
+    public Tags tags() {
+      return tags;
+    }
+
+    /**
+     * Register a meter builder with the instance tags, so that it is removed on close.
+     *
+     * @param builder registers the meter on the given registry with the given tags
+     * @return the meter
+     */
+    public synchronized <M extends Meter> M register(MeterBuilder<M> builder) {
+      M meter = builder.register(registry, tags);
+      meters.add(meter);
+      return meter;
+    }
+
+    /**
+     * Register the hit, miss, eviction and size meters of a cache with the instance tags, so that
+     * they are removed on close.
+     *
+     * @param cache the cache, which must record stats
+     * @param cacheName the name of the cache, used as the value of the <em>cache</em> tag
+     */
+    public synchronized void monitor(Cache<?, ?> cache, String cacheName) {
+      GuavaCacheMetrics.monitor(registry, cache, cacheName, tags);
+      meters.addAll(Search.in(registry).tags(tags).tag("cache", cacheName).meters());
+    }
+
+    /** Remove the meters from the registry and free the instance number. */
+    public synchronized void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      meters.forEach(registry::remove);
+      meters.clear();
+      unclaim(name, instance);
+    }
+  }
+
+  /**
+   * Registers a meter.
+   *
+   * @param <M> the type of meter
+   */
+  @FunctionalInterface
+  public interface MeterBuilder<M extends Meter> {
+
+    /**
+     * Register the meter.
+     *
+     * @param registry the registry
+     * @param tags the tags identifying the instance
+     * @return the meter
+     */
+    M register(MeterRegistry registry, Tags tags);
+  }
+}
@@ -3,7 +3,10 @@ package iudx.aaa.server.apiserver.util;
 import static iudx.aaa.server.apiserver.util.Constants.*;
 import static iudx.aaa.server.apiserver.util.Urn.*;
 
+import io.micrometer.core.instrument.Counter;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerRequest;
@@ -26,20 +29,102 @@ import org.apache.logging.log4j.Logger;
  * validation successful, adds the <i>sub</i> field from the Keycloak token - the Keycloak user ID -
  * and the first and last names of the user to the routing context. The Keycloak user ID is the user
  * ID used in all tables and throughout the DX system.
+ *
+ * <p>By default, the user's claims are fetched from the Keycloak userinfo endpoint on every
+ * request. If <em>keycloakClaimsFromToken</em> is set, they are read from the verified access token
+ * instead, saving a round trip to Keycloak. The userinfo endpoint is then only called if the access
+ * token does not contain the claims. If <em>keycloakUserInfoCacheEnabled</em> is set, userinfo
+ * responses are cached per access token in an {@link OidcUserInfoCache}.
+ *
+ * <p>Keycloak is discovered when the handler is created. If discovery fails, it is retried with
+ * exponential backoff; {@link #ready()} completes once discovery succeeds, and the API server only
+ * starts listening after that. The Keycloak JWKS is refreshed in the background every
+ * <em>keycloakJwksRefreshSec</em>. A token signed by a key that is not in the JWKS triggers a
+ * background refresh, at most once every <em>keycloakJwksMinRefreshSec</em>, so that a burst of
+ * tokens with an unknown <i>kid</i> does not flood Keycloak with JWKS requests. Discovery, the
+ * refreshes and their state are all handled on the context the handler was created on.
+ *
+ * <p>JWKS refreshes are counted by the <em>aaa.oidc.jwks.refresh</em> meter, tagged with the
+ * <em>trigger</em> (<tt>periodic</tt> or <tt>unknown_kid</tt>) and the <em>result</em>
+ * (<tt>success</tt>, <tt>failure</tt> or <tt>throttled</tt>).
  */
 public class OIDCAuthentication implements AuthenticationHandler {
 
   private static final Logger LOGGER = LogManager.getLogger(OIDCAuthentication.class);
+  private static final String JWKS_TRIGGER_PERIODIC = "periodic";
+  private static final String JWKS_TRIGGER_UNKNOWN_KID = "unknown_kid";
+  private static final String JWKS_RESULT_SUCCESS = "success";
+  private static final String JWKS_RESULT_FAILURE = "failure";
+  private static final String JWKS_RESULT_THROTTLED = "throttled";
   private Vertx vertx;
+  private Context context;
   private JsonObject keycloakOptions;
-  private OAuth2Auth keycloak;
+  private volatile OAuth2Auth keycloak;
+  private boolean claimsFromToken;
+  private OidcUserInfoCache userInfoCache;
+  private final Promise<Void> discovered = Promise.promise();
+  private long discoveryRetryMs;
+  private long discoveryMaxRetryMs;
+  private long jwksRefreshMs;
+  private long jwksMinRefreshMs;
+  private long jwksRefreshTimerId = -1;
+  private long discoveryTimerId = -1;
+  private JwksRefreshThrottle jwksThrottle;
+  private boolean closed = false;
 
   public OIDCAuthentication(Vertx vertx, JsonObject keycloakOptions) {
     this.vertx = vertx;
+    this.context = vertx.getOrCreateContext();
     this.keycloakOptions = keycloakOptions;
+    this.claimsFromToken = keycloakOptions.getBoolean(KEYCLOAK_CLAIMS_FROM_TOKEN, false);
+    if (keycloakOptions.getBoolean(KEYCLOAK_USERINFO_CACHE_ENABLED, false)) {
+      this.userInfoCache =
+          new OidcUserInfoCache(
+              keycloakOptions.getLong(
+                  KEYCLOAK_USERINFO_CACHE_MAX_SIZE, DEFAULT_KEYCLOAK_USERINFO_CACHE_MAX_SIZE),
+              keycloakOptions.getLong(
+                  KEYCLOAK_USERINFO_CACHE_TTL_SEC, DEFAULT_KEYCLOAK_USERINFO_CACHE_TTL_SEC),
+              keycloakOptions.getInteger(KEYCLOAK_JWT_LEEWAY));
+    }
+    this.discoveryRetryMs =
+        keycloakOptions.getLong(KEYCLOAK_DISCOVERY_RETRY_MS, DEFAULT_KEYCLOAK_DISCOVERY_RETRY_MS);
+    this.discoveryMaxRetryMs =
+        keycloakOptions.getLong(
+            KEYCLOAK_DISCOVERY_MAX_RETRY_MS, DEFAULT_KEYCLOAK_DISCOVERY_MAX_RETRY_MS);
+    this.jwksRefreshMs =
+        keycloakOptions.getLong(KEYCLOAK_JWKS_REFRESH_SEC, DEFAULT_KEYCLOAK_JWKS_REFRESH_SEC)
+            * 1000;
+    this.jwksMinRefreshMs =
+        keycloakOptions.getLong(
+                KEYCLOAK_JWKS_MIN_REFRESH_SEC, DEFAULT_KEYCLOAK_JWKS_MIN_REFRESH_SEC)
+            * 1000;
     keyCloackAuth();
   }
 
+  /**
+   * Get a Future that completes once Keycloak has been discovered. The API server starts accepting
+   * requests only after this, since no authenticated API can be served before.
+   *
+   * @return a Future that succeeds once Keycloak is discovered
+   */
+  public Future<Void> ready() {
+    return discovered.future();
+  }
+
+  /** Stop retrying discovery and refreshing the JWKS. */
+  public void close() {
+    closed = true;
+    if (discoveryTimerId != -1) {
+      vertx.cancelTimer(discoveryTimerId);
+    }
+    if (jwksRefreshTimerId != -1) {
+      vertx.cancelTimer(jwksRefreshTimerId);
+    }
+    if (userInfoCache != null) {
+      userInfoCache.close();
+    }
+  }
+
   @Override
   public void handle(RoutingContext routingContext) {
 
@@ -77,15 +162,11 @@ public class OIDCAuthentication implements AuthenticationHandler {
                         .build();
                 routingContext.fail(new Throwable(rs.toJsonString()));
               })
-          .compose(
-              mapper -> {
-                User cred = User.create(new JsonObject().put("access_token", token));
-                return keycloak.userInfo(cred);
-                /*
-                 * Add extra onFailure as userinfo may not respect leeway. Token may pass authentication,
-                 * but may fail userinfo auth
-                 */
-              })
+          .compose(user -> userClaims(user, token))
+          /*
+           * Add extra onFailure as userinfo may not respect leeway. Token may pass authentication,
+           * but may fail userinfo auth
+           */
           .onFailure(
               authHandler -> {
                 Response rs =
@@ -105,7 +186,7 @@ public class OIDCAuthentication implements AuthenticationHandler {
               })
           .compose(
               mapper -> {
-                LOGGER.debug("Info: JWT authenticated; UserInfo fetched");
+                LOGGER.debug("Info: JWT authenticated; user claims obtained");
                 String kId = mapper.getString(SUB);
                 routingContext.put(OBTAINED_USER_ID, kId);
 
@@ -143,7 +224,10 @@ public class OIDCAuthentication implements AuthenticationHandler {
 
       /* Handles ClientId Flow */
     } else {
-      if (TOKEN_ROUTE.equals(tokenPath)) {
+      if (TOKEN_ROUTE.equals(tokenPath)
+          || TOKEN_BATCH_ROUTE.equals(tokenPath)
+          || REVOCATIONS_ROUTE.equals(tokenPath)
+          || REVOCATIONS_STREAM_ROUTE.equals(tokenPath)) {
         routingContext.next();
         return;
       }
@@ -160,6 +244,46 @@ public class OIDCAuthentication implements AuthenticationHandler {
     }
   }
 
+  /**
+   * Gets the claims of the authenticated user - <i>sub</i>, <i>given_name</i> and
+   * <i>family_name</i>. If configured, they are read from the access token that was verified during
+   * authentication, else, or if the token does not contain all of them, the Keycloak userinfo
+   * endpoint is called, unless the userinfo of the token is cached.
+   *
+   * @param user the user returned by Keycloak authentication
+   * @param token the access token
+   * @return a Future of JsonObject containing the user claims
+   */
+  private Future<JsonObject> userClaims(User user, String token) {
+    JsonObject accessToken = user.attributes().getJsonObject(KC_ACCESS_TOKEN_ATTRIBUTE);
+    if (claimsFromToken) {
+      if (accessToken != null
+          && accessToken.getValue(SUB) instanceof String
+          && accessToken.containsKey(KC_GIVEN_NAME)
+          && accessToken.containsKey(KC_FAMILY_NAME)) {
+        return Future.succeededFuture(accessToken);
+      }
+      LOGGER.debug("Info: Access token does not contain user claims; fetching UserInfo");
+    }
+
+    /* only tokens with a known expiry can be cached */
+    Long exp = accessToken == null ? null : accessToken.getLong(KC_EXP);
+    if (userInfoCache == null || exp == null) {
+      return fetchUserInfo(token);
+    }
+
+    JsonObject cached = userInfoCache.get(token);
+    if (cached != null) {
+      return Future.succeededFuture(cached);
+    }
+    return fetchUserInfo(token).onSuccess(userInfo -> userInfoCache.put(token, exp, userInfo));
+  }
+
+  private Future<JsonObject> fetchUserInfo(String token) {
+    User cred = User.create(new JsonObject().put("access_token", token));
+    return keycloak.userInfo(cred);
+  }
+
   /**
    * Creates KeyCloack provider using configurations. keycloakOptions is a JSON object containing
    * the required keys. (It is actually the full config verticle config object)
@@ -181,16 +305,112 @@ public class OIDCAuthentication implements AuthenticationHandler {
 
     options.getHttpClientOptions().setSsl(true).setVerifyHost(false).setTrustAll(true);
 
-    /* Discovers the keycloack instance */
+    discover(options, 1);
+  }
+
+  /**
+   * Discovers the Keycloak instance, retrying with exponential backoff on failure. On success, the
+   * JWKS refreshes are set up and {@link #ready()} is completed.
+   *
+   * @param options the OAuth2 options
+   * @param attempt the number of this attempt, starting from 1
+   */
+  private void discover(OAuth2Options options, int attempt) {
     KeycloakAuth.discover(
         vertx,
         options,
         discover -> {
+          if (closed) {
+            return;
+          }
+
           if (discover.succeeded()) {
-            keycloak = discover.result();
-          } else {
-            LOGGER.error(LOG_FAILED_DISCOVERY, discover.cause());
+            OAuth2Auth provider = discover.result();
+            provider.missingKeyHandler(this::refreshJwksForKid);
+            keycloak = provider;
+            jwksThrottle = new JwksRefreshThrottle(jwksMinRefreshMs, System.currentTimeMillis());
+            jwksRefreshTimerId = vertx.setPeriodic(jwksRefreshMs, id -> refreshJwksPeriodically());
+            LOGGER.info("Info: Keycloak discovered after {} attempt(s)", attempt);
+            discovered.tryComplete();
+            return;
           }
+
+          LOGGER.error(LOG_FAILED_DISCOVERY, discover.cause().getMessage());
+          long delay = retryDelay(discoveryRetryMs, discoveryMaxRetryMs, attempt);
+          LOGGER.info(LOG_RETRY_DISCOVERY, delay, attempt + 1);
+          discoveryTimerId = vertx.setTimer(delay, id -> discover(options, attempt + 1));
         });
   }
+
+  /**
+   * Get the delay before retrying discovery, doubling from the first delay with every failed
+   * attempt up to the maximum delay.
+   *
+   * @param retryMs the delay after the first failed attempt
+   * @param maxRetryMs the maximum delay
+   * @param attempt the number of the failed attempt, starting from 1
+   * @return the delay in milliseconds
+   */
+  static long retryDelay(long retryMs, long maxRetryMs, int attempt) {
+    int shift = Math.min(attempt - 1, 62);
+    if (retryMs > (maxRetryMs >> shift)) {
+      return maxRetryMs;
+    }
+    return Math.min(retryMs << shift, maxRetryMs);
+  }
+
+  /**
+   * Refreshes the JWKS when a token signed by an unknown key is seen, unless the JWKS has been
+   * refreshed recently. Called by the Keycloak provider on any thread, so the refresh is done on
+   * the context of the handler; the token itself fails authentication, and tokens signed by the
+   * key pass once the refresh completes.
+   *
+   * @param kid the unknown key ID
+   */
+  private void refreshJwksForKid(String kid) {
+    context.runOnContext(
+        v -> {
+          if (closed) {
+            return;
+          }
+          if (!jwksThrottle.tryStartForKid(System.currentTimeMillis())) {
+            refreshCounter(JWKS_TRIGGER_UNKNOWN_KID, JWKS_RESULT_THROTTLED).increment();
+            return;
+          }
+          LOGGER.info("Info: Refreshing Keycloak JWKS for unknown kid {}", kid);
+          refreshJwks(JWKS_TRIGGER_UNKNOWN_KID);
+        });
+  }
+
+  private void refreshJwksPeriodically() {
+    if (!closed && jwksThrottle.tryStart(System.currentTimeMillis())) {
+      refreshJwks(JWKS_TRIGGER_PERIODIC);
+    }
+  }
+
+  /**
+   * Refreshes the Keycloak JWKS. The refresh must have been started with the {@link
+   * JwksRefreshThrottle}.
+   *
+   * @param trigger the reason for the refresh, used to tag metrics
+   */
+  private void refreshJwks(String trigger) {
+    keycloak
+        .jWKSet()
+        .onComplete(res -> jwksThrottle.done())
+        .onSuccess(res -> refreshCounter(trigger, JWKS_RESULT_SUCCESS).increment())
+        .onFailure(
+            err -> {
+              refreshCounter(trigger, JWKS_RESULT_FAILURE).increment();
+              LOGGER.error("Fail: Unable to refresh Keycloak JWKS; {}", err.getMessage());
+            });
+  }
+
+  private static Counter refreshCounter(String trigger, String result) {
+    return Counter.builder("aaa.oidc.jwks.refresh")
+        .description("Number of Keycloak JWKS refreshes")
+        .tag("trigger", trigger)
+        .tag("result", result)
+        .register(MetricsRegistry.get());
+  }
 }
@@ -0,0 +1,102 @@
+package iudx.aaa.server.apiserver.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import io.vertx.core.json.JsonObject;
+import iudx.aaa.server.apiserver.util.MetricsRegistry.InstanceMeters;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of the Keycloak userinfo responses fetched by {@link OIDCAuthentication}. A browser
+ * session makes many API calls using the same Keycloak access token; a cached token does not need
+ * userinfo to be called again.
+ *
+ * <p>Tokens are keyed by their SHA-256 hash, so the cache does not hold the tokens themselves. An
+ * entry is kept for at most the configured TTL, and is never returned after the token can no longer
+ * be authenticated, i.e. after its expiry (the <em>exp</em> claim) plus the Keycloak JWT leeway.
+ *
+ * <p>Hit, miss, eviction and size metrics are registered with the cache name
+ * <em>aaa.oidc.userinfo</em>, tagged with the <em>instance</em> of the cache.
+ */
+public class OidcUserInfoCache {
+
+  private final Cache<String, Entry> cache;
+  private final InstanceMeters meters;
+  private final long leewaySec;
+
+  /**
+   * Create a userinfo cache.
+   *
+   * @param maxSize the maximum number of tokens held by the cache
+   * @param maxTtlSec the maximum time (in seconds) that the userinfo of a token is held by the cache
+   * @param leewaySec the Keycloak JWT leeway (in seconds)
+   */
+  public OidcUserInfoCache(long maxSize, long maxTtlSec, long leewaySec) {
+    this.leewaySec = leewaySec;
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(maxTtlSec, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+    this.meters = MetricsRegistry.instanceMeters("aaa.oidc.userinfo");
+    meters.monitor(cache, "aaa.oidc.userinfo");
+  }
+
+  /** Remove the metrics of the cache when the authentication handler is closed. */
+  public void close() {
+    meters.close();
+  }
+
+  private static String key(String token) {
+    return Hashing.sha256().hashString(token, StandardCharsets.UTF_8).toString();
+  }
+
+  /**
+   * Get the userinfo of a token.
+   *
+   * @param token the Keycloak access token
+   * @return a copy of the userinfo, or null if the token is not cached or has expired
+   */
+  public JsonObject get(String token) {
+    String key = key(token);
+    Entry entry = cache.getIfPresent(key);
+    if (entry == null) {
+      return null;
+    }
+
+    if (entry.expiresAt <= System.currentTimeMillis() / 1000) {
+      cache.invalidate(key);
+      return null;
+    }
+    return entry.userInfo.copy();
+  }
+
+  /**
+   * Store the userinfo of a token. Tokens that have already expired are not stored.
+   *
+   * @param token the Keycloak access token
+   * @param exp the expiry of the token, in epoch seconds
+   * @param userInfo the userinfo response
+   */
+  public void put(String token, long exp, JsonObject userInfo) {
+    long expiresAt = exp + leewaySec;
+    if (expiresAt <= System.currentTimeMillis() / 1000) {
+      return;
+    }
+    cache.put(key(token), new Entry(userInfo.copy(), expiresAt));
+  }
+
+  private static class Entry {
+    private final JsonObject userInfo;
+    private final long expiresAt;
+
+    Entry(JsonObject userInfo, long expiresAt) {
+      this.userInfo = userInfo;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package iudx.aaa.server.apiserver.util;
+
+import static iudx.aaa.server.apiserver.util.Constants.CERTIFICATE;
+
+import com.google.common.hash.Hashing;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.util.Base64URL;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.JksOptions;
+import iudx.aaa.server.token.JwtKeySet;
+import iudx.aaa.server.token.JwtSigningAlgorithm;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The documents served by the public key APIs - the signing certificate and the JWKS - built from
+ * the JWT signing keystore. Resource servers poll these APIs constantly, so the keystore is parsed
+ * once, and each document is encoded once along with its ETag. The JWKS contains all keys of the
+ * {@link JwtKeySet}, each with its <i>kid</i>, while the certificate is that of the current signing
+ * key.
+ *
+ * <p>The keystore is only read again when {@link #reload()} is called. A reload builds all
+ * documents from the new keystore before swapping them in together, so the certificate and the
+ * JWKS never come from different keystores. If the keystore cannot be read, the existing documents
+ * are kept.
+ */
+public class PublicKeyDocuments {
+
+  private static final Logger LOGGER = LogManager.getLogger(PublicKeyDocuments.class);
+
+  private final Vertx vertx;
+  private final String keystorePath;
+  private final String keystorePassword;
+  private final JwtSigningAlgorithm algorithm;
+  private final AtomicReference<Snapshot> current = new AtomicReference<Snapshot>();
+
+  /**
+   * Create the documents, reading the keystore. Blocks while the keystore is read, so should only
+   * be called at startup. If the keystore cannot be read, the public key APIs fail until a
+   * successful reload.
+   *
+   * @param vertx the Vert.x instance
+   * @param keystorePath the path of the JWT signing keystore
+   * @param keystorePassword the password of the keystore
+   * @param algorithm the JWT signing algorithm, whose name is the alias prefix of the keys in the
+   *     keystore
+   */
+  public PublicKeyDocuments(
+      Vertx vertx, String keystorePath, String keystorePassword, JwtSigningAlgorithm algorithm) {
+    this.vertx = vertx;
+    this.keystorePath = keystorePath;
+    this.keystorePassword = keystorePassword;
+    this.algorithm = algorithm;
+
+    try {
+      current.set(load());
+    } catch (Exception e) {
+      LOGGER.error("Fail: Unable to parse KeyStore; {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Get the certificate document.
+   *
+   * @return the document, or null if the keystore could not be read
+   */
+  public Document certificate() {
+    Snapshot snapshot = current.get();
+    return snapshot == null ? null : snapshot.certificate;
+  }
+
+  /**
+   * Get the JWKS document.
+   *
+   * @return the document, or null if the keystore could not be read
+   */
+  public Document jwks() {
+    Snapshot snapshot = current.get();
+    return snapshot == null ? null : snapshot.jwks;
+  }
+
+  /**
+   * Read the keystore again and swap in the documents built from it.
+   *
+   * @return a Future that succeeds once the new documents are in use, or fails if the keystore
+   *     could not be read, in which case the existing documents are kept
+   */
+  public Future<Void> reload() {
+    return vertx
+        .executeBlocking(this::load, false)
+        .onSuccess(
+            snapshot -> {
+              current.set(snapshot);
+              LOGGER.info("Info: Public key documents reloaded from KeyStore");
+            })
+        .onFailure(
+            fail -> LOGGER.error("Fail: Unable to reload KeyStore; {}", fail.getMessage()))
+        .mapEmpty();
+  }
+
+  private Snapshot load() throws Exception {
+    KeyStore ks =
+        new JksOptions().setPath(keystorePath).setPassword(keystorePassword).loadKeyStore(vertx);
+    JwtKeySet keySet = JwtKeySet.load(ks, keystorePassword, algorithm);
+
+    JsonArray keys = new JsonArray();
+    for (JwtKeySet.JwtKey key : keySet.getKeys()) {
+      if (algorithm == JwtSigningAlgorithm.EDDSA) {
+        keys.add(edDsaPublicJwk(key.getKid(), key.getCertificate()));
+      } else {
+        keys.add(
+            ECKey.load(ks, key.getKid(), keystorePassword.toCharArray())
+                .toPublicJWK()
+                .toJSONObject());
+      }
+    }
+
+    Certificate cert = keySet.getSigningKey().getCertificate();
+    String certKeyString =
+        "-----BEGIN CERTIFICATE-----\n"
+            + Base64.encodeBase64String(cert.getEncoded())
+            + "\n-----END CERTIFICATE-----";
+
+    return new Snapshot(
+        new Document(new JsonObject().put(CERTIFICATE, certKeyString).toBuffer()),
+        new Document(new JsonObject().put("keys", keys).toBuffer()));
+  }
+
+  /**
+   * Creates the public OKP JWK of an Ed25519 certificate. The raw 32 byte public key is the end of
+   * the X.509 SubjectPublicKeyInfo encoding of the key.
+   *
+   * @param kid the key ID
+   * @param cert the Ed25519 certificate
+   * @return the JWK as a map
+   */
+  private static Map<String, Object> edDsaPublicJwk(String kid, Certificate cert) {
+    byte[] encoded = cert.getPublicKey().getEncoded();
+    byte[] raw = Arrays.copyOfRange(encoded, encoded.length - 32, encoded.length);
+    OctetKeyPair okp =
+        new OctetKeyPair.Builder(Curve.Ed25519, Base64URL.encode(raw))
+            .keyUse(KeyUse.SIGNATURE)
+            .algorithm(JWSAlgorithm.EdDSA)
+            .keyID(kid)
+            .build();
+    return okp.toJSONObject();
+  }
+
+  /** The documents built from one read of the keystore. */
+  private static class Snapshot {
+    private final Document certificate;
+    private final Document jwks;
+
+    Snapshot(Document certificate, Document jwks) {
+      this.certificate = certificate;
+      this.jwks = jwks;
+    }
+  }
+
+  /**
+   * An encoded JSON document and its ETag. The body is shared by all requests and must not be
+   * modified.
+   */
+  public static class Document {
+    private final Buffer body;
+    private final String etag;
+
+    Document(Buffer body) {
+      this.body = body;
+      this.etag = "\"" + Hashing.sha256().hashBytes(body.getBytes()).toString() + "\"";
+    }
+
+    public Buffer getBody() {
+      return body;
+    }
+
+    public String getEtag() {
+      return etag;
+    }
+  }
+}
@@ -0,0 +1,342 @@
+package iudx.aaa.server.apiserver.util;
+
+import static iudx.aaa.server.apiserver.util.Constants.CACHE_CONTROL_NO_CACHE;
+import static iudx.aaa.server.apiserver.util.Constants.HEADER_CACHE_CONTROL;
+import static iudx.aaa.server.apiserver.util.Constants.HEADER_CONTENT_TYPE;
+import static iudx.aaa.server.apiserver.util.Constants.MIME_TEXT_EVENT_STREAM;
+import static iudx.aaa.server.apiserver.util.Constants.RESULTS;
+import static iudx.aaa.server.token.Constants.AUDIENCE;
+import static iudx.aaa.server.token.Constants.CURSOR;
+import static iudx.aaa.server.token.Constants.PUBLISHED_AT;
+import static iudx.aaa.server.token.Constants.REVOCATIONS;
+import static iudx.aaa.server.token.Constants.REVOCATION_EVENTS_ADDRESS;
+import static iudx.aaa.server.token.Constants.REVOKED_AT;
+import static iudx.aaa.server.token.Constants.SUB;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import iudx.aaa.server.apiserver.util.MetricsRegistry.InstanceMeters;
+import iudx.aaa.server.token.TokenService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Pushes token revocations to resource servers and APDs subscribed to the revocation stream of
+ * their audience, as Server-Sent Events.
+ *
+ * <p>A subscriber first catches up on the revocation log from its cursor. After that, revocations
+ * published on the event bus at {@link iudx.aaa.server.token.Constants#REVOCATION_EVENTS_ADDRESS}
+ * are pushed to it as they happen. Pushed events have no event ID, since they do not carry the
+ * sequence number of the entry, and the head of the log cached by the token service may not
+ * include the entry for up to a second. A short while after a push, the log is read again from the
+ * cursor: entries not pushed yet are sent along with the new cursor as the event ID, which a
+ * reconnecting subscriber sends back in the <em>Last-Event-ID</em> header to resume.
+ *
+ * <p>A subscriber that does not read fast enough is not sent pushed events while its write queue is
+ * full. It receives the revocations it missed from the log once the queue drains, so a slow
+ * subscriber does not hold more than a page of the log in memory. The number of open
+ * subscriptions is capped, so that idle connections cannot exhaust the server.
+ *
+ * <p>Meters:
+ *
+ * <ul>
+ *   <li><em>aaa.token.revocations.stream.subscribers</em> : the number of open subscriptions,
+ *       tagged with the <em>instance</em> of the stream
+ *   <li><em>aaa.token.revocations.stream.events</em> : pushed events, tagged with the <em>result
+ *       </em> : <tt>pushed</tt>, or <tt>deferred</tt> if the subscriber's write queue was full
+ *   <li><em>aaa.token.revocations.stream.latency</em> : time from a revocation being published to
+ *       it being written to a subscriber
+ * </ul>
+ */
+public class RevocationStream {
+
+  private static final Logger LOGGER = LogManager.getLogger(RevocationStream.class);
+
+  private static final int PAGE_SIZE = 1000;
+  /* Time after a push at which the log is read again, once the cached log head has expired */
+  private static final long CHECKPOINT_DELAY_MS = 3000;
+  private static final long KEEP_ALIVE_INTERVAL_MS = 30 * 1000;
+  private static final String KEEP_ALIVE = ":\n\n";
+  private static final String RETRY = "retry: 3000\n\n";
+
+  private final Vertx vertx;
+  private final TokenService tokenService;
+  private final Map<String, Set<Subscriber>> subscribers = new HashMap<String, Set<Subscriber>>();
+  private final MessageConsumer<JsonObject> consumer;
+  private final long keepAliveTimerId;
+  private final int maxSubscribers;
+
+  private final Counter pushed;
+  private final Counter deferred;
+  private final Timer latency;
+  private final InstanceMeters meters;
+
+  /**
+   * Create the stream. Must be called from the context of the owning verticle, since events and
+   * timers are handled on it.
+   *
+   * @param vertx the Vert.x instance
+   * @param tokenService the token service, used to read the revocation log
+   * @param maxSubscribers the maximum number of open subscriptions
+   */
+  public RevocationStream(Vertx vertx, TokenService tokenService, int maxSubscribers) {
+    if (maxSubscribers < 1) {
+      throw new IllegalArgumentException("Revocation stream maximum subscribers must be positive");
+    }
+    this.vertx = vertx;
+    this.tokenService = tokenService;
+    this.maxSubscribers = maxSubscribers;
+
+    MeterRegistry registry = MetricsRegistry.get();
+    String gaugeName = "aaa.token.revocations.stream.subscribers";
+    this.meters = MetricsRegistry.instanceMeters(gaugeName);
+    meters.register(
+        (instanceRegistry, tags) ->
+            Gauge.builder(gaugeName, this, RevocationStream::size)
+                .description("Number of open revocation stream subscriptions")
+                .tags(tags)
+                .register(instanceRegistry));
+    this.pushed = eventCounter(registry, "pushed");
+    this.deferred = eventCounter(registry, "deferred");
+    this.latency =
+        Timer.builder("aaa.token.revocations.stream.latency")
+            .description("Time from a revocation being published to it being pushed to a server")
+            .register(registry);
+
+    this.consumer = vertx.eventBus().consumer(REVOCATION_EVENTS_ADDRESS, this::push);
+    this.keepAliveTimerId = vertx.setPeriodic(KEEP_ALIVE_INTERVAL_MS, id -> keepAlive());
+  }
+
+  private static Counter eventCounter(MeterRegistry registry, String result) {
+    return Counter.builder("aaa.token.revocations.stream.events")
+        .description("Number of revocation events to be pushed to subscribers")
+        .tag("result", result)
+        .register(registry);
+  }
+
+  private int size() {
+    return subscribers.values().stream().mapToInt(Set::size).sum();
+  }
+
+  /**
+   * Check if the stream has as many subscriptions as allowed. A server should not be subscribed
+   * while the stream is full.
+   *
+   * @return true if no more subscriptions are allowed
+   */
+  public boolean isFull() {
+    return size() >= maxSubscribers;
+  }
+
+  /**
+   * Subscribe a server to the revocations of its audience. The response is kept open until the
+   * server closes the connection.
+   *
+   * @param response the HTTP response to write the events to
+   * @param audience the URL of the server
+   * @param since the cursor to catch up on the revocation log from
+   */
+  public void subscribe(HttpServerResponse response, String audience, long since) {
+    response
+        .setChunked(true)
+        .putHeader(HEADER_CONTENT_TYPE, MIME_TEXT_EVENT_STREAM)
+        .putHeader(HEADER_CACHE_CONTROL, CACHE_CONTROL_NO_CACHE)
+        /* compressing the response would hold back events until the compressor flushes */
+        .putHeader(HttpHeaders.CONTENT_ENCODING, HttpHeaders.IDENTITY)
+        .write(RETRY);
+
+    Subscriber subscriber = new Subscriber(response, audience, since);
+    subscribers.computeIfAbsent(audience, k -> new HashSet<Subscriber>()).add(subscriber);
+    response.closeHandler(v -> unsubscribe(subscriber));
+    response.exceptionHandler(err -> unsubscribe(subscriber));
+
+    LOGGER.debug("Info: Revocation stream opened for {} from {}", audience, since);
+    catchUp(subscriber);
+  }
+
+  private void unsubscribe(Subscriber subscriber) {
+    if (subscriber.closed) {
+      return;
+    }
+    subscriber.closed = true;
+    vertx.cancelTimer(subscriber.checkpointTimerId);
+
+    Set<Subscriber> audienceSubscribers = subscribers.get(subscriber.audience);
+    if (audienceSubscribers != null) {
+      audienceSubscribers.remove(subscriber);
+      if (audienceSubscribers.isEmpty()) {
+        subscribers.remove(subscriber.audience);
+      }
+    }
+    LOGGER.debug("Info: Revocation stream closed for {}", subscriber.audience);
+  }
+
+  /** Read the revocation log from the cursor of the subscriber, unless a read is in progress. */
+  private void catchUp(Subscriber subscriber) {
+    if (subscriber.reading) {
+      subscriber.readAgain = true;
+      return;
+    }
+    subscriber.reading = true;
+    readPage(subscriber);
+  }
+
+  private void readPage(Subscriber subscriber) {
+    tokenService
+        .getRevocations(subscriber.audience, subscriber.cursor, PAGE_SIZE)
+        .onComplete(
+            res -> {
+              if (subscriber.closed) {
+                return;
+              }
+              if (res.failed()) {
+                /* the server reconnects and resumes from the last cursor it received */
+                LOGGER.error("Fail: Revocation stream read failed; {}", res.cause().getMessage());
+                subscriber.response.reset();
+                unsubscribe(subscriber);
+                return;
+              }
+
+              JsonObject page = res.result().getJsonObject(RESULTS);
+              JsonArray entries = page.getJsonArray(REVOCATIONS);
+              long cursor = page.getLong(CURSOR);
+
+              /* entries already pushed are not sent again */
+              JsonArray unsent = new JsonArray();
+              entries.stream()
+                  .map(obj -> (JsonObject) obj)
+                  .filter(entry -> subscriber.pushed.remove(key(entry)) == null)
+                  .forEach(unsent::add);
+
+              if (cursor != subscriber.cursor) {
+                subscriber.cursor = cursor;
+                JsonObject data = new JsonObject().put(CURSOR, cursor).put(REVOCATIONS, unsent);
+                subscriber.response.write("id: " + cursor + "\ndata: " + data.encode() + "\n\n");
+              }
+
+              if (entries.size() == PAGE_SIZE || subscriber.readAgain) {
+                subscriber.readAgain = false;
+                if (subscriber.response.writeQueueFull()) {
+                  subscriber.response.drainHandler(v -> readPage(subscriber));
+                } else {
+                  readPage(subscriber);
+                }
+                return;
+              }
+
+              subscriber.reading = false;
+              subscriber.forgetStalePushes();
+            });
+  }
+
+  private void push(Message<JsonObject> message) {
+    JsonObject event = message.body();
+    Set<Subscriber> audienceSubscribers = subscribers.get(event.getString(AUDIENCE));
+    if (audienceSubscribers == null) {
+      return;
+    }
+
+    JsonArray revocations = event.getJsonArray(REVOCATIONS);
+    String data = new JsonObject().put(REVOCATIONS, revocations).encode();
+
+    for (Subscriber subscriber : audienceSubscribers) {
+      /* the revocations are sent from the log after the checkpoint delay instead */
+      if (subscriber.response.writeQueueFull()) {
+        deferred.increment();
+      } else {
+        subscriber.response.write("data: " + data + "\n\n");
+        revocations.stream()
+            .map(obj -> (JsonObject) obj)
+            .forEach(entry -> subscriber.pushed.put(key(entry), entry.getLong(REVOKED_AT)));
+        pushed.increment();
+        latency.record(
+            System.currentTimeMillis() - event.getLong(PUBLISHED_AT), TimeUnit.MILLISECONDS);
+      }
+      scheduleCheckpoint(subscriber);
+    }
+  }
+
+  private void scheduleCheckpoint(Subscriber subscriber) {
+    if (subscriber.checkpointPending) {
+      return;
+    }
+    subscriber.checkpointPending = true;
+    subscriber.checkpointTimerId =
+        vertx.setTimer(
+            CHECKPOINT_DELAY_MS,
+            id -> {
+              subscriber.checkpointPending = false;
+              catchUp(subscriber);
+            });
+  }
+
+  private void keepAlive() {
+    subscribers.values().stream()
+        .flatMap(Set::stream)
+        .filter(subscriber -> !subscriber.response.writeQueueFull())
+        .forEach(subscriber -> subscriber.response.write(KEEP_ALIVE));
+  }
+
+  private static String key(JsonObject entry) {
+    return entry.getString(SUB) + ":" + entry.getLong(REVOKED_AT);
+  }
+
+  /** Stop pushing revocations and close all subscriptions. */
+  public void close() {
+    consumer.unregister();
+    vertx.cancelTimer(keepAliveTimerId);
+    meters.close();
+    subscribers.values().stream()
+        .flatMap(Set::stream)
+        .collect(Collectors.toList())
+        .forEach(
+            subscriber -> {
+              unsubscribe(subscriber);
+              subscriber.response.end();
+            });
+  }
+
+  private static class Subscriber {
+    private final HttpServerResponse response;
+    private final String audience;
+    private long cursor;
+    /* revocations pushed but not yet read from the log, with their time of revocation */
+    private final Map<String, Long> pushed = new HashMap<String, Long>();
+    private boolean reading = false;
+    private boolean readAgain = false;
+    private boolean checkpointPending = false;
+    private long checkpointTimerId = -1;
+    private boolean closed = false;
+
+    Subscriber(HttpServerResponse response, String audience, long cursor) {
+      this.response = response;
+      this.audience = audience;
+      this.cursor = cursor;
+    }
+
+    /*
+     * A pushed revocation may never be read from the log, if the user is revoked again before the
+     * log is read. Such pushes are forgotten once they are older than the checkpoint delay.
+     */
+    void forgetStalePushes() {
+      long staleBefore =
+          TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - CHECKPOINT_DELAY_MS);
+      pushed.values().removeIf(revokedAt -> revokedAt < staleBefore);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package iudx.aaa.server.apiserver.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import iudx.aaa.server.apiserver.util.MetricsRegistry.InstanceMeters;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Coalesces concurrent identical asynchronous calls. While a call for a key is in flight, further
+ * calls for the same key do not start new work and instead share the result of the in-flight call.
+ * Once the call completes, the next call for the key starts new work, so results are never reused
+ * after completion.
+ *
+ * <p>Each caller gets its own copy of the result (made using the copy function), so that callers
+ * may modify the result without affecting each other.
+ *
+ * <p>The following meters are registered, tagged with the <em>name</em> of the group:
+ *
+ * <ul>
+ *   <li><em>aaa.singleflight.calls</em> : tagged with <em>result</em> <tt>executed</tt> if the call
+ *       started new work, or <tt>coalesced</tt> if it shared an in-flight call
+ *   <li><em>aaa.singleflight.inflight</em> : number of keys with a call in flight, also tagged
+ *       with the <em>instance</em> of the group, since a group is created per verticle instance
+ * </ul>
+ *
+ * @param <K> the type of the key identifying identical calls
+ * @param <V> the type of the result
+ */
+public class SingleFlight<K, V> {
+
+  private final Map<K, Future<V>> inFlight = new ConcurrentHashMap<K, Future<V>>();
+  private final UnaryOperator<V> copy;
+  private final Counter executed;
+  private final Counter coalesced;
+  private final InstanceMeters meters;
+
+  /**
+   * Create a single flight group.
+   *
+   * @param name the name used to tag metrics
+   * @param copy creates a copy of a result for each caller. May be {@link UnaryOperator#identity()}
+   *     if the result is immutable
+   */
+  public SingleFlight(String name, UnaryOperator<V> copy) {
+    this.copy = copy;
+
+    MeterRegistry registry = MetricsRegistry.get();
+    this.executed = callCounter(registry, name, "executed");
+    this.coalesced = callCounter(registry, name, "coalesced");
+    this.meters = MetricsRegistry.instanceMeters("aaa.singleflight.inflight." + name);
+    meters.register(
+        (instanceRegistry, tags) ->
+            Gauge.builder("aaa.singleflight.inflight", inFlight, Map::size)
+                .description("Number of keys with a call in flight")
+                .tag("name", name)
+                .tags(tags)
+                .register(instanceRegistry));
+  }
+
+  /** Remove the in-flight gauge of the group, once its owner is stopped. */
+  public void close() {
+    meters.close();
+  }
+
+  private static Counter callCounter(MeterRegistry registry, String name, String result) {
+    return Counter.builder("aaa.singleflight.calls")
+        .description("Number of calls, executed or coalesced with an in-flight call")
+        .tag("name", name)
+        .tag("result", result)
+        .register(registry);
+  }
+
+  /**
+   * Run the call for the key, or share the result of a call for the key that is in flight.
+   *
+   * @param key the key identifying identical calls
+   * @param call starts the call. Only invoked if no call for the key is in flight
+   * @return a Future of the result
+   */
+  public Future<V> execute(K key, Supplier<Future<V>> call) {
+    Promise<V> promise = Promise.promise();
+    Future<V> existing = inFlight.putIfAbsent(key, promise.future());
+
+    if (existing != null) {
+      coalesced.increment();
+      return existing.map(copy);
+    }
+
+    executed.increment();
+    Future<V> result;
+    try {
+      result = call.get();
+    } catch (RuntimeException e) {
+      result = Future.failedFuture(e);
+    }
+
+    result.onComplete(
+        res -> {
+          inFlight.remove(key, promise.future());
+          promise.handle(res);
+        });
+    return promise.future().map(copy);
+  }
+}
@@ -76,6 +76,7 @@ import iudx.aaa.server.apiserver.Roles;
 import iudx.aaa.server.apiserver.User;
 import iudx.aaa.server.apiserver.User.UserBuilder;
 import iudx.aaa.server.apiserver.util.ComposeException;
+import iudx.aaa.server.apiserver.util.SingleFlight;
 import iudx.aaa.server.apiserver.util.Urn;
 import iudx.aaa.server.registration.RegistrationService;
 import java.util.ArrayList;
@@ -85,6 +86,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.tuple.Pair;
@@ -110,6 +112,12 @@ public class PolicyServiceImpl implements PolicyService {
   private final ApdService apdService;
   private final CatalogueClient catalogueClient;
 
+  /* Coalesce concurrent identical catalogue lookups and APD calls, e.g. bursts of token requests */
+  private final SingleFlight<UUID, ResourceObj> resourceDetailsFlight =
+      new SingleFlight<UUID, ResourceObj>("policy.catalogue.resource", UnaryOperator.identity());
+  private final SingleFlight<String, JsonObject> callApdFlight =
+      new SingleFlight<String, JsonObject>("policy.apd.call", JsonObject::copy);
+
   // Create the pooled client
   /* for converting getUserDetails's JsonObject to map */
   Function<JsonObject, Map<String, JsonObject>> jsonObjectToMap =
@@ -130,6 +138,12 @@ public class PolicyServiceImpl implements PolicyService {
     this.catalogueClient = catalogueClient;
   }
 
+  /** Remove the metrics of the service, once the policy verticle is stopped. */
+  public void close() {
+    resourceDetailsFlight.close();
+    callApdFlight.close();
+  }
+
   /**
    * Check if user with consumer role has access to requested resource by calling the concerned APD.
    *
@@ -165,7 +179,7 @@ public class PolicyServiceImpl implements PolicyService {
         .put(CALL_APD_OWNERID, resource.getOwnerId().toString())
         .put(CALL_APD_CONTEXT, request.getContext());
 
-    return apdService.callApd(apdContext);
+    return callApdFlight.execute(apdContext.encode(), () -> apdService.callApd(apdContext));
   }
 
   /**
@@ -327,7 +341,8 @@ public class PolicyServiceImpl implements PolicyService {
     }
 
     UUID itemId = UUID.fromString(itemIdStr);
-    Future<ResourceObj> resourceDetails = catalogueClient.getResourceDetails(itemId);
+    Future<ResourceObj> resourceDetails =
+        resourceDetailsFlight.execute(itemId, () -> catalogueClient.getResourceDetails(itemId));
 
     Future<JsonObject> verifyAccessByRole =
         resourceDetails.compose(
@@ -45,7 +45,7 @@ public class PolicyVerticle extends AbstractVerticle {
   private PoolOptions poolOptions;
   private PgConnectOptions connectOptions;
   private JsonObject catalogueOptions;
-  private PolicyService policyService;
+  private PolicyServiceImpl policyService;
   private RegistrationService registrationService;
   private ApdService apdService;
   private CatalogueClient catalogueClient;
@@ -116,5 +116,6 @@ public class PolicyVerticle extends AbstractVerticle {
   @Override
   public void stop() {
     binder.unregister(consumer);
+    policyService.close();
   }
 }
@@ -1,5 +1,7 @@
 package iudx.aaa.server.registration;
 
+import static iudx.aaa.server.token.Constants.SELECT_REVOKED_AT;
+
 /** Constants for Registration service for SQL queries, URNs, responses and other values. */
 public class Constants {
 
@@ -144,8 +146,20 @@ public class Constants {
           + DEFAULT_CLIENT
           + "'";
 
-  public static final String SQL_GET_RS_AND_APDS_FOR_REVOKE =
-      "SELECT url FROM resource_server WHERE url != ALL($1::text[]) UNION SELECT url FROM apds WHERE url != ALL($1::text[])";
+  public static final String SQL_INSERT_TOKEN_REVOKE_OUTBOX =
+      "INSERT INTO token_revoke_outbox (user_id, server_url, status, attempts, next_attempt_at,"
+          + " created_at, updated_at) SELECT $1::uuid, url, 'PENDING', 0, NOW(), NOW(), NOW()"
+          + " FROM (SELECT url FROM resource_server WHERE url != ALL($2::text[])"
+          + " UNION SELECT url FROM apds WHERE url != ALL($2::text[])) AS servers";
+
+  public static final String SQL_APPEND_REVOCATION_LOG =
+      "INSERT INTO token_revocation_log (user_id, audience, revoked_at)"
+          + " SELECT $1::uuid, url, NOW() FROM (SELECT url FROM resource_server"
+          + " WHERE url != ALL($2::text[]) UNION SELECT url FROM apds WHERE url != ALL($2::text[]))"
+          + " AS servers ON CONFLICT (user_id, audience) DO UPDATE"
+          + " SET revoked_at = NOW(), seq = nextval('token_revocation_log_seq')"
+          + " RETURNING audience, "
+          + SELECT_REVOKED_AT;
 
   public static final String SQL_UPDATE_CLIENT_SECRET =
       "UPDATE user_clients SET client_secret = $1::text, updated_at = NOW() "
@@ -1,5 +1,7 @@
 package iudx.aaa.server.registration;
 
+import static iudx.aaa.server.apiserver.util.Constants.CLIENT_CREDENTIAL_INVALIDATE_ADDRESS;
+import static iudx.aaa.server.apiserver.util.Constants.INVALIDATE_CLIENT_ID;
 import static iudx.aaa.server.apiserver.util.Urn.*;
 import static iudx.aaa.server.registration.Constants.CLIENT_SECRET_BYTES;
 import static iudx.aaa.server.registration.Constants.CONFIG_COS_URL;
@@ -37,6 +39,7 @@ import static iudx.aaa.server.registration.Constants.RESP_CLIENT_NAME;
 import static iudx.aaa.server.registration.Constants.RESP_CLIENT_SC;
 import static iudx.aaa.server.registration.Constants.RESP_EMAIL;
 import static iudx.aaa.server.registration.Constants.RESP_PHONE;
+import static iudx.aaa.server.registration.Constants.SQL_APPEND_REVOCATION_LOG;
 import static iudx.aaa.server.registration.Constants.SQL_CHECK_CLIENT_ID_EXISTS;
 import static iudx.aaa.server.registration.Constants.SQL_CHECK_DEFAULT_CLIENT_EXISTS;
 import static iudx.aaa.server.registration.Constants.SQL_CHECK_PENDING_REJECTED_PROVIDER_ROLES;
@@ -47,8 +50,8 @@ import static iudx.aaa.server.registration.Constants.SQL_CREATE_USER_IF_NOT_EXIS
 import static iudx.aaa.server.registration.Constants.SQL_GET_ALL_RS;
 import static iudx.aaa.server.registration.Constants.SQL_GET_CLIENTS_FORMATTED;
 import static iudx.aaa.server.registration.Constants.SQL_GET_PHONE;
-import static iudx.aaa.server.registration.Constants.SQL_GET_RS_AND_APDS_FOR_REVOKE;
 import static iudx.aaa.server.registration.Constants.SQL_GET_RS_IDS_BY_URL;
+import static iudx.aaa.server.registration.Constants.SQL_INSERT_TOKEN_REVOKE_OUTBOX;
 import static iudx.aaa.server.registration.Constants.SQL_UPDATE_CLIENT_SECRET;
 import static iudx.aaa.server.registration.Constants.SUCC_TITLE_ADDED_ROLES;
 import static iudx.aaa.server.registration.Constants.SUCC_TITLE_CREATED_DEFAULT_CLIENT;
@@ -57,10 +60,18 @@ import static iudx.aaa.server.registration.Constants.SUCC_TITLE_RS_READ;
 import static iudx.aaa.server.registration.Constants.SUCC_TITLE_USER_FOUND;
 import static iudx.aaa.server.registration.Constants.SUCC_TITLE_USER_READ;
 import static iudx.aaa.server.registration.Constants.UUID_REGEX;
+import static iudx.aaa.server.token.Constants.AUDIENCE;
+import static iudx.aaa.server.token.Constants.LOCK_REVOCATION_LOG;
+import static iudx.aaa.server.token.Constants.PUBLISHED_AT;
+import static iudx.aaa.server.token.Constants.REVOCATIONS;
+import static iudx.aaa.server.token.Constants.REVOCATION_EVENTS_ADDRESS;
+import static iudx.aaa.server.token.Constants.REVOKED_AT;
+import static iudx.aaa.server.token.Constants.SUB;
 
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.pgclient.PgPool;
@@ -71,14 +82,12 @@ import iudx.aaa.server.apiserver.AddRolesRequest;
 import iudx.aaa.server.apiserver.ResetClientSecretRequest;
 import iudx.aaa.server.apiserver.Response;
 import iudx.aaa.server.apiserver.Response.ResponseBuilder;
-import iudx.aaa.server.apiserver.RevokeToken;
 import iudx.aaa.server.apiserver.RoleStatus;
 import iudx.aaa.server.apiserver.Roles;
 import iudx.aaa.server.apiserver.User;
 import iudx.aaa.server.apiserver.User.UserBuilder;
 import iudx.aaa.server.apiserver.util.ComposeException;
 import iudx.aaa.server.apiserver.util.Urn;
-import iudx.aaa.server.token.TokenService;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -109,22 +118,21 @@ public class RegistrationServiceImpl implements RegistrationService {
 
   private PgPool pool;
   private KcAdmin kc;
-  private TokenService tokenService;
-  private static String COS_URL = "";
-  private static List<String> SERVERS_OMITTED_FROM_TOKEN_REVOKE = new ArrayList<String>();
+  private Vertx vertx;
+  /* Servers that tokens are not revoked on when a client secret is reset, including the COS */
+  private final String[] serversOmittedFromRevoke;
 
   private SecureRandom randomSource;
 
-  public RegistrationServiceImpl(
-      PgPool pool, KcAdmin kc, TokenService tokenService, JsonObject options) {
+  public RegistrationServiceImpl(PgPool pool, KcAdmin kc, JsonObject options, Vertx vertx) {
     this.pool = pool;
     this.kc = kc;
-    this.tokenService = tokenService;
-    COS_URL = options.getString(CONFIG_COS_URL);
-    SERVERS_OMITTED_FROM_TOKEN_REVOKE =
-        options.getJsonArray(CONFIG_OMITTED_SERVERS).stream()
-            .map(x -> (String) x)
-            .collect(Collectors.toList());
+    this.vertx = vertx;
+    serversOmittedFromRevoke =
+        Stream.concat(
+                options.getJsonArray(CONFIG_OMITTED_SERVERS).stream().map(x -> (String) x),
+                Stream.of(options.getString(CONFIG_COS_URL)))
+            .toArray(String[]::new);
 
     randomSource = new SecureRandom();
   }
@@ -806,66 +814,61 @@ public class RegistrationServiceImpl implements RegistrationService {
                   return Future.succeededFuture();
                 });
 
-    Future<List<RevokeToken>> tokenRevokeReq =
+    Future<String> resetSecret =
         checkClientId.compose(
             success -> {
-              /* Collector to create list of TokenRevoke requests from list of resource_server urls */
-              Collector<Row, ?, List<RevokeToken>> getTokenRevokeReqList =
-                  Collectors.mapping(
-                      row -> {
-                        JsonObject revokeReq = new JsonObject().put("rsUrl", row.getString("url"));
-                        return new RevokeToken(revokeReq);
-                      },
-                      Collectors.toList());
-
-              /*
-               * We can choose to omit some servers from the revocation required during client secret regen
-               * by adding them to the config. (Currently no server needs to be revoked since we don't
-               * bother if a revocation succeeds (HTTP 200) or fails (any other status code, DNS error))
-               */
-              List<String> omittedServers = SERVERS_OMITTED_FROM_TOKEN_REVOKE;
-              omittedServers.add(COS_URL);
-
-              return pool.withConnection(
-                  conn ->
-                      conn.preparedQuery(SQL_GET_RS_AND_APDS_FOR_REVOKE)
-                          .collecting(getTokenRevokeReqList)
-                          .execute(Tuple.of(omittedServers.toArray(String[]::new)))
-                          .map(res -> res.value()));
-            });
-
-    Future<CompositeFuture> tokenRevokeResult =
-        tokenRevokeReq.compose(
-            revReq -> {
-              @SuppressWarnings("rawtypes")
-              List<Future> futures =
-                  revReq.stream()
-                      .map(req -> callTokenRevoke(user, req))
-                      .collect(Collectors.toList());
-              return CompositeFuture.all(futures);
-            });
-
-    tokenRevokeResult
-        .compose(
-            revokedAll -> {
-              /*
-               * TODO: callTokenRevoke only fails in case there's an internal error from the tokenRevoke
-               * service. It returns all succeeded futures of Boolean type, true if 200 OK, false if not. We
-               * currently do not check if the bool is true or false, we only know that the future has
-               * succeeded. Later on, we need to act on instances where the bool = false, i.e. the token
-               * revoke call to that particular server has failed. retry logic?, store info about revoke and
-               * expose an API to servers?
-               */
               byte[] randBytes = new byte[CLIENT_SECRET_BYTES];
               randomSource.nextBytes(randBytes);
               String clientSecret = Hex.encodeHexString(randBytes);
               String hashedClientSecret = DigestUtils.sha512Hex(clientSecret);
               Tuple tup = Tuple.of(hashedClientSecret, clientId, userId);
 
-              return pool.withConnection(
-                  conn ->
-                      conn.preparedQuery(SQL_UPDATE_CLIENT_SECRET).execute(tup).map(clientSecret));
-            })
+              /*
+               * Tokens issued using the old secret must be revoked on all resource servers and APDs
+               * (except those omitted in the config). The revocations are added to the revocation
+               * log and written to the outbox in the same transaction as the new secret, and are
+               * delivered in the background by the token revoke dispatcher in the TokenVerticle.
+               * The revocation log lock is taken before appending, so that the entries commit in
+               * sequence order.
+               * Once committed, the logged revocations are published to the revocation stream, and
+               * the cached credentials of the client are invalidated on all API servers.
+               */
+              Tuple outboxTup = Tuple.of(userId).addArrayOfString(serversOmittedFromRevoke);
+
+              return pool.withTransaction(
+                      conn ->
+                          conn.preparedQuery(SQL_UPDATE_CLIENT_SECRET)
+                              .execute(tup)
+                              .compose(res -> conn.query(LOCK_REVOCATION_LOG).execute())
+                              .compose(
+                                  lock ->
+                                      conn.preparedQuery(SQL_APPEND_REVOCATION_LOG)
+                                          .execute(outboxTup))
+                              .compose(
+                                  logged ->
+                                      conn.preparedQuery(SQL_INSERT_TOKEN_REVOKE_OUTBOX)
+                                          .execute(outboxTup)
+                                          .map(
+                                              res -> {
+                                                LOGGER.info(
+                                                    "Info: Queued {} token revocations for user {}",
+                                                    res.rowCount(),
+                                                    userId);
+                                                return logged;
+                                              })))
+                  .map(
+                      logged -> {
+                        publishRevocations(userId.toString(), logged);
+                        vertx
+                            .eventBus()
+                            .publish(
+                                CLIENT_CREDENTIAL_INVALIDATE_ADDRESS,
+                                new JsonObject().put(INVALIDATE_CLIENT_ID, clientId.toString()));
+                        return clientSecret;
+                      });
+            });
+
+    resetSecret
         .onSuccess(
             cliSec -> {
               JsonObject clientDets =
@@ -888,36 +891,24 @@ public class RegistrationServiceImpl implements RegistrationService {
   }
 
   /**
-   * Calls the revokeToken method in the TokenService. A Boolean future is returned. A succeeded
-   * future with <i>true</i> is returned if the revoke is successful.A A succeeded future with
-   * <i>false</i> is returned if the revocation fails due to expected errors e.g. server not
-   * reachable, responded incorrectly etc. <b>A failed future is returned if the revocation fails
-   * unexpected like e.g. due to an internal error.</b>
+   * Publish revocations added to the revocation log on the event bus, one event per audience, so
+   * that they are pushed to servers subscribed to the revocation stream.
    *
-   * @param user The User object for the user for whom the tokens must be revoked
-   * @param request A RevokeToken request object containing the server URL to be revoked
-   * @return a Boolean future
+   * @param userId the user whose tokens were revoked
+   * @param logged rows of the revocation log insert, having the audience and revocation time
    */
-  private Future<Boolean> callTokenRevoke(User user, RevokeToken request) {
-    Promise<Boolean> response = Promise.promise();
-
-    tokenService
-        .revokeToken(request, user)
-        .onSuccess(
-            resp -> {
-              if (resp.getString("type").equals(URN_SUCCESS.toString())) {
-                response.complete(true);
-              } else {
-                response.complete(false);
-                LOGGER.error("Failed to revoke tokens on {}", request.getRsUrl());
-              }
-            })
-        .onFailure(
-            err -> {
-              response.fail("Future failed - Failed to revoke tokens on " + request.getRsUrl());
-              LOGGER.error(err.getLocalizedMessage());
-            });
-    return response.future();
+  private void publishRevocations(String userId, RowSet<Row> logged) {
+    long publishedAt = System.currentTimeMillis();
+    for (Row row : logged) {
+      JsonObject revocation =
+          new JsonObject().put(SUB, userId).put(REVOKED_AT, row.getLong("revoked_at"));
+      JsonObject event =
+          new JsonObject()
+              .put(AUDIENCE, row.getString("audience"))
+              .put(REVOCATIONS, new JsonArray().add(revocation))
+              .put(PUBLISHED_AT, publishedAt);
+      vertx.eventBus().publish(REVOCATION_EVENTS_ADDRESS, event);
+    }
   }
 
   @Override
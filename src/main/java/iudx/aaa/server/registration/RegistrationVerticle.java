@@ -25,7 +25,6 @@ import io.vertx.pgclient.PgConnectOptions;
 import io.vertx.pgclient.PgPool;
 import io.vertx.serviceproxy.ServiceBinder;
 import io.vertx.sqlclient.PoolOptions;
-import iudx.aaa.server.token.TokenService;
 import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -63,14 +62,11 @@ public class RegistrationVerticle extends AbstractVerticle {
   private PgConnectOptions connectOptions;
   private static JsonObject options;
   private static final String REGISTRATION_SERVICE_ADDRESS = "iudx.aaa.registration.service";
-  private static final String TOKEN_SERVICE_ADDRESS = "iudx.aaa.token.service";
   private RegistrationService registrationService;
   private ServiceBinder binder;
   private MessageConsumer<JsonObject> consumer;
   private static final Logger LOGGER = LogManager.getLogger(RegistrationVerticle.class);
 
-  private TokenService tokenService;
-
   /**
    * This method is used to start the Verticle. It deploys a verticle in a cluster, registers the
    * service with the Event bus against an address, publishes the service with the service discovery
@@ -134,8 +130,7 @@ public class RegistrationVerticle extends AbstractVerticle {
             keycloakAdminClientSecret,
             keycloakAdminPoolSize);
 
-    tokenService = TokenService.createProxy(vertx, TOKEN_SERVICE_ADDRESS);
-    registrationService = new RegistrationServiceImpl(pool, kcadmin, tokenService, options);
+    registrationService = new RegistrationServiceImpl(pool, kcadmin, options, vertx);
     binder = new ServiceBinder(vertx);
     consumer =
         binder
@@ -0,0 +1,204 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.CLAIM_EXPIRY;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import iudx.aaa.server.apiserver.util.MetricsRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Caches the admin (auth server) tokens presented to other servers, e.g. when calling an APD or
+ * when requesting a resource server to revoke tokens. Admin tokens only vary by audience, so one
+ * token is kept per audience and is refreshed in the background before it expires.
+ *
+ * <p>Concurrent requests for an audience that does not have a token yet share the same token
+ * request. A token that is not requested during its lifetime is not refreshed and is dropped.
+ *
+ * <p>The following meters are registered, tagged with the <em>cache</em> name:
+ *
+ * <ul>
+ *   <li><em>aaa.token.admin.cache.requests</em> : tagged with <em>result</em> <tt>hit</tt> or
+ *       <tt>miss</tt>
+ *   <li><em>aaa.token.admin.cache.refresh</em> : tagged with <em>result</em> <tt>success</tt> or
+ *       <tt>failure</tt>
+ * </ul>
+ */
+public class AdminTokenCache {
+
+  private static final Logger LOGGER = LogManager.getLogger(AdminTokenCache.class);
+
+  /* A cached token is never handed out with less than this many seconds left */
+  private static final long MIN_REMAINING_SEC = 60;
+  private static final long REFRESH_CHECK_INTERVAL_MS = 60 * 1000;
+
+  private final Vertx vertx;
+  private final long refreshBeforeSec;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private final long timerId;
+
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter refreshSuccess;
+  private final Counter refreshFailure;
+
+  /**
+   * Create an admin token cache. Must be called from the context of the owning verticle, since the
+   * background refresh timer runs on it.
+   *
+   * @param vertx the Vert.x instance
+   * @param name the name of the cache, used to tag metrics
+   * @param refreshBeforeSec the remaining lifetime (in seconds) of a token at which it is
+   *     refreshed. Must be less than {@link Constants#CLAIM_EXPIRY}
+   */
+  public AdminTokenCache(Vertx vertx, String name, long refreshBeforeSec) {
+    if (refreshBeforeSec <= MIN_REMAINING_SEC || refreshBeforeSec >= CLAIM_EXPIRY) {
+      throw new IllegalArgumentException(
+          "Admin token refresh time must be between "
+              + MIN_REMAINING_SEC
+              + " and "
+              + CLAIM_EXPIRY
+              + " seconds");
+    }
+
+    this.vertx = vertx;
+    this.refreshBeforeSec = refreshBeforeSec;
+
+    MeterRegistry registry = MetricsRegistry.get();
+    this.hits = requestCounter(registry, name, "hit");
+    this.misses = requestCounter(registry, name, "miss");
+    this.refreshSuccess = refreshCounter(registry, name, "success");
+    this.refreshFailure = refreshCounter(registry, name, "failure");
+
+    this.timerId = vertx.setPeriodic(REFRESH_CHECK_INTERVAL_MS, id -> refresh());
+  }
+
+  private static Counter requestCounter(MeterRegistry registry, String name, String result) {
+    return Counter.builder("aaa.token.admin.cache.requests")
+        .description("Number of admin token requests served by the admin token cache")
+        .tag("cache", name)
+        .tag("result", result)
+        .register(registry);
+  }
+
+  private static Counter refreshCounter(MeterRegistry registry, String name, String result) {
+    return Counter.builder("aaa.token.admin.cache.refresh")
+        .description("Number of background admin token refreshes")
+        .tag("cache", name)
+        .tag("result", result)
+        .register(registry);
+  }
+
+  /**
+   * Get the admin token for an audience.
+   *
+   * @param audience the audience (server URL) of the token
+   * @param loader creates a new admin token for an audience. Used for the first request of an
+   *     audience and for refreshing the token
+   * @return a Future of JsonObject containing the <i>accessToken</i>, expiry and server
+   */
+  public Future<JsonObject> get(String audience, Function<String, Future<JsonObject>> loader) {
+    long now = now();
+    Entry entry = entries.get(audience);
+
+    if (entry != null) {
+      entry.requested = true;
+      Future<JsonObject> current = entry.current;
+
+      if (!current.isComplete()) {
+        hits.increment();
+        return current.map(JsonObject::copy);
+      }
+      if (current.succeeded() && remaining(current.result(), now) > MIN_REMAINING_SEC) {
+        hits.increment();
+        return Future.succeededFuture(current.result().copy());
+      }
+    }
+
+    misses.increment();
+    Future<JsonObject> token = loader.apply(audience);
+    Entry newEntry = new Entry(loader, token);
+    entries.put(audience, newEntry);
+    token.onFailure(err -> entries.remove(audience, newEntry));
+    return token.map(JsonObject::copy);
+  }
+
+  /** Stop refreshing tokens and clear the cache. */
+  public void close() {
+    vertx.cancelTimer(timerId);
+    entries.clear();
+  }
+
+  /**
+   * Refresh tokens that are about to expire. Tokens that have not been requested since they were
+   * issued are dropped instead.
+   */
+  private void refresh() {
+    long now = now();
+
+    entries.forEach(
+        (audience, entry) -> {
+          Future<JsonObject> current = entry.current;
+          if (entry.refreshing || !current.succeeded()) {
+            return;
+          }
+
+          if (remaining(current.result(), now) > refreshBeforeSec) {
+            return;
+          }
+
+          if (!entry.requested) {
+            entries.remove(audience, entry);
+            return;
+          }
+
+          entry.refreshing = true;
+          entry
+              .loader
+              .apply(audience)
+              .onComplete(
+                  res -> {
+                    entry.refreshing = false;
+                    if (res.succeeded()) {
+                      entry.current = Future.succeededFuture(res.result());
+                      entry.requested = false;
+                      refreshSuccess.increment();
+                    } else {
+                      refreshFailure.increment();
+                      LOGGER.warn(
+                          "Fail: Unable to refresh admin token for {}; {}",
+                          audience,
+                          res.cause().getMessage());
+                    }
+                  });
+        });
+  }
+
+  private static long remaining(JsonObject token, long now) {
+    return token.getLong("expiry", 0L) - now;
+  }
+
+  private static long now() {
+    return System.currentTimeMillis() / 1000;
+  }
+
+  private static final class Entry {
+    private final Function<String, Future<JsonObject>> loader;
+    private volatile Future<JsonObject> current;
+    /* If the current token has been requested since it was issued */
+    private volatile boolean requested;
+    private volatile boolean refreshing;
+
+    private Entry(Function<String, Future<JsonObject>> loader, Future<JsonObject> current) {
+      this.loader = loader;
+      this.current = current;
+    }
+  }
+}
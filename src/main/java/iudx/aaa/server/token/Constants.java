@@ -6,6 +6,9 @@ import com.google.common.collect.HashBiMap;
 public class Constants {
 
   public static final String TOKEN_SERVICE_ADDRESS = "iudx.aaa.token.service";
+  public static final String TOKEN_CACHE_INVALIDATE_ADDRESS = "iudx.aaa.token.cache.invalidate";
+  public static final String REVOCATION_EVENTS_ADDRESS = "iudx.aaa.token.revocations";
+  public static final String KEYSTORE_RELOAD_ADDRESS = "iudx.aaa.keystore.reload";
   public static final String POLICY_SERVICE_ADDRESS = "iudx.aaa.policy.service";
   public static final String REGISTRATION_SERVICE_ADDRESS = "iudx.aaa.registration.service";
 
@@ -17,6 +20,7 @@ public class Constants {
 
   public static final String RS_REVOKE_URI = "/admin/revokeToken";
   public static final String RS_REVOKE_BODY_SUB = "sub";
+  public static final String RS_REVOKE_BODY_SUBS = "subs";
   public static final int DEFAULT_HTTPS_PORT = 443;
 
   /* Configuration & related */
@@ -30,6 +34,60 @@ public class Constants {
   public static final String KEYSTORE_PATH = "keystorePath";
   public static final String KEYSTPRE_PASSWORD = "keystorePassword";
   public static final String COS_DOMAIN = "cosDomain";
+  public static final String CONFIG_SIGNING_ALGORITHM = "jwtSigningAlgorithm";
+  public static final String CONFIG_SIGNING_POOL_SIZE = "jwtSigningPoolSize";
+  public static final String CONFIG_SIGNING_QUEUE_SIZE = "jwtSigningQueueSize";
+  public static final int DEFAULT_SIGNING_QUEUE_SIZE = 1024;
+  public static final String CONFIG_VERIFY_POOL_SIZE = "jwtVerifyPoolSize";
+  public static final String CONFIG_VERIFY_QUEUE_SIZE = "jwtVerifyQueueSize";
+  public static final int DEFAULT_VERIFY_QUEUE_SIZE = 1024;
+  /* Number of tokens of an introspection batch verified by one verifier thread task */
+  public static final int VERIFY_BATCH_CHUNK_SIZE = 25;
+  public static final String CONFIG_KEYSTORE_WATCH_MS = "keystoreWatchIntervalMs";
+  public static final long DEFAULT_KEYSTORE_WATCH_MS = 10000;
+  public static final String CONFIG_REUSE_CACHE_ENABLED = "tokenReuseCacheEnabled";
+  public static final String CONFIG_REUSE_CACHE_MAX_SIZE = "tokenReuseCacheMaxSize";
+  public static final String CONFIG_REUSE_MIN_REMAINING_SEC = "tokenReuseMinRemainingSec";
+  public static final long DEFAULT_REUSE_CACHE_MAX_SIZE = 10000;
+  public static final long DEFAULT_REUSE_MIN_REMAINING_SEC = CLAIM_EXPIRY - 10 * 60;
+  public static final String CONFIG_ADMIN_TOKEN_REFRESH_SEC = "adminTokenRefreshBeforeSec";
+  public static final long DEFAULT_ADMIN_TOKEN_REFRESH_SEC = 3600;
+  public static final String CONFIG_INTROSPECT_CACHE_ENABLED = "introspectCacheEnabled";
+  public static final String CONFIG_INTROSPECT_CACHE_MAX_SIZE = "introspectCacheMaxSize";
+  public static final String CONFIG_INTROSPECT_CACHE_TTL_SEC = "introspectCacheTtlSec";
+  public static final long DEFAULT_INTROSPECT_CACHE_MAX_SIZE = 10000;
+  public static final long DEFAULT_INTROSPECT_CACHE_TTL_SEC = 3600;
+  public static final String CONFIG_USERINFO_CACHE_ENABLED = "userInfoCacheEnabled";
+  public static final String CONFIG_USERINFO_CACHE_MAX_SIZE = "userInfoCacheMaxSize";
+  public static final String CONFIG_USERINFO_CACHE_TTL_SEC = "userInfoCacheTtlSec";
+  public static final long DEFAULT_USERINFO_CACHE_MAX_SIZE = 10000;
+  public static final long DEFAULT_USERINFO_CACHE_TTL_SEC = 300;
+  public static final String CONFIG_REVOKE_MAX_CONCURRENCY = "revokeMaxConcurrency";
+  public static final String CONFIG_REVOKE_POOL_SIZE = "revokeMaxPoolSizePerHost";
+  public static final String CONFIG_REVOKE_TIMEOUT_MS = "revokeRequestTimeoutMs";
+  public static final int DEFAULT_REVOKE_MAX_CONCURRENCY = 16;
+  public static final int DEFAULT_REVOKE_POOL_SIZE = 2;
+  public static final long DEFAULT_REVOKE_TIMEOUT_MS = 10000;
+  public static final String CONFIG_REVOKE_BULK_BATCH_SIZE = "revokeBulkBatchSize";
+  public static final int DEFAULT_REVOKE_BULK_BATCH_SIZE = 100;
+  public static final String CONFIG_REVOKE_BULK_SERVERS = "revokeBulkServers";
+  public static final String CONFIG_REVOKE_OUTBOX_POLL_MS = "revokeOutboxPollIntervalMs";
+  public static final String CONFIG_REVOKE_OUTBOX_BATCH_SIZE = "revokeOutboxBatchSize";
+  public static final String CONFIG_REVOKE_OUTBOX_MAX_ATTEMPTS = "revokeOutboxMaxAttempts";
+  public static final String CONFIG_REVOKE_OUTBOX_BACKOFF_MS = "revokeOutboxBackoffBaseMs";
+  public static final String CONFIG_REVOKE_OUTBOX_MAX_BACKOFF_MS = "revokeOutboxMaxBackoffMs";
+  public static final long DEFAULT_REVOKE_OUTBOX_POLL_MS = 5000;
+  public static final int DEFAULT_REVOKE_OUTBOX_BATCH_SIZE = 50;
+  public static final int DEFAULT_REVOKE_OUTBOX_MAX_ATTEMPTS = 10;
+  public static final long DEFAULT_REVOKE_OUTBOX_BACKOFF_MS = 30000;
+  public static final long DEFAULT_REVOKE_OUTBOX_MAX_BACKOFF_MS = 3600000;
+  public static final String CONFIG_REVOKED_INDEX_PATH = "revokedIndexPath";
+  public static final String CONFIG_REVOKED_INDEX_CAPACITY = "revokedIndexCapacity";
+  public static final String CONFIG_REVOKED_INDEX_SYNC_MS = "revokedIndexSyncIntervalMs";
+  public static final int DEFAULT_REVOKED_INDEX_CAPACITY = 1 << 22;
+  public static final long DEFAULT_REVOKED_INDEX_SYNC_MS = 10000;
+  public static final String INVALIDATE_USER_IDS = "userIds";
+  public static final String INVALIDATE_RS_URL = "rsUrl";
 
   public static final int PG_CONNECTION_TIMEOUT = 10000;
   public static final int DB_RECONNECT_ATTEMPTS = 5;
@@ -55,9 +113,6 @@ public class Constants {
   public static final String TYPE = "type";
   public static final String OWNER = "owner";
 
-  public static String keystorePath;
-  public static String keystorePassword;
-
   public static final String ITEM_ID = "itemId";
   public static final String ITEM_TYPE = "itemType";
   public static final String CLIENT_ID = "clientId";
@@ -73,6 +128,7 @@ public class Constants {
   public static final String TOKEN = "token";
   public static final String SUB = "sub";
   public static final String ISS = "iss";
+  public static final String KID = "kid";
   public static final String AUD = "aud";
   public static final String EXP = "exp";
   public static final String NFB = "nbf";
@@ -118,7 +174,16 @@ public class Constants {
   public static final String LOG_TOKEN_SUCC =
       "Info: Policy evaluation succeeded; JWT generated & signed";
   public static final String LOG_REVOKE_REQ = "Info: Revoke request succeeded";
+  public static final String LOG_BULK_REVOKE_BATCH =
+      "Info: Bulk revocation at {}; batch {} of {} done, {} of {} users revoked";
+  public static final String LOG_BULK_REVOKE =
+      "Info: Bulk revocation at {} done; {} of {} users revoked";
+  public static final String LOG_TOKEN_REUSED = "Info: Previously issued JWT reused";
+  public static final String LOG_BATCH_TOKEN = "Info: Batch token request processed; {} items";
+  public static final String LOG_BATCH_INTROSPECT = "Info: Batch introspection done; {} tokens";
   public static final String LOG_PARSE_TOKEN = "Fail: Unable to parse accessToken";
+  public static final String ERR_SIGNING_QUEUE_FULL = "JWT signing queue full";
+  public static final String ERR_VERIFY_QUEUE_FULL = "JWT verification queue full";
 
   public static final String INTERNAL_SVR_ERR = "Internal server error";
   public static final String INVALID_CLIENT_ID_SEC = "Invalid clientId/clientSecret";
@@ -132,11 +197,24 @@ public class Constants {
   public static final String CANNOT_REVOKE_ON_AUTH = "Cannot revoke tokens on auth server";
   public static final String ACCESS_DENIED = "Access evaluation failed";
   public static final String TOKEN_SUCCESS = "Token created";
+  public static final String BATCH_TOKEN_PROCESSED = "Batch token request processed";
+  public static final String BATCH_INTROSPECT_PROCESSED = "Batch introspection processed";
   public static final String ERR_TITLE_APD_INTERACT_REQUIRED = "APD interaction required";
   public static final String ERR_DETAIL_APD_INTERACT_REQUIRED =
       "The APD requires extra information to grant access."
           + " Please use the apdToken and visit the link to interact with the APD";
   public static final String TOKEN_REVOKED = "Token revoked";
+  public static final String BULK_REVOKE_PROCESSED = "Bulk token revocation processed";
+  public static final String BATCH = "batch";
+  public static final String COUNT = "count";
+  public static final String REVOKED = "revoked";
+  public static final String USER_IDS = "userIds";
+  public static final String FAILED_USER_IDS = "failedUserIds";
+  public static final String REVOCATIONS_READ = "Revocations read";
+  public static final String CURSOR = "cursor";
+  public static final String REVOCATIONS = "revocations";
+  public static final String REVOKED_AT = "revokedAt";
+  public static final String PUBLISHED_AT = "publishedAt";
   public static final String TOKEN_AUTHENTICATED = "Token authenticated";
   public static final String INVALID_USERID = "Empty/null userId";
 
@@ -147,6 +225,10 @@ public class Constants {
   public static final String ERR_DETAIL_INVALID_RS_APD_REVOKE =
       "Requested resource server/APD URL does not exist" + " or APD is not active anymore";
 
+  public static final String ERR_TITLE_NOT_RS_ADMIN = "Not an admin of the resource server";
+  public static final String ERR_DETAIL_NOT_RS_ADMIN =
+      "Bulk revocation is allowed only at a resource server the user is an admin of";
+
   public static final String ERR_DOES_NOT_HAVE_ROLE_FOR_RS =
       "User does not have requested role for requested resource server";
 
@@ -208,4 +290,74 @@ public class Constants {
 
   public static final String CHECK_APD_OWNER =
       "SELECT owner_id AS owner FROM apds WHERE url = $1 AND owner_id = $2::uuid";
-}
+
+  /*
+   * Claims due revocations from the outbox. The claimed rows are leased by moving their next
+   * attempt time ahead, so that they are retried if this instance stops before completing them.
+   */
+  public static final String CLAIM_REVOKE_OUTBOX =
+      "UPDATE token_revoke_outbox SET attempts = attempts + 1,"
+          + " next_attempt_at = NOW() + $2::bigint * INTERVAL '1 millisecond', updated_at = NOW()"
+          + " WHERE id IN (SELECT id FROM token_revoke_outbox WHERE status = 'PENDING'"
+          + " AND next_attempt_at <= NOW() ORDER BY next_attempt_at LIMIT $1::integer"
+          + " FOR UPDATE SKIP LOCKED) RETURNING id, user_id, server_url, attempts";
+
+  public static final String COMPLETE_REVOKE_OUTBOX =
+      "UPDATE token_revoke_outbox SET status = 'SUCCEEDED', last_error = NULL, updated_at = NOW()"
+          + " WHERE id = $1::uuid";
+
+  public static final String RETRY_REVOKE_OUTBOX =
+      "UPDATE token_revoke_outbox SET status = $2::token_revoke_status_enum,"
+          + " next_attempt_at = NOW() + $3::bigint * INTERVAL '1 millisecond',"
+          + " last_error = $4::text, updated_at = NOW() WHERE id = $1::uuid";
+
+  /*
+   * Taken in the transaction writing to the revocation log before the entries are written, so that
+   * transactions writing to the log commit in sequence order, and a reader never skips an entry
+   * whose sequence number is below its cursor. Also taken when pruning the log, so that the token
+   * verticle instances do not prune it concurrently.
+   */
+  public static final String LOCK_REVOCATION_LOG =
+      "SELECT pg_advisory_xact_lock(hashtext('token_revocation_log'))";
+
+  public static final String APPEND_REVOCATION_LOG =
+      "INSERT INTO token_revocation_log (user_id, audience, revoked_at)"
+          + " VALUES ($1::uuid, $2::text, NOW()) ON CONFLICT (user_id, audience) DO UPDATE"
+          + " SET revoked_at = NOW(), seq = nextval('token_revocation_log_seq')"
+          + " RETURNING "
+          + SELECT_REVOKED_AT;
+
+  public static final String APPEND_REVOCATION_LOG_BULK =
+      "INSERT INTO token_revocation_log (user_id, audience, revoked_at)"
+          + " SELECT id, $2::text, NOW() FROM users WHERE id = ANY($1::uuid[])"
+          + " ON CONFLICT (user_id, audience) DO UPDATE"
+          + " SET revoked_at = NOW(), seq = nextval('token_revocation_log_seq')"
+          + " RETURNING user_id, "
+          + SELECT_REVOKED_AT;
+
+  public static final String GET_REVOCATION_LOG_HEAD =
+      "SELECT COALESCE(MAX(seq), 0) AS seq FROM token_revocation_log WHERE audience = $1::text";
+
+  public static final String GET_REVOCATION_LOG =
+      "SELECT user_id, "
+          + SELECT_REVOKED_AT
+          + ", seq"
+          + " FROM token_revocation_log WHERE audience = $1::text AND seq > $2::bigint"
+          + " ORDER BY seq LIMIT $3::integer";
+
+  public static final String GET_REVOCATION_LOG_ALL =
+      "SELECT user_id, audience, "
+          + SELECT_REVOKED_AT
+          + ", seq"
+          + " FROM token_revocation_log WHERE seq > $1::bigint"
+          + " ORDER BY seq LIMIT $2::integer";
+
+  public static final String PRUNE_REVOCATION_LOG =
+      "DELETE FROM token_revocation_log"
+          + " WHERE revoked_at < NOW() - $1::bigint * INTERVAL '1 second'";
+}  /* Revocation times are truncated to whole seconds, as the iat of tokens is, so that a token
+   * issued in the same second as a revocation but after it is not taken as revoked */
+  public static final String SELECT_REVOKED_AT =
+      "floor(EXTRACT(EPOCH FROM revoked_at))::bigint AS revoked_at";
+
+
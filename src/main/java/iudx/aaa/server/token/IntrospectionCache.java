@@ -0,0 +1,92 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.EXP;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import io.vertx.core.json.JsonObject;
+import iudx.aaa.server.apiserver.util.MetricsRegistry;
+import iudx.aaa.server.apiserver.util.MetricsRegistry.InstanceMeters;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of the decoded claims of tokens that have been verified by the introspection API.
+ * Resource servers introspect the same token many times during its lifetime; a cached token does
+ * not need its signature verified again.
+ *
+ * <p>Tokens are keyed by their SHA-256 hash, so the cache does not hold the tokens themselves. An
+ * entry is kept for at most the configured TTL, and is never returned after the expiry (the
+ * <em>exp</em> claim) of the token.
+ *
+ * <p>Hit, miss, eviction and size metrics are registered with the cache name
+ * <em>aaa.token.introspect</em>, tagged with the <em>instance</em> of the cache.
+ */
+public class IntrospectionCache {
+
+  private final Cache<String, JsonObject> cache;
+  private final InstanceMeters meters;
+
+  /**
+   * Create an introspection cache.
+   *
+   * @param maxSize the maximum number of tokens held by the cache
+   * @param maxTtlSec the maximum time (in seconds) that a token is held by the cache
+   */
+  public IntrospectionCache(long maxSize, long maxTtlSec) {
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(maxTtlSec, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+    this.meters = MetricsRegistry.instanceMeters("aaa.token.introspect");
+    meters.monitor(cache, "aaa.token.introspect");
+  }
+
+  /** Remove the metrics of the cache, once the token verticle is stopped. */
+  public void close() {
+    meters.close();
+  }
+
+  private static String key(String token) {
+    return Hashing.sha256().hashString(token, StandardCharsets.UTF_8).toString();
+  }
+
+  /**
+   * Get the decoded claims of a previously verified token.
+   *
+   * @param token the encoded token
+   * @return a copy of the decoded claims, or null if the token is not cached or has expired
+   */
+  public JsonObject get(String token) {
+    String key = key(token);
+    JsonObject claims = cache.getIfPresent(key);
+    if (claims == null) {
+      return null;
+    }
+
+    Long exp = claims.getLong(EXP);
+    if (exp != null && exp <= System.currentTimeMillis() / 1000) {
+      cache.invalidate(key);
+      return null;
+    }
+    return claims.copy();
+  }
+
+  /**
+   * Store the decoded claims of a verified token. Tokens that have already expired are not stored.
+   *
+   * @param token the encoded token
+   * @param claims the decoded claims
+   */
+  public void put(String token, JsonObject claims) {
+    Long exp = claims.getLong(EXP);
+    if (exp != null && exp <= System.currentTimeMillis() / 1000) {
+      return;
+    }
+    cache.put(key(token), claims.copy());
+  }
+}
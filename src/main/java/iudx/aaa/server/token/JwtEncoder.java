@@ -0,0 +1,375 @@
+package iudx.aaa.server.token;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A specialized JWT encoder for the tokens issued by the AAA server. It produces the same header
+ * and payload segments as {@link JWTAuth#generateToken(JsonObject, JWTOptions)}, but avoids the
+ * generic encode path:
+ *
+ * <ul>
+ *   <li>the base64url encoded header segment is computed once per key
+ *   <li>claims are written as JSON directly into a reusable, per-thread byte buffer, instead of
+ *       being put into a {@link JsonObject} and then encoded to a String
+ *   <li>{@link Signature} objects are created once per thread and reused
+ * </ul>
+ *
+ * <p>The signature is created in the JWS (IEEE P1363) format, the same as the Vert.x provider, so
+ * tokens can be verified by the existing provider. Since ECDSA signatures are randomized, only the
+ * header and payload segments are byte-for-byte identical to those produced by the provider.
+ */
+public class JwtEncoder {
+
+  /* JCA algorithm producing R||S signatures, which is the format used by JWS */
+  public static final String ES256_JCA_ALGORITHM = "SHA256withECDSAinP1363Format";
+
+  private static final byte[] BASE64URL =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+          .getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+
+  private final byte[] headerSegment;
+  private final ThreadLocal<Signature> signatures;
+  private final ThreadLocal<ClaimsWriter> writers;
+
+  /**
+   * Create an encoder.
+   *
+   * @param key the private key used to sign tokens
+   * @param jcaAlgorithm the JCA signature algorithm, e.g. {@link #ES256_JCA_ALGORITHM}
+   * @param headerSegment the base64url encoded JWT header
+   */
+  public JwtEncoder(PrivateKey key, String jcaAlgorithm, String headerSegment) {
+    this.headerSegment = headerSegment.getBytes(StandardCharsets.US_ASCII);
+    this.signatures =
+        ThreadLocal.withInitial(
+            () -> {
+              try {
+                Signature signature = Signature.getInstance(jcaAlgorithm);
+                signature.initSign(key);
+                return signature;
+              } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    this.writers = ThreadLocal.withInitial(ClaimsWriter::new);
+  }
+
+  /**
+   * Create an encoder whose header matches the header created by the Vert.x provider for the given
+   * options. A throwaway token is generated using the provider and its header segment is reused.
+   *
+   * @param provider the {@link JWTAuth} provider holding the same key
+   * @param options the {@link JWTOptions} containing algorithm and extra header fields
+   * @param key the private key used to sign tokens
+   * @param jcaAlgorithm the JCA signature algorithm corresponding to the JWT algorithm
+   * @return the encoder
+   */
+  public static JwtEncoder create(
+      JWTAuth provider, JWTOptions options, PrivateKey key, String jcaAlgorithm) {
+    String sample = provider.generateToken(new JsonObject(), options);
+    return new JwtEncoder(key, jcaAlgorithm, sample.substring(0, sample.indexOf('.')));
+  }
+
+  /**
+   * Create an encoder using the given JWT header. Used for algorithms for which tokens are not
+   * created by the Vert.x provider.
+   *
+   * @param header the JWT header
+   * @param key the private key used to sign tokens
+   * @param jcaAlgorithm the JCA signature algorithm corresponding to the <i>alg</i> in the header
+   * @return the encoder
+   */
+  public static JwtEncoder create(JsonObject header, PrivateKey key, String jcaAlgorithm) {
+    byte[] json = header.encode().getBytes(StandardCharsets.UTF_8);
+    byte[] encoded = new byte[base64Length(json.length)];
+    base64Url(json, json.length, encoded, 0);
+    return new JwtEncoder(key, jcaAlgorithm, new String(encoded, StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * Encode and sign a JWT. Safe to call from multiple threads concurrently, since each thread uses
+   * its own buffers and {@link Signature} object.
+   *
+   * @param claims a consumer that writes the claims in order using the {@link ClaimsWriter}
+   * @return the signed JWT
+   * @throws GeneralSecurityException if signing fails
+   */
+  public String encode(Consumer<ClaimsWriter> claims) throws GeneralSecurityException {
+    ClaimsWriter writer = writers.get();
+    writer.reset();
+    claims.accept(writer);
+    writer.end();
+
+    int payloadLen = base64Length(writer.len);
+    int signingInputLen = headerSegment.length + 1 + payloadLen;
+    byte[] out = writer.ensureOutput(signingInputLen + 1 + base64Length(132));
+
+    System.arraycopy(headerSegment, 0, out, 0, headerSegment.length);
+    out[headerSegment.length] = '.';
+    base64Url(writer.buf, writer.len, out, headerSegment.length + 1);
+
+    Signature signature = signatures.get();
+    signature.update(out, 0, signingInputLen);
+    byte[] sig = signature.sign();
+
+    out[signingInputLen] = '.';
+    int total = base64Url(sig, sig.length, out, signingInputLen + 1);
+    return new String(out, 0, total, StandardCharsets.ISO_8859_1);
+  }
+
+  private static int base64Length(int len) {
+    return (len / 3) * 4 + (len % 3 == 0 ? 0 : len % 3 + 1);
+  }
+
+  /* unpadded base64url encoding, returns the position after the last written byte */
+  private static int base64Url(byte[] src, int len, byte[] dst, int dstPos) {
+    int i = 0;
+    int d = dstPos;
+    for (; i + 2 < len; i += 3) {
+      int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+      dst[d++] = BASE64URL[(bits >>> 18) & 0x3f];
+      dst[d++] = BASE64URL[(bits >>> 12) & 0x3f];
+      dst[d++] = BASE64URL[(bits >>> 6) & 0x3f];
+      dst[d++] = BASE64URL[bits & 0x3f];
+    }
+    int rem = len - i;
+    if (rem == 1) {
+      int bits = (src[i] & 0xff) << 16;
+      dst[d++] = BASE64URL[(bits >>> 18) & 0x3f];
+      dst[d++] = BASE64URL[(bits >>> 12) & 0x3f];
+    } else if (rem == 2) {
+      int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8;
+      dst[d++] = BASE64URL[(bits >>> 18) & 0x3f];
+      dst[d++] = BASE64URL[(bits >>> 12) & 0x3f];
+      dst[d++] = BASE64URL[(bits >>> 6) & 0x3f];
+    }
+    return d;
+  }
+
+  /**
+   * Writes JWT claims as a JSON object into a reusable byte buffer. String escaping follows the
+   * Jackson defaults used by {@link JsonObject#encode()}, so the output is identical to encoding
+   * the same claims in a {@link JsonObject} (in the same insertion order).
+   */
+  public static final class ClaimsWriter {
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private byte[] out = new byte[INITIAL_BUFFER_SIZE * 2];
+    private int len;
+
+    private ClaimsWriter() {}
+
+    void reset() {
+      len = 0;
+      write((byte) '{');
+    }
+
+    void end() {
+      write((byte) '}');
+    }
+
+    byte[] ensureOutput(int size) {
+      if (out.length < size) {
+        out = new byte[Math.max(size, out.length * 2)];
+      }
+      return out;
+    }
+
+    /**
+     * Write a string claim. A <code>null</code> value is written as JSON null.
+     *
+     * @param name the claim name
+     * @param value the claim value
+     * @return this writer
+     */
+    public ClaimsWriter put(String name, String value) {
+      name(name);
+      if (value == null) {
+        writeAscii("null");
+      } else {
+        write((byte) '"');
+        string(value);
+        write((byte) '"');
+      }
+      return this;
+    }
+
+    /**
+     * Write a string claim whose value is the concatenation of a prefix, a separator and a value,
+     * without creating the concatenated string. Like string concatenation, a <code>null</code>
+     * prefix or value is written as <i>null</i>.
+     *
+     * @param name the claim name
+     * @param prefix the prefix
+     * @param separator the separator, a printable ASCII character other than a quote or backslash
+     * @param value the value
+     * @return this writer
+     */
+    public ClaimsWriter put(String name, String prefix, char separator, String value) {
+      name(name);
+      write((byte) '"');
+      string(prefix == null ? "null" : prefix);
+      write((byte) separator);
+      string(value == null ? "null" : value);
+      write((byte) '"');
+      return this;
+    }
+
+    /**
+     * Write a numeric claim.
+     *
+     * @param name the claim name
+     * @param value the claim value
+     * @return this writer
+     */
+    public ClaimsWriter put(String name, long value) {
+      name(name);
+      number(value);
+      return this;
+    }
+
+    /**
+     * Write a JSON object claim.
+     *
+     * @param name the claim name
+     * @param value the claim value
+     * @return this writer
+     */
+    public ClaimsWriter put(String name, JsonObject value) {
+      name(name);
+      if (value == null) {
+        writeAscii("null");
+      } else if (value.isEmpty()) {
+        writeAscii("{}");
+      } else {
+        byte[] encoded = value.encode().getBytes(StandardCharsets.UTF_8);
+        ensure(encoded.length);
+        System.arraycopy(encoded, 0, buf, len, encoded.length);
+        len += encoded.length;
+      }
+      return this;
+    }
+
+    private void name(String name) {
+      if (len > 1) {
+        write((byte) ',');
+      }
+      write((byte) '"');
+      string(name);
+      write((byte) '"');
+      write((byte) ':');
+    }
+
+    private void string(String value) {
+      int length = value.length();
+      ensure(length * 6);
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        if (c >= 0x20 && c < 0x80) {
+          if (c == '"' || c == '\\') {
+            buf[len++] = '\\';
+          }
+          buf[len++] = (byte) c;
+        } else if (c < 0x20) {
+          escapeControl(c);
+        } else if (c < 0x800) {
+          buf[len++] = (byte) (0xc0 | (c >> 6));
+          buf[len++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c)
+            && i + 1 < length
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, value.charAt(++i));
+          buf[len++] = (byte) (0xf0 | (cp >> 18));
+          buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+          buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+          buf[len++] = (byte) (0x80 | (cp & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+          /* unpaired surrogate, replaced like String.getBytes(UTF_8) does */
+          buf[len++] = '?';
+        } else {
+          buf[len++] = (byte) (0xe0 | (c >> 12));
+          buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          buf[len++] = (byte) (0x80 | (c & 0x3f));
+        }
+      }
+    }
+
+    private void escapeControl(char c) {
+      buf[len++] = '\\';
+      switch (c) {
+        case '\b':
+          buf[len++] = 'b';
+          break;
+        case '\t':
+          buf[len++] = 't';
+          break;
+        case '\n':
+          buf[len++] = 'n';
+          break;
+        case '\f':
+          buf[len++] = 'f';
+          break;
+        case '\r':
+          buf[len++] = 'r';
+          break;
+        default:
+          buf[len++] = 'u';
+          buf[len++] = '0';
+          buf[len++] = '0';
+          buf[len++] = HEX[c >> 4];
+          buf[len++] = HEX[c & 0xf];
+      }
+    }
+
+    private void number(long value) {
+      if (value == Long.MIN_VALUE) {
+        writeAscii(Long.toString(value));
+        return;
+      }
+      ensure(20);
+      if (value < 0) {
+        buf[len++] = '-';
+        value = -value;
+      }
+      int start = len;
+      do {
+        buf[len++] = (byte) ('0' + (value % 10));
+        value /= 10;
+      } while (value > 0);
+      /* digits were written in reverse */
+      for (int i = start, j = len - 1; i < j; i++, j--) {
+        byte tmp = buf[i];
+        buf[i] = buf[j];
+        buf[j] = tmp;
+      }
+    }
+
+    private void writeAscii(String value) {
+      int length = value.length();
+      ensure(length);
+      for (int i = 0; i < length; i++) {
+        buf[len++] = (byte) value.charAt(i);
+      }
+    }
+
+    private void write(byte b) {
+      ensure(1);
+      buf[len++] = b;
+    }
+
+    private void ensure(int extra) {
+      if (len + extra > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(len + extra, buf.length * 2));
+      }
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package iudx.aaa.server.token;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The set of JWT keys in the JWT keystore, used to rotate the signing key without downtime. Every
+ * key entry whose alias is the JWT algorithm name (e.g. <em>ES256</em>) or starts with it (e.g.
+ * <em>ES256-2024-06</em>) is part of the set, and the alias is used as the <i>kid</i> of the key.
+ *
+ * <p>Tokens are signed by the newest key, i.e. the key whose certificate has the latest
+ * <em>notBefore</em> date that has already passed. All keys in the set verify tokens and are
+ * published in the JWKS, so tokens signed by an older key stay valid until they expire, and a key
+ * whose certificate is not valid yet is published before it is used. A key is retired by removing
+ * it from the keystore.
+ *
+ * <p>Tokens issued before keys had a <i>kid</i> are verified using the key whose alias is the JWT
+ * algorithm name, if it is still in the keystore.
+ */
+public class JwtKeySet {
+
+  private final JwtSigningAlgorithm algorithm;
+  private final List<JwtKey> keys;
+  private final JwtKey signingKey;
+  private final PrivateKey signingPrivateKey;
+  private final JwtKey defaultKey;
+  private final long nextActivation;
+
+  private JwtKeySet(
+      JwtSigningAlgorithm algorithm,
+      List<JwtKey> keys,
+      JwtKey signingKey,
+      PrivateKey signingPrivateKey,
+      long now) {
+    this.algorithm = algorithm;
+    this.keys = Collections.unmodifiableList(keys);
+    this.signingKey = signingKey;
+    this.signingPrivateKey = signingPrivateKey;
+    this.defaultKey =
+        keys.stream()
+            .filter(key -> key.kid.equalsIgnoreCase(algorithm.getJwtName()))
+            .findFirst()
+            .orElse(signingKey);
+    this.nextActivation =
+        keys.stream()
+            .mapToLong(key -> key.notBefore)
+            .filter(notBefore -> notBefore > now)
+            .min()
+            .orElse(Long.MAX_VALUE);
+  }
+
+  /**
+   * Load the key set from the JWT keystore. Entries that do not hold a key for the algorithm are
+   * ignored.
+   *
+   * @param keyStore the JWT keystore
+   * @param password the password of the keystore, also used for the keys
+   * @param algorithm the JWT signing algorithm
+   * @return the key set
+   * @throws GeneralSecurityException if the keystore has no key that is valid at present, or the
+   *     signing key cannot be read
+   */
+  public static JwtKeySet load(KeyStore keyStore, String password, JwtSigningAlgorithm algorithm)
+      throws GeneralSecurityException {
+    String prefix = algorithm.getJwtName().toLowerCase(Locale.ROOT);
+    List<JwtKey> keys = new ArrayList<JwtKey>();
+
+    for (String alias : Collections.list(keyStore.aliases())) {
+      if (!alias.toLowerCase(Locale.ROOT).startsWith(prefix) || !keyStore.isKeyEntry(alias)) {
+        continue;
+      }
+
+      Certificate cert = keyStore.getCertificate(alias);
+      if (!(cert instanceof X509Certificate) || !usable(cert.getPublicKey(), algorithm)) {
+        continue;
+      }
+      keys.add(new JwtKey(alias, (X509Certificate) cert));
+    }
+
+    /* newest first, ties broken by alias so that all nodes pick the same signing key */
+    keys.sort(
+        Comparator.comparingLong((JwtKey key) -> key.notBefore)
+            .thenComparing(key -> key.kid)
+            .reversed());
+
+    long now = System.currentTimeMillis();
+    JwtKey signingKey =
+        keys.stream()
+            .filter(key -> key.notBefore <= now)
+            .findFirst()
+            .orElseThrow(
+                () ->
+                    new KeyStoreException(
+                        "No valid key with alias starting with "
+                            + algorithm.getJwtName()
+                            + " found in keystore"));
+
+    Key privateKey = keyStore.getKey(signingKey.kid, password.toCharArray());
+    if (!(privateKey instanceof PrivateKey)) {
+      throw new KeyStoreException("Signing key " + signingKey.kid + " cannot be read");
+    }
+    return new JwtKeySet(algorithm, keys, signingKey, (PrivateKey) privateKey, now);
+  }
+
+  private static boolean usable(PublicKey key, JwtSigningAlgorithm algorithm)
+      throws GeneralSecurityException {
+    try {
+      Signature.getInstance(algorithm.getJcaAlgorithm()).initVerify(key);
+      return true;
+    } catch (InvalidKeyException e) {
+      return false;
+    }
+  }
+
+  public JwtSigningAlgorithm getAlgorithm() {
+    return algorithm;
+  }
+
+  /**
+   * Get all keys in the set, newest first.
+   *
+   * @return the keys
+   */
+  public List<JwtKey> getKeys() {
+    return keys;
+  }
+
+  /**
+   * Get the key that tokens are signed with.
+   *
+   * @return the signing key
+   */
+  public JwtKey getSigningKey() {
+    return signingKey;
+  }
+
+  /**
+   * Get the private key of the signing key.
+   *
+   * @return the private key
+   */
+  public PrivateKey getSigningPrivateKey() {
+    return signingPrivateKey;
+  }
+
+  /**
+   * Get the key used to verify tokens that have no <i>kid</i> in their header.
+   *
+   * @return the default key
+   */
+  public JwtKey getDefaultKey() {
+    return defaultKey;
+  }
+
+  /**
+   * Get the time at which a key that is newer than the signing key becomes valid, after which the
+   * key set should be loaded again so that the newer key signs tokens.
+   *
+   * @return the time in epoch milliseconds, or {@link Long#MAX_VALUE} if there is no such key
+   */
+  public long getNextActivation() {
+    return nextActivation;
+  }
+
+  /** A key in the key set. */
+  public static class JwtKey {
+    private final String kid;
+    private final X509Certificate certificate;
+    private final long notBefore;
+
+    JwtKey(String kid, X509Certificate certificate) {
+      this.kid = kid;
+      this.certificate = certificate;
+      this.notBefore = certificate.getNotBefore().getTime();
+    }
+
+    public String getKid() {
+      return kid;
+    }
+
+    public X509Certificate getCertificate() {
+      return certificate;
+    }
+
+    public PublicKey getPublicKey() {
+      return certificate.getPublicKey();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package iudx.aaa.server.token;
+
+import java.security.Security;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * The algorithms that can be used to sign tokens issued by the AAA server. The algorithm is chosen
+ * using the <em>jwtSigningAlgorithm</em> config option; the signing keys are read from the JWT
+ * keystore using aliases starting with the JWT algorithm name (see {@link JwtKeySet}).
+ *
+ * <p>EdDSA (Ed25519) signatures are deterministic and faster to create and verify than ES256
+ * signatures. Since Ed25519 is not available in the JDK before Java 15, the BouncyCastle provider
+ * is registered when EdDSA is used.
+ */
+public enum JwtSigningAlgorithm {
+  ES256("ES256", JwtEncoder.ES256_JCA_ALGORITHM),
+  EDDSA("EdDSA", "Ed25519");
+
+  private final String jwtName;
+  private final String jcaAlgorithm;
+
+  JwtSigningAlgorithm(String jwtName, String jcaAlgorithm) {
+    this.jwtName = jwtName;
+    this.jcaAlgorithm = jcaAlgorithm;
+  }
+
+  /**
+   * Get the JWT (JWA) name of the algorithm, used in the <i>alg</i> header. This is also the alias,
+   * or the prefix of the aliases, of the signing keys in the keystore.
+   *
+   * @return the JWT algorithm name
+   */
+  public String getJwtName() {
+    return jwtName;
+  }
+
+  /**
+   * Get the JCA signature algorithm producing JWS signatures for this algorithm.
+   *
+   * @return the JCA algorithm name
+   */
+  public String getJcaAlgorithm() {
+    return jcaAlgorithm;
+  }
+
+  /**
+   * Get the algorithm from the config value. A null or blank value defaults to ES256.
+   *
+   * @param value the JWT algorithm name from the config
+   * @return the algorithm
+   * @throws IllegalArgumentException if the algorithm is not supported
+   */
+  public static JwtSigningAlgorithm fromConfig(String value) {
+    if (value == null || value.isBlank()) {
+      return ES256;
+    }
+
+    for (JwtSigningAlgorithm alg : values()) {
+      if (alg.jwtName.equalsIgnoreCase(value)) {
+        alg.registerProvider();
+        return alg;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported JWT signing algorithm " + value);
+  }
+
+  /** Register the JCA provider needed by the algorithm, if any. */
+  void registerProvider() {
+    if (this == EDDSA && Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+  }
+}
@@ -0,0 +1,203 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.ERR_SIGNING_QUEUE_FULL;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import iudx.aaa.server.apiserver.util.MetricsRegistry;
+import iudx.aaa.server.apiserver.util.MetricsRegistry.InstanceMeters;
+import iudx.aaa.server.token.JwtEncoder.ClaimsWriter;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Signs JWTs on a dedicated, bounded thread pool instead of the event loop of the calling verticle.
+ * ECDSA signing is the most CPU intensive part of token issuance, so running it on the event loop
+ * limits token throughput to the number of token verticle instances.
+ *
+ * <p>Tokens are encoded using the {@link JwtEncoder}, which keeps a {@link java.security.Signature}
+ * object per thread, so that signers do not contend with each other. Signing requests are queued in
+ * a bounded queue; if the queue is full, the returned future fails immediately instead of the queue
+ * growing without bound. The encoder can be replaced while tokens are being signed, e.g. when the
+ * signing key is rotated; each token is signed entirely by either the previous or the new encoder.
+ *
+ * <p>The signer threads are shared by all signing engines in the JVM, i.e. by all token verticle
+ * instances, so that the pool size bounds the number of signer threads per JVM. The pool is created
+ * by the first engine, using its pool and queue size, and is stopped when the last engine is
+ * closed.
+ *
+ * <p>The following meters are registered:
+ *
+ * <ul>
+ *   <li><em>aaa.token.signing.queue.depth</em> : number of signing requests waiting for a thread
+ *   <li><em>aaa.token.signing.queue.wait</em> : time spent by a request in the queue
+ *   <li><em>aaa.token.signing.duration</em> : time taken to sign a token
+ *   <li><em>aaa.token.signing.rejected</em> : number of requests rejected due to a full queue
+ * </ul>
+ */
+public class JwtSigningEngine {
+
+  private static final Logger LOGGER = LogManager.getLogger(JwtSigningEngine.class);
+
+  private static SignerPool sharedPool;
+  private static int sharedPoolUsers = 0;
+
+  private final Vertx vertx;
+  private volatile JwtEncoder encoder;
+  private final SignerPool pool;
+  private boolean closed = false;
+
+  /**
+   * Create a signing engine.
+   *
+   * @param vertx the Vert.x instance
+   * @param encoder the {@link JwtEncoder} used to encode and sign tokens
+   * @param poolSize the number of signer threads
+   * @param queueSize the maximum number of signing requests that may wait for a signer thread
+   */
+  public JwtSigningEngine(Vertx vertx, JwtEncoder encoder, int poolSize, int queueSize) {
+    this.vertx = vertx;
+    this.encoder = encoder;
+    this.pool = acquirePool(poolSize, queueSize);
+  }
+
+  private static synchronized SignerPool acquirePool(int poolSize, int queueSize) {
+    if (sharedPool == null) {
+      sharedPool = new SignerPool(poolSize, queueSize);
+      LOGGER.info("Info: JWT signing engine started with {} threads", poolSize);
+    }
+    sharedPoolUsers++;
+    return sharedPool;
+  }
+
+  private static synchronized void releasePool() {
+    if (--sharedPoolUsers == 0) {
+      sharedPool.executor.shutdown();
+      sharedPool.meters.close();
+      sharedPool = null;
+    }
+  }
+
+  /**
+   * Encode and sign the claims on a signer thread. The returned future is completed on the context
+   * of the caller.
+   *
+   * @param claims a consumer writing the claims of the token. It is run on the signer thread, so it
+   *     must only capture values that are not modified afterwards
+   * @return a future containing the signed JWT
+   */
+  public Future<String> sign(Consumer<ClaimsWriter> claims) {
+    Context context = vertx.getOrCreateContext();
+    Promise<String> promise = Promise.promise();
+    long queuedAt = System.nanoTime();
+
+    try {
+      pool.executor.execute(
+          () -> {
+            long startedAt = System.nanoTime();
+            pool.queueWait.record(startedAt - queuedAt, TimeUnit.NANOSECONDS);
+            try {
+              String token = encoder.encode(claims);
+              pool.signDuration.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+              context.runOnContext(v -> promise.complete(token));
+            } catch (GeneralSecurityException | RuntimeException e) {
+              LOGGER.error("Fail: Unable to sign JWT; {}", e.getMessage());
+              context.runOnContext(v -> promise.fail(e));
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      pool.rejected.increment();
+      LOGGER.error("Fail: {}", ERR_SIGNING_QUEUE_FULL);
+      promise.fail(ERR_SIGNING_QUEUE_FULL);
+    }
+
+    return promise.future();
+  }
+
+  /**
+   * Replace the encoder used to sign tokens. Signing requests that have already started complete
+   * using the previous encoder.
+   *
+   * @param encoder the new {@link JwtEncoder}
+   */
+  public void setEncoder(JwtEncoder encoder) {
+    this.encoder = encoder;
+  }
+
+  /**
+   * Release the signer threads, stopping them if no other signing engine uses them. Signing
+   * requests already queued are allowed to complete.
+   */
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      releasePool();
+    }
+  }
+
+  /** The signer threads and their meters, shared by all signing engines in the JVM. */
+  private static class SignerPool {
+    private final ThreadPoolExecutor executor;
+    private final Timer queueWait;
+    private final Timer signDuration;
+    private final Counter rejected;
+    private final InstanceMeters meters;
+
+    SignerPool(int poolSize, int queueSize) {
+      AtomicInteger threadCount = new AtomicInteger();
+      ThreadFactory threadFactory =
+          runnable -> {
+            Thread thread = new Thread(runnable, "aaa-jwt-signer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          };
+
+      this.executor =
+          new ThreadPoolExecutor(
+              poolSize,
+              poolSize,
+              0L,
+              TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<Runnable>(queueSize),
+              threadFactory,
+              new ThreadPoolExecutor.AbortPolicy());
+
+      /* the gauge refers to the executor, so it is removed once the pool is stopped (e.g. on
+       * redeployment) and registered again by the next pool */
+      this.meters = MetricsRegistry.instanceMeters("aaa.token.signing.queue.depth");
+      meters.register(
+          (instanceRegistry, tags) ->
+              Gauge.builder("aaa.token.signing.queue.depth", executor, e -> e.getQueue().size())
+                  .description("Number of JWT signing requests waiting for a signer thread")
+                  .tags(tags)
+                  .register(instanceRegistry));
+      MeterRegistry registry = MetricsRegistry.get();
+      this.queueWait =
+          Timer.builder("aaa.token.signing.queue.wait")
+              .description("Time spent by a JWT signing request waiting for a signer thread")
+              .register(registry);
+      this.signDuration =
+          Timer.builder("aaa.token.signing.duration")
+              .description("Time taken to sign a JWT")
+              .register(registry);
+      this.rejected =
+          Counter.builder("aaa.token.signing.rejected")
+              .description("Number of JWT signing requests rejected due to a full queue")
+              .register(registry);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.ERR_VERIFY_QUEUE_FULL;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import iudx.aaa.server.apiserver.util.MetricsRegistry;
+import iudx.aaa.server.apiserver.util.MetricsRegistry.InstanceMeters;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Verifies JWT signatures on a dedicated, bounded thread pool instead of the event loop of the
+ * calling verticle. Introspection verifies a signature for every token not found in the
+ * introspection cache, and batches of tokens are verified in parallel chunks.
+ *
+ * <p>The pool is separate from the {@link JwtSigningEngine}, so that a burst of introspections
+ * cannot fill the signing queue and cause token requests to be rejected, and the other way round.
+ * As with signing, the verifier threads are shared by all token verticle instances in the JVM; the
+ * pool is created by the first engine and stopped when the last engine is closed. If the queue is
+ * full, the returned future fails immediately.
+ *
+ * <p>The following meters are registered:
+ *
+ * <ul>
+ *   <li><em>aaa.token.verify.queue.depth</em> : number of verification tasks waiting for a thread
+ *   <li><em>aaa.token.verify.queue.wait</em> : time spent by a task in the queue
+ *   <li><em>aaa.token.verify.duration</em> : time taken to run a verification task
+ *   <li><em>aaa.token.verify.rejected</em> : number of verification tasks rejected due to a full
+ *       queue
+ * </ul>
+ */
+public class JwtVerificationEngine {
+
+  private static final Logger LOGGER = LogManager.getLogger(JwtVerificationEngine.class);
+
+  private static VerifierPool sharedPool;
+  private static int sharedPoolUsers = 0;
+
+  private final Vertx vertx;
+  private final VerifierPool pool;
+  private boolean closed = false;
+
+  /**
+   * Create a verification engine.
+   *
+   * @param vertx the Vert.x instance
+   * @param poolSize the number of verifier threads
+   * @param queueSize the maximum number of verification tasks that may wait for a verifier thread
+   */
+  public JwtVerificationEngine(Vertx vertx, int poolSize, int queueSize) {
+    this.vertx = vertx;
+    this.pool = acquirePool(poolSize, queueSize);
+  }
+
+  private static synchronized VerifierPool acquirePool(int poolSize, int queueSize) {
+    if (sharedPool == null) {
+      sharedPool = new VerifierPool(poolSize, queueSize);
+      LOGGER.info("Info: JWT verification engine started with {} threads", poolSize);
+    }
+    sharedPoolUsers++;
+    return sharedPool;
+  }
+
+  private static synchronized void releasePool() {
+    if (--sharedPoolUsers == 0) {
+      sharedPool.executor.shutdown();
+      sharedPool.meters.close();
+      sharedPool = null;
+    }
+  }
+
+  /**
+   * Run a verification task, e.g. verifying the signatures of a chunk of tokens, on a verifier
+   * thread. The returned future is completed on the context of the caller.
+   *
+   * @param task the task
+   * @return a future containing the result of the task
+   */
+  public <T> Future<T> verify(Callable<T> task) {
+    Context context = vertx.getOrCreateContext();
+    Promise<T> promise = Promise.promise();
+    long queuedAt = System.nanoTime();
+
+    try {
+      pool.executor.execute(
+          () -> {
+            long startedAt = System.nanoTime();
+            pool.queueWait.record(startedAt - queuedAt, TimeUnit.NANOSECONDS);
+            try {
+              T result = task.call();
+              pool.duration.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+              context.runOnContext(v -> promise.complete(result));
+            } catch (Exception e) {
+              context.runOnContext(v -> promise.fail(e));
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      pool.rejected.increment();
+      LOGGER.error("Fail: {}", ERR_VERIFY_QUEUE_FULL);
+      promise.fail(ERR_VERIFY_QUEUE_FULL);
+    }
+
+    return promise.future();
+  }
+
+  /**
+   * Release the verifier threads, stopping them if no other verification engine uses them. Tasks
+   * already queued are allowed to complete.
+   */
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      releasePool();
+    }
+  }
+
+  /** The verifier threads and their meters, shared by all verification engines in the JVM. */
+  private static class VerifierPool {
+    private final ThreadPoolExecutor executor;
+    private final Timer queueWait;
+    private final Timer duration;
+    private final Counter rejected;
+    private final InstanceMeters meters;
+
+    VerifierPool(int poolSize, int queueSize) {
+      AtomicInteger threadCount = new AtomicInteger();
+      ThreadFactory threadFactory =
+          runnable -> {
+            Thread thread =
+                new Thread(runnable, "aaa-jwt-verifier-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          };
+
+      this.executor =
+          new ThreadPoolExecutor(
+              poolSize,
+              poolSize,
+              0L,
+              TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<Runnable>(queueSize),
+              threadFactory,
+              new ThreadPoolExecutor.AbortPolicy());
+
+      this.meters = MetricsRegistry.instanceMeters("aaa.token.verify.queue.depth");
+      meters.register(
+          (instanceRegistry, tags) ->
+              Gauge.builder("aaa.token.verify.queue.depth", executor, e -> e.getQueue().size())
+                  .description("Number of JWT verification tasks waiting for a verifier thread")
+                  .tags(tags)
+                  .register(instanceRegistry));
+      MeterRegistry registry = MetricsRegistry.get();
+      this.queueWait =
+          Timer.builder("aaa.token.verify.queue.wait")
+              .description("Time spent by a JWT verification task waiting for a verifier thread")
+              .register(registry);
+      this.duration =
+          Timer.builder("aaa.token.verify.duration")
+              .description("Time taken to run a JWT verification task")
+              .register(registry);
+      this.rejected =
+          Counter.builder("aaa.token.verify.rejected")
+              .description("Number of JWT verification tasks rejected due to a full queue")
+              .register(registry);
+    }
+  }
+}
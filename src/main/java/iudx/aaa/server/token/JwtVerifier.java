@@ -0,0 +1,323 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.EXP;
+import static iudx.aaa.server.token.Constants.IAT;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.authentication.TokenCredentials;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A specialized JWT verifier for the tokens issued by the AAA server, used for introspection. It
+ * accepts the same tokens as {@link JWTAuth#authenticate(TokenCredentials)} for our keys, but
+ * avoids the generic authentication path, which creates a <code>User</code> holding a principal and
+ * an attributes JSON that the token service then copies the claims out of:
+ *
+ * <ul>
+ *   <li>the public keys are parsed once and {@link Signature} objects are created once per thread
+ *       and key, and reused
+ *   <li>the header is only parsed until it is known to be a header of our tokens; after that, the
+ *       header segment is compared as is
+ *   <li>the signature is verified over the token bytes directly, and the claims are decoded
+ *       straight from the payload into the {@link JsonObject} returned to the caller
+ * </ul>
+ *
+ * <p>The key is chosen using the <i>kid</i> in the header; tokens without a <i>kid</i> are verified
+ * using the default key of the {@link JwtKeySet}. The keys can be replaced while tokens are being
+ * verified using {@link #setKeys(JwtKeySet)}, e.g. when the signing key is rotated.
+ *
+ * <p>Like the Vert.x provider (with no leeway), tokens whose <em>exp</em> has passed or whose
+ * <em>iat</em> or <em>nbf</em> is in the future are rejected.
+ */
+public class JwtVerifier {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final String NBF = "nbf";
+  /* Headers of verified tokens that are remembered; there is usually one per key */
+  private static final int MAX_VERIFIED_HEADERS = 8;
+
+  private final String jwtName;
+  private final String jcaAlgorithm;
+  private volatile Keys keys;
+
+  /**
+   * Create a verifier using a single key. Tokens with a <i>kid</i> in their header are rejected.
+   *
+   * @param key the public key that tokens are verified with
+   * @param algorithm the algorithm tokens are signed with
+   * @throws GeneralSecurityException if the key cannot be used with the algorithm
+   */
+  public JwtVerifier(PublicKey key, JwtSigningAlgorithm algorithm)
+      throws GeneralSecurityException {
+    this.jwtName = algorithm.getJwtName();
+    this.jcaAlgorithm = algorithm.getJcaAlgorithm();
+    this.keys = new Keys(Map.of(), signatures(key));
+  }
+
+  /**
+   * Create a verifier using the keys of a key set.
+   *
+   * @param keySet the key set
+   * @throws GeneralSecurityException if a key cannot be used with the algorithm of the key set
+   */
+  public JwtVerifier(JwtKeySet keySet) throws GeneralSecurityException {
+    this.jwtName = keySet.getAlgorithm().getJwtName();
+    this.jcaAlgorithm = keySet.getAlgorithm().getJcaAlgorithm();
+    this.keys = keys(keySet);
+  }
+
+  /**
+   * Replace the keys tokens are verified with. Verifications in progress complete using the
+   * previous keys.
+   *
+   * @param keySet the new key set, using the same algorithm
+   * @throws GeneralSecurityException if a key cannot be used with the algorithm
+   */
+  public void setKeys(JwtKeySet keySet) throws GeneralSecurityException {
+    if (!jwtName.equals(keySet.getAlgorithm().getJwtName())) {
+      throw new IllegalArgumentException("Key set algorithm does not match");
+    }
+    this.keys = keys(keySet);
+  }
+
+  private Keys keys(JwtKeySet keySet) throws GeneralSecurityException {
+    Map<String, ThreadLocal<Signature>> byKid = new HashMap<String, ThreadLocal<Signature>>();
+    for (JwtKeySet.JwtKey key : keySet.getKeys()) {
+      byKid.put(key.getKid(), signatures(key.getPublicKey()));
+    }
+    return new Keys(byKid, byKid.get(keySet.getDefaultKey().getKid()));
+  }
+
+  private ThreadLocal<Signature> signatures(PublicKey key) throws GeneralSecurityException {
+    /* fail early if the key does not match the algorithm */
+    Signature.getInstance(jcaAlgorithm).initVerify(key);
+
+    return ThreadLocal.withInitial(
+        () -> {
+          try {
+            Signature signature = Signature.getInstance(jcaAlgorithm);
+            signature.initVerify(key);
+            return signature;
+          } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+          }
+        });
+  }
+
+  /**
+   * Verify a token and decode its claims.
+   *
+   * @param token the encoded token
+   * @return the decoded claims
+   * @throws SignatureException if the token is malformed, is signed by an unknown key, the
+   *     signature is invalid or the token is expired or not yet valid
+   */
+  public JsonObject verify(String token) throws SignatureException {
+    int firstDot = token.indexOf('.');
+    int secondDot = firstDot < 0 ? -1 : token.indexOf('.', firstDot + 1);
+    if (firstDot <= 0 || secondDot < 0 || token.indexOf('.', secondDot + 1) >= 0) {
+      throw new SignatureException("Invalid JWT format");
+    }
+
+    Keys current = keys;
+    ThreadLocal<Signature> signatures = null;
+    for (VerifiedHeader header : current.verifiedHeaders) {
+      if (header.segment.length() == firstDot
+          && token.regionMatches(0, header.segment, 0, firstDot)) {
+        signatures = header.signatures;
+        break;
+      }
+    }
+
+    boolean knownHeader = signatures != null;
+    if (!knownHeader) {
+      signatures = current.forKid(checkHeader(token.substring(0, firstDot)));
+    }
+
+    byte[] bytes = token.getBytes(StandardCharsets.US_ASCII);
+    if (!verifySignature(signatures, bytes, secondDot)) {
+      throw new SignatureException("Signature verification failed");
+    }
+    if (!knownHeader) {
+      current.addVerifiedHeader(new VerifiedHeader(token.substring(0, firstDot), signatures));
+    }
+
+    JsonObject claims;
+    try {
+      byte[] payload = decode(bytes, firstDot + 1, secondDot);
+      claims = new JsonObject(Buffer.buffer(payload));
+    } catch (IllegalArgumentException | DecodeException | ClassCastException e) {
+      throw new SignatureException("Invalid JWT payload");
+    }
+
+    checkTimes(claims, System.currentTimeMillis() / 1000);
+    return claims;
+  }
+
+  private static boolean verifySignature(
+      ThreadLocal<Signature> signatures, byte[] bytes, int secondDot) throws SignatureException {
+    byte[] signatureBytes;
+    try {
+      signatureBytes = decode(bytes, secondDot + 1, bytes.length);
+    } catch (IllegalArgumentException e) {
+      throw new SignatureException("Invalid JWT signature encoding");
+    }
+
+    Signature signature = signatures.get();
+    try {
+      signature.update(bytes, 0, secondDot);
+      return signature.verify(signatureBytes);
+    } catch (SignatureException e) {
+      /* verify resets the signature in all cases, but update may leave data behind */
+      signatures.remove();
+      throw e;
+    }
+  }
+
+  /**
+   * Base64url decode part of a byte array without copying it to a String first.
+   *
+   * @param bytes the array
+   * @param from the start of the encoded part, inclusive
+   * @param to the end of the encoded part, exclusive
+   * @return the decoded bytes
+   */
+  private static byte[] decode(byte[] bytes, int from, int to) {
+    ByteBuffer decoded = Base64.getUrlDecoder().decode(ByteBuffer.wrap(bytes, from, to - from));
+    byte[] array = decoded.array();
+    int offset = decoded.arrayOffset();
+    if (offset == 0 && decoded.remaining() == array.length) {
+      return array;
+    }
+    return Arrays.copyOfRange(array, offset, offset + decoded.limit());
+  }
+
+  /**
+   * Check that the header is a header of our tokens.
+   *
+   * @param headerSegment the base64url encoded header
+   * @return the <i>kid</i> in the header, or null if there is none
+   * @throws SignatureException if the header is malformed or the algorithm is not ours
+   */
+  private String checkHeader(String headerSegment) throws SignatureException {
+    boolean algChecked = false;
+    String kid = null;
+
+    try (JsonParser parser =
+        JSON_FACTORY.createParser(Base64.getUrlDecoder().decode(headerSegment))) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new SignatureException("Invalid JWT header");
+      }
+
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+
+        if ("alg".equals(field)) {
+          if (value != JsonToken.VALUE_STRING || !jwtName.equals(parser.getText())) {
+            throw new SignatureException("Unsupported JWT algorithm");
+          }
+          algChecked = true;
+        } else if ("kid".equals(field)) {
+          if (value != JsonToken.VALUE_STRING) {
+            throw new SignatureException("Invalid JWT key ID");
+          }
+          kid = parser.getText();
+        }
+        parser.skipChildren();
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      throw new SignatureException("Invalid JWT header");
+    }
+
+    if (!algChecked) {
+      throw new SignatureException("Missing JWT algorithm");
+    }
+    return kid;
+  }
+
+  private static void checkTimes(JsonObject claims, long now) throws SignatureException {
+    try {
+      Long exp = claims.getLong(EXP);
+      if (exp != null && now >= exp) {
+        throw new SignatureException("Expired JWT token");
+      }
+
+      Long iat = claims.getLong(IAT);
+      if (iat != null && iat > now) {
+        throw new SignatureException("Invalid iat");
+      }
+
+      Long nbf = claims.getLong(NBF);
+      if (nbf != null && nbf > now) {
+        throw new SignatureException("Invalid JWT token: token cannot be used before nbf");
+      }
+    } catch (ClassCastException e) {
+      throw new SignatureException("Invalid JWT claims");
+    }
+  }
+
+  /** The keys in use, and the headers of tokens verified using them. */
+  private static class Keys {
+    private final Map<String, ThreadLocal<Signature>> byKid;
+    private final ThreadLocal<Signature> defaultKey;
+    /* copy on write, since headers are added rarely */
+    private volatile List<VerifiedHeader> verifiedHeaders = List.of();
+
+    Keys(Map<String, ThreadLocal<Signature>> byKid, ThreadLocal<Signature> defaultKey) {
+      this.byKid = byKid;
+      this.defaultKey = defaultKey;
+    }
+
+    ThreadLocal<Signature> forKid(String kid) throws SignatureException {
+      if (kid == null) {
+        return defaultKey;
+      }
+      ThreadLocal<Signature> signatures = byKid.get(kid);
+      if (signatures == null) {
+        throw new SignatureException("Unknown JWT key ID");
+      }
+      return signatures;
+    }
+
+    synchronized void addVerifiedHeader(VerifiedHeader header) {
+      List<VerifiedHeader> headers = verifiedHeaders;
+      if (headers.size() >= MAX_VERIFIED_HEADERS
+          || headers.stream().anyMatch(h -> h.segment.equals(header.segment))) {
+        return;
+      }
+      List<VerifiedHeader> updated = new ArrayList<VerifiedHeader>(headers);
+      updated.add(header);
+      verifiedHeaders = List.copyOf(updated);
+    }
+  }
+
+  /** The header segment of a verified token and the key that verified it. */
+  private static class VerifiedHeader {
+    private final String segment;
+    private final ThreadLocal<Signature> signatures;
+
+    VerifiedHeader(String segment, ThreadLocal<Signature> signatures) {
+      this.segment = segment;
+      this.signatures = signatures;
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.APPEND_REVOCATION_LOG;
+import static iudx.aaa.server.token.Constants.APPEND_REVOCATION_LOG_BULK;
+import static iudx.aaa.server.token.Constants.AUDIENCE;
+import static iudx.aaa.server.token.Constants.CLAIM_EXPIRY;
+import static iudx.aaa.server.token.Constants.CURSOR;
+import static iudx.aaa.server.token.Constants.GET_REVOCATION_LOG;
+import static iudx.aaa.server.token.Constants.GET_REVOCATION_LOG_ALL;
+import static iudx.aaa.server.token.Constants.GET_REVOCATION_LOG_HEAD;
+import static iudx.aaa.server.token.Constants.LOCK_REVOCATION_LOG;
+import static iudx.aaa.server.token.Constants.PRUNE_REVOCATION_LOG;
+import static iudx.aaa.server.token.Constants.PUBLISHED_AT;
+import static iudx.aaa.server.token.Constants.REVOCATION_EVENTS_ADDRESS;
+import static iudx.aaa.server.token.Constants.REVOCATIONS;
+import static iudx.aaa.server.token.Constants.REVOKED_AT;
+import static iudx.aaa.server.token.Constants.SUB;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.pgclient.PgPool;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The revocation log, stored in the <em>token_revocation_log</em> table. An entry
+ * <tt>(sub, audience, revokedAt)</tt> means that tokens issued to the user <em>sub</em> for the
+ * server <em>audience</em> before <em>revokedAt</em> are revoked. Resource servers and APDs read
+ * the entries for their audience since a cursor, so that a server that missed a revocation request
+ * (e.g. because it was down) can catch up.
+ *
+ * <p>The log is compacted: there is one entry per user and audience, and revoking again moves the
+ * entry to the end of the log. Entries older than the token lifetime are pruned periodically,
+ * since all tokens they revoke have expired.
+ *
+ * <p>Entries are written and pruned holding a transaction-level advisory lock, so that
+ * transactions writing to the log commit in sequence order. A reader that has seen an entry has
+ * therefore also seen all entries before it, and reading after a cursor never skips an entry.
+ *
+ * <p>Many server instances poll the log for the same audience, and most polls find nothing new.
+ * The latest sequence number of each audience is cached for a second, so that such polls are
+ * answered without reading the log.
+ *
+ * <p>Each entry appended is also published on the event bus at {@link
+ * Constants#REVOCATION_EVENTS_ADDRESS}, so that it can be pushed to servers subscribed to the
+ * revocation stream of the audience.
+ */
+public class RevocationLog {
+
+  private static final Logger LOGGER = LogManager.getLogger(RevocationLog.class);
+
+  private static final long HEAD_CACHE_TTL_MS = 1000;
+  private static final long HEAD_CACHE_MAX_SIZE = 10000;
+  private static final long PRUNE_INTERVAL_MS = 60 * 60 * 1000;
+  private static final int SYNC_PAGE_SIZE = 1000;
+
+  private final Vertx vertx;
+  private final PgPool pool;
+  private final Cache<String, Future<Long>> heads;
+  private final long timerId;
+
+  /**
+   * Create the revocation log. Must be called from the context of the owning verticle, since the
+   * prune timer runs on it.
+   *
+   * @param vertx the Vert.x instance
+   * @param pool the Postgres pool
+   */
+  public RevocationLog(Vertx vertx, PgPool pool) {
+    this.vertx = vertx;
+    this.pool = pool;
+    this.heads =
+        CacheBuilder.newBuilder()
+            .maximumSize(HEAD_CACHE_MAX_SIZE)
+            .expireAfterWrite(HEAD_CACHE_TTL_MS, TimeUnit.MILLISECONDS)
+            .build();
+    this.timerId = vertx.setPeriodic(PRUNE_INTERVAL_MS, id -> prune());
+  }
+
+  /**
+   * Add an entry to the log, or move the existing entry for the user and audience to the end of the
+   * log, and publish it to the revocation stream.
+   *
+   * @param userId the user whose tokens are revoked
+   * @param audience the URL of the server at which the tokens are revoked
+   * @return a Future of the time of revocation, in seconds since the epoch
+   */
+  public Future<Long> append(String userId, String audience) {
+    Tuple tuple = Tuple.of(UUID.fromString(userId), audience);
+    return pool.withTransaction(
+            conn ->
+                conn.query(LOCK_REVOCATION_LOG)
+                    .execute()
+                    .compose(lock -> conn.preparedQuery(APPEND_REVOCATION_LOG).execute(tuple))
+                    .map(rows -> rows.iterator().next().getLong("revoked_at")))
+        .map(
+            revokedAt -> {
+              heads.invalidate(audience);
+              JsonObject revocation = new JsonObject().put(SUB, userId).put(REVOKED_AT, revokedAt);
+              JsonObject event =
+                  new JsonObject()
+                      .put(AUDIENCE, audience)
+                      .put(REVOCATIONS, new JsonArray().add(revocation))
+                      .put(PUBLISHED_AT, System.currentTimeMillis());
+              vertx.eventBus().publish(REVOCATION_EVENTS_ADDRESS, event);
+              return revokedAt;
+            });
+  }
+
+  /**
+   * Add or move the entries of several users for an audience in one statement, and publish them to
+   * the revocation stream as one event. Users that do not exist are skipped, since they cannot
+   * have been issued tokens.
+   *
+   * @param userIds the users whose tokens are revoked
+   * @param audience the URL of the server at which the tokens are revoked
+   * @return a Future of JsonArray of the entries as <tt>{sub, revokedAt}</tt> objects, with
+   *     <em>revokedAt</em> in seconds since the epoch
+   */
+  public Future<JsonArray> appendAll(List<String> userIds, String audience) {
+    Tuple tuple = Tuple.of(userIds.stream().map(UUID::fromString).toArray(UUID[]::new), audience);
+    return pool.withTransaction(
+            conn ->
+                conn.query(LOCK_REVOCATION_LOG)
+                    .execute()
+                    .compose(lock -> conn.preparedQuery(APPEND_REVOCATION_LOG_BULK).execute(tuple))
+                    .map(
+                        rows -> {
+                          JsonArray revocations = new JsonArray();
+                          for (Row row : rows) {
+                            revocations.add(
+                                new JsonObject()
+                                    .put(SUB, row.getUUID("user_id").toString())
+                                    .put(REVOKED_AT, row.getLong("revoked_at")));
+                          }
+                          return revocations;
+                        }))
+        .map(
+            revocations -> {
+              heads.invalidate(audience);
+              JsonObject event =
+                  new JsonObject()
+                      .put(AUDIENCE, audience)
+                      .put(REVOCATIONS, revocations)
+                      .put(PUBLISHED_AT, System.currentTimeMillis());
+              vertx.eventBus().publish(REVOCATION_EVENTS_ADDRESS, event);
+              return revocations;
+            });
+  }
+
+  /**
+   * Read the entries of an audience after a cursor, in log order.
+   *
+   * @param audience the URL of the server
+   * @param since the cursor returned by the previous read, 0 to read from the start
+   * @param limit the maximum number of entries to return
+   * @return a Future of JsonObject containing the entries in <em>revocations</em> as
+   *     <tt>{sub, revokedAt}</tt> objects, with <em>revokedAt</em> in seconds since the epoch, and
+   *     the <em>cursor</em> to read the next entries from
+   */
+  public Future<JsonObject> read(String audience, long since, int limit) {
+    return head(audience)
+        .compose(
+            head -> {
+              if (head <= since) {
+                return Future.succeededFuture(page(since, new JsonArray()));
+              }
+
+              Tuple tuple = Tuple.of(audience, since, limit);
+              return pool.withConnection(
+                  conn ->
+                      conn.preparedQuery(GET_REVOCATION_LOG)
+                          .execute(tuple)
+                          .map(
+                              rows -> {
+                                long cursor = since;
+                                JsonArray revocations = new JsonArray();
+                                for (Row row : rows) {
+                                  revocations.add(
+                                      new JsonObject()
+                                          .put(SUB, row.getUUID("user_id").toString())
+                                          .put(REVOKED_AT, row.getLong("revoked_at")));
+                                  cursor = row.getLong("seq");
+                                }
+                                return page(cursor, revocations);
+                              }));
+            });
+  }
+
+  private static JsonObject page(long cursor, JsonArray revocations) {
+    return new JsonObject().put(CURSOR, cursor).put(REVOCATIONS, revocations);
+  }
+
+  /**
+   * Get the latest sequence number of an audience. Concurrent reads for an audience share the same
+   * query, and the result is cached for a short while. Appending through this instance clears the
+   * cached value of the audience.
+   */
+  private Future<Long> head(String audience) {
+    try {
+      return heads.get(
+          audience,
+          () -> {
+            Future<Long> head =
+                pool.withConnection(
+                    conn ->
+                        conn.preparedQuery(GET_REVOCATION_LOG_HEAD)
+                            .execute(Tuple.of(audience))
+                            .map(rows -> rows.iterator().next().getLong("seq")));
+            head.onFailure(err -> heads.invalidate(audience));
+            return head;
+          });
+    } catch (ExecutionException e) {
+      return Future.failedFuture(e.getCause());
+    }
+  }
+
+  /**
+   * Update a revoked subject index with the entries of all audiences after the cursor of the index.
+   *
+   * @param index the index
+   * @return a Future of the number of entries added to the index
+   */
+  public Future<Integer> sync(RevokedSubjectIndex index) {
+    return syncPage(index, 0);
+  }
+
+  private Future<Integer> syncPage(RevokedSubjectIndex index, int synced) {
+    Tuple tuple = Tuple.of(index.cursor(), SYNC_PAGE_SIZE);
+    return pool.withConnection(conn -> conn.preparedQuery(GET_REVOCATION_LOG_ALL).execute(tuple))
+        .compose(
+            rows -> {
+              for (Row row : rows) {
+                index.put(
+                    row.getUUID("user_id"), row.getString("audience"), row.getLong("revoked_at"));
+                index.setCursor(row.getLong("seq"));
+              }
+              if (rows.size() < SYNC_PAGE_SIZE) {
+                return Future.succeededFuture(synced + rows.size());
+              }
+              return syncPage(index, synced + rows.size());
+            });
+  }
+
+  /**
+   * Remove entries older than the token lifetime. Every token verticle instance prunes the log, so
+   * the delete is done holding the log lock: prunes of several instances run one after the other,
+   * and a prune that waited for another finds nothing left to delete instead of contending for the
+   * same rows.
+   *
+   * @return a Future of the number of entries removed
+   */
+  Future<Integer> prune() {
+    return pool.withTransaction(
+            conn ->
+                conn.query(LOCK_REVOCATION_LOG)
+                    .execute()
+                    .compose(
+                        lock ->
+                            conn.preparedQuery(PRUNE_REVOCATION_LOG)
+                                .execute(Tuple.of(CLAIM_EXPIRY)))
+                    .map(rows -> rows.rowCount()))
+        .onSuccess(count -> LOGGER.debug("Info: Pruned {} revocation log entries", count))
+        .onFailure(err -> LOGGER.error("Fail: Revocation log prune failed; {}", err.getMessage()));
+  }
+
+  /** Stop pruning the log. */
+  public void close() {
+    vertx.cancelTimer(timerId);
+  }
+}
@@ -0,0 +1,420 @@
+package iudx.aaa.server.token;
+
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import iudx.aaa.server.apiserver.util.MetricsRegistry;
+import iudx.aaa.server.apiserver.util.MetricsRegistry.InstanceMeters;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An index of the time at which the tokens of a user were last revoked for an audience, used to
+ * reject revoked tokens during introspection. The index is kept in memory-mapped files, so that it
+ * holds millions of entries outside the Java heap, and survives restarts along with the cursor of
+ * the revocation log it was last updated from.
+ *
+ * <p>The index is made of two generations, each an open addressing hash table in its own file. New
+ * entries are written to the current generation; lookups check both. Once the current generation is
+ * older than the token lifetime, the previous generation is dropped and a new one is started. All
+ * entries of a dropped generation are older than the token lifetime, and all tokens they revoke
+ * have expired. Entries are keyed by a 128-bit hash of the user ID and audience.
+ *
+ * <p>The index is thread safe. Lookups do not lock: they read the generations through a volatile
+ * reference, which is replaced on rotation, and a slot is published by writing its revocation time
+ * last, with release semantics. Only writes (puts, cursor updates and rotation) are serialized.
+ *
+ * <p>A file may only be opened by one index at a time, so the token verticle instances of a JVM
+ * share one index per path, obtained using {@link #acquire(Path, int, long)}. The meter
+ * <em>aaa.token.revoked.index.size</em> gives the number of entries in the current generation,
+ * tagged with the <em>instance</em> of the index, and <em>aaa.token.revoked.index.full</em> counts
+ * entries dropped due to a full generation.
+ */
+public class RevokedSubjectIndex {
+
+  private static final Logger LOGGER = LogManager.getLogger(RevokedSubjectIndex.class);
+
+  private static final long MAGIC = 0x4955445852455631L;
+  private static final int HEADER_SIZE = 64;
+  private static final int SLOT_SIZE = 24;
+  private static final double MAX_LOAD_FACTOR = 0.75;
+
+  /* Header offsets */
+  private static final int MAGIC_OFFSET = 0;
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int CREATED_AT_OFFSET = 16;
+  private static final int SIZE_OFFSET = 24;
+  private static final int CURSOR_OFFSET = 32;
+
+  /* Slot offsets. A slot is empty if its revocation time is 0 */
+  private static final int KEY_HI_OFFSET = 0;
+  private static final int KEY_LO_OFFSET = 8;
+  private static final int REVOKED_AT_OFFSET = 16;
+
+  /* Atomic access to the aligned longs of a mapped file, in the byte order of ByteBuffer */
+  private static final VarHandle LONGS =
+      MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  /* Indexes shared by the verticle instances of this JVM, by absolute path */
+  private static final Map<Path, RevokedSubjectIndex> shared =
+      new HashMap<Path, RevokedSubjectIndex>();
+
+  private final Path[] paths;
+  private final int capacity;
+  private final long lifetimeSec;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+  private final Counter full;
+  private final InstanceMeters meters;
+
+  private volatile Generations generations;
+  private Path sharedPath;
+  private int references;
+
+  /**
+   * Get the index shared by this JVM for a path, opening it if no verticle instance holds it. The
+   * index must be given back using {@link #release()}.
+   *
+   * @param path the path of the index
+   * @param capacity the number of slots in a generation, used if the index is opened
+   * @param lifetimeSec the token lifetime (in seconds), used if the index is opened
+   * @return the shared index
+   * @throws IOException if the files cannot be opened
+   */
+  public static synchronized RevokedSubjectIndex acquire(Path path, int capacity, long lifetimeSec)
+      throws IOException {
+    Path key = path.toAbsolutePath().normalize();
+    RevokedSubjectIndex index = shared.get(key);
+    if (index == null) {
+      index = new RevokedSubjectIndex(path, capacity, lifetimeSec);
+      index.sharedPath = key;
+      shared.put(key, index);
+    }
+    index.references++;
+    return index;
+  }
+
+  /** Give back an index obtained using {@link #acquire}, closing it once no instance holds it. */
+  public void release() {
+    synchronized (RevokedSubjectIndex.class) {
+      if (--references > 0) {
+        return;
+      }
+      shared.remove(sharedPath);
+    }
+    close();
+  }
+
+  /**
+   * Open the index, creating its files if they do not exist. Files created with a different
+   * capacity are discarded.
+   *
+   * @param path the path of the index. The generations are stored in files with the suffixes
+   *     <tt>.0</tt> and <tt>.1</tt>
+   * @param capacity the number of slots in a generation, rounded up to a power of 2. A generation
+   *     holds up to 75% of its capacity
+   * @param lifetimeSec the token lifetime (in seconds), after which a generation is dropped
+   * @throws IOException if the files cannot be opened
+   */
+  public RevokedSubjectIndex(Path path, int capacity, long lifetimeSec) throws IOException {
+    int rounded = Integer.highestOneBit(Math.max(capacity, 1));
+    rounded = rounded < capacity ? rounded << 1 : rounded;
+    if (capacity < 1 || rounded > (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE) {
+      throw new IllegalArgumentException("Invalid revoked subject index capacity " + capacity);
+    }
+    this.capacity = rounded;
+    this.lifetimeSec = lifetimeSec;
+    this.paths = new Path[] {Path.of(path + ".0"), Path.of(path + ".1")};
+
+    lockChannel =
+        FileChannel.open(
+            Path.of(path + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock acquired;
+    try {
+      acquired = lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      acquired = null;
+    }
+    if (acquired == null) {
+      lockChannel.close();
+      throw new IllegalStateException("Revoked subject index " + path + " is already open");
+    }
+    lock = acquired;
+
+    Generation first = Generation.open(paths[0], this.capacity);
+    Generation second = Generation.open(paths[1], this.capacity);
+    if (first.createdAt() >= second.createdAt()) {
+      generations = new Generations(first, second);
+    } else {
+      generations = new Generations(second, first);
+    }
+    rotateIfDue();
+
+    MeterRegistry registry = MetricsRegistry.get();
+    String gaugeName = "aaa.token.revoked.index.size";
+    this.meters = MetricsRegistry.instanceMeters(gaugeName);
+    meters.register(
+        (instanceRegistry, tags) ->
+            Gauge.builder(gaugeName, this, RevokedSubjectIndex::size)
+                .description(
+                    "Number of entries in the current generation of the revoked subject index")
+                .tags(tags)
+                .register(instanceRegistry));
+    this.full =
+        Counter.builder("aaa.token.revoked.index.full")
+            .description("Number of entries dropped since the revoked subject index was full")
+            .register(registry);
+
+    LOGGER.info(
+        "Info: Revoked subject index opened with {} entries, cursor {}",
+        generations.current.size() + generations.previous.size(),
+        generations.current.cursor());
+  }
+
+  /**
+   * Record that tokens issued to a user for an audience before a time are revoked. An earlier
+   * revocation time does not replace a later one.
+   *
+   * @param sub the user ID
+   * @param audience the audience of the tokens
+   * @param revokedAt the time of revocation, in seconds since the epoch
+   * @return false if the entry was dropped since the index is full
+   */
+  public synchronized boolean put(UUID sub, String audience, long revokedAt) {
+    rotateIfDue();
+
+    ByteBuffer key = key(sub, audience);
+    if (generations.current.put(key.getLong(0), key.getLong(8), revokedAt)) {
+      return true;
+    }
+
+    full.increment();
+    LOGGER.error("Fail: Revoked subject index full; dropped revocation of {}", sub);
+    return false;
+  }
+
+  /**
+   * Get the time at which tokens issued to a user for an audience were last revoked. Does not
+   * wait for concurrent writes; a revocation being recorded at the same time may not be seen.
+   *
+   * @param sub the user ID
+   * @param audience the audience of the tokens
+   * @return the time of revocation in seconds since the epoch, or 0 if there is none
+   */
+  public long revokedAt(UUID sub, String audience) {
+    ByteBuffer key = key(sub, audience);
+    long hi = key.getLong(0);
+    long lo = key.getLong(8);
+    Generations read = generations;
+    return Math.max(read.current.get(hi, lo), read.previous.get(hi, lo));
+  }
+
+  /**
+   * Get the cursor of the revocation log up to which the index has been updated.
+   *
+   * @return the cursor, 0 if the index is new
+   */
+  public long cursor() {
+    return generations.current.cursor();
+  }
+
+  /**
+   * Set the cursor of the revocation log up to which the index has been updated. The cursor is not
+   * moved back, since several instances may sync the index at once.
+   *
+   * @param cursor the cursor
+   */
+  public synchronized void setCursor(long cursor) {
+    Generation current = generations.current;
+    if (cursor > current.cursor()) {
+      current.setCursor(cursor);
+    }
+  }
+
+  private int size() {
+    return generations.current.size();
+  }
+
+  /** Flush the index to disk and close it. */
+  public synchronized void close() {
+    meters.close();
+    generations.current.buffer.force();
+    generations.previous.buffer.force();
+    try {
+      lock.release();
+      lockChannel.close();
+    } catch (IOException e) {
+      LOGGER.error("Fail: Could not close revoked subject index; {}", e.getMessage());
+    }
+  }
+
+  private static ByteBuffer key(UUID sub, String audience) {
+    byte[] hash =
+        Hashing.murmur3_128()
+            .newHasher()
+            .putLong(sub.getMostSignificantBits())
+            .putLong(sub.getLeastSignificantBits())
+            .putString(audience, StandardCharsets.UTF_8)
+            .hash()
+            .asBytes();
+    return ByteBuffer.wrap(hash);
+  }
+
+  /**
+   * Drop the previous generation and start a new one, if the current one is old enough. Called
+   * with the lock held.
+   */
+  private void rotateIfDue() {
+    Generations rotated = generations;
+    long now = System.currentTimeMillis() / 1000;
+    if (rotated.current.createdAt() > now - lifetimeSec) {
+      return;
+    }
+
+    long cursor = rotated.current.cursor();
+    Path path = rotated.previous.path;
+    int dropped = rotated.previous.size();
+    try {
+      /* the old mapping stays valid until it is garbage collected, so lookups still reading the
+       * dropped generation complete normally */
+      Files.delete(path);
+      Generation next = Generation.open(path, capacity);
+      next.setCursor(cursor);
+      generations = new Generations(next, rotated.current);
+      LOGGER.info("Info: Revoked subject index rotated; {} entries dropped", dropped);
+    } catch (IOException e) {
+      LOGGER.error("Fail: Could not rotate revoked subject index; {}", e.getMessage());
+    }
+  }
+
+  /** The current and previous generation, replaced as a whole on rotation. */
+  private static class Generations {
+    private final Generation current;
+    private final Generation previous;
+
+    Generations(Generation current, Generation previous) {
+      this.current = current;
+      this.previous = previous;
+    }
+  }
+
+  /** A generation of the index: a hash table with linear probing, in a memory-mapped file. */
+  private static class Generation {
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int mask;
+    private final int maxSize;
+
+    private Generation(Path path, MappedByteBuffer buffer, int capacity) {
+      this.path = path;
+      this.buffer = buffer;
+      this.mask = capacity - 1;
+      this.maxSize = (int) (capacity * MAX_LOAD_FACTOR);
+    }
+
+    static Generation open(Path path, int capacity) throws IOException {
+      long length = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+      try (FileChannel channel =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE)) {
+        long existingLength = channel.size();
+        if (existingLength != 0 && existingLength != length) {
+          LOGGER.warn("Info: Discarding revoked subject index {} of a different capacity", path);
+          channel.truncate(0);
+          existingLength = 0;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+
+        if (buffer.getLong(MAGIC_OFFSET) != MAGIC) {
+          /* a new file is all zeroes, but an incompletely written one must be cleared */
+          if (existingLength != 0) {
+            for (int offset = 0; offset < length; offset += Long.BYTES) {
+              buffer.putLong(offset, 0);
+            }
+          }
+          buffer.putLong(CAPACITY_OFFSET, capacity);
+          buffer.putLong(CREATED_AT_OFFSET, System.currentTimeMillis() / 1000);
+          buffer.putLong(MAGIC_OFFSET, MAGIC);
+        }
+        return new Generation(path, buffer, capacity);
+      }
+    }
+
+    long createdAt() {
+      return buffer.getLong(CREATED_AT_OFFSET);
+    }
+
+    int size() {
+      return (int) buffer.getLong(SIZE_OFFSET);
+    }
+
+    long cursor() {
+      return buffer.getLong(CURSOR_OFFSET);
+    }
+
+    void setCursor(long cursor) {
+      buffer.putLong(CURSOR_OFFSET, cursor);
+    }
+
+    long get(long hi, long lo) {
+      for (int i = 0, slot = (int) lo & mask; i <= mask; i++, slot = (slot + 1) & mask) {
+        int offset = HEADER_SIZE + slot * SLOT_SIZE;
+        long revokedAt = (long) LONGS.getAcquire(buffer, offset + REVOKED_AT_OFFSET);
+        if (revokedAt == 0) {
+          return 0;
+        }
+        if (buffer.getLong(offset + KEY_HI_OFFSET) == hi
+            && buffer.getLong(offset + KEY_LO_OFFSET) == lo) {
+          return revokedAt;
+        }
+      }
+      return 0;
+    }
+
+    boolean put(long hi, long lo, long revokedAt) {
+      for (int i = 0, slot = (int) lo & mask; i <= mask; i++, slot = (slot + 1) & mask) {
+        int offset = HEADER_SIZE + slot * SLOT_SIZE;
+        long existing = buffer.getLong(offset + REVOKED_AT_OFFSET);
+        if (existing == 0) {
+          if (size() >= maxSize) {
+            return false;
+          }
+          /* the revocation time is written last, since it marks the slot as used */
+          buffer.putLong(offset + KEY_HI_OFFSET, hi);
+          buffer.putLong(offset + KEY_LO_OFFSET, lo);
+          LONGS.setRelease(buffer, offset + REVOKED_AT_OFFSET, revokedAt);
+          buffer.putLong(SIZE_OFFSET, size() + 1);
+          return true;
+        }
+        if (buffer.getLong(offset + KEY_HI_OFFSET) == hi
+            && buffer.getLong(offset + KEY_LO_OFFSET) == lo) {
+          if (revokedAt > existing) {
+            LONGS.setRelease(buffer, offset + REVOKED_AT_OFFSET, revokedAt);
+          }
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.CLAIM_EXPIRY;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import io.vertx.core.json.JsonObject;
+import iudx.aaa.server.apiserver.DelegationInformation;
+import iudx.aaa.server.apiserver.RequestToken;
+import iudx.aaa.server.apiserver.User;
+import iudx.aaa.server.apiserver.util.MetricsRegistry;
+import iudx.aaa.server.apiserver.util.MetricsRegistry.InstanceMeters;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A short-window cache of issued access tokens. When a user makes an identical token request while
+ * a previously issued token still has enough of its lifetime remaining, the issued token is
+ * returned instead of verifying access and signing a new token.
+ *
+ * <p>Only tokens that are issued without a policy evaluation are cached, i.e. COS tokens and
+ * identity tokens for resource servers. A resource token depends on policies and APD decisions, and
+ * reusing it would hide a change in them until the cached token expires.
+ *
+ * <p>A request is identical if the user, item, role, delegation information (the <em>did</em> and
+ * <em>drl</em> claims) and the request context are the same. The <em>aud</em> claim is derived
+ * from the item.
+ *
+ * <p>Returning an already issued token does not extend access, since the token is valid till its
+ * expiry regardless. Entries of a user are invalidated when the roles or delegations of the user
+ * change, and when the tokens of the user are revoked, so that a token rejected by the server it
+ * was issued for is not returned again. The keys of the cache are indexed by user, so that an
+ * invalidation only visits the tokens of the users being invalidated.
+ *
+ * <p>Hit, miss, eviction and size metrics are registered with the cache name
+ * <em>aaa.token.reuse</em>, tagged with the <em>instance</em> of the cache.
+ */
+public class TokenReuseCache {
+
+  private final Cache<Key, JsonObject> cache;
+  private final InstanceMeters meters;
+  private final long minRemainingSec;
+  private final Map<String, Set<Key>> keysByUser = new ConcurrentHashMap<String, Set<Key>>();
+
+  /**
+   * Create a token reuse cache.
+   *
+   * @param maxSize the maximum number of tokens held by the cache
+   * @param minRemainingSec the minimum lifetime (in seconds) that a token must have remaining to be
+   *     reused. Must be less than {@link Constants#CLAIM_EXPIRY}
+   */
+  public TokenReuseCache(long maxSize, long minRemainingSec) {
+    if (minRemainingSec <= 0 || minRemainingSec >= CLAIM_EXPIRY) {
+      throw new IllegalArgumentException(
+          "Minimum remaining token lifetime must be between 0 and " + CLAIM_EXPIRY + " seconds");
+    }
+
+    this.minRemainingSec = minRemainingSec;
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(CLAIM_EXPIRY - minRemainingSec, TimeUnit.SECONDS)
+            .recordStats()
+            .removalListener((RemovalListener<Key, JsonObject>) this::removed)
+            .build();
+
+    this.meters = MetricsRegistry.instanceMeters("aaa.token.reuse");
+    meters.monitor(cache, "aaa.token.reuse");
+  }
+
+  /** Remove the hit, miss and size metrics of the cache. */
+  public void close() {
+    meters.close();
+  }
+
+  /**
+   * Create the cache key for a token request.
+   *
+   * @param request the token request
+   * @param delegationInfo the delegation information if a delegate made the request, else null
+   * @param user the user requesting the token
+   * @return the key
+   */
+  public static Key key(RequestToken request, DelegationInformation delegationInfo, User user) {
+    return new Key(request, delegationInfo, user);
+  }
+
+  /**
+   * Get a previously issued token for an identical request.
+   *
+   * @param key the key of the request
+   * @return the JSON object containing the token, expiry and server, or null if no token can be
+   *     reused
+   */
+  public JsonObject get(Key key) {
+    JsonObject jwt = cache.getIfPresent(key);
+    if (jwt == null) {
+      return null;
+    }
+
+    long remaining = jwt.getLong("expiry") - System.currentTimeMillis() / 1000;
+    if (remaining < minRemainingSec) {
+      cache.invalidate(key);
+      return null;
+    }
+    return jwt.copy();
+  }
+
+  /**
+   * Store an issued token.
+   *
+   * @param key the key of the request
+   * @param jwt the JSON object containing the token, expiry and server
+   */
+  public void put(Key key, JsonObject jwt) {
+    index(key.userId, key);
+    if (key.delegatorUserId != null) {
+      index(key.delegatorUserId, key);
+    }
+    cache.put(key, jwt.copy());
+  }
+
+  /**
+   * Invalidate tokens issued to or on behalf of (as delegator) any of the given users.
+   *
+   * @param userIds the user IDs
+   */
+  public void invalidate(Collection<String> userIds) {
+    invalidate(userIds, null);
+  }
+
+  /**
+   * Invalidate tokens issued to or on behalf of (as delegator) any of the given users for a
+   * server, e.g. when the tokens of the users are revoked at the server.
+   *
+   * @param userIds the user IDs
+   * @param audience the URL of the server (the <em>aud</em> of the tokens), or null for tokens of
+   *     all servers
+   */
+  public void invalidate(Collection<String> userIds, String audience) {
+    for (String userId : userIds) {
+      Set<Key> keys = keysByUser.get(userId);
+      if (keys == null) {
+        continue;
+      }
+
+      for (Key key : keys) {
+        /* read through the map view, which does not count as a hit or miss */
+        JsonObject jwt = cache.asMap().get(key);
+        if (jwt == null) {
+          unindex(key);
+        } else if (audience == null || audience.equals(jwt.getString("server"))) {
+          cache.invalidate(key);
+        }
+      }
+    }
+  }
+
+  /** Invalidate all tokens. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  private void index(String userId, Key key) {
+    keysByUser.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(key);
+  }
+
+  private void unindex(Key key) {
+    unindex(key.userId, key);
+    if (key.delegatorUserId != null) {
+      unindex(key.delegatorUserId, key);
+    }
+  }
+
+  private void unindex(String userId, Key key) {
+    keysByUser.computeIfPresent(
+        userId,
+        (id, keys) -> {
+          keys.remove(key);
+          return keys.isEmpty() ? null : keys;
+        });
+  }
+
+  /**
+   * Remove the key of an evicted, expired or invalidated token from the index. The key is kept if
+   * the cache holds it again, since the notification of a replaced or expired token may be
+   * delivered after the key was put again.
+   *
+   * @param notification the removal notification
+   */
+  private void removed(RemovalNotification<Key, JsonObject> notification) {
+    Key key = notification.getKey();
+    if (key != null && !cache.asMap().containsKey(key)) {
+      unindex(key);
+    }
+  }
+
+  /** The key of a token request. */
+  public static final class Key {
+    private final String userId;
+    private final String itemType;
+    private final String itemId;
+    private final String role;
+    private final String delegatorUserId;
+    private final String delegatedRole;
+    private final String delegatedRsUrl;
+    private final JsonObject context;
+    private final int hash;
+
+    private Key(RequestToken request, DelegationInformation delegationInfo, User user) {
+      this.userId = user.getUserId();
+      this.itemType = request.getItemType().toString();
+      this.itemId = request.getItemId();
+      this.role = request.getRole().toString();
+
+      if (delegationInfo != null) {
+        this.delegatorUserId = delegationInfo.getDelegatorUserId();
+        this.delegatedRole = delegationInfo.getDelegatedRole().toString();
+        this.delegatedRsUrl = delegationInfo.getDelegatedRsUrl();
+      } else {
+        this.delegatorUserId = null;
+        this.delegatedRole = null;
+        this.delegatedRsUrl = null;
+      }
+
+      this.context = request.getContext() == null ? new JsonObject() : request.getContext().copy();
+      this.hash =
+          Objects.hash(
+              userId,
+              itemType,
+              itemId,
+              role,
+              delegatorUserId,
+              delegatedRole,
+              delegatedRsUrl,
+              context);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hash == other.hash
+          && userId.equals(other.userId)
+          && itemType.equals(other.itemType)
+          && itemId.equals(other.itemId)
+          && role.equals(other.role)
+          && Objects.equals(delegatorUserId, other.delegatorUserId)
+          && Objects.equals(delegatedRole, other.delegatedRole)
+          && Objects.equals(delegatedRsUrl, other.delegatedRsUrl)
+          && context.equals(other.context);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,235 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.ACCESS_TOKEN;
+import static iudx.aaa.server.token.Constants.CLAIM_REVOKE_OUTBOX;
+import static iudx.aaa.server.token.Constants.COMPLETE_REVOKE_OUTBOX;
+import static iudx.aaa.server.token.Constants.RETRY_REVOKE_OUTBOX;
+import static iudx.aaa.server.token.Constants.RS_URL;
+import static iudx.aaa.server.token.Constants.USER_ID;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.pgclient.PgPool;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import iudx.aaa.server.apiserver.util.MetricsRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Delivers the token revocations written to the <em>token_revoke_outbox</em> table, e.g. by a
+ * client secret reset, to resource servers and APDs. The outbox is polled periodically; due
+ * revocations are claimed in batches and sent using the {@link TokenRevokeService}.
+ *
+ * <p>Each row holds the status of the revocation at one server. A revocation that fails is retried
+ * with exponential backoff, and is marked <tt>FAILED</tt> once the maximum number of attempts is
+ * reached. Rows are claimed using <tt>FOR UPDATE SKIP LOCKED</tt> and leased for a while, so that
+ * several instances can dispatch from the same outbox, and a revocation claimed by an instance that
+ * stops is retried by another.
+ *
+ * <p>The meter <em>aaa.token.revoke.outbox</em> counts delivery attempts, tagged with the
+ * <em>result</em> : <tt>succeeded</tt>, <tt>retried</tt> or <tt>failed</tt>.
+ */
+public class TokenRevokeDispatcher {
+
+  private static final Logger LOGGER = LogManager.getLogger(TokenRevokeDispatcher.class);
+
+  /* Time for which claimed revocations are not claimed again, in case this instance stops */
+  private static final long CLAIM_LEASE_MS = 5 * 60 * 1000;
+
+  private final Vertx vertx;
+  private final PgPool pool;
+  private final TokenRevokeService revokeService;
+  private final Function<String, Future<JsonObject>> adminTokens;
+  private final long pollIntervalMs;
+  private final int batchSize;
+  private final int maxAttempts;
+  private final long backoffBaseMs;
+  private final long maxBackoffMs;
+
+  private final Counter succeeded;
+  private final Counter retried;
+  private final Counter failed;
+
+  private long timerId = -1;
+  private boolean closed = false;
+
+  /**
+   * Create a dispatcher. Must be called from the context of the owning verticle, since the polling
+   * timer runs on it.
+   *
+   * @param vertx the Vert.x instance
+   * @param pool the Postgres pool
+   * @param revokeService the service used to send revocation requests
+   * @param adminTokens function returning the admin token JSON for a server URL
+   * @param pollIntervalMs the interval (in milliseconds) at which the outbox is polled
+   * @param batchSize the maximum number of revocations claimed in one poll
+   * @param maxAttempts the number of attempts after which a revocation is marked as failed
+   * @param backoffBaseMs the delay (in milliseconds) before the first retry, doubled for every
+   *     further retry
+   * @param maxBackoffMs the maximum delay (in milliseconds) between retries
+   */
+  public TokenRevokeDispatcher(
+      Vertx vertx,
+      PgPool pool,
+      TokenRevokeService revokeService,
+      Function<String, Future<JsonObject>> adminTokens,
+      long pollIntervalMs,
+      int batchSize,
+      int maxAttempts,
+      long backoffBaseMs,
+      long maxBackoffMs) {
+    if (pollIntervalMs < 1 || batchSize < 1 || maxAttempts < 1 || backoffBaseMs < 1) {
+      throw new IllegalArgumentException(
+          "Revocation outbox poll interval, batch size, attempts and backoff must be positive");
+    }
+    if (maxBackoffMs < backoffBaseMs) {
+      throw new IllegalArgumentException(
+          "Revocation outbox maximum backoff must not be less than the base backoff");
+    }
+
+    this.vertx = vertx;
+    this.pool = pool;
+    this.revokeService = revokeService;
+    this.adminTokens = adminTokens;
+    this.pollIntervalMs = pollIntervalMs;
+    this.batchSize = batchSize;
+    this.maxAttempts = maxAttempts;
+    this.backoffBaseMs = backoffBaseMs;
+    this.maxBackoffMs = maxBackoffMs;
+
+    MeterRegistry registry = MetricsRegistry.get();
+    this.succeeded = resultCounter(registry, "succeeded");
+    this.retried = resultCounter(registry, "retried");
+    this.failed = resultCounter(registry, "failed");
+  }
+
+  private static Counter resultCounter(MeterRegistry registry, String result) {
+    return Counter.builder("aaa.token.revoke.outbox")
+        .description("Number of token revocation attempts made from the revocation outbox")
+        .tag("result", result)
+        .register(registry);
+  }
+
+  /** Start polling the outbox. */
+  public void start() {
+    schedule(pollIntervalMs);
+  }
+
+  /** Stop polling the outbox. Revocations being delivered are completed. */
+  public void close() {
+    closed = true;
+    vertx.cancelTimer(timerId);
+  }
+
+  private void schedule(long delayMs) {
+    if (!closed) {
+      timerId = vertx.setTimer(delayMs, id -> poll());
+    }
+  }
+
+  /**
+   * Claim and deliver a batch of due revocations. If a full batch was claimed, the next batch is
+   * claimed right after, otherwise the outbox is polled again after the poll interval.
+   */
+  private void poll() {
+    Tuple tuple = Tuple.of(batchSize, CLAIM_LEASE_MS);
+
+    pool.withConnection(conn -> conn.preparedQuery(CLAIM_REVOKE_OUTBOX).execute(tuple))
+        .compose(this::deliverAll)
+        .onComplete(
+            res -> {
+              if (res.failed()) {
+                LOGGER.error("Fail: Token revocation outbox poll failed; {}", res.cause());
+                schedule(pollIntervalMs);
+                return;
+              }
+              schedule(res.result() == batchSize ? 1 : pollIntervalMs);
+            });
+  }
+
+  @SuppressWarnings("rawtypes")
+  private Future<Integer> deliverAll(RowSet<Row> rows) {
+    List<Future> futures = new ArrayList<Future>();
+    rows.forEach(row -> futures.add(deliver(row)));
+
+    if (!futures.isEmpty()) {
+      LOGGER.debug("Info: Delivering {} token revocations from outbox", futures.size());
+    }
+    return CompositeFuture.join(futures).otherwiseEmpty().map(rows.size());
+  }
+
+  private Future<Void> deliver(Row row) {
+    UUID id = row.getUUID("id");
+    String url = row.getString("server_url");
+    int attempts = row.getInteger("attempts");
+    JsonObject request =
+        new JsonObject().put(USER_ID, row.getUUID("user_id").toString()).put(RS_URL, url);
+
+    return adminTokens
+        .apply(url)
+        .map(adminJwt -> adminJwt.getString(ACCESS_TOKEN))
+        .compose(adminToken -> revokeService.httpRevokeRequest(request, adminToken))
+        .transform(
+            res -> {
+              if (res.succeeded()) {
+                succeeded.increment();
+                return pool.withConnection(
+                    conn ->
+                        conn.preparedQuery(COMPLETE_REVOKE_OUTBOX)
+                            .execute(Tuple.of(id))
+                            .<Void>mapEmpty());
+              }
+              return retryOrFail(id, url, attempts, String.valueOf(res.cause().getMessage()));
+            })
+        .onFailure(
+            err -> LOGGER.error("Fail: Could not update token revocation {}; {}", id, err));
+  }
+
+  private Future<Void> retryOrFail(UUID id, String url, int attempts, String error) {
+    String status;
+    long delayMs;
+    if (attempts >= maxAttempts) {
+      failed.increment();
+      status = "FAILED";
+      delayMs = 0;
+      LOGGER.error(
+          "Fail: Token revocation on {} failed after {} attempts; {}", url, attempts, error);
+    } else {
+      retried.increment();
+      status = "PENDING";
+      delayMs = backoffMs(attempts, backoffBaseMs, maxBackoffMs);
+      LOGGER.warn(
+          "Fail: Token revocation on {} failed, retrying in {} ms; {}", url, delayMs, error);
+    }
+
+    Tuple tuple = Tuple.of(id, status, delayMs, error);
+    return pool.withConnection(
+        conn -> conn.preparedQuery(RETRY_REVOKE_OUTBOX).execute(tuple).<Void>mapEmpty());
+  }
+
+  /**
+   * Get the delay before retrying a revocation.
+   *
+   * @param attempts the number of attempts made so far, at least 1
+   * @param backoffBaseMs the delay after the first attempt
+   * @param maxBackoffMs the maximum delay
+   * @return the delay in milliseconds
+   */
+  static long backoffMs(int attempts, long backoffBaseMs, long maxBackoffMs) {
+    long delayMs = backoffBaseMs;
+    for (int i = 1; i < attempts && delayMs < maxBackoffMs; i++) {
+      delayMs *= 2;
+    }
+    return Math.min(delayMs, maxBackoffMs);
+  }
+}
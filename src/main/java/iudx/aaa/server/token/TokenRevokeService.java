@@ -2,34 +2,224 @@ package iudx.aaa.server.token;
 
 import static iudx.aaa.server.token.Constants.*;
 
+import io.micrometer.core.instrument.Gauge;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpVersion;
 import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.client.WebClientOptions;
 import io.vertx.ext.web.client.predicate.ResponsePredicate;
+import iudx.aaa.server.apiserver.util.MetricsRegistry;
+import iudx.aaa.server.apiserver.util.MetricsRegistry.InstanceMeters;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Sends token revocation requests to resource servers and APDs. A client secret reset revokes
+ * tokens at every server at once, so the client is set up to handle a large fan out:
+ *
+ * <ul>
+ *   <li>connections are kept alive and pooled per host, and HTTP/2 is negotiated (using ALPN) with
+ *       servers that support it, so that repeated revocations reuse connections
+ *   <li>each request has a timeout, so a slow or unreachable server fails its own revocation
+ *       instead of holding up the caller
+ *   <li>at most a configured number of requests are in flight at once; further requests wait in
+ *       a queue, so a reset does not open a burst of connections and TLS handshakes
+ * </ul>
+ *
+ * <p>The revocation API of a resource server takes one user in the <em>sub</em> field of the
+ * body. Only servers listed in the configuration as accepting a <em>subs</em> array are sent the
+ * users of a bulk revocation in one request; other servers are sent a request per user.
+ *
+ * <p>Once a server has revoked the tokens of users, a token reuse cache invalidation is published
+ * to all nodes, so that a token issued before the server revoked it is not reused. This covers
+ * revocations from the APIs as well as those delivered from the revocation outbox.
+ *
+ * <p>The gauges <em>aaa.token.revoke.inflight</em> and <em>aaa.token.revoke.queued</em> show the
+ * number of requests in flight and waiting. The limit applies per token verticle instance, so the
+ * gauges are tagged with the <em>instance</em>.
+ */
 public class TokenRevokeService {
   private static final Logger LOGGER = LogManager.getLogger(TokenRevokeService.class);
-  private WebClient client;
+  private final Vertx vertx;
+  private final WebClient client;
+
+  private final int maxConcurrency;
+  private final long requestTimeoutMs;
+  private final int bulkBatchSize;
+  private final Set<String> bulkServers;
+  private final InstanceMeters meters;
+  private final Queue<Runnable> waiting = new ArrayDeque<Runnable>();
+  private int inFlight = 0;
 
   /**
    * Constructor initializing WebClient.
    *
    * @param vertx which is a Vert.x instance
+   * @param maxConcurrency the maximum number of revocation requests in flight at once
+   * @param maxPoolSizePerHost the maximum number of HTTP/1.1 connections kept per server
+   * @param requestTimeoutMs the timeout (in milliseconds) for connecting to a server and for a
+   *     response to a request
+   * @param bulkBatchSize the maximum number of users in one batch of a bulk revocation
+   * @param bulkServers the URLs of the servers that accept several users in one revocation request
+   */
+  public TokenRevokeService(
+      Vertx vertx,
+      int maxConcurrency,
+      int maxPoolSizePerHost,
+      long requestTimeoutMs,
+      int bulkBatchSize,
+      Set<String> bulkServers) {
+    this(
+        vertx,
+        WebClient.create(vertx, clientOptions(maxPoolSizePerHost, requestTimeoutMs)),
+        maxConcurrency,
+        requestTimeoutMs,
+        bulkBatchSize,
+        bulkServers);
+  }
+
+  /**
+   * Constructor using the given WebClient, for tests.
+   *
+   * @param vertx which is a Vert.x instance
+   * @param client the WebClient requests are sent with
+   * @param maxConcurrency the maximum number of revocation requests in flight at once
+   * @param requestTimeoutMs the timeout (in milliseconds) for a response to a request
+   * @param bulkBatchSize the maximum number of users in one batch of a bulk revocation
+   * @param bulkServers the URLs of the servers that accept several users in one revocation request
    */
-  public TokenRevokeService(Vertx vertx) {
+  TokenRevokeService(
+      Vertx vertx,
+      WebClient client,
+      int maxConcurrency,
+      long requestTimeoutMs,
+      int bulkBatchSize,
+      Set<String> bulkServers) {
+    if (maxConcurrency < 1 || requestTimeoutMs < 1 || bulkBatchSize < 1) {
+      throw new IllegalArgumentException(
+          "Revocation concurrency, timeout and bulk batch size must be positive");
+    }
+    this.vertx = vertx;
+    this.client = client;
+    this.maxConcurrency = maxConcurrency;
+    this.requestTimeoutMs = requestTimeoutMs;
+    this.bulkBatchSize = bulkBatchSize;
+    this.bulkServers = Set.copyOf(bulkServers);
 
-    WebClientOptions clientOptions =
-        new WebClientOptions().setSsl(true).setVerifyHost(true).setTrustAll(false);
+    this.meters = MetricsRegistry.instanceMeters("aaa.token.revoke");
+    meters.register(
+        (registry, tags) ->
+            Gauge.builder("aaa.token.revoke.inflight", this, TokenRevokeService::inFlight)
+                .description("Number of token revocation requests in flight")
+                .tags(tags)
+                .register(registry));
+    meters.register(
+        (registry, tags) ->
+            Gauge.builder("aaa.token.revoke.queued", this, TokenRevokeService::queued)
+                .description("Number of token revocation requests waiting to be sent")
+                .tags(tags)
+                .register(registry));
+  }
 
-    this.client = WebClient.create(vertx, clientOptions);
+  /** Remove the gauges of the service. Revocation requests in flight are not cancelled. */
+  public void close() {
+    meters.close();
+  }
+
+  private static WebClientOptions clientOptions(int maxPoolSizePerHost, long requestTimeoutMs) {
+    if (maxPoolSizePerHost < 1 || requestTimeoutMs < 1) {
+      throw new IllegalArgumentException("Revocation pool size and timeout must be positive");
+    }
+    return new WebClientOptions()
+        .setSsl(true)
+        .setVerifyHost(true)
+        .setTrustAll(false)
+        .setKeepAlive(true)
+        .setMaxPoolSize(maxPoolSizePerHost)
+        .setProtocolVersion(HttpVersion.HTTP_2)
+        .setUseAlpn(true)
+        .setAlpnVersions(List.of(HttpVersion.HTTP_2, HttpVersion.HTTP_1_1))
+        .setHttp2MaxPoolSize(1)
+        .setConnectTimeout((int) Math.min(requestTimeoutMs, Integer.MAX_VALUE))
+        .setSslHandshakeTimeout(requestTimeoutMs)
+        .setSslHandshakeTimeoutUnit(TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized int inFlight() {
+    return inFlight;
+  }
+
+  private synchronized int queued() {
+    return waiting.size();
+  }
+
+  /**
+   * Run a request once fewer than the maximum number of requests are in flight.
+   *
+   * @param request starts the request
+   * @return a Future completed with the result of the request
+   */
+  private <T> Future<T> limit(Supplier<Future<T>> request) {
+    Promise<T> promise = Promise.promise();
+    Runnable task =
+        () -> {
+          Future<T> result;
+          try {
+            result = request.get();
+          } catch (RuntimeException e) {
+            result = Future.failedFuture(e);
+          }
+          result.onComplete(
+              res -> {
+                release();
+                promise.handle(res);
+              });
+        };
+
+    boolean runNow;
+    synchronized (this) {
+      runNow = inFlight < maxConcurrency;
+      if (runNow) {
+        inFlight++;
+      } else {
+        waiting.add(task);
+      }
+    }
+
+    if (runNow) {
+      task.run();
+    }
+    return promise.future();
+  }
+
+  /** Release the slot of a completed request, starting the next waiting request if any. */
+  private void release() {
+    Runnable next;
+    synchronized (this) {
+      next = waiting.poll();
+      if (next == null) {
+        inFlight--;
+      }
+    }
+
+    if (next != null) {
+      next.run();
+    }
   }
 
   /**
@@ -49,9 +239,11 @@ public class TokenRevokeService {
 
     request.put(BODY, rsPayload).put(URI, RS_REVOKE_URI);
 
-    httpPostAsync(request, adminToken)
+    limit(() -> httpPostAsync(request, adminToken))
         .onSuccess(
             reqHandler -> {
+              invalidateReusedTokens(
+                  new JsonArray().add(request.getString(USER_ID)), request.getString(RS_URL));
               promiseHandler.complete(new JsonObject());
             })
         .onFailure(
@@ -62,6 +254,127 @@ public class TokenRevokeService {
     return promiseHandler.future();
   }
 
+  /**
+   * Handles bulk token revocation at a server. The users are split into batches so that progress
+   * can be reported. A server that accepts several users in a request is sent each batch as one
+   * request, with the user IDs in the <em>subs</em> array of the body. Any other server is sent a
+   * request per user of the batch. All requests share the limit on requests in flight.
+   *
+   * @param rsUrl the URL of the server to revoke at
+   * @param userIds the IDs of the users whose tokens are revoked
+   * @param adminToken is the admin token to be presented at the server
+   * @return a Future for each batch in order, completed once the requests for the batch are done
+   *     with the user IDs of the batch in <em>userIds</em> and those that could not be revoked in
+   *     <em>failedUserIds</em>. The Futures do not fail
+   */
+  List<Future<JsonObject>> httpBulkRevokeRequest(
+      String rsUrl, List<String> userIds, String adminToken) {
+
+    boolean bulk = bulkServers.contains(rsUrl);
+    LOGGER.info(
+        "Info : Processing bulk token revocation of {} users ({})",
+        userIds.size(),
+        bulk ? "one request per batch" : "one request per user");
+    List<Future<JsonObject>> batches = new ArrayList<Future<JsonObject>>();
+
+    for (int from = 0; from < userIds.size(); from += bulkBatchSize) {
+      List<String> batch = userIds.subList(from, Math.min(from + bulkBatchSize, userIds.size()));
+      Future<List<String>> failed =
+          bulk ? revokeBatch(rsUrl, batch, adminToken) : revokeEach(rsUrl, batch, adminToken);
+
+      batches.add(
+          failed.map(
+              failedIds ->
+                  new JsonObject()
+                      .put(USER_IDS, new JsonArray(batch))
+                      .put(FAILED_USER_IDS, new JsonArray(failedIds))));
+    }
+    return batches;
+  }
+
+  /**
+   * Revoke the tokens of a batch of users with one request to a server.
+   *
+   * @return a Future of the users that could not be revoked, which does not fail
+   */
+  private Future<List<String>> revokeBatch(String rsUrl, List<String> batch, String adminToken) {
+    JsonObject request =
+        new JsonObject()
+            .put(RS_URL, rsUrl)
+            .put(URI, RS_REVOKE_URI)
+            .put(BODY, new JsonObject().put(RS_REVOKE_BODY_SUBS, new JsonArray(batch)));
+
+    return limit(() -> httpPostAsync(request, adminToken))
+        .map(
+            done -> {
+              invalidateReusedTokens(new JsonArray(batch), rsUrl);
+              return List.<String>of();
+            })
+        .otherwise(
+            fail -> {
+              LOGGER.error("Fail: {}; {}", FAILED_REVOKE, fail.getMessage());
+              return batch;
+            });
+  }
+
+  /**
+   * Revoke the tokens of a batch of users with a request per user to a server.
+   *
+   * @return a Future of the users that could not be revoked, which does not fail
+   */
+  private Future<List<String>> revokeEach(String rsUrl, List<String> batch, String adminToken) {
+    List<Future<Boolean>> revoked = new ArrayList<Future<Boolean>>();
+    for (String userId : batch) {
+      JsonObject request =
+          new JsonObject()
+              .put(RS_URL, rsUrl)
+              .put(URI, RS_REVOKE_URI)
+              .put(BODY, new JsonObject().put(RS_REVOKE_BODY_SUB, userId));
+
+      revoked.add(
+          limit(() -> httpPostAsync(request, adminToken))
+              .map(true)
+              .otherwise(
+                  fail -> {
+                    LOGGER.error("Fail: {}; {}", FAILED_REVOKE, fail.getMessage());
+                    return false;
+                  }));
+    }
+
+    @SuppressWarnings("rawtypes")
+    List<Future> futures = new ArrayList<Future>(revoked);
+    return CompositeFuture.all(futures)
+        .map(
+            done -> {
+              JsonArray succeeded = new JsonArray();
+              List<String> failed = new ArrayList<String>();
+              for (int i = 0; i < batch.size(); i++) {
+                if (revoked.get(i).result()) {
+                  succeeded.add(batch.get(i));
+                } else {
+                  failed.add(batch.get(i));
+                }
+              }
+
+              if (!succeeded.isEmpty()) {
+                invalidateReusedTokens(succeeded, rsUrl);
+              }
+              return failed;
+            });
+  }
+
+  /**
+   * Publish a token reuse cache invalidation for users whose tokens were revoked at a server.
+   *
+   * @param userIds the IDs of the users
+   * @param rsUrl the URL of the server
+   */
+  private void invalidateReusedTokens(JsonArray userIds, String rsUrl) {
+    JsonObject message =
+        new JsonObject().put(INVALIDATE_USER_IDS, userIds).put(INVALIDATE_RS_URL, rsUrl);
+    vertx.eventBus().publish(TOKEN_CACHE_INVALIDATE_ADDRESS, message);
+  }
+
   /**
    * Future to handles http post request to External services.
    *
@@ -76,6 +389,7 @@ public class TokenRevokeService {
     options.setHost(requestBody.getString(RS_URL));
     options.setPort(requestBody.getInteger(PORT, DEFAULT_HTTPS_PORT));
     options.setURI(requestBody.getString(URI));
+    options.setTimeout(requestTimeoutMs);
 
     JsonObject body = requestBody.getJsonObject(BODY);
 
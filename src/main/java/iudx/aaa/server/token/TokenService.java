@@ -10,7 +10,9 @@ import iudx.aaa.server.apiserver.DelegationInformation;
 import iudx.aaa.server.apiserver.IntrospectToken;
 import iudx.aaa.server.apiserver.RequestToken;
 import iudx.aaa.server.apiserver.RevokeToken;
+import iudx.aaa.server.apiserver.RevokeTokenBulk;
 import iudx.aaa.server.apiserver.User;
+import java.util.List;
 
 /**
  * The Token Service.
@@ -52,6 +54,19 @@ public interface TokenService {
   Future<JsonObject> createToken(
       RequestToken requestToken, DelegationInformation delegationInfo, User user);
 
+  /**
+   * The createTokenBatch implements token creation for multiple items requested by the same user.
+   * Each item is processed as in {@link #createToken(RequestToken, DelegationInformation, User)},
+   * with the items being processed in parallel.
+   *
+   * @param requestTokens which is a list of RequestToken objects
+   * @param delegationInfo which contains info if delegate called the API, else is null
+   * @param user which is User Object
+   * @return Future of type JsonObject, containing the response of each item in request order
+   */
+  Future<JsonObject> createTokenBatch(
+      List<RequestToken> requestTokens, DelegationInformation delegationInfo, User user);
+
   /**
    * The revokeToken implements the token revocation operation.
    *
@@ -61,6 +76,16 @@ public interface TokenService {
    */
   Future<JsonObject> revokeToken(RevokeToken revokeToken, User user);
 
+  /**
+   * Revoke the tokens of several users at a resource server the user is an admin of. The server is
+   * validated and an admin token is signed once, and the users are sent to the server in batches.
+   *
+   * @param revokeTokenBulk which is a RevokeTokenBulk object
+   * @param user which is User Object
+   * @return Future of type JsonObject, containing the outcome of each batch in order
+   */
+  Future<JsonObject> revokeTokenBulk(RevokeTokenBulk revokeTokenBulk, User user);
+
   /**
    * The validateToken implements the token validation / introspect operation with the database.
    *
@@ -69,9 +94,33 @@ public interface TokenService {
    */
   Future<JsonObject> validateToken(IntrospectToken introspectToken);
 
+  /**
+   * The validateTokenBatch implements introspection of multiple tokens. Each token is introspected
+   * as in {@link #validateToken(IntrospectToken)}, with the tokens being verified in parallel and
+   * the user information for identity tokens being fetched in one lookup.
+   *
+   * @param introspectTokens which is a list of IntrospectToken objects
+   * @return Future of type JsonObject, containing the response of each token in request order
+   */
+  Future<JsonObject> validateTokenBatch(List<IntrospectToken> introspectTokens);
+
+  /**
+   * The getRevocations reads the revocation log of a resource server or APD. The log contains an
+   * entry for each user whose tokens for the server have been revoked, with the time of revocation.
+   * Entries are returned in log order after the given cursor, along with the cursor to use in the
+   * next call.
+   *
+   * @param audience the URL of the resource server or APD
+   * @param since the cursor returned by a previous call, 0 to read from the start of the log
+   * @param limit the maximum number of entries to return
+   * @return Future of type JsonObject
+   */
+  Future<JsonObject> getRevocations(String audience, long since, int limit);
+
   /**
    * Get an auth server JWT token. This token is used by the Auth server when calling other servers
-   * to authenticate itself.
+   * to authenticate itself. Tokens are cached per audience, so a previously issued token that is
+   * still valid may be returned.
    *
    * @param audienceUrl the URL of the server to be called. The <i>aud</i> field in the token will
    *     contain this URL.
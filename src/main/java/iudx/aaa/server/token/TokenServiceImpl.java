@@ -5,13 +5,11 @@ import static iudx.aaa.server.registration.Constants.ERR_DETAIL_NO_APPROVED_ROLE
 import static iudx.aaa.server.registration.Constants.ERR_TITLE_NO_APPROVED_ROLES;
 import static iudx.aaa.server.token.Constants.*;
 
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.auth.JWTOptions;
-import io.vertx.ext.auth.authentication.TokenCredentials;
-import io.vertx.ext.auth.jwt.JWTAuth;
 import io.vertx.pgclient.PgPool;
 import io.vertx.sqlclient.Row;
 import io.vertx.sqlclient.Tuple;
@@ -22,12 +20,21 @@ import iudx.aaa.server.apiserver.RequestToken;
 import iudx.aaa.server.apiserver.Response;
 import iudx.aaa.server.apiserver.Response.ResponseBuilder;
 import iudx.aaa.server.apiserver.RevokeToken;
+import iudx.aaa.server.apiserver.RevokeTokenBulk;
 import iudx.aaa.server.apiserver.Roles;
 import iudx.aaa.server.apiserver.User;
 import iudx.aaa.server.apiserver.util.ComposeException;
 import iudx.aaa.server.policy.PolicyService;
 import iudx.aaa.server.registration.RegistrationService;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -47,22 +54,132 @@ public class TokenServiceImpl implements TokenService {
   private static final Logger LOGGER = LogManager.getLogger(TokenServiceImpl.class);
 
   private PgPool pgPool;
-  private JWTAuth provider;
   private PolicyService policyService;
   private RegistrationService registrationService;
   private TokenRevokeService revokeService;
+  private JwtSigningEngine signingEngine;
+  private JwtVerificationEngine verificationEngine;
+  private TokenReuseCache reuseCache;
+  private AdminTokenCache adminTokenCache;
+  private IntrospectionCache introspectionCache;
+  private UserInfoCache userInfoCache;
+  private JwtVerifier verifier;
+  private RevocationLog revocationLog;
+  private RevokedSubjectIndex revokedIndex;
+  private final TokenPrecheck precheck = new TokenPrecheck();
 
-  public TokenServiceImpl(
-      PgPool pgPool,
-      PolicyService policyService,
-      RegistrationService registrationService,
-      JWTAuth provider,
-      TokenRevokeService revokeService) {
-    this.pgPool = pgPool;
-    this.policyService = policyService;
-    this.registrationService = registrationService;
-    this.provider = provider;
-    this.revokeService = revokeService;
+  /**
+   * Create the token service. Collaborators not set in the builder are null, and the features that
+   * use them are disabled. The verifier is required, since every token is verified with it.
+   *
+   * @param builder the builder holding the collaborators of the service
+   */
+  public TokenServiceImpl(TokenServiceImplBuilder builder) {
+    this.pgPool = builder.pgPool;
+    this.policyService = builder.policyService;
+    this.registrationService = builder.registrationService;
+    this.revokeService = builder.revokeService;
+    this.signingEngine = builder.signingEngine;
+    this.verificationEngine = builder.verificationEngine;
+    this.reuseCache = builder.reuseCache;
+    this.adminTokenCache = builder.adminTokenCache;
+    this.introspectionCache = builder.introspectionCache;
+    this.userInfoCache = builder.userInfoCache;
+    this.verifier = Objects.requireNonNull(builder.verifier, "A JwtVerifier is required");
+    this.revocationLog = builder.revocationLog;
+    this.revokedIndex = builder.revokedIndex;
+  }
+
+  /** Builder for {@link TokenServiceImpl}, since most of its collaborators are optional. */
+  public static class TokenServiceImplBuilder {
+    private PgPool pgPool;
+    private PolicyService policyService;
+    private RegistrationService registrationService;
+    private TokenRevokeService revokeService;
+    private JwtSigningEngine signingEngine;
+    private JwtVerificationEngine verificationEngine;
+    private TokenReuseCache reuseCache;
+    private AdminTokenCache adminTokenCache;
+    private IntrospectionCache introspectionCache;
+    private UserInfoCache userInfoCache;
+    private JwtVerifier verifier;
+    private RevocationLog revocationLog;
+    private RevokedSubjectIndex revokedIndex;
+
+    public TokenServiceImplBuilder pgPool(PgPool pgPool) {
+      this.pgPool = pgPool;
+      return this;
+    }
+
+    public TokenServiceImplBuilder policyService(PolicyService policyService) {
+      this.policyService = policyService;
+      return this;
+    }
+
+    public TokenServiceImplBuilder registrationService(RegistrationService registrationService) {
+      this.registrationService = registrationService;
+      return this;
+    }
+
+    public TokenServiceImplBuilder revokeService(TokenRevokeService revokeService) {
+      this.revokeService = revokeService;
+      return this;
+    }
+
+    public TokenServiceImplBuilder signingEngine(JwtSigningEngine signingEngine) {
+      this.signingEngine = signingEngine;
+      return this;
+    }
+
+    /* Optional, signatures are verified on the event loop if not set */
+    public TokenServiceImplBuilder verificationEngine(JwtVerificationEngine verificationEngine) {
+      this.verificationEngine = verificationEngine;
+      return this;
+    }
+
+    /* Optional, tokens are not reused if not set */
+    public TokenServiceImplBuilder reuseCache(TokenReuseCache reuseCache) {
+      this.reuseCache = reuseCache;
+      return this;
+    }
+
+    public TokenServiceImplBuilder adminTokenCache(AdminTokenCache adminTokenCache) {
+      this.adminTokenCache = adminTokenCache;
+      return this;
+    }
+
+    /* Optional, introspection results are not cached if not set */
+    public TokenServiceImplBuilder introspectionCache(IntrospectionCache introspectionCache) {
+      this.introspectionCache = introspectionCache;
+      return this;
+    }
+
+    /* Optional, user information is not cached if not set */
+    public TokenServiceImplBuilder userInfoCache(UserInfoCache userInfoCache) {
+      this.userInfoCache = userInfoCache;
+      return this;
+    }
+
+    /* Required */
+    public TokenServiceImplBuilder verifier(JwtVerifier verifier) {
+      this.verifier = verifier;
+      return this;
+    }
+
+    public TokenServiceImplBuilder revocationLog(RevocationLog revocationLog) {
+      this.revocationLog = revocationLog;
+      return this;
+    }
+
+    /* Optional, revoked tokens are not rejected during introspection if not set */
+    public TokenServiceImplBuilder revokedIndex(RevokedSubjectIndex revokedIndex) {
+      this.revokedIndex = revokedIndex;
+      return this;
+    }
+
+    public TokenServiceImpl build() {
+      return new TokenServiceImpl(this);
+    }
   }
 
   /** {@inheritDoc} */
@@ -129,7 +246,31 @@ public class TokenServiceImpl implements TokenService {
               .build();
       promiseHandler.complete(r.toJson());
       return promiseHandler.future();
-    } else if (itemType.equals(ItemType.COS)) {
+    }
+
+    /* Return a previously issued token for an identical request if it can be reused. Any checks
+     * done after this point passed when the token was issued, and the cache is invalidated if the
+     * roles or delegations of the user change. Resource tokens are not reused, since they depend
+     * on policies and APD decisions that may change while the token is cached */
+    TokenReuseCache.Key reuseKey =
+        reuseCache == null || itemType.equals(ItemType.RESOURCE)
+            ? null
+            : TokenReuseCache.key(request, delegationInfo, user);
+    JsonObject reusedJwt = reuseKey == null ? null : reuseCache.get(reuseKey);
+    if (reusedJwt != null) {
+      LOGGER.info(LOG_TOKEN_REUSED);
+      Response resp =
+          new ResponseBuilder()
+              .status(200)
+              .type(URN_SUCCESS)
+              .title(TOKEN_SUCCESS)
+              .objectResults(reusedJwt)
+              .build();
+      promiseHandler.complete(resp.toJson());
+      return promiseHandler.future();
+    }
+
+    if (itemType.equals(ItemType.COS)) {
       if (!request.getRole().equals(Roles.COS_ADMIN)) {
         Response r =
             new ResponseBuilder()
@@ -155,28 +296,37 @@ public class TokenServiceImpl implements TokenService {
       }
 
       jsonRequest.put(URL, request.getItemId());
-      JsonObject jwt = getJwt(jsonRequest);
-
-      LOGGER.info(LOG_TOKEN_SUCC);
+      issueJwt(jsonRequest, reuseKey)
+          .onSuccess(
+              jwt -> {
+                LOGGER.info(LOG_TOKEN_SUCC);
 
-      Response resp =
-          new ResponseBuilder()
-              .status(200)
-              .type(URN_SUCCESS)
-              .title(TOKEN_SUCCESS)
-              .objectResults(jwt)
-              .build();
-      promiseHandler.complete(resp.toJson());
+                Response resp =
+                    new ResponseBuilder()
+                        .status(200)
+                        .type(URN_SUCCESS)
+                        .title(TOKEN_SUCCESS)
+                        .objectResults(jwt)
+                        .build();
+                promiseHandler.complete(resp.toJson());
+              })
+          .onFailure(
+              fail -> {
+                LOGGER.error(fail.getMessage());
+                promiseHandler.fail("Internal error");
+              });
     } else if (itemType.equals(ItemType.RESOURCE_SERVER)) {
       Future<JsonObject> checkIdenToken =
           validateForIdentityToken(request.getItemId(), role, delegationInfo, user);
 
       checkIdenToken
-          .onSuccess(
+          .compose(
               result -> {
                 jsonRequest.mergeIn(result, true);
-                JsonObject jwt = getJwt(jsonRequest);
-
+                return issueJwt(jsonRequest, reuseKey);
+              })
+          .onSuccess(
+              jwt -> {
                 LOGGER.info(LOG_TOKEN_SUCC);
 
                 Response resp =
@@ -203,39 +353,39 @@ public class TokenServiceImpl implements TokenService {
 
       policyService
           .verifyResourceAccess(request, delegationInfo, user)
-          .onSuccess(
+          .compose(
               result -> {
                 jsonRequest.mergeIn(result, true);
 
                 if (jsonRequest.getString(STATUS).equals(SUCCESS)) {
 
-                  JsonObject jwt = getJwt(jsonRequest);
-                  Response resp =
-                      new ResponseBuilder()
-                          .status(200)
-                          .type(URN_SUCCESS)
-                          .title(TOKEN_SUCCESS)
-                          .objectResults(jwt)
-                          .build();
-
-                  promiseHandler.complete(resp.toJson());
-                } else if (jsonRequest.getString(STATUS).equals(APD_INTERACTION)) {
-
-                  JsonObject apdJwt = getApdJwt(jsonRequest);
-                  /* Add context to the error response containing the APD token */
-                  Response resp =
-                      new ResponseBuilder()
-                          .status(403)
-                          .type(URN_MISSING_INFO)
-                          .title(ERR_TITLE_APD_INTERACT_REQUIRED)
-                          .detail(ERR_DETAIL_APD_INTERACT_REQUIRED)
-                          .errorContext(apdJwt)
-                          .build();
-
-                  promiseHandler.complete(resp.toJson());
+                  return issueJwt(jsonRequest, reuseKey)
+                      .map(
+                          jwt ->
+                              new ResponseBuilder()
+                                  .status(200)
+                                  .type(URN_SUCCESS)
+                                  .title(TOKEN_SUCCESS)
+                                  .objectResults(jwt)
+                                  .build());
                 }
 
+                /* Add context to the error response containing the APD token */
+                return getApdJwt(jsonRequest)
+                    .map(
+                        apdJwt ->
+                            new ResponseBuilder()
+                                .status(403)
+                                .type(URN_MISSING_INFO)
+                                .title(ERR_TITLE_APD_INTERACT_REQUIRED)
+                                .detail(ERR_DETAIL_APD_INTERACT_REQUIRED)
+                                .errorContext(apdJwt)
+                                .build());
+              })
+          .onSuccess(
+              resp -> {
                 LOGGER.info(LOG_TOKEN_SUCC);
+                promiseHandler.complete(resp.toJson());
               })
           .onFailure(
               fail -> {
@@ -252,6 +402,83 @@ public class TokenServiceImpl implements TokenService {
     return promiseHandler.future();
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public Future<JsonObject> createTokenBatch(
+      List<RequestToken> requests, DelegationInformation delegationInfo, User user) {
+    LOGGER.debug(REQ_RECEIVED);
+
+    Promise<JsonObject> promiseHandler = Promise.promise();
+
+    /* Checking if the user has any roles - done once for the whole batch */
+    if (user.getRoles().isEmpty()) {
+      Response r =
+          new ResponseBuilder()
+              .status(404)
+              .type(URN_MISSING_INFO)
+              .title(ERR_TITLE_NO_APPROVED_ROLES)
+              .detail(ERR_DETAIL_NO_APPROVED_ROLES)
+              .build();
+      promiseHandler.complete(r.toJson());
+      return promiseHandler.future();
+    }
+
+    /* All items are started at once, so that policy verification for resources happens in
+     * parallel. The failure of an item does not fail the batch, it is added as an error response
+     * for that item */
+    List<Future<JsonObject>> items =
+        requests.stream()
+            .map(
+                request ->
+                    createToken(request, delegationInfo, user)
+                        .otherwise(
+                            fail -> {
+                              LOGGER.error(
+                                  "Fail: Batch token item {} failed; {}",
+                                  request.getItemId(),
+                                  fail.getMessage());
+                              return new ResponseBuilder()
+                                  .status(500)
+                                  .type(URN_INTERNAL_SERVER_ERROR)
+                                  .title(INTERNAL_SVR_ERR)
+                                  .detail(INTERNAL_SVR_ERR)
+                                  .build()
+                                  .toJson();
+                            }))
+            .collect(Collectors.toList());
+
+    @SuppressWarnings("rawtypes")
+    List<Future> futures = new ArrayList<Future>(items);
+
+    CompositeFuture.all(futures)
+        .onSuccess(
+            done -> {
+              JsonArray results = new JsonArray();
+              items.forEach(item -> results.add(item.result()));
+
+              /* 207 if any item did not get a token, so that the batch is not taken as a success */
+              boolean allIssued =
+                  items.stream().allMatch(item -> item.result().getInteger(STATUS, 500) == 200);
+
+              LOGGER.info(LOG_BATCH_TOKEN, results.size());
+              Response resp =
+                  new ResponseBuilder()
+                      .status(allIssued ? 200 : 207)
+                      .type(URN_SUCCESS)
+                      .title(BATCH_TOKEN_PROCESSED)
+                      .arrayResults(results)
+                      .build();
+              promiseHandler.complete(resp.toJson());
+            })
+        .onFailure(
+            fail -> {
+              LOGGER.error(fail.getMessage());
+              promiseHandler.fail("Internal error");
+            });
+
+    return promiseHandler.future();
+  }
+
   /** {@inheritDoc} */
   @Override
   public Future<JsonObject> revokeToken(RevokeToken revokeToken, User user) {
@@ -321,49 +548,57 @@ public class TokenServiceImpl implements TokenService {
                         .put(USER_ID, user.getUserId())
                         .put(RS_URL, revokeToken.getRsUrl());
 
-                /* Here, we get the special admin token that is presented to other servers for token
-                 * revocation. The 'sub' field is the auth server domain instead of a UUID user ID.
-                 * The 'iss' field is the auth server domain as usual and 'aud' is the requested
-                 * resource server domain. The rest of the field are not important, so they are
-                 * either null or blank.
-                 */
-
-                JsonObject adminTokenReq =
-                    new JsonObject()
-                        .put(USER_ID, CLAIM_ISSUER)
-                        .put(URL, rsUrl)
-                        .put(ROLE, "")
-                        .put(ITEM_TYPE, "")
-                        .put(ITEM_ID, "");
-                String adminToken = getJwt(adminTokenReq).getString(ACCESS_TOKEN);
-
-                revokeService
-                    .httpRevokeRequest(revokePayload, adminToken)
+                /* The revocation is logged first, so that the server can catch up on it from the
+                 * revocation log even if the revocation request fails */
+                revocationLog
+                    .append(user.getUserId(), rsUrl)
                     .onComplete(
-                        result -> {
-                          if (result.succeeded()) {
-                            LOGGER.info(LOG_REVOKE_REQ);
-                            Response resp =
-                                new ResponseBuilder()
-                                    .status(200)
-                                    .type(URN_SUCCESS)
-                                    .title(TOKEN_REVOKED)
-                                    .arrayResults(new JsonArray())
-                                    .build();
-                            promiseHandler.complete(resp.toJson());
-                            return;
-                          } else {
-                            LOGGER.error("Fail: {}; {}", FAILED_REVOKE, result.cause());
-                            Response resp =
-                                new ResponseBuilder()
-                                    .status(400)
-                                    .type(URN_INVALID_INPUT)
-                                    .title(FAILED_REVOKE)
-                                    .detail(FAILED_REVOKE)
-                                    .build();
-                            promiseHandler.complete(resp.toJson());
+                        logged -> {
+                          if (logged.failed()) {
+                            LOGGER.error(LOG_DB_ERROR, logged.cause().getMessage());
+                            promiseHandler.fail(INTERNAL_SVR_ERR);
                             return;
                           }
+                          if (revokedIndex != null) {
+                            revokedIndex.put(
+                                UUID.fromString(user.getUserId()), rsUrl, logged.result());
+                          }
+
+                          /* Here, we get the special admin token that is presented to other
+                           * servers for token revocation. See getAuthServerToken for the claims of
+                           * the token.
+                           */
+                          getAuthServerToken(rsUrl)
+                              .map(adminJwt -> adminJwt.getString(ACCESS_TOKEN))
+                              .compose(
+                                  adminToken ->
+                                      revokeService.httpRevokeRequest(revokePayload, adminToken))
+                              .onComplete(
+                                  result -> {
+                                    if (result.succeeded()) {
+                                      LOGGER.info(LOG_REVOKE_REQ);
+                                      Response resp =
+                                          new ResponseBuilder()
+                                              .status(200)
+                                              .type(URN_SUCCESS)
+                                              .title(TOKEN_REVOKED)
+                                              .arrayResults(new JsonArray())
+                                              .build();
+                                      promiseHandler.complete(resp.toJson());
+                                      return;
+                                    } else {
+                                      LOGGER.error("Fail: {}; {}", FAILED_REVOKE, result.cause());
+                                      Response resp =
+                                          new ResponseBuilder()
+                                              .status(400)
+                                              .type(URN_INVALID_INPUT)
+                                              .title(FAILED_REVOKE)
+                                              .detail(FAILED_REVOKE)
+                                              .build();
+                                      promiseHandler.complete(resp.toJson());
+                                      return;
+                                    }
+                                  });
                         });
               }
             });
@@ -371,6 +606,144 @@ public class TokenServiceImpl implements TokenService {
     return promiseHandler.future();
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public Future<JsonObject> revokeTokenBulk(RevokeTokenBulk revokeTokenBulk, User user) {
+
+    LOGGER.debug(REQ_RECEIVED);
+    Promise<JsonObject> promiseHandler = Promise.promise();
+
+    String rsUrl = revokeTokenBulk.getRsUrl();
+
+    if (rsUrl.equals(CLAIM_ISSUER)) {
+      Response resp =
+          new ResponseBuilder()
+              .status(400)
+              .type(URN_INVALID_INPUT)
+              .title(CANNOT_REVOKE_ON_AUTH)
+              .detail(CANNOT_REVOKE_ON_AUTH)
+              .build();
+      promiseHandler.complete(resp.toJson());
+      return promiseHandler.future();
+    }
+
+    /* The resource servers the user is an admin of are read from the database along with the
+     * roles, so this validates the server once for all users in the request */
+    if (!user.getResServersForRole(Roles.ADMIN).contains(rsUrl)) {
+      Response resp =
+          new ResponseBuilder()
+              .status(403)
+              .type(URN_INVALID_ROLE)
+              .title(ERR_TITLE_NOT_RS_ADMIN)
+              .detail(ERR_DETAIL_NOT_RS_ADMIN)
+              .build();
+      promiseHandler.complete(resp.toJson());
+      return promiseHandler.future();
+    }
+
+    List<String> userIds =
+        new ArrayList<String>(new LinkedHashSet<String>(revokeTokenBulk.getUserIds()));
+
+    /* As in revokeToken, the revocations are logged before the server is called */
+    revocationLog
+        .appendAll(userIds, rsUrl)
+        .onSuccess(
+            revocations -> {
+              if (revokedIndex != null) {
+                revocations.stream()
+                    .map(obj -> (JsonObject) obj)
+                    .forEach(
+                        revocation ->
+                            revokedIndex.put(
+                                UUID.fromString(revocation.getString(SUB)),
+                                rsUrl,
+                                revocation.getLong(REVOKED_AT)));
+              }
+            })
+        .compose(revocations -> getAuthServerToken(rsUrl))
+        .map(adminJwt -> adminJwt.getString(ACCESS_TOKEN))
+        .compose(
+            adminToken -> {
+              List<Future<JsonObject>> batches =
+                  revokeService.httpBulkRevokeRequest(rsUrl, userIds, adminToken);
+
+              /* Progress is logged as each batch completes, since a large request takes a while */
+              for (int i = 0; i < batches.size(); i++) {
+                int batchNumber = i + 1;
+                batches
+                    .get(i)
+                    .onSuccess(
+                        batch -> {
+                          int count = batch.getJsonArray(USER_IDS).size();
+                          LOGGER.info(
+                              LOG_BULK_REVOKE_BATCH,
+                              rsUrl,
+                              batchNumber,
+                              batches.size(),
+                              count - batch.getJsonArray(FAILED_USER_IDS).size(),
+                              count);
+                        });
+              }
+
+              @SuppressWarnings("rawtypes")
+              List<Future> futures = new ArrayList<Future>(batches);
+              return CompositeFuture.all(futures).map(done -> batches);
+            })
+        .onSuccess(
+            batches -> {
+              JsonArray results = new JsonArray();
+              int failed = 0;
+              for (int i = 0; i < batches.size(); i++) {
+                JsonObject batch = batches.get(i).result();
+                JsonArray failedIds = batch.getJsonArray(FAILED_USER_IDS);
+                JsonObject result =
+                    new JsonObject()
+                        .put(BATCH, i + 1)
+                        .put(COUNT, batch.getJsonArray(USER_IDS).size())
+                        .put(REVOKED, failedIds.isEmpty());
+
+                /* The users that could not be revoked are returned so that they can be retried */
+                if (!failedIds.isEmpty()) {
+                  failed += failedIds.size();
+                  result.put(USER_IDS, failedIds);
+                }
+                results.add(result);
+              }
+
+              LOGGER.info(LOG_BULK_REVOKE, rsUrl, userIds.size() - failed, userIds.size());
+
+              /* 207 if only some users were revoked, as with batch token requests. If none were
+               * revoked, the request failed as a single revocation would */
+              Response resp;
+              if (failed == userIds.size()) {
+                resp =
+                    new ResponseBuilder()
+                        .status(400)
+                        .type(URN_INVALID_INPUT)
+                        .title(FAILED_REVOKE)
+                        .detail(FAILED_REVOKE)
+                        .arrayResults(results)
+                        .build();
+              } else {
+                resp =
+                    new ResponseBuilder()
+                        .status(failed == 0 ? 200 : 207)
+                        .type(URN_SUCCESS)
+                        .title(BULK_REVOKE_PROCESSED)
+                        .arrayResults(results)
+                        .build();
+              }
+              promiseHandler.complete(resp.toJson());
+            })
+        .onFailure(
+            fail -> {
+              LOGGER.error("Fail: {}; {}", FAILED_REVOKE, fail.getMessage());
+              promiseHandler.fail(INTERNAL_SVR_ERR);
+            });
+
+    return promiseHandler.future();
+  }
+
   /** {@inheritDoc} */
   @Override
   public Future<JsonObject> validateToken(IntrospectToken introspectToken) {
@@ -392,36 +765,16 @@ public class TokenServiceImpl implements TokenService {
       return promiseHandler.future();
     }
 
-    TokenCredentials authInfo = new TokenCredentials(accessToken);
-
-    /**
-     * The `.authenticate` method returns a succeeded future if the JWT is valid and a failed future
-     * if not. Here, if it returns a failed future, we catch it using `recover` and create a
-     * ComposeException so that the normal compose chain can work.
-     */
-    Future<JsonObject> decodedToken =
-        provider
-            .authenticate(authInfo)
-            .recover(
-                jwtError -> {
-                  LOGGER.error("Fail: {}; {}", TOKEN_FAILED, jwtError.getLocalizedMessage());
-                  Response resp =
-                      new ResponseBuilder()
-                          .status(401)
-                          .type(URN_INVALID_AUTH_TOKEN)
-                          .title(TOKEN_FAILED)
-                          .arrayResults(new JsonArray().add(new JsonObject().put(STATUS, DENY)))
-                          .build();
-                  return Future.failedFuture(new ComposeException(resp));
-                })
-            .compose(
-                jwtDetails -> {
-                  JsonObject accessTokenJwt = jwtDetails.attributes().getJsonObject(ACCESS_TOKEN);
-                  return Future.succeededFuture(accessTokenJwt);
-                });
+    Future<JsonObject> decodedToken = verifyToken(accessToken);
 
     decodedToken
-        .compose(tokenJson -> addUserInfoToIntrospect(tokenJson))
+        .compose(
+            tokenJson -> {
+              if (!introspectToken.isIncludeUserInfo()) {
+                return Future.succeededFuture(tokenJson);
+              }
+              return addUserInfoToIntrospect(tokenJson);
+            })
         .onSuccess(
             res -> {
               Response resp =
@@ -447,6 +800,279 @@ public class TokenServiceImpl implements TokenService {
     return promiseHandler.future();
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public Future<JsonObject> validateTokenBatch(List<IntrospectToken> introspectTokens) {
+
+    LOGGER.debug(REQ_RECEIVED);
+    Promise<JsonObject> promiseHandler = Promise.promise();
+
+    /* All tokens are verified at once. An invalid token does not fail the batch, it is added as an
+     * error response for that token */
+    List<Future<JsonObject>> verified =
+        verifyTokens(
+            introspectTokens.stream()
+                .map(IntrospectToken::getAccessToken)
+                .collect(Collectors.toList()));
+
+    @SuppressWarnings("rawtypes")
+    List<Future> futures = new ArrayList<Future>(verified);
+
+    /* join waits for all tokens to be verified, even if some fail */
+    Future<JsonObject> userInfo =
+        CompositeFuture.join(futures)
+            .transform(
+                done -> {
+                  Set<String> userIds = new HashSet<String>();
+                  for (int i = 0; i < verified.size(); i++) {
+                    if (verified.get(i).succeeded()
+                        && introspectTokens.get(i).isIncludeUserInfo()) {
+                      userIds.add(identityTokenUserId(verified.get(i).result()));
+                    }
+                  }
+                  userIds.remove(null);
+
+                  if (userIds.isEmpty()) {
+                    return Future.succeededFuture(new JsonObject());
+                  }
+                  return getUserInfo(new ArrayList<String>(userIds));
+                });
+
+    userInfo
+        .onSuccess(
+            details -> {
+              JsonArray results = new JsonArray();
+              for (int i = 0; i < verified.size(); i++) {
+                JsonObject userDetails =
+                    introspectTokens.get(i).isIncludeUserInfo() ? details : null;
+                results.add(batchIntrospectResult(verified.get(i), userDetails));
+              }
+
+              LOGGER.info(LOG_BATCH_INTROSPECT, results.size());
+              Response resp =
+                  new ResponseBuilder()
+                      .status(200)
+                      .type(URN_SUCCESS)
+                      .title(BATCH_INTROSPECT_PROCESSED)
+                      .arrayResults(results)
+                      .build();
+              promiseHandler.complete(resp.toJson());
+            })
+        .onFailure(
+            fail -> {
+              LOGGER.error(fail.getMessage());
+              promiseHandler.fail("Internal error");
+            });
+
+    return promiseHandler.future();
+  }
+
+  /**
+   * Create the introspection response of a token in a batch.
+   *
+   * @param verified the completed future of the decoded token
+   * @param userDetails the user details of the users of all identity tokens in the batch, or null
+   *     if user details are not to be added for the token
+   * @return the response JSON for the token
+   */
+  private JsonObject batchIntrospectResult(Future<JsonObject> verified, JsonObject userDetails) {
+    if (verified.failed()) {
+      if (verified.cause() instanceof ComposeException) {
+        return ((ComposeException) verified.cause()).getResponse().toJson();
+      }
+
+      LOGGER.error("Fail: Batch introspection item failed; {}", verified.cause().getMessage());
+      return new ResponseBuilder()
+          .status(500)
+          .type(URN_INTERNAL_SERVER_ERROR)
+          .title(INTERNAL_SVR_ERR)
+          .detail(INTERNAL_SVR_ERR)
+          .build()
+          .toJson();
+    }
+
+    JsonObject decodedToken = verified.result();
+    String userId = identityTokenUserId(decodedToken);
+    if (userId != null && userDetails != null) {
+      decodedToken.put(INTROSPECT_USERINFO, userDetails.getJsonObject(userId));
+    }
+
+    return new ResponseBuilder()
+        .status(200)
+        .type(URN_SUCCESS)
+        .title(TOKEN_AUTHENTICATED)
+        .objectResults(decodedToken)
+        .build()
+        .toJson();
+  }
+
+  /**
+   * Create the response for a token that failed verification.
+   *
+   * @return the Response
+   */
+  private Response tokenFailedResponse() {
+    return new ResponseBuilder()
+        .status(401)
+        .type(URN_INVALID_AUTH_TOKEN)
+        .title(TOKEN_FAILED)
+        .arrayResults(new JsonArray().add(new JsonObject().put(STATUS, DENY)))
+        .build();
+  }
+
+  /**
+   * Verify a token and get its decoded claims. Tokens of a user that were issued for an audience
+   * before the tokens of the user were revoked on it are rejected, if the revoked subject index is
+   * enabled. The token is verified in the same way as a batch of one token.
+   *
+   * @param accessToken the encoded token
+   * @return a Future of JsonObject containing the decoded claims. Fails with a {@link
+   *     ComposeException} if the token is invalid or revoked
+   */
+  private Future<JsonObject> verifyToken(String accessToken) {
+    return verifyTokens(List.of(accessToken)).get(0);
+  }
+
+  /**
+   * Verify the tokens of a batch. Signatures are verified in chunks on the verifier threads of the
+   * {@link JwtVerificationEngine}, so that a large batch does not block the event loop and its
+   * chunks are verified in parallel. Tokens rejected by the {@link TokenPrecheck} or found in the
+   * introspection cache are not sent to the verifier threads.
+   *
+   * @param accessTokens the encoded tokens
+   * @return a Future for each token in order, containing the decoded claims. Fails with a {@link
+   *     ComposeException} if the token is invalid or revoked, containing a 400 response if the
+   *     token is missing
+   */
+  private List<Future<JsonObject>> verifyTokens(List<String> accessTokens) {
+    List<Future<JsonObject>> decoded = new ArrayList<Future<JsonObject>>();
+    List<String> pending = new ArrayList<String>();
+    List<Promise<JsonObject>> pendingResults = new ArrayList<Promise<JsonObject>>();
+
+    for (String accessToken : accessTokens) {
+      if (accessToken == null || accessToken.isBlank()) {
+        Response resp =
+            new ResponseBuilder()
+                .status(400)
+                .type(URN_MISSING_INFO)
+                .title(MISSING_TOKEN)
+                .detail(MISSING_TOKEN)
+                .build();
+        decoded.add(Future.failedFuture(new ComposeException(resp)));
+        continue;
+      }
+
+      Future<JsonObject> checked = precheckToken(accessToken);
+      if (checked != null) {
+        decoded.add(checked);
+      } else if (verificationEngine == null) {
+        decoded.add(verifySignature(accessToken));
+      } else {
+        Promise<JsonObject> promise = Promise.promise();
+        pending.add(accessToken);
+        pendingResults.add(promise);
+        decoded.add(promise.future());
+      }
+    }
+
+    for (int from = 0; from < pending.size(); from += VERIFY_BATCH_CHUNK_SIZE) {
+      int to = Math.min(from + VERIFY_BATCH_CHUNK_SIZE, pending.size());
+      List<String> chunk = pending.subList(from, to);
+      List<Promise<JsonObject>> chunkResults = pendingResults.subList(from, to);
+
+      verificationEngine
+          .verify(() -> chunk.stream().map(this::verifySignature).collect(Collectors.toList()))
+          .onComplete(
+              res -> {
+                for (int i = 0; i < chunkResults.size(); i++) {
+                  Future<JsonObject> result =
+                      res.succeeded() ? res.result().get(i) : Future.failedFuture(res.cause());
+                  chunkResults.get(i).handle(result);
+                }
+              });
+    }
+
+    if (revokedIndex == null) {
+      return decoded;
+    }
+    return decoded.stream()
+        .map(claims -> claims.compose(this::rejectIfRevoked))
+        .collect(Collectors.toList());
+  }
+
+  private Future<JsonObject> rejectIfRevoked(JsonObject claims) {
+    String sub = claims.getString(SUB);
+    String aud = claims.getString(AUD);
+    Long iat = claims.getLong(IAT);
+    if (sub == null || aud == null || iat == null) {
+      return Future.succeededFuture(claims);
+    }
+
+    UUID userId;
+    try {
+      userId = UUID.fromString(sub);
+    } catch (IllegalArgumentException e) {
+      /* not issued to a user, e.g. a token issued to this server */
+      return Future.succeededFuture(claims);
+    }
+
+    if (iat < revokedIndex.revokedAt(userId, aud)) {
+      LOGGER.error("Fail: {}; token revoked", TOKEN_FAILED);
+      return Future.failedFuture(new ComposeException(tokenFailedResponse()));
+    }
+    return Future.succeededFuture(claims);
+  }
+
+  /**
+   * Check a token without verifying its signature, using the {@link TokenPrecheck} and the
+   * introspection cache.
+   *
+   * @param accessToken the encoded token
+   * @return a failed Future if the token is rejected, a succeeded Future containing the claims if
+   *     the token is cached, or null if the signature of the token has to be verified
+   */
+  private Future<JsonObject> precheckToken(String accessToken) {
+    TokenPrecheck.Rejection rejection = precheck.check(accessToken);
+    if (rejection != null) {
+      LOGGER.error("Fail: {}; token {}", TOKEN_FAILED, rejection.getReason());
+      return Future.failedFuture(new ComposeException(tokenFailedResponse()));
+    }
+
+    if (introspectionCache != null) {
+      JsonObject cached = introspectionCache.get(accessToken);
+      if (cached != null) {
+        return Future.succeededFuture(cached);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Verify the signature of a token using the {@link JwtVerifier}, adding its claims to the
+   * introspection cache. May be called on a verifier thread.
+   *
+   * @param accessToken the encoded token
+   * @return a completed Future containing the decoded claims. Fails with a {@link
+   *     ComposeException} if the token is invalid
+   */
+  private Future<JsonObject> verifySignature(String accessToken) {
+    JsonObject claims;
+    try {
+      claims = verifier.verify(accessToken);
+    } catch (SignatureException e) {
+      LOGGER.error("Fail: {}; {}", TOKEN_FAILED, e.getMessage());
+      return Future.failedFuture(new ComposeException(tokenFailedResponse()));
+    } catch (RuntimeException e) {
+      LOGGER.error("Fail: {}; {}", TOKEN_FAILED, e.getMessage());
+      return Future.failedFuture(e);
+    }
+
+    if (introspectionCache != null) {
+      introspectionCache.put(accessToken, claims);
+    }
+    return Future.succeededFuture(claims);
+  }
+
   /**
    * <b>Optionally</b> adds user details of the user who issued a token (<tt>sub</tt> field in the
    * JWT) to the introspection result. The details are added as a JSON object with the
@@ -459,19 +1085,14 @@ public class TokenServiceImpl implements TokenService {
    */
   private Future<JsonObject> addUserInfoToIntrospect(JsonObject decodedToken) {
     Promise<JsonObject> promise = Promise.promise();
-    String tokenIid = decodedToken.getString(IID, "");
-    String[] iidParts = tokenIid.split(":");
 
-    /* We only send userinfo for identity tokens now. Checking if `iid` is like 'rs:server.url' */
-    if (iidParts.length != 2 || !iidParts[0].equals(ITEM_TYPE_MAP.inverse().get(RESOURCE_SVR))) {
+    String userId = identityTokenUserId(decodedToken);
+    if (userId == null) {
       promise.complete(decodedToken);
       return promise.future();
     }
 
-    String userId = decodedToken.getString(SUB);
-
-    registrationService
-        .getUserDetails(List.of(userId))
+    getUserInfo(List.of(userId))
         .onSuccess(
             userInfo -> {
               decodedToken.put(INTROSPECT_USERINFO, userInfo.getJsonObject(userId));
@@ -483,51 +1104,106 @@ public class TokenServiceImpl implements TokenService {
   }
 
   /**
-   * Generates the JWT token using the request data.
+   * Get the user details of users for the introspection response, from the user info cache if it is
+   * enabled.
    *
-   * @param request
-   * @return jwtToken
+   * @param userIds list of user IDs
+   * @return a Future of JsonObject, with the user details keyed by user ID
    */
-  public JsonObject getJwt(JsonObject request) {
-
-    JWTOptions options =
-        new JWTOptions()
-            .setAlgorithm(JWT_ALGORITHM)
-            .setHeader(new JsonObject().put(ISS, CLAIM_ISSUER));
-    long timestamp = System.currentTimeMillis() / 1000;
-    long expiry = timestamp + CLAIM_EXPIRY;
-    String itemType = request.getString(ITEM_TYPE).toLowerCase();
-    String iid = ITEM_TYPE_MAP.inverse().get(itemType) + ":" + request.getString(ITEM_ID);
-    String audience = request.getString(URL);
-
-    /* Populate the token claims */
-    JsonObject claims = new JsonObject();
+  private Future<JsonObject> getUserInfo(List<String> userIds) {
+    if (userInfoCache == null) {
+      return registrationService.getUserDetails(userIds);
+    }
+    return userInfoCache.get(userIds, registrationService::getUserDetails);
+  }
 
-    claims
-        .put(SUB, request.getString(USER_ID))
-        .put(ISS, CLAIM_ISSUER)
-        .put(AUD, audience)
-        .put(EXP, expiry)
-        .put(IAT, timestamp)
-        .put(IID, iid)
-        .put(ROLE, request.getString(ROLE).toLowerCase())
-        .put(CONS, request.getJsonObject(CONSTRAINTS, new JsonObject()));
+  /**
+   * Get the user ID of an identity token. We only send userinfo for identity tokens, i.e. tokens
+   * whose <em>iid</em> is like 'rs:server.url'.
+   *
+   * @param decodedToken the decoded token claims
+   * @return the <em>sub</em> of the token if it is an identity token, else null
+   */
+  private String identityTokenUserId(JsonObject decodedToken) {
+    String tokenIid = decodedToken.getString(IID, "");
+    String[] iidParts = tokenIid.split(":");
 
-    if (request.containsKey(CREATE_TOKEN_RG)) {
-      claims.put(RG, request.getString(CREATE_TOKEN_RG));
-    }
-    if (request.containsKey(CREATE_TOKEN_DID)) {
-      claims.put(DID, request.getString(CREATE_TOKEN_DID));
+    if (iidParts.length != 2 || !iidParts[0].equals(ITEM_TYPE_MAP.inverse().get(RESOURCE_SVR))) {
+      return null;
     }
-    if (request.containsKey(CREATE_TOKEN_DRL)) {
-      claims.put(DRL, request.getString(CREATE_TOKEN_DRL).toLowerCase());
+    return decodedToken.getString(SUB);
+  }
+
+  /**
+   * Sign an access token using {@link #getJwt(JsonObject)}, and store it in the token reuse cache
+   * if the cache is enabled.
+   *
+   * @param request the request JSON used to create the token claims
+   * @param reuseKey the key of the request in the token reuse cache, null if the cache is disabled
+   * @return Future of JsonObject containing the access token, expiry and server
+   */
+  private Future<JsonObject> issueJwt(JsonObject request, TokenReuseCache.Key reuseKey) {
+    Future<JsonObject> jwt = getJwt(request);
+    if (reuseKey == null) {
+      return jwt;
     }
+    return jwt.onSuccess(result -> reuseCache.put(reuseKey, result));
+  }
 
-    String token = provider.generateToken(claims, options);
+  /**
+   * Generates the JWT token using the request data. The token is signed on the {@link
+   * JwtSigningEngine} and not on the calling thread.
+   *
+   * @param request
+   * @return a Future of JsonObject containing the <i>accessToken</i>, expiry and server (audience)
+   */
+  public Future<JsonObject> getJwt(JsonObject request) {
 
-    JsonObject tokenResp = new JsonObject();
-    tokenResp.put(ACCESS_TOKEN, token).put("expiry", expiry).put("server", audience);
-    return tokenResp;
+    long timestamp = System.currentTimeMillis() / 1000;
+    long expiry = timestamp + CLAIM_EXPIRY;
+    String itemType = ITEM_TYPE_MAP.inverse().get(request.getString(ITEM_TYPE).toLowerCase());
+    String itemId = request.getString(ITEM_ID);
+    String userId = request.getString(USER_ID);
+    String role = request.getString(ROLE).toLowerCase();
+    String audience = request.getString(URL);
+    JsonObject constraints = request.getJsonObject(CONSTRAINTS, new JsonObject());
+    String resourceGroup = request.getString(CREATE_TOKEN_RG);
+    String delegatorId = request.getString(CREATE_TOKEN_DID);
+    String delegatorRole =
+        request.containsKey(CREATE_TOKEN_DRL)
+            ? request.getString(CREATE_TOKEN_DRL).toLowerCase()
+            : null;
+
+    /* Populate the token claims - the order of claims is the same as the earlier JsonObject */
+    return signingEngine
+        .sign(
+            claims -> {
+              claims
+                  .put(SUB, userId)
+                  .put(ISS, CLAIM_ISSUER)
+                  .put(AUD, audience)
+                  .put(EXP, expiry)
+                  .put(IAT, timestamp)
+                  .put(IID, itemType, ':', itemId)
+                  .put(ROLE, role)
+                  .put(CONS, constraints);
+
+              if (resourceGroup != null) {
+                claims.put(RG, resourceGroup);
+              }
+              if (delegatorId != null) {
+                claims.put(DID, delegatorId);
+              }
+              if (delegatorRole != null) {
+                claims.put(DRL, delegatorRole);
+              }
+            })
+        .map(
+            token ->
+                new JsonObject()
+                    .put(ACCESS_TOKEN, token)
+                    .put("expiry", expiry)
+                    .put("server", audience));
   }
 
   /**
@@ -542,41 +1218,81 @@ public class TokenServiceImpl implements TokenService {
    *       <li><em>link</em> : The link to visit sent by the APD
    *     </ul>
    *
-   * @return jwtToken a JSON object containing the <i>accessToken</i>, expiry and server (audience)
+   * @return a Future of JsonObject containing the <i>apdToken</i>, expiry, server (audience) and
+   *     link
    */
-  public JsonObject getApdJwt(JsonObject request) {
+  public Future<JsonObject> getApdJwt(JsonObject request) {
 
-    JWTOptions options =
-        new JWTOptions()
-            .setAlgorithm(JWT_ALGORITHM)
-            .setHeader(new JsonObject().put(ISS, CLAIM_ISSUER));
     long timestamp = System.currentTimeMillis() / 1000;
     long expiry = timestamp + CLAIM_EXPIRY;
+    String userId = request.getString(USER_ID);
     String sessionId = request.getString(SESSION_ID);
     String link = request.getString(LINK);
     String audience = request.getString(URL);
 
     /* Populate the token claims */
-    JsonObject claims = new JsonObject();
-    claims
-        .put(SUB, request.getString(USER_ID))
-        .put(ISS, CLAIM_ISSUER)
-        .put(AUD, audience)
-        .put(EXP, expiry)
-        .put(IAT, timestamp)
-        .put(SID, sessionId)
-        .put(LINK, link);
-
-    String token = provider.generateToken(claims, options);
-
-    JsonObject tokenResp = new JsonObject();
-    tokenResp.put(APD_TOKEN, token).put("expiry", expiry).put("server", audience).put(LINK, link);
-    return tokenResp;
+    return signingEngine
+        .sign(
+            claims ->
+                claims
+                    .put(SUB, userId)
+                    .put(ISS, CLAIM_ISSUER)
+                    .put(AUD, audience)
+                    .put(EXP, expiry)
+                    .put(IAT, timestamp)
+                    .put(SID, sessionId)
+                    .put(LINK, link))
+        .map(
+            token ->
+                new JsonObject()
+                    .put(APD_TOKEN, token)
+                    .put("expiry", expiry)
+                    .put("server", audience)
+                    .put(LINK, link));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Future<JsonObject> getRevocations(String audience, long since, int limit) {
+    LOGGER.debug(REQ_RECEIVED);
+
+    return revocationLog
+        .read(audience, since, limit)
+        .map(
+            results ->
+                new ResponseBuilder()
+                    .status(200)
+                    .type(URN_SUCCESS)
+                    .title(REVOCATIONS_READ)
+                    .objectResults(results)
+                    .build()
+                    .toJson())
+        .recover(
+            err -> {
+              LOGGER.error(LOG_DB_ERROR, err.getMessage());
+              return Future.failedFuture(INTERNAL_SVR_ERR);
+            });
   }
 
   /** {@inheritDoc} */
   @Override
   public Future<JsonObject> getAuthServerToken(String audienceUrl) {
+    if (adminTokenCache == null) {
+      return createAuthServerToken(audienceUrl);
+    }
+    return adminTokenCache.get(audienceUrl, this::createAuthServerToken);
+  }
+
+  /**
+   * Creates the special admin token that is presented to other servers. The 'sub' field is the auth
+   * server domain instead of a UUID user ID. The 'iss' field is the auth server domain as usual and
+   * 'aud' is the requested server domain. The rest of the field are not important, so they are
+   * either null or blank.
+   *
+   * @param audienceUrl the URL of the server the token is presented to
+   * @return a Future of JsonObject containing the <i>accessToken</i>, expiry and server
+   */
+  private Future<JsonObject> createAuthServerToken(String audienceUrl) {
     JsonObject adminTokenReq =
         new JsonObject()
             .put(USER_ID, CLAIM_ISSUER)
@@ -584,7 +1300,7 @@ public class TokenServiceImpl implements TokenService {
             .put(ROLE, "")
             .put(ITEM_TYPE, "")
             .put(ITEM_ID, "");
-    return Future.succeededFuture(getJwt(adminTokenReq));
+    return getJwt(adminTokenReq);
   }
 
   /**
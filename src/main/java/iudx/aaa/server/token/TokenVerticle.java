@@ -3,18 +3,28 @@ package iudx.aaa.server.token;
 import static iudx.aaa.server.token.Constants.*;
 
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.eventbus.Message;
 import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.file.FileProps;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.auth.KeyStoreOptions;
-import io.vertx.ext.auth.jwt.JWTAuth;
-import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.core.net.JksOptions;
 import io.vertx.pgclient.PgConnectOptions;
 import io.vertx.pgclient.PgPool;
 import io.vertx.serviceproxy.ServiceBinder;
 import io.vertx.sqlclient.PoolOptions;
 import iudx.aaa.server.policy.PolicyService;
 import iudx.aaa.server.registration.RegistrationService;
+import iudx.aaa.server.token.TokenServiceImpl.TokenServiceImplBuilder;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -43,12 +53,33 @@ public class TokenVerticle extends AbstractVerticle {
   private PgConnectOptions connectOptions;
   private PgPool pgPool;
   private TokenService tokenService;
-  private JWTAuth provider;
   private PolicyService policyService;
   private RegistrationService registrationService;
   private ServiceBinder binder;
   private MessageConsumer<JsonObject> consumer;
   private TokenRevokeService revokeService;
+  private JwtSigningEngine signingEngine;
+  private JwtVerificationEngine verificationEngine;
+  private TokenReuseCache reuseCache;
+  private MessageConsumer<JsonObject> invalidationConsumer;
+  private String keystorePath;
+  private String keystorePassword;
+  private JwtSigningAlgorithm signingAlgorithm;
+  private JwtKeySet keySet;
+  private JwtVerifier verifier;
+  private long keystoreWatchTimerId = -1;
+  private long keystoreModified;
+  private long keystoreSize;
+  private boolean keystoreReloading = false;
+  private AdminTokenCache adminTokenCache;
+  private IntrospectionCache introspectionCache;
+  private UserInfoCache userInfoCache;
+  private TokenRevokeDispatcher revokeDispatcher;
+  private RevocationLog revocationLog;
+  private RevokedSubjectIndex revokedIndex;
+  private MessageConsumer<JsonObject> revocationConsumer;
+  private long revokedIndexTimerId = -1;
+  private boolean revokedIndexSyncing = false;
 
   private static final Logger LOGGER = LogManager.getLogger(TokenVerticle.class);
 
@@ -71,6 +102,57 @@ public class TokenVerticle extends AbstractVerticle {
     poolSize = Integer.parseInt(config().getString(POOLSIZE));
     keystorePath = config().getString(KEYSTORE_PATH);
     keystorePassword = config().getString(KEYSTPRE_PASSWORD);
+    signingAlgorithm = JwtSigningAlgorithm.fromConfig(config().getString(CONFIG_SIGNING_ALGORITHM));
+    int signingPoolSize =
+        config().getInteger(CONFIG_SIGNING_POOL_SIZE, Runtime.getRuntime().availableProcessors());
+    int signingQueueSize =
+        config().getInteger(CONFIG_SIGNING_QUEUE_SIZE, DEFAULT_SIGNING_QUEUE_SIZE);
+    int verifyPoolSize =
+        config().getInteger(CONFIG_VERIFY_POOL_SIZE, Runtime.getRuntime().availableProcessors());
+    int verifyQueueSize = config().getInteger(CONFIG_VERIFY_QUEUE_SIZE, DEFAULT_VERIFY_QUEUE_SIZE);
+    long keystoreWatchMs = config().getLong(CONFIG_KEYSTORE_WATCH_MS, DEFAULT_KEYSTORE_WATCH_MS);
+    boolean reuseCacheEnabled = config().getBoolean(CONFIG_REUSE_CACHE_ENABLED, false);
+    long reuseCacheMaxSize =
+        config().getLong(CONFIG_REUSE_CACHE_MAX_SIZE, DEFAULT_REUSE_CACHE_MAX_SIZE);
+    long reuseMinRemainingSec =
+        config().getLong(CONFIG_REUSE_MIN_REMAINING_SEC, DEFAULT_REUSE_MIN_REMAINING_SEC);
+    long adminTokenRefreshSec =
+        config().getLong(CONFIG_ADMIN_TOKEN_REFRESH_SEC, DEFAULT_ADMIN_TOKEN_REFRESH_SEC);
+    boolean introspectCacheEnabled = config().getBoolean(CONFIG_INTROSPECT_CACHE_ENABLED, true);
+    long introspectCacheMaxSize =
+        config().getLong(CONFIG_INTROSPECT_CACHE_MAX_SIZE, DEFAULT_INTROSPECT_CACHE_MAX_SIZE);
+    long introspectCacheTtlSec =
+        config().getLong(CONFIG_INTROSPECT_CACHE_TTL_SEC, DEFAULT_INTROSPECT_CACHE_TTL_SEC);
+    boolean userInfoCacheEnabled = config().getBoolean(CONFIG_USERINFO_CACHE_ENABLED, true);
+    long userInfoCacheMaxSize =
+        config().getLong(CONFIG_USERINFO_CACHE_MAX_SIZE, DEFAULT_USERINFO_CACHE_MAX_SIZE);
+    long userInfoCacheTtlSec =
+        config().getLong(CONFIG_USERINFO_CACHE_TTL_SEC, DEFAULT_USERINFO_CACHE_TTL_SEC);
+    int revokeMaxConcurrency =
+        config().getInteger(CONFIG_REVOKE_MAX_CONCURRENCY, DEFAULT_REVOKE_MAX_CONCURRENCY);
+    int revokePoolSize = config().getInteger(CONFIG_REVOKE_POOL_SIZE, DEFAULT_REVOKE_POOL_SIZE);
+    long revokeTimeoutMs = config().getLong(CONFIG_REVOKE_TIMEOUT_MS, DEFAULT_REVOKE_TIMEOUT_MS);
+    int revokeBulkBatchSize =
+        config().getInteger(CONFIG_REVOKE_BULK_BATCH_SIZE, DEFAULT_REVOKE_BULK_BATCH_SIZE);
+    Set<String> revokeBulkServers =
+        config().getJsonArray(CONFIG_REVOKE_BULK_SERVERS, new JsonArray()).stream()
+            .map(String.class::cast)
+            .collect(Collectors.toSet());
+    long outboxPollMs =
+        config().getLong(CONFIG_REVOKE_OUTBOX_POLL_MS, DEFAULT_REVOKE_OUTBOX_POLL_MS);
+    int outboxBatchSize =
+        config().getInteger(CONFIG_REVOKE_OUTBOX_BATCH_SIZE, DEFAULT_REVOKE_OUTBOX_BATCH_SIZE);
+    int outboxMaxAttempts =
+        config().getInteger(CONFIG_REVOKE_OUTBOX_MAX_ATTEMPTS, DEFAULT_REVOKE_OUTBOX_MAX_ATTEMPTS);
+    long outboxBackoffMs =
+        config().getLong(CONFIG_REVOKE_OUTBOX_BACKOFF_MS, DEFAULT_REVOKE_OUTBOX_BACKOFF_MS);
+    long outboxMaxBackoffMs =
+        config().getLong(CONFIG_REVOKE_OUTBOX_MAX_BACKOFF_MS, DEFAULT_REVOKE_OUTBOX_MAX_BACKOFF_MS);
+    String revokedIndexPath = config().getString(CONFIG_REVOKED_INDEX_PATH);
+    int revokedIndexCapacity =
+        config().getInteger(CONFIG_REVOKED_INDEX_CAPACITY, DEFAULT_REVOKED_INDEX_CAPACITY);
+    long revokedIndexSyncMs =
+        config().getLong(CONFIG_REVOKED_INDEX_SYNC_MS, DEFAULT_REVOKED_INDEX_SYNC_MS);
     String issuer = config().getString(COS_DOMAIN, "");
 
     if (issuer != null && !issuer.isBlank()) {
@@ -103,35 +185,286 @@ public class TokenVerticle extends AbstractVerticle {
     }
 
     /* Initializing the services */
-    provider = jwtInitConfig();
-    revokeService = new TokenRevokeService(vertx);
+    FileProps keystoreProps = vertx.fileSystem().propsBlocking(keystorePath);
+    keystoreModified = keystoreProps.lastModifiedTime();
+    keystoreSize = keystoreProps.size();
+    keySet = loadKeySet();
+    verifier = new JwtVerifier(keySet);
+    signingEngine =
+        new JwtSigningEngine(vertx, jwtEncoderInit(keySet), signingPoolSize, signingQueueSize);
+    verificationEngine = new JwtVerificationEngine(vertx, verifyPoolSize, verifyQueueSize);
+    LOGGER.info(
+        "Info: Signing tokens using {} key {}; {} verification keys",
+        signingAlgorithm.getJwtName(),
+        keySet.getSigningKey().getKid(),
+        keySet.getKeys().size());
+    if (keystoreWatchMs > 0) {
+      keystoreWatchTimerId = vertx.setPeriodic(keystoreWatchMs, id -> watchKeystore());
+    }
+    if (reuseCacheEnabled) {
+      reuseCache = new TokenReuseCache(reuseCacheMaxSize, reuseMinRemainingSec);
+      invalidationConsumer =
+          vertx.eventBus().consumer(TOKEN_CACHE_INVALIDATE_ADDRESS, this::invalidateReuseCache);
+      LOGGER.info(
+          "Info: Token reuse cache enabled; minimum remaining lifetime {}s", reuseMinRemainingSec);
+    }
+    adminTokenCache = new AdminTokenCache(vertx, "token", adminTokenRefreshSec);
+    if (introspectCacheEnabled) {
+      introspectionCache = new IntrospectionCache(introspectCacheMaxSize, introspectCacheTtlSec);
+    }
+    if (userInfoCacheEnabled) {
+      userInfoCache = new UserInfoCache(userInfoCacheMaxSize, userInfoCacheTtlSec);
+    }
+    revokeService =
+        new TokenRevokeService(
+            vertx,
+            revokeMaxConcurrency,
+            revokePoolSize,
+            revokeTimeoutMs,
+            revokeBulkBatchSize,
+            revokeBulkServers);
     pgPool = PgPool.pool(vertx, connectOptions, poolOptions);
+    revocationLog = new RevocationLog(vertx, pgPool);
+    if (revokedIndexPath != null) {
+      /* the verticle instances of this JVM share the index, since its files can be opened once */
+      revokedIndex =
+          RevokedSubjectIndex.acquire(
+              Path.of(revokedIndexPath), revokedIndexCapacity, CLAIM_EXPIRY);
+      syncRevokedIndex();
+      revokedIndexTimerId = vertx.setPeriodic(revokedIndexSyncMs, id -> syncRevokedIndex());
+    }
+    if (revokedIndex != null) {
+      revocationConsumer =
+          vertx.eventBus().consumer(REVOCATION_EVENTS_ADDRESS, this::handleRevocations);
+    }
     policyService = PolicyService.createProxy(vertx, POLICY_SERVICE_ADDRESS);
     registrationService = RegistrationService.createProxy(vertx, REGISTRATION_SERVICE_ADDRESS);
     tokenService =
-        new TokenServiceImpl(pgPool, policyService, registrationService, provider, revokeService);
+        new TokenServiceImplBuilder()
+            .pgPool(pgPool)
+            .policyService(policyService)
+            .registrationService(registrationService)
+            .revokeService(revokeService)
+            .signingEngine(signingEngine)
+            .verificationEngine(verificationEngine)
+            .reuseCache(reuseCache)
+            .adminTokenCache(adminTokenCache)
+            .introspectionCache(introspectionCache)
+            .userInfoCache(userInfoCache)
+            .verifier(verifier)
+            .revocationLog(revocationLog)
+            .revokedIndex(revokedIndex)
+            .build();
     binder = new ServiceBinder(vertx);
     consumer = binder.setAddress(TOKEN_SERVICE_ADDRESS).register(TokenService.class, tokenService);
 
+    /* Deliver token revocations queued in the outbox, e.g. by client secret resets */
+    revokeDispatcher =
+        new TokenRevokeDispatcher(
+            vertx,
+            pgPool,
+            revokeService,
+            tokenService::getAuthServerToken,
+            outboxPollMs,
+            outboxBatchSize,
+            outboxMaxAttempts,
+            outboxBackoffMs,
+            outboxMaxBackoffMs);
+    revokeDispatcher.start();
+
     LOGGER.debug("Info : {} : Started", LOGGER.getName());
   }
 
   /**
-   * Initializes {@link JWTAuth} to create a Authentication Provider instance for JWT token.
-   * Authentication Provider is used to generate and authenticate JWT token.
+   * Reads the JWT keystore and loads the {@link JwtKeySet} from it. Blocks while the keystore is
+   * read.
    *
-   * @return provider
+   * @return the key set
+   * @throws Exception if the keystore cannot be read or has no usable key
    */
-  public JWTAuth jwtInitConfig() {
-    JWTAuthOptions config = new JWTAuthOptions();
-    config.setKeyStore(new KeyStoreOptions().setPath(keystorePath).setPassword(keystorePassword));
+  private JwtKeySet loadKeySet() throws Exception {
+    KeyStore keyStore =
+        new JksOptions().setPath(keystorePath).setPassword(keystorePassword).loadKeyStore(vertx);
+    return JwtKeySet.load(keyStore, keystorePassword, signingAlgorithm);
+  }
 
-    JWTAuth provider = JWTAuth.create(vertx, config);
-    return provider;
+  /**
+   * Initializes the {@link JwtEncoder} used to sign tokens using the signing key of the key set.
+   * The <i>kid</i> of the key is added to the JWT header, so that resource servers and the {@link
+   * JwtVerifier} can pick the key to verify the token with.
+   *
+   * @param keySet the key set
+   * @return the JwtEncoder
+   */
+  private JwtEncoder jwtEncoderInit(JwtKeySet keySet) {
+    JsonObject header =
+        new JsonObject()
+            .put("typ", "JWT")
+            .put("alg", signingAlgorithm.getJwtName())
+            .put(ISS, CLAIM_ISSUER)
+            .put(KID, keySet.getSigningKey().getKid());
+    return JwtEncoder.create(
+        header, keySet.getSigningPrivateKey(), signingAlgorithm.getJcaAlgorithm());
+  }
+
+  /**
+   * Checks if the JWT keystore file has changed, or a key in the key set has become valid, and if
+   * so, reloads the key set. The keystore is read on a worker thread and the new keys are swapped
+   * in at once, so tokens are signed and verified without interruption. The verifier gets the new
+   * keys before the signing engine, so that tokens signed by a new key can always be introspected.
+   * Once reloaded, the public key APIs are asked to reload the keystore as well.
+   *
+   * <p>If the keystore cannot be read, e.g. because it is being written, the current keys are kept
+   * and the reload is tried again on the next check.
+   */
+  private void watchKeystore() {
+    if (keystoreReloading) {
+      return;
+    }
+    keystoreReloading = true;
+
+    vertx
+        .fileSystem()
+        .props(keystorePath)
+        .compose(
+            props -> {
+              boolean changed =
+                  props.lastModifiedTime() != keystoreModified || props.size() != keystoreSize;
+              if (!changed && System.currentTimeMillis() < keySet.getNextActivation()) {
+                return Future.<Void>succeededFuture();
+              }
+
+              return vertx
+                  .executeBlocking(this::loadKeySet, false)
+                  .compose(
+                      newKeySet -> {
+                        try {
+                          verifier.setKeys(newKeySet);
+                        } catch (GeneralSecurityException e) {
+                          return Future.failedFuture(e);
+                        }
+                        signingEngine.setEncoder(jwtEncoderInit(newKeySet));
+                        keySet = newKeySet;
+                        keystoreModified = props.lastModifiedTime();
+                        keystoreSize = props.size();
+                        return Future.succeededFuture(newKeySet);
+                      })
+                  .onSuccess(
+                      newKeySet -> {
+                        LOGGER.info(
+                            "Info: JWT keystore reloaded; signing using key {}; {} verification"
+                                + " keys",
+                            newKeySet.getSigningKey().getKid(),
+                            newKeySet.getKeys().size());
+                        vertx.eventBus().publish(KEYSTORE_RELOAD_ADDRESS, null);
+                      })
+                  .<Void>mapEmpty();
+            })
+        .onComplete(res -> keystoreReloading = false)
+        .onFailure(
+            err -> LOGGER.error("Fail: Unable to reload JWT keystore; {}", err.getMessage()));
+  }
+
+  /**
+   * Invalidates entries in the token reuse cache when the roles or delegations of users change, or
+   * their tokens are revoked at a server. The message contains the user IDs whose tokens are to be
+   * invalidated and optionally the URL of the server, if no user IDs are present all tokens are
+   * invalidated.
+   *
+   * @param message the invalidation message
+   */
+  private void invalidateReuseCache(Message<JsonObject> message) {
+    JsonArray userIds = message.body().getJsonArray(INVALIDATE_USER_IDS);
+    if (userIds == null || userIds.isEmpty()) {
+      LOGGER.info("Info: Invalidating token reuse cache");
+      reuseCache.invalidateAll();
+      return;
+    }
+
+    @SuppressWarnings("unchecked")
+    List<String> ids = userIds.getList();
+    String rsUrl = message.body().getString(INVALIDATE_RS_URL);
+    LOGGER.info("Info: Invalidating token reuse cache for users {}", ids);
+    reuseCache.invalidate(ids, rsUrl);
+  }
+
+  /**
+   * Handle revocations published by this or other nodes. The revocations are added to the revoked
+   * subject index, so that revoked tokens are rejected without waiting for the index to be synced
+   * with the revocation log. Reused tokens are invalidated separately, once the server has revoked
+   * them (see {@link #invalidateReuseCache(Message)}).
+   *
+   * @param message the revocation event
+   */
+  private void handleRevocations(Message<JsonObject> message) {
+    JsonObject event = message.body();
+    String audience = event.getString(AUDIENCE);
+    List<JsonObject> revocations =
+        event.getJsonArray(REVOCATIONS).stream()
+            .map(obj -> (JsonObject) obj)
+            .collect(Collectors.toList());
+
+    revocations.forEach(
+        revocation ->
+            revokedIndex.put(
+                UUID.fromString(revocation.getString(SUB)),
+                audience,
+                revocation.getLong(REVOKED_AT)));
+  }
+
+  /**
+   * Sync the revoked subject index with the revocation log, to add revocations that were not
+   * received as events, e.g. while this node was down.
+   */
+  private void syncRevokedIndex() {
+    if (revokedIndexSyncing) {
+      return;
+    }
+    revokedIndexSyncing = true;
+
+    revocationLog
+        .sync(revokedIndex)
+        .onComplete(res -> revokedIndexSyncing = false)
+        .onSuccess(
+            synced -> {
+              if (synced > 0) {
+                LOGGER.debug("Info: Synced {} revocations to revoked subject index", synced);
+              }
+            })
+        .onFailure(
+            err -> LOGGER.error("Fail: Revoked subject index sync failed; {}", err.getMessage()));
   }
 
   @Override
   public void stop() {
     binder.unregister(consumer);
+    revokeDispatcher.close();
+    revocationLog.close();
+    if (revocationConsumer != null) {
+      revocationConsumer.unregister();
+    }
+    if (revokedIndex != null) {
+      vertx.cancelTimer(revokedIndexTimerId);
+      revokedIndex.release();
+    }
+    if (invalidationConsumer != null) {
+      invalidationConsumer.unregister();
+    }
+    if (keystoreWatchTimerId != -1) {
+      vertx.cancelTimer(keystoreWatchTimerId);
+    }
+    signingEngine.close();
+    verificationEngine.close();
+    adminTokenCache.close();
+    revokeService.close();
+    if (reuseCache != null) {
+      reuseCache.close();
+    }
+    if (introspectionCache != null) {
+      introspectionCache.close();
+    }
+    if (userInfoCache != null) {
+      userInfoCache.close();
+    }
   }
 }
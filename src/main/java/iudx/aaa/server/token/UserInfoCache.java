@@ -0,0 +1,98 @@
+package iudx.aaa.server.token;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import iudx.aaa.server.apiserver.util.MetricsRegistry;
+import iudx.aaa.server.apiserver.util.MetricsRegistry.InstanceMeters;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * A cache of the user information (name and email) added to the introspection response of identity
+ * tokens. The user information is fetched from Keycloak through the registration service, so
+ * caching it keeps Keycloak out of the introspection path for users that have been seen recently.
+ *
+ * <p>User information is keyed by user ID and is held for the configured TTL, after which it is
+ * fetched again. Changes made to a user's name or email in Keycloak are therefore visible in
+ * introspection responses after at most the TTL.
+ *
+ * <p>Hit, miss, eviction and size metrics are registered with the cache name
+ * <em>aaa.token.userinfo</em>, tagged with the <em>instance</em> of the cache.
+ */
+public class UserInfoCache {
+
+  private final Cache<String, JsonObject> cache;
+  private final InstanceMeters meters;
+
+  /**
+   * Create a user information cache.
+   *
+   * @param maxSize the maximum number of users held by the cache
+   * @param ttlSec the time (in seconds) that the information of a user is held by the cache
+   */
+  public UserInfoCache(long maxSize, long ttlSec) {
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(ttlSec, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+    this.meters = MetricsRegistry.instanceMeters("aaa.token.userinfo");
+    meters.monitor(cache, "aaa.token.userinfo");
+  }
+
+  /** Remove the metrics of the cache when it is no longer used. */
+  public void close() {
+    meters.close();
+  }
+
+  /**
+   * Get the user information of a list of users. Users that are not cached are fetched using a
+   * single call to the loader.
+   *
+   * @param userIds list of user IDs
+   * @param loader fetches the user information of a list of users, as returned by {@link
+   *     iudx.aaa.server.registration.RegistrationService#getUserDetails(List)}
+   * @return a Future of JsonObject, with the user information keyed by user ID. Users that the
+   *     loader did not return information for are not present
+   */
+  public Future<JsonObject> get(
+      List<String> userIds, Function<List<String>, Future<JsonObject>> loader) {
+    JsonObject result = new JsonObject();
+    Set<String> missing = new LinkedHashSet<String>();
+
+    for (String userId : userIds) {
+      JsonObject userInfo = cache.getIfPresent(userId);
+      if (userInfo != null) {
+        result.put(userId, userInfo.copy());
+      } else {
+        missing.add(userId);
+      }
+    }
+
+    if (missing.isEmpty()) {
+      return Future.succeededFuture(result);
+    }
+
+    return loader
+        .apply(new ArrayList<String>(missing))
+        .map(
+            loaded -> {
+              for (String userId : missing) {
+                JsonObject userInfo = loaded.getJsonObject(userId);
+                if (userInfo != null) {
+                  cache.put(userId, userInfo.copy());
+                  result.put(userId, userInfo);
+                }
+              }
+              return result;
+            });
+  }
+}
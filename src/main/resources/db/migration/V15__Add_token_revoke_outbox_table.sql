@@ -0,0 +1,34 @@
+-- Outbox of token revocations to be sent to resource servers/APDs, written in the same transaction
+-- as the change that requires the revocation (e.g. a client secret reset)
+
+CREATE TYPE token_revoke_status_enum AS ENUM (
+    'PENDING',
+    'SUCCEEDED',
+    'FAILED'
+);
+
+ALTER TYPE token_revoke_status_enum OWNER TO ${flyway:user};
+
+CREATE TABLE token_revoke_outbox (
+    id uuid DEFAULT public.gen_random_uuid() NOT NULL,
+    user_id uuid NOT NULL,
+    server_url character varying NOT NULL,
+    status token_revoke_status_enum NOT NULL,
+    attempts integer DEFAULT 0 NOT NULL,
+    next_attempt_at timestamp without time zone NOT NULL,
+    last_error character varying,
+    created_at timestamp without time zone NOT NULL,
+    updated_at timestamp without time zone NOT NULL
+);
+
+ALTER TABLE token_revoke_outbox OWNER TO ${flyway:user};
+
+ALTER TABLE ONLY token_revoke_outbox
+    ADD CONSTRAINT token_revoke_outbox_pkey PRIMARY KEY (id);
+
+ALTER TABLE ONLY token_revoke_outbox
+    ADD CONSTRAINT token_revoke_outbox_user_id_fkey FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE;
+
+CREATE INDEX idx_token_revoke_outbox_pending ON token_revoke_outbox (next_attempt_at) WHERE status = 'PENDING';
+
+GRANT SELECT,INSERT,DELETE,UPDATE ON TABLE token_revoke_outbox TO ${authUser};
@@ -0,0 +1,30 @@
+-- Log of token revocations, read by resource servers/APDs to catch up on revocations. The log is
+-- compacted: there is one entry per user and audience, and revoking again moves the entry to the
+-- end of the log by giving it a new sequence number
+
+CREATE SEQUENCE token_revocation_log_seq;
+
+ALTER SEQUENCE token_revocation_log_seq OWNER TO ${flyway:user};
+
+CREATE TABLE token_revocation_log (
+    user_id uuid NOT NULL,
+    audience character varying NOT NULL,
+    seq bigint DEFAULT nextval('token_revocation_log_seq') NOT NULL,
+    revoked_at timestamp without time zone NOT NULL
+);
+
+ALTER TABLE token_revocation_log OWNER TO ${flyway:user};
+
+ALTER SEQUENCE token_revocation_log_seq OWNED BY token_revocation_log.seq;
+
+ALTER TABLE ONLY token_revocation_log
+    ADD CONSTRAINT token_revocation_log_pkey PRIMARY KEY (user_id, audience);
+
+ALTER TABLE ONLY token_revocation_log
+    ADD CONSTRAINT token_revocation_log_user_id_fkey FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE;
+
+CREATE INDEX idx_token_revocation_log_audience_seq ON token_revocation_log (audience, seq);
+
+GRANT SELECT,INSERT,DELETE,UPDATE ON TABLE token_revocation_log TO ${authUser};
+
+GRANT USAGE,SELECT ON SEQUENCE token_revocation_log_seq TO ${authUser};
@@ -0,0 +1,4 @@
+-- Index to read the revocation log of all audiences in sequence order, used to keep the revoked
+-- subject index of the token service up to date
+
+CREATE INDEX idx_token_revocation_log_seq ON token_revocation_log (seq);
@@ -0,0 +1,5 @@
+-- Store the time of revocation with its time zone, so that it is converted to seconds since the
+-- epoch correctly whatever the time zone of the database session. Existing entries were written
+-- with NOW() in the session time zone, and are read back in that time zone
+
+ALTER TABLE token_revocation_log ALTER COLUMN revoked_at TYPE timestamp with time zone USING revoked_at;
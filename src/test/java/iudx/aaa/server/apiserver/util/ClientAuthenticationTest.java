@@ -0,0 +1,88 @@
+package iudx.aaa.server.apiserver.util;
+
+import static iudx.aaa.server.apiserver.util.Constants.CLIENT_ID;
+import static iudx.aaa.server.apiserver.util.Constants.CLIENT_SECRET;
+import static iudx.aaa.server.apiserver.util.Constants.OBTAINED_USER_ID;
+import static iudx.aaa.server.token.Constants.INVALID_CLIENT_ID_SEC;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.pgclient.PgPool;
+import iudx.aaa.server.apiserver.util.ClientCredentialCache.ClientCredential;
+import java.util.UUID;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+/** Unit tests for {@link ClientAuthentication} when the client credential is cached. */
+public class ClientAuthenticationTest {
+
+  private static final String SECRET = "correct-secret";
+
+  private PgPool pgPool;
+  private ClientCredentialCache cache;
+  private ClientAuthentication clientFlow;
+  private String clientId;
+  private String userId;
+
+  @BeforeEach
+  void setup() {
+    pgPool = Mockito.mock(PgPool.class);
+    cache = new ClientCredentialCache(100, 300);
+    clientFlow = new ClientAuthentication(pgPool, cache);
+
+    clientId = UUID.randomUUID().toString();
+    userId = UUID.randomUUID().toString();
+    cache.put(clientId, new ClientCredential(userId, DigestUtils.sha512(SECRET)), 0);
+  }
+
+  private RoutingContext context(String secret) {
+    MultiMap headers = MultiMap.caseInsensitiveMultiMap().add(CLIENT_ID, clientId);
+    headers.add(CLIENT_SECRET, secret);
+
+    HttpServerRequest request = Mockito.mock(HttpServerRequest.class);
+    Mockito.when(request.headers()).thenReturn(headers);
+
+    RoutingContext context = Mockito.mock(RoutingContext.class);
+    Mockito.when(context.request()).thenReturn(request);
+    Mockito.when(context.put(Mockito.anyString(), Mockito.any())).thenReturn(context);
+    return context;
+  }
+
+  @Test
+  @DisplayName("Cached client with the correct secret is authenticated without the database")
+  void cacheHitAuthenticated() {
+    RoutingContext context = context(SECRET);
+
+    clientFlow.handle(context);
+
+    Mockito.verify(context).put(OBTAINED_USER_ID, userId);
+    Mockito.verify(context).next();
+    Mockito.verify(context, Mockito.never()).fail(Mockito.any(Throwable.class));
+    Mockito.verifyNoInteractions(pgPool);
+  }
+
+  @Test
+  @DisplayName("Cached client with a wrong secret is rejected")
+  void cacheHitWrongSecretRejected() {
+    RoutingContext context = context("wrong-secret");
+
+    clientFlow.handle(context);
+
+    ArgumentCaptor<Throwable> failure = ArgumentCaptor.forClass(Throwable.class);
+    Mockito.verify(context).fail(failure.capture());
+    JsonObject response = new JsonObject(failure.getValue().getMessage());
+    assertEquals(401, response.getInteger("status"));
+    assertEquals(INVALID_CLIENT_ID_SEC, response.getString("title"));
+
+    Mockito.verify(context, Mockito.never()).put(Mockito.eq(OBTAINED_USER_ID), Mockito.any());
+    Mockito.verify(context, Mockito.never()).next();
+    Mockito.verifyNoInteractions(pgPool);
+  }
+}
@@ -0,0 +1,86 @@
+package iudx.aaa.server.apiserver.util;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import iudx.aaa.server.apiserver.util.ClientCredentialCache.ClientCredential;
+import java.util.Locale;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link ClientCredentialCache}. */
+public class ClientCredentialCacheTest {
+
+  private static ClientCredential credential() {
+    return new ClientCredential(UUID.randomUUID().toString(), new byte[] {1, 2, 3});
+  }
+
+  @Test
+  @DisplayName("A credential looked up in the current generation is cached")
+  void putAndGet() {
+    ClientCredentialCache cache = new ClientCredentialCache(100, 300);
+    String clientId = UUID.randomUUID().toString();
+    ClientCredential credential = credential();
+
+    cache.put(clientId, credential, cache.generation());
+    assertSame(credential, cache.get(clientId));
+  }
+
+  @Test
+  @DisplayName("A lookup that started before an invalidation is not cached")
+  void putSkippedAfterInvalidation() {
+    ClientCredentialCache cache = new ClientCredentialCache(100, 300);
+    String clientId = UUID.randomUUID().toString();
+
+    long generation = cache.generation();
+    /* the secret is reset while the old credential is being read from the database */
+    cache.invalidate(clientId);
+    cache.put(clientId, credential(), generation);
+    assertNull(cache.get(clientId));
+
+    cache.put(clientId, credential(), cache.generation());
+    assertNotNull(cache.get(clientId));
+  }
+
+  @Test
+  @DisplayName("Invalidating a client removes its cached credential")
+  void invalidateRemoves() {
+    ClientCredentialCache cache = new ClientCredentialCache(100, 300);
+    String clientId = UUID.randomUUID().toString();
+
+    cache.put(clientId, credential(), cache.generation());
+    cache.invalidate(clientId);
+    assertNull(cache.get(clientId));
+  }
+
+  @Test
+  @DisplayName("Client IDs that are not canonical UUIDs are not cached")
+  void nonCanonicalNotCached() {
+    ClientCredentialCache cache = new ClientCredentialCache(100, 300);
+
+    String notUuid = "not-a-client-id";
+    cache.put(notUuid, credential(), cache.generation());
+    assertNull(cache.get(notUuid));
+
+    /* UUID.fromString accepts these, but they are not the canonical form of the client ID */
+    String shortened = "1-2-3-4-5";
+    cache.put(shortened, credential(), cache.generation());
+    assertNull(cache.get(shortened));
+  }
+
+  @Test
+  @DisplayName("Upper case client IDs share the entry of the canonical client ID")
+  void upperCaseSharesEntry() {
+    ClientCredentialCache cache = new ClientCredentialCache(100, 300);
+    String clientId = UUID.randomUUID().toString();
+    ClientCredential credential = credential();
+
+    cache.put(clientId.toUpperCase(Locale.ROOT), credential, cache.generation());
+    assertSame(credential, cache.get(clientId));
+
+    cache.invalidate(clientId.toUpperCase(Locale.ROOT));
+    assertNull(cache.get(clientId));
+  }
+}
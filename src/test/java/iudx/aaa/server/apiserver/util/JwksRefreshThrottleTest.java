@@ -0,0 +1,63 @@
+package iudx.aaa.server.apiserver.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link JwksRefreshThrottle}. */
+public class JwksRefreshThrottleTest {
+
+  private static final long NOW = 1700000000000L;
+  private static final long MIN_INTERVAL_MS = 10000;
+
+  @Test
+  @DisplayName("Unknown kid refreshes are throttled until the minimum interval has passed")
+  void unknownKidThrottled() {
+    JwksRefreshThrottle throttle = new JwksRefreshThrottle(MIN_INTERVAL_MS, NOW);
+
+    assertFalse(throttle.tryStartForKid(NOW + 1));
+    assertFalse(throttle.tryStartForKid(NOW + MIN_INTERVAL_MS - 1));
+    assertTrue(throttle.tryStartForKid(NOW + MIN_INTERVAL_MS));
+  }
+
+  @Test
+  @DisplayName("A burst of unknown kids starts a single refresh")
+  void burstStartsOneRefresh() {
+    JwksRefreshThrottle throttle = new JwksRefreshThrottle(MIN_INTERVAL_MS, NOW);
+    long later = NOW + MIN_INTERVAL_MS;
+
+    assertTrue(throttle.tryStartForKid(later));
+    for (int i = 0; i < 100; i++) {
+      assertFalse(throttle.tryStartForKid(later + i));
+    }
+
+    /* still throttled once the refresh completes, as the JWKS was just refreshed */
+    throttle.done();
+    assertFalse(throttle.tryStartForKid(later + 1));
+    assertTrue(throttle.tryStartForKid(later + MIN_INTERVAL_MS));
+  }
+
+  @Test
+  @DisplayName("Periodic refreshes only wait for a refresh in progress")
+  void periodicNotRateLimited() {
+    JwksRefreshThrottle throttle = new JwksRefreshThrottle(MIN_INTERVAL_MS, NOW);
+
+    assertTrue(throttle.tryStart(NOW + 1));
+    assertFalse(throttle.tryStart(NOW + 2));
+    throttle.done();
+    assertTrue(throttle.tryStart(NOW + 3));
+  }
+
+  @Test
+  @DisplayName("A periodic refresh resets the interval for unknown kid refreshes")
+  void periodicResetsInterval() {
+    JwksRefreshThrottle throttle = new JwksRefreshThrottle(MIN_INTERVAL_MS, NOW);
+    long later = NOW + MIN_INTERVAL_MS * 5;
+
+    assertTrue(throttle.tryStart(later));
+    throttle.done();
+    assertFalse(throttle.tryStartForKid(later + 1));
+  }
+}
@@ -0,0 +1,90 @@
+package iudx.aaa.server.apiserver.util;
+
+import static iudx.aaa.server.apiserver.util.MetricsRegistry.INSTANCE_TAG;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import iudx.aaa.server.apiserver.util.MetricsRegistry.InstanceMeters;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for the instance meters of {@link MetricsRegistry}. */
+public class MetricsRegistryTest {
+
+  private SimpleMeterRegistry registry;
+  private String name;
+
+  @BeforeEach
+  void setup() {
+    registry = new SimpleMeterRegistry();
+    Metrics.addRegistry(registry);
+    name = "aaa.test." + UUID.randomUUID();
+  }
+
+  @AfterEach
+  void teardown() {
+    Metrics.removeRegistry(registry);
+    registry.close();
+  }
+
+  private InstanceMeters gauge(AtomicInteger value) {
+    InstanceMeters meters = MetricsRegistry.instanceMeters(name);
+    meters.register(
+        (meterRegistry, tags) ->
+            Gauge.builder(name, value, AtomicInteger::get).tags(tags).register(meterRegistry));
+    return meters;
+  }
+
+  @Test
+  @DisplayName("Instance numbers of closed instances are given to new instances")
+  void instanceNumberReused() {
+    InstanceMeters first = gauge(new AtomicInteger());
+    InstanceMeters second = gauge(new AtomicInteger());
+    assertEquals("0", first.tags().stream().findFirst().orElseThrow().getValue());
+    assertEquals("1", second.tags().stream().findFirst().orElseThrow().getValue());
+
+    first.close();
+    InstanceMeters third = gauge(new AtomicInteger());
+    assertEquals(first.tags(), third.tags());
+
+    second.close();
+    third.close();
+  }
+
+  @Test
+  @DisplayName("Closing an instance removes its meters, and the next instance reports its own")
+  void closeRemovesMeters() {
+    InstanceMeters first = gauge(new AtomicInteger(5));
+    assertEquals(5, registry.get(name).tag(INSTANCE_TAG, "0").gauge().value());
+
+    first.close();
+    assertNull(registry.find(name).gauge());
+
+    InstanceMeters second = gauge(new AtomicInteger(7));
+    assertEquals(7, registry.get(name).tag(INSTANCE_TAG, "0").gauge().value());
+    second.close();
+  }
+
+  @Test
+  @DisplayName("Closing an instance removes the meters of its cache")
+  void closeRemovesCacheMeters() {
+    Cache<String, String> cache = CacheBuilder.newBuilder().recordStats().build();
+    InstanceMeters meters = MetricsRegistry.instanceMeters(name);
+    meters.monitor(cache, name);
+    assertTrue(!registry.find("cache.size").tag("cache", name).meters().isEmpty());
+
+    meters.close();
+    assertTrue(registry.find("cache.size").tag("cache", name).meters().isEmpty());
+    assertTrue(registry.find("cache.gets").tag("cache", name).meters().isEmpty());
+  }
+}
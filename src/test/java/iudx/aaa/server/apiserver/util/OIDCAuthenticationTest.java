@@ -0,0 +1,36 @@
+package iudx.aaa.server.apiserver.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for the Keycloak discovery backoff of {@link OIDCAuthentication}. */
+public class OIDCAuthenticationTest {
+
+  @Test
+  @DisplayName("Discovery retry delay doubles with every failed attempt")
+  void retryDelayDoubles() {
+    assertEquals(1000, OIDCAuthentication.retryDelay(1000, 60000, 1));
+    assertEquals(2000, OIDCAuthentication.retryDelay(1000, 60000, 2));
+    assertEquals(4000, OIDCAuthentication.retryDelay(1000, 60000, 3));
+    assertEquals(32000, OIDCAuthentication.retryDelay(1000, 60000, 6));
+  }
+
+  @Test
+  @DisplayName("Discovery retry delay is capped at the maximum delay")
+  void retryDelayCapped() {
+    assertEquals(60000, OIDCAuthentication.retryDelay(1000, 60000, 7));
+    assertEquals(60000, OIDCAuthentication.retryDelay(1000, 60000, 64));
+    assertEquals(60000, OIDCAuthentication.retryDelay(1000, 60000, Integer.MAX_VALUE));
+    assertEquals(60000, OIDCAuthentication.retryDelay(120000, 60000, 1));
+  }
+
+  @Test
+  @DisplayName("Discovery retry delay does not overflow for large delays")
+  void retryDelayNoOverflow() {
+    long max = Long.MAX_VALUE / 2;
+    assertEquals(max, OIDCAuthentication.retryDelay(max / 4 + 1, max, 4));
+    assertEquals(Long.MAX_VALUE, OIDCAuthentication.retryDelay(1L << 40, Long.MAX_VALUE, 40));
+  }
+}
@@ -26,7 +26,9 @@ import static iudx.aaa.server.token.Constants.ACCESS_DENIED;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -1090,4 +1092,81 @@ public class VerifyResourceAccessTest {
                           testContext.completeNow();
                         })));
   }
+
+  @Test
+  @DisplayName("Concurrent identical consumer requests share catalogue lookup and APD call")
+  void concurrentConsumerRequestsCoalesced(VertxTestContext testContext) {
+
+    UUID resId = UUID.randomUUID();
+    UUID resGroupId = UUID.randomUUID();
+    UUID itemOwnerUserId = UUID.randomUUID();
+    String apdUrl = RandomStringUtils.randomAlphabetic(10).toLowerCase() + ".apd.com";
+
+    User consumerUser =
+        new UserBuilder()
+            .userId(UUID.randomUUID())
+            .roles(List.of(Roles.CONSUMER))
+            .rolesToRsMapping(
+                Map.of(Roles.CONSUMER.toString(), new JsonArray(List.of(DUMMY_SERVER))))
+            .build();
+
+    /* The catalogue and APD responses are completed only after both requests are made */
+    Promise<ResourceObj> catalogueResponse = Promise.promise();
+    Mockito.when(catalogueClient.getResourceDetails(resId))
+        .thenReturn(catalogueResponse.future());
+
+    JsonObject tokenReqcontext = new JsonObject().put("access", 1);
+
+    JsonObject apdContext =
+        new JsonObject()
+            .put(CALL_APD_APDURL, apdUrl)
+            .put(CALL_APD_ITEM_ID, resId.toString())
+            .put(CALL_APD_ITEM_TYPE, ItemType.RESOURCE.toString().toLowerCase())
+            .put(CALL_APD_OWNERID, itemOwnerUserId.toString())
+            .put(CALL_APD_RES_SER_URL, DUMMY_SERVER)
+            .put(CALL_APD_USERID, consumerUser.getUserId())
+            .put(CALL_APD_CONTEXT, tokenReqcontext);
+
+    Promise<JsonObject> apdResponse = Promise.promise();
+    Mockito.when(apdService.callApd(apdContext)).thenReturn(apdResponse.future());
+
+    JsonObject jsonReq =
+        new JsonObject()
+            .put("itemId", resId.toString())
+            .put("itemType", ItemType.RESOURCE.toString().toLowerCase())
+            .put("role", Roles.CONSUMER.toString().toLowerCase())
+            .put("context", tokenReqcontext);
+
+    Future<JsonObject> first =
+        policyService.verifyResourceAccess(new RequestToken(jsonReq), null, consumerUser);
+    Future<JsonObject> second =
+        policyService.verifyResourceAccess(new RequestToken(jsonReq), null, consumerUser);
+
+    catalogueResponse.complete(
+        new ResourceObj(
+            ItemType.RESOURCE,
+            resId,
+            itemOwnerUserId,
+            DUMMY_SERVER,
+            resGroupId,
+            apdUrl,
+            "SECURE"));
+    apdResponse.complete(new JsonObject());
+
+    CompositeFuture.all(first, second)
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(
+                              first.result().getString(CREATE_TOKEN_RG), resGroupId.toString());
+                          assertEquals(
+                              second.result().getString(CREATE_TOKEN_RG), resGroupId.toString());
+                          Mockito.verify(catalogueClient, Mockito.times(1))
+                              .getResourceDetails(resId);
+                          Mockito.verify(apdService, Mockito.times(1)).callApd(apdContext);
+                          testContext.completeNow();
+                        })));
+  }
 }
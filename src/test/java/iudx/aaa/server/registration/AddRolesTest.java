@@ -42,7 +42,6 @@ import iudx.aaa.server.apiserver.Roles;
 import iudx.aaa.server.apiserver.User;
 import iudx.aaa.server.apiserver.User.UserBuilder;
 import iudx.aaa.server.configuration.Configuration;
-import iudx.aaa.server.token.TokenService;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -78,7 +77,6 @@ public class AddRolesTest {
   private static Vertx vertxObj;
 
   private static KcAdmin kc = Mockito.mock(KcAdmin.class);
-  private static TokenService tokenService = Mockito.mock(TokenService.class);
   private static JsonObject options = new JsonObject();
 
   private static final String DUMMY_SERVER_ONE =
@@ -139,7 +137,7 @@ public class AddRolesTest {
                 DUMMY_SERVER_TWO, new UserBuilder().userId(UUID.randomUUID()).build()))
         .onSuccess(
             succ -> {
-              registrationService = new RegistrationServiceImpl(pool, kc, tokenService, options);
+              registrationService = new RegistrationServiceImpl(pool, kc, options, vertx);
               testContext.completeNow();
             })
         .onFailure(err -> testContext.failNow(err.getMessage()));
@@ -26,7 +26,6 @@ import iudx.aaa.server.apiserver.User.UserBuilder;
 import iudx.aaa.server.apiserver.util.ComposeException;
 import iudx.aaa.server.apiserver.util.Urn;
 import iudx.aaa.server.configuration.Configuration;
-import iudx.aaa.server.token.TokenService;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -65,7 +64,6 @@ public class FindUserByEmailTest {
   private static Vertx vertxObj;
 
   private static KcAdmin kc = Mockito.mock(KcAdmin.class);
-  private static TokenService tokenService = Mockito.mock(TokenService.class);
   private static JsonObject options = new JsonObject();
 
   private static final String DUMMY_SERVER =
@@ -145,7 +143,7 @@ public class FindUserByEmailTest {
         .compose(sss -> utils.createFakeUser(user, false, false))
         .onSuccess(
             res -> {
-              registrationService = new RegistrationServiceImpl(pool, kc, tokenService, options);
+              registrationService = new RegistrationServiceImpl(pool, kc, options, vertx);
               testContext.completeNow();
             })
         .onFailure(err -> testContext.failNow(err.getMessage()));
@@ -34,7 +34,6 @@ import iudx.aaa.server.apiserver.Roles;
 import iudx.aaa.server.apiserver.User;
 import iudx.aaa.server.apiserver.User.UserBuilder;
 import iudx.aaa.server.configuration.Configuration;
-import iudx.aaa.server.token.TokenService;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -70,7 +69,6 @@ public class GetDefaultClientCredentialsTest {
   private static Vertx vertxObj;
 
   private static KcAdmin kc = Mockito.mock(KcAdmin.class);
-  private static TokenService tokenService = Mockito.mock(TokenService.class);
   private static JsonObject options = new JsonObject();
 
   private static Utils utils;
@@ -129,7 +127,7 @@ public class GetDefaultClientCredentialsTest {
             DUMMY_SERVER_1, new UserBuilder().userId(UUID.randomUUID()).build())
         .onSuccess(
             res -> {
-              registrationService = new RegistrationServiceImpl(pool, kc, tokenService, options);
+              registrationService = new RegistrationServiceImpl(pool, kc, options, vertx);
               testContext.completeNow();
             })
         .onFailure(err -> testContext.failNow(err.getMessage()));
@@ -21,7 +21,6 @@ import iudx.aaa.server.apiserver.Roles;
 import iudx.aaa.server.apiserver.User;
 import iudx.aaa.server.apiserver.User.UserBuilder;
 import iudx.aaa.server.configuration.Configuration;
-import iudx.aaa.server.token.TokenService;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -61,7 +60,6 @@ public class GetUserDetailsTest {
   private static Vertx vertxObj;
 
   private static KcAdmin kc = Mockito.mock(KcAdmin.class);
-  private static TokenService tokenService = Mockito.mock(TokenService.class);
   private static JsonObject options = new JsonObject();
 
   private static final String DUMMY_SERVER =
@@ -155,7 +153,7 @@ public class GetUserDetailsTest {
         .compose(sss -> utils.createFakeUser(userTwo, false, false))
         .onSuccess(
             res -> {
-              registrationService = new RegistrationServiceImpl(pool, kc, tokenService, options);
+              registrationService = new RegistrationServiceImpl(pool, kc, options, vertx);
               testContext.completeNow();
             })
         .onFailure(err -> testContext.failNow(err.getMessage()));
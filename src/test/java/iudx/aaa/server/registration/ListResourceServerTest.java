@@ -21,7 +21,6 @@ import iudx.aaa.server.apiserver.Roles;
 import iudx.aaa.server.apiserver.User;
 import iudx.aaa.server.apiserver.User.UserBuilder;
 import iudx.aaa.server.configuration.Configuration;
-import iudx.aaa.server.token.TokenService;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -59,7 +58,6 @@ public class ListResourceServerTest {
   private static Vertx vertxObj;
 
   private static KcAdmin kc = Mockito.mock(KcAdmin.class);
-  private static TokenService tokenService = Mockito.mock(TokenService.class);
   private static JsonObject options = new JsonObject();
 
   private static final String DUMMY_SERVER_ONE =
@@ -135,7 +133,7 @@ public class ListResourceServerTest {
             utils.createFakeResourceServer(DUMMY_SERVER_TWO, adminTwoUser))
         .onSuccess(
             succ -> {
-              registrationService = new RegistrationServiceImpl(pool, kc, tokenService, options);
+              registrationService = new RegistrationServiceImpl(pool, kc, options, vertx);
               testContext.completeNow();
             })
         .onFailure(err -> testContext.failNow(err.getMessage()));
@@ -1,5 +1,7 @@
 package iudx.aaa.server.registration;
 
+import static iudx.aaa.server.apiserver.util.Constants.CLIENT_CREDENTIAL_INVALIDATE_ADDRESS;
+import static iudx.aaa.server.apiserver.util.Constants.INVALIDATE_CLIENT_ID;
 import static iudx.aaa.server.apiserver.util.Urn.*;
 import static iudx.aaa.server.registration.Constants.CLIENT_SECRET_BYTES;
 import static iudx.aaa.server.registration.Constants.CONFIG_COS_URL;
@@ -13,6 +15,7 @@ import static iudx.aaa.server.registration.Constants.RESP_CLIENT_ID;
 import static iudx.aaa.server.registration.Constants.RESP_CLIENT_SC;
 import static iudx.aaa.server.registration.Constants.RESP_EMAIL;
 import static iudx.aaa.server.registration.Constants.SUCC_TITLE_REGEN_CLIENT_SECRET;
+import static iudx.aaa.server.token.Constants.REVOCATION_EVENTS_ADDRESS;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -20,6 +23,7 @@ import static org.mockito.ArgumentMatchers.any;
 
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.junit5.VertxExtension;
@@ -27,13 +31,13 @@ import io.vertx.junit5.VertxTestContext;
 import io.vertx.pgclient.PgConnectOptions;
 import io.vertx.pgclient.PgPool;
 import io.vertx.sqlclient.PoolOptions;
+import io.vertx.sqlclient.Tuple;
 import iudx.aaa.server.apiserver.ResetClientSecretRequest;
-import iudx.aaa.server.apiserver.RevokeToken;
 import iudx.aaa.server.apiserver.Roles;
 import iudx.aaa.server.apiserver.User;
 import iudx.aaa.server.apiserver.User.UserBuilder;
 import iudx.aaa.server.configuration.Configuration;
-import iudx.aaa.server.token.TokenService;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -69,11 +73,16 @@ public class ResetClientSecretTest {
   private static Vertx vertxObj;
 
   private static KcAdmin kc = Mockito.mock(KcAdmin.class);
-  private static TokenService tokenService = Mockito.mock(TokenService.class);
   private static JsonObject options = new JsonObject();
 
   private static Utils utils;
 
+  private static final String SQL_GET_OUTBOX =
+      "SELECT server_url AS url, status::text FROM token_revoke_outbox WHERE user_id = $1::uuid";
+  private static final String SQL_GET_REVOCATION_LOG =
+      "SELECT audience AS url, 'LOGGED' AS status FROM token_revocation_log"
+          + " WHERE user_id = $1::uuid";
+
   private static final String DUMMY_SERVER_1 =
       "dummy" + RandomStringUtils.randomAlphabetic(5).toLowerCase() + ".iudx.io";
 
@@ -128,7 +137,7 @@ public class ResetClientSecretTest {
             DUMMY_SERVER_1, new UserBuilder().userId(UUID.randomUUID()).build())
         .onSuccess(
             res -> {
-              registrationService = new RegistrationServiceImpl(pool, kc, tokenService, options);
+              registrationService = new RegistrationServiceImpl(pool, kc, options, vertx);
               testContext.completeNow();
             })
         .onFailure(err -> testContext.failNow(err.getMessage()));
@@ -150,6 +159,19 @@ public class ResetClientSecretTest {
             });
   }
 
+  /* Get the server URL and status columns of rows belonging to the user */
+  private static Future<Map<String, String>> getStatuses(String query, User user) {
+    return pool.withConnection(
+            conn ->
+                conn.preparedQuery(query).execute(Tuple.of(UUID.fromString(user.getUserId()))))
+        .map(
+            rows -> {
+              Map<String, String> statuses = new HashMap<String, String>();
+              rows.forEach(row -> statuses.put(row.getString("url"), row.getString("status")));
+              return statuses;
+            });
+  }
+
   @Test
   @DisplayName("Test user does not have any roles")
   void userDoesNotHaveRoles(VertxTestContext testContext) {
@@ -199,11 +221,6 @@ public class ResetClientSecretTest {
           Mockito.when(kc.getEmailId(any()))
               .thenReturn(Future.succeededFuture(utils.getDetails(user).email));
 
-          Mockito.doReturn(
-                  Future.succeededFuture(new JsonObject().put("type", URN_SUCCESS.toString())))
-              .when(tokenService)
-              .revokeToken(any(), any());
-
           registrationService
               .resetClientSecret(request, user)
               .onComplete(
@@ -254,8 +271,8 @@ public class ResetClientSecretTest {
   }
 
   @Test
-  @DisplayName("[Regen Client Secret] Success when some token revoke to a server fails")
-  void clientRegenSuccess2(VertxTestContext testContext) {
+  @DisplayName("[Regen Client Secret] Token revocations logged and queued in outbox on regen")
+  void clientRegenQueuesRevocations(VertxTestContext testContext) {
 
     User user =
         new UserBuilder()
@@ -277,72 +294,81 @@ public class ResetClientSecretTest {
           Mockito.when(kc.getEmailId(any()))
               .thenReturn(Future.succeededFuture(utils.getDetails(user).email));
 
-          Mockito.doAnswer(
-                  i -> {
-                    RevokeToken r = i.getArgument(0);
-                    if (r.getRsUrl().equals(DUMMY_SERVER_1)) {
-                      return Future.succeededFuture(
-                          new JsonObject().put("type", URN_INVALID_INPUT.toString()));
-                    } else {
-                      return Future.succeededFuture(
-                          new JsonObject().put("type", URN_SUCCESS.toString()));
-                    }
-                  })
-              .when(tokenService)
-              .revokeToken(any(), any());
+          Future<Map<String, String>> outbox =
+              registrationService
+                  .resetClientSecret(request, user)
+                  .compose(response -> getStatuses(SQL_GET_OUTBOX, user));
+          Future<Map<String, String>> revocationLog =
+              outbox.compose(res -> getStatuses(SQL_GET_REVOCATION_LOG, user));
+
+          revocationLog.onComplete(
+              testContext.succeeding(
+                  logged ->
+                      testContext.verify(
+                          () -> {
+                            String cosUrl = options.getString(CONFIG_COS_URL);
+                            Map<String, String> statuses = outbox.result();
+                            assertEquals("PENDING", statuses.get(DUMMY_SERVER_1));
+                            assertFalse(statuses.containsKey(cosUrl));
+                            assertEquals("LOGGED", logged.get(DUMMY_SERVER_1));
+                            assertFalse(logged.containsKey(cosUrl));
+                            testContext.completeNow();
+                          })));
+        });
+  }
 
-          registrationService
-              .resetClientSecret(request, user)
-              .onComplete(
-                  testContext.succeeding(
-                      response ->
-                          testContext.verify(
-                              () -> {
-                                assertEquals(200, response.getInteger("status"));
-                                assertEquals(
-                                    SUCC_TITLE_REGEN_CLIENT_SECRET, response.getString("title"));
-                                assertEquals(URN_SUCCESS.toString(), response.getString("type"));
+  @Test
+  @DisplayName("[Regen Client Secret] Token revocations published to revocation stream on regen")
+  void clientRegenPublishesRevocations(Vertx vertx, VertxTestContext testContext) {
 
-                                JsonObject result = response.getJsonObject("results");
+    User user =
+        new UserBuilder()
+            .userId(UUID.randomUUID())
+            .roles(List.of(Roles.CONSUMER))
+            .rolesToRsMapping(
+                Map.of(Roles.CONSUMER.toString(), new JsonArray().add(DUMMY_SERVER_1)))
+            .name("aa", "bb")
+            .build();
+    Future<Void> created =
+        utils.createFakeUser(user, false, false).compose(res -> utils.createClientCreds(user));
 
-                                JsonObject name = result.getJsonObject("name");
-                                assertEquals(
-                                    name.getString("firstName"), user.getName().get("firstName"));
-                                assertEquals(
-                                    name.getString("lastName"), user.getName().get("lastName"));
+    created.onSuccess(
+        userJson -> {
+          JsonObject req = new JsonObject().put("clientId", utils.getDetails(user).clientId);
 
-                                @SuppressWarnings("unchecked")
-                                List<String> returnedRoles = result.getJsonArray("roles").getList();
-                                List<String> rolesString =
-                                    List.of(Roles.CONSUMER.name().toLowerCase());
-                                assertTrue(
-                                    returnedRoles.containsAll(rolesString)
-                                        && rolesString.containsAll(returnedRoles));
+          ResetClientSecretRequest request = new ResetClientSecretRequest(req);
 
-                                JsonArray clients = result.getJsonArray(RESP_CLIENT_ARR);
-                                JsonObject defaultClient = clients.getJsonObject(0);
-                                assertTrue(clients.size() > 0);
-                                assertEquals(
-                                    defaultClient.getString(RESP_CLIENT_ID),
-                                    utils.getDetails(user).clientId);
-                                assertTrue(defaultClient.containsKey(RESP_CLIENT_SC));
-                                String newClientSec = defaultClient.getString(RESP_CLIENT_SC);
-                                assertTrue(newClientSec.matches(CLIENT_SECRET_REGEX));
-                                String oldClientSec = utils.getDetails(user).clientSecret;
-                                assertFalse(oldClientSec.equals(newClientSec));
+          Mockito.when(kc.getEmailId(any()))
+              .thenReturn(Future.succeededFuture(utils.getDetails(user).email));
 
-                                assertEquals(
-                                    result.getString(RESP_EMAIL), utils.getDetails(user).email);
-                                assertEquals(result.getString("userId"), user.getUserId());
+          MessageConsumer<JsonObject> consumer =
+              vertx.eventBus().consumer(REVOCATION_EVENTS_ADDRESS);
+          consumer.handler(
+              msg -> {
+                JsonObject event = msg.body();
+                if (!DUMMY_SERVER_1.equals(event.getString("audience"))) {
+                  return;
+                }
+                testContext.verify(
+                    () -> {
+                      JsonObject revocation = event.getJsonArray("revocations").getJsonObject(0);
+                      assertEquals(user.getUserId(), revocation.getString("sub"));
+                      assertTrue(revocation.getLong("revokedAt") > 0);
+                      assertTrue(event.containsKey("publishedAt"));
+                      consumer.unregister();
+                      testContext.completeNow();
+                    });
+              });
 
-                                testContext.completeNow();
-                              })));
+          registrationService
+              .resetClientSecret(request, user)
+              .onFailure(err -> testContext.failNow(err));
         });
   }
 
   @Test
-  @DisplayName("[Regen Client Secret] Fail when token revoke fails due to internal error")
-  void clientRegenFail(VertxTestContext testContext) {
+  @DisplayName("[Regen Client Secret] Cached client credentials invalidated on regen")
+  void clientRegenInvalidatesCredentials(Vertx vertx, VertxTestContext testContext) {
 
     User user =
         new UserBuilder()
@@ -357,32 +383,28 @@ public class ResetClientSecretTest {
 
     created.onSuccess(
         userJson -> {
-          JsonObject req = new JsonObject().put("clientId", utils.getDetails(user).clientId);
+          String clientId = utils.getDetails(user).clientId;
+          JsonObject req = new JsonObject().put("clientId", clientId);
 
           ResetClientSecretRequest request = new ResetClientSecretRequest(req);
 
           Mockito.when(kc.getEmailId(any()))
               .thenReturn(Future.succeededFuture(utils.getDetails(user).email));
 
-          /* Revocation to DUMMY_SERVER_1 fails with an internal error */
-          Mockito.doAnswer(
-                  i -> {
-                    RevokeToken r = i.getArgument(0);
-                    if (r.getRsUrl().equals(DUMMY_SERVER_1)) {
-                      return Future.failedFuture("Internal error");
-                    } else {
-                      return Future.succeededFuture(
-                          new JsonObject().put("type", URN_SUCCESS.toString()));
-                    }
-                  })
-              .when(tokenService)
-              .revokeToken(any(), any());
+          MessageConsumer<JsonObject> consumer =
+              vertx.eventBus().consumer(CLIENT_CREDENTIAL_INVALIDATE_ADDRESS);
+          consumer.handler(
+              msg -> {
+                if (!clientId.equals(msg.body().getString(INVALIDATE_CLIENT_ID))) {
+                  return;
+                }
+                consumer.unregister();
+                testContext.completeNow();
+              });
 
           registrationService
               .resetClientSecret(request, user)
-              .onComplete(
-                  testContext.failing(
-                      response -> testContext.verify(() -> testContext.completeNow())));
+              .onFailure(err -> testContext.failNow(err));
         });
   }
 
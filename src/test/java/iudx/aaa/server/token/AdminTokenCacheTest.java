@@ -0,0 +1,128 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.ACCESS_TOKEN;
+import static iudx.aaa.server.token.Constants.CLAIM_EXPIRY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+/** Unit tests for {@link AdminTokenCache}. */
+@ExtendWith({VertxExtension.class})
+public class AdminTokenCacheTest {
+
+  private AdminTokenCache cache;
+  private AtomicInteger loads;
+
+  @BeforeEach
+  void setup(Vertx vertx) {
+    cache = new AdminTokenCache(vertx, "test", 3600);
+    loads = new AtomicInteger();
+  }
+
+  @AfterEach
+  void tearDown() {
+    cache.close();
+  }
+
+  private Future<JsonObject> token(String audience, long lifetime) {
+    loads.incrementAndGet();
+    return Future.succeededFuture(
+        new JsonObject()
+            .put(ACCESS_TOKEN, UUID.randomUUID().toString())
+            .put("expiry", System.currentTimeMillis() / 1000 + lifetime)
+            .put("server", audience));
+  }
+
+  @Test
+  @DisplayName("Token is created once per audience")
+  void tokenCachedPerAudience(VertxTestContext testContext) {
+    Function<String, Future<JsonObject>> loader = aud -> token(aud, CLAIM_EXPIRY);
+
+    Future<JsonObject> first = cache.get("rs.iudx.io", loader);
+    Future<JsonObject> second = first.compose(res -> cache.get("rs.iudx.io", loader));
+    Future<JsonObject> other = second.compose(res -> cache.get("apd.iudx.io", loader));
+
+    other.onComplete(
+        testContext.succeeding(
+            res ->
+                testContext.verify(
+                    () -> {
+                      String token = first.result().getString(ACCESS_TOKEN);
+                      assertEquals(token, second.result().getString(ACCESS_TOKEN));
+                      assertNotEquals(token, other.result().getString(ACCESS_TOKEN));
+                      assertEquals("apd.iudx.io", other.result().getString("server"));
+                      assertEquals(2, loads.get());
+                      testContext.completeNow();
+                    })));
+  }
+
+  @Test
+  @DisplayName("Concurrent requests for a new audience share one token request")
+  void concurrentRequestsCoalesced(VertxTestContext testContext) {
+    Promise<JsonObject> pending = Promise.promise();
+    Function<String, Future<JsonObject>> loader =
+        aud -> {
+          loads.incrementAndGet();
+          return pending.future();
+        };
+
+    Future<JsonObject> first = cache.get("rs.iudx.io", loader);
+    Future<JsonObject> second = cache.get("rs.iudx.io", loader);
+    pending.complete(
+        new JsonObject()
+            .put(ACCESS_TOKEN, "token")
+            .put("expiry", System.currentTimeMillis() / 1000 + CLAIM_EXPIRY));
+
+    CompositeFuture.all(first, second)
+        .onComplete(
+            testContext.succeeding(
+                res ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(1, loads.get());
+                          assertEquals("token", second.result().getString(ACCESS_TOKEN));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("Failed and nearly expired tokens are not reused")
+  void failedAndExpiringTokensNotReused(VertxTestContext testContext) {
+    cache
+        .get("rs.iudx.io", aud -> Future.failedFuture("signing failed"))
+        .recover(err -> cache.get("rs.iudx.io", aud -> token(aud, 30)))
+        .compose(expiring -> cache.get("rs.iudx.io", aud -> token(aud, CLAIM_EXPIRY)))
+        .onComplete(
+            testContext.succeeding(
+                res ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(2, loads.get());
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("Refresh time must be less than token lifetime")
+  void invalidRefreshTime(Vertx vertx) {
+    assertThrows(
+        IllegalArgumentException.class, () -> new AdminTokenCache(vertx, "test", CLAIM_EXPIRY));
+    assertThrows(IllegalArgumentException.class, () -> new AdminTokenCache(vertx, "test", 0));
+  }
+}
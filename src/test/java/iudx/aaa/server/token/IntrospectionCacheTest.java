@@ -0,0 +1,67 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.EXP;
+import static iudx.aaa.server.token.Constants.SUB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import io.vertx.core.json.JsonObject;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link IntrospectionCache}. */
+public class IntrospectionCacheTest {
+
+  private IntrospectionCache cache;
+
+  @BeforeEach
+  void setup() {
+    cache = new IntrospectionCache(100, 3600);
+  }
+
+  private static long now() {
+    return System.currentTimeMillis() / 1000;
+  }
+
+  private static JsonObject claims(long exp) {
+    return new JsonObject().put(SUB, UUID.randomUUID().toString()).put(EXP, exp);
+  }
+
+  @Test
+  @DisplayName("Verified token claims are returned for the same token only")
+  void cachedForSameToken() {
+    String token = "header." + UUID.randomUUID() + ".signature";
+    JsonObject claims = claims(now() + 100);
+    cache.put(token, claims);
+
+    JsonObject cached = cache.get(token);
+    assertNotNull(cached);
+    assertEquals(claims, cached);
+    assertNull(cache.get(token + "x"));
+  }
+
+  @Test
+  @DisplayName("Modifying returned claims does not modify the cache")
+  void claimsCopied() {
+    String token = "header." + UUID.randomUUID() + ".signature";
+    cache.put(token, claims(now() + 100));
+
+    cache.get(token).put("userInfo", new JsonObject());
+    assertNull(cache.get(token).getJsonObject("userInfo"));
+  }
+
+  @Test
+  @DisplayName("Expired tokens are not returned or stored")
+  void expiredTokens() {
+    String expired = "header." + UUID.randomUUID() + ".signature";
+    cache.put(expired, claims(now() - 1));
+    assertNull(cache.get(expired));
+
+    String expiring = "header." + UUID.randomUUID() + ".signature";
+    cache.put(expiring, claims(now() + 100));
+    assertNotNull(cache.get(expiring));
+  }
+}
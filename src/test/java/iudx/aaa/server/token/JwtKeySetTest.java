@@ -0,0 +1,171 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.ISS;
+import static iudx.aaa.server.token.Constants.KID;
+import static iudx.aaa.server.token.Constants.SUB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.vertx.core.json.JsonObject;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.SignatureException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link JwtKeySet} and verifying tokens signed by rotated keys. */
+public class JwtKeySetTest {
+
+  private static final String PASSWORD = "password";
+  private static final String ISSUER = "auth.test.com";
+
+  private static KeyStore emptyKeyStore() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    keyStore.load(null, PASSWORD.toCharArray());
+    return keyStore;
+  }
+
+  private static KeyPair addKey(
+      KeyStore keyStore, String alias, String algorithm, Instant notBefore) throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+    if ("EC".equals(algorithm)) {
+      generator.initialize(new ECGenParameterSpec("secp256r1"));
+    }
+    KeyPair keyPair = generator.generateKeyPair();
+
+    X500Name name = new X500Name("CN=" + ISSUER);
+    X509Certificate cert =
+        new JcaX509CertificateConverter()
+            .getCertificate(
+                new JcaX509v3CertificateBuilder(
+                        name,
+                        BigInteger.valueOf(notBefore.toEpochMilli()),
+                        Date.from(notBefore),
+                        Date.from(notBefore.plus(Duration.ofDays(365))),
+                        name,
+                        keyPair.getPublic())
+                    .build(
+                        new JcaContentSignerBuilder(
+                                "EC".equals(algorithm) ? "SHA256withECDSA" : "SHA256withRSA")
+                            .build(keyPair.getPrivate())));
+
+    keyStore.setKeyEntry(
+        alias, keyPair.getPrivate(), PASSWORD.toCharArray(), new Certificate[] {cert});
+    return keyPair;
+  }
+
+  private static String token(JwtKeySet keySet) throws Exception {
+    JsonObject header =
+        new JsonObject()
+            .put("typ", "JWT")
+            .put("alg", "ES256")
+            .put(ISS, ISSUER)
+            .put(KID, keySet.getSigningKey().getKid());
+    return JwtEncoder.create(header, keySet.getSigningPrivateKey(), JwtEncoder.ES256_JCA_ALGORITHM)
+        .encode(writer -> writer.put(SUB, ISSUER));
+  }
+
+  private static List<String> kids(JwtKeySet keySet) {
+    return keySet.getKeys().stream().map(JwtKeySet.JwtKey::getKid).collect(Collectors.toList());
+  }
+
+  @Test
+  @DisplayName("Newest valid key signs, all keys verify and keys not yet valid are published")
+  void keySelection() throws Exception {
+    Instant now = Instant.now();
+    KeyStore keyStore = emptyKeyStore();
+    addKey(keyStore, "es256", "EC", now.minus(Duration.ofDays(60)));
+    addKey(keyStore, "es256-2", "EC", now.minus(Duration.ofDays(1)));
+    addKey(keyStore, "es256-3", "EC", now.plus(Duration.ofDays(1)));
+
+    JwtKeySet keySet = JwtKeySet.load(keyStore, PASSWORD, JwtSigningAlgorithm.ES256);
+    assertEquals(List.of("es256-3", "es256-2", "es256"), kids(keySet));
+    assertEquals("es256-2", keySet.getSigningKey().getKid());
+    assertEquals("es256", keySet.getDefaultKey().getKid());
+    assertEquals(
+        keyStore.getCertificate("es256-3").getPublicKey(),
+        keySet.getKeys().get(0).getPublicKey());
+    /* certificate dates have a precision of seconds */
+    assertEquals(
+        now.plus(Duration.ofDays(1)).getEpochSecond(), keySet.getNextActivation() / 1000);
+  }
+
+  @Test
+  @DisplayName("Keys with other aliases or for other algorithms are ignored")
+  void otherKeysIgnored() throws Exception {
+    Instant now = Instant.now();
+    KeyStore keyStore = emptyKeyStore();
+    addKey(keyStore, "es256-1", "EC", now.minus(Duration.ofDays(2)));
+    addKey(keyStore, "tls", "EC", now.minus(Duration.ofDays(1)));
+    addKey(keyStore, "es256-rsa", "RSA", now.minus(Duration.ofDays(1)));
+
+    JwtKeySet keySet = JwtKeySet.load(keyStore, PASSWORD, JwtSigningAlgorithm.ES256);
+    assertEquals(List.of("es256-1"), kids(keySet));
+    assertEquals("es256-1", keySet.getDefaultKey().getKid());
+    assertEquals(Long.MAX_VALUE, keySet.getNextActivation());
+  }
+
+  @Test
+  @DisplayName("Keystore without a valid key is rejected")
+  void noValidKey() throws Exception {
+    KeyStore keyStore = emptyKeyStore();
+    assertThrows(
+        KeyStoreException.class,
+        () -> JwtKeySet.load(keyStore, PASSWORD, JwtSigningAlgorithm.ES256));
+
+    addKey(keyStore, "es256", "EC", Instant.now().plus(Duration.ofDays(1)));
+    assertThrows(
+        KeyStoreException.class,
+        () -> JwtKeySet.load(keyStore, PASSWORD, JwtSigningAlgorithm.ES256));
+  }
+
+  @Test
+  @DisplayName("Tokens are verified using the key in their kid until the key is removed")
+  void rotation() throws Exception {
+    Instant now = Instant.now();
+    KeyStore keyStore = emptyKeyStore();
+    KeyPair legacy = addKey(keyStore, "es256", "EC", now.minus(Duration.ofDays(60)));
+
+    JwtKeySet oldKeySet = JwtKeySet.load(keyStore, PASSWORD, JwtSigningAlgorithm.ES256);
+    JwtVerifier verifier = new JwtVerifier(oldKeySet);
+    String oldToken = token(oldKeySet);
+
+    /* tokens issued before keys had a kid are verified using the legacy key */
+    JsonObject header = new JsonObject().put("typ", "JWT").put("alg", "ES256").put(ISS, ISSUER);
+    String noKidToken =
+        JwtEncoder.create(header, legacy.getPrivate(), JwtEncoder.ES256_JCA_ALGORITHM)
+            .encode(writer -> writer.put(SUB, ISSUER));
+    assertEquals(ISSUER, verifier.verify(noKidToken).getString(SUB));
+
+    addKey(keyStore, "es256-2", "EC", now.minus(Duration.ofMinutes(1)));
+    JwtKeySet newKeySet = JwtKeySet.load(keyStore, PASSWORD, JwtSigningAlgorithm.ES256);
+    String newToken = token(newKeySet);
+    assertThrows(SignatureException.class, () -> verifier.verify(newToken));
+
+    verifier.setKeys(newKeySet);
+    assertEquals(ISSUER, verifier.verify(oldToken).getString(SUB));
+    assertEquals(ISSUER, verifier.verify(newToken).getString(SUB));
+    assertEquals(ISSUER, verifier.verify(noKidToken).getString(SUB));
+
+    keyStore.deleteEntry("es256");
+    verifier.setKeys(JwtKeySet.load(keyStore, PASSWORD, JwtSigningAlgorithm.ES256));
+    assertThrows(SignatureException.class, () -> verifier.verify(oldToken));
+    assertThrows(SignatureException.class, () -> verifier.verify(noKidToken));
+    assertEquals(ISSUER, verifier.verify(newToken).getString(SUB));
+  }
+}
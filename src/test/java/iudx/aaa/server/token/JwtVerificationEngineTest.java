@@ -0,0 +1,72 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.ERR_VERIFY_QUEUE_FULL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(VertxExtension.class)
+public class JwtVerificationEngineTest {
+
+  @Test
+  @DisplayName("Test a task runs on a verifier thread and completes on the caller context")
+  void verifyOnVerifierThread(Vertx vertx, VertxTestContext testContext) {
+    JwtVerificationEngine engine = new JwtVerificationEngine(vertx, 1, 10);
+    Context context = vertx.getOrCreateContext();
+
+    context.runOnContext(
+        v ->
+            engine
+                .verify(() -> Thread.currentThread().getName())
+                .onComplete(
+                    testContext.succeeding(
+                        threadName ->
+                            testContext.verify(
+                                () -> {
+                                  assertTrue(threadName.startsWith("aaa-jwt-verifier-"));
+                                  assertSame(context, Vertx.currentContext());
+                                  engine.close();
+                                  testContext.completeNow();
+                                }))));
+  }
+
+  @Test
+  @DisplayName("Test a task is rejected when the verification queue is full")
+  void rejectedWhenQueueFull(Vertx vertx, VertxTestContext testContext) {
+    JwtVerificationEngine engine = new JwtVerificationEngine(vertx, 1, 1);
+    CountDownLatch blocked = new CountDownLatch(1);
+
+    /* the first task holds the only verifier thread, the second fills the queue */
+    Future<Boolean> running = engine.verify(() -> blocked.await(10, TimeUnit.SECONDS));
+    Future<Boolean> queued = engine.verify(() -> true);
+    Future<Boolean> rejected = engine.verify(() -> true);
+
+    rejected.onComplete(
+        testContext.failing(
+            err ->
+                testContext.verify(
+                    () -> {
+                      assertEquals(ERR_VERIFY_QUEUE_FULL, err.getMessage());
+                      blocked.countDown();
+                      running
+                          .compose(done -> queued)
+                          .onComplete(
+                              testContext.succeeding(
+                                  done -> {
+                                    engine.close();
+                                    testContext.completeNow();
+                                  }));
+                    })));
+  }
+}
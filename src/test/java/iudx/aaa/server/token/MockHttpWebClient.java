@@ -1,7 +1,16 @@
 package iudx.aaa.server.token;
 
 import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.RequestOptions;
 import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpRequest;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.predicate.ResponsePredicate;
+import java.util.List;
+import java.util.function.Predicate;
 import org.mockito.Mockito;
 
 public class MockHttpWebClient {
@@ -28,4 +37,41 @@ public class MockHttpWebClient {
           .thenReturn(Future.failedFuture(response.toString()));
     }
   }
+
+  /**
+   * Stub a WebClient that answers revocation requests as a resource server would, so that a real
+   * TokenRevokeService can be tested without a server.
+   *
+   * @param accept decides from the body of a request if the server revokes the tokens
+   * @param sent the bodies of the requests sent are added to this list
+   * @return the stubbed WebClient
+   */
+  @SuppressWarnings("unchecked")
+  public static WebClient stubWebClient(Predicate<JsonObject> accept, List<JsonObject> sent) {
+    WebClient client = Mockito.mock(WebClient.class);
+    Mockito.when(client.request(Mockito.any(HttpMethod.class), Mockito.any(RequestOptions.class)))
+        .thenAnswer(
+            invocation -> {
+              HttpRequest<Buffer> request = Mockito.mock(HttpRequest.class);
+              Mockito.when(request.putHeader(Mockito.anyString(), Mockito.anyString()))
+                  .thenReturn(request);
+              Mockito.when(request.expect(Mockito.any(ResponsePredicate.class)))
+                  .thenReturn(request);
+              Mockito.when(request.sendJsonObject(Mockito.any()))
+                  .thenAnswer(
+                      send -> {
+                        JsonObject body = send.getArgument(0);
+                        sent.add(body);
+
+                        String type =
+                            accept.test(body) ? "urn:dx:rs:success" : "urn:dx:rs:invalidPayload";
+                        HttpResponse<Buffer> response = Mockito.mock(HttpResponse.class);
+                        Mockito.when(response.bodyAsJsonObject())
+                            .thenReturn(new JsonObject().put("type", type));
+                        return Future.succeededFuture(response);
+                      });
+              return request;
+            });
+    return client;
+  }
 }
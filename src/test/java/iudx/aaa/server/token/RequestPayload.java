@@ -4,6 +4,7 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import iudx.aaa.server.apiserver.IntrospectToken;
 import iudx.aaa.server.apiserver.RevokeToken;
+import iudx.aaa.server.apiserver.RevokeTokenBulk;
 import iudx.aaa.server.apiserver.Roles;
 import iudx.aaa.server.apiserver.User;
 import iudx.aaa.server.apiserver.User.UserBuilder;
@@ -49,6 +50,10 @@ public class RequestPayload {
     return request.copy().mapTo(RevokeToken.class);
   }
 
+  public static RevokeTokenBulk mapToRevTokenBulk(JsonObject request) {
+    return request.copy().mapTo(RevokeTokenBulk.class);
+  }
+
   public static IntrospectToken mapToInspctToken(JsonObject request) {
     return request.copy().mapTo(IntrospectToken.class);
   }
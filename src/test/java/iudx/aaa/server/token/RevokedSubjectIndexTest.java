@@ -0,0 +1,172 @@
+package iudx.aaa.server.token;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Unit tests for {@link RevokedSubjectIndex}. */
+public class RevokedSubjectIndexTest {
+
+  private static final String AUDIENCE = "rs.iudx.io";
+  private static final long LIFETIME = 3600;
+
+  @Test
+  @DisplayName("Revocation time is returned for a user and audience")
+  void putAndGet(@TempDir Path dir) throws Exception {
+    RevokedSubjectIndex index = new RevokedSubjectIndex(dir.resolve("index"), 16, LIFETIME);
+    UUID sub = UUID.randomUUID();
+
+    assertEquals(0, index.revokedAt(sub, AUDIENCE));
+    assertTrue(index.put(sub, AUDIENCE, 1000));
+    assertEquals(1000, index.revokedAt(sub, AUDIENCE));
+    assertEquals(0, index.revokedAt(sub, "other.iudx.io"));
+    assertEquals(0, index.revokedAt(UUID.randomUUID(), AUDIENCE));
+    index.close();
+  }
+
+  @Test
+  @DisplayName("Earlier revocation time does not replace a later one")
+  void laterTimeKept(@TempDir Path dir) throws Exception {
+    RevokedSubjectIndex index = new RevokedSubjectIndex(dir.resolve("index"), 16, LIFETIME);
+    UUID sub = UUID.randomUUID();
+
+    index.put(sub, AUDIENCE, 2000);
+    index.put(sub, AUDIENCE, 1000);
+    assertEquals(2000, index.revokedAt(sub, AUDIENCE));
+    index.put(sub, AUDIENCE, 3000);
+    assertEquals(3000, index.revokedAt(sub, AUDIENCE));
+    index.close();
+  }
+
+  @Test
+  @DisplayName("Entries and cursor survive reopening the index")
+  void persisted(@TempDir Path dir) throws Exception {
+    Path path = dir.resolve("index");
+    UUID sub = UUID.randomUUID();
+
+    RevokedSubjectIndex index = new RevokedSubjectIndex(path, 16, LIFETIME);
+    index.put(sub, AUDIENCE, 1000);
+    index.setCursor(42);
+    index.close();
+
+    RevokedSubjectIndex reopened = new RevokedSubjectIndex(path, 16, LIFETIME);
+    assertEquals(1000, reopened.revokedAt(sub, AUDIENCE));
+    assertEquals(42, reopened.cursor());
+    reopened.close();
+  }
+
+  @Test
+  @DisplayName("Index cannot be opened twice")
+  void openTwice(@TempDir Path dir) throws Exception {
+    Path path = dir.resolve("index");
+    RevokedSubjectIndex index = new RevokedSubjectIndex(path, 16, LIFETIME);
+
+    assertThrows(IllegalStateException.class, () -> new RevokedSubjectIndex(path, 16, LIFETIME));
+    index.close();
+  }
+
+  @Test
+  @DisplayName("Instances acquiring the same path share one index until all release it")
+  void acquireShared(@TempDir Path dir) throws Exception {
+    Path path = dir.resolve("index");
+    UUID sub = UUID.randomUUID();
+
+    RevokedSubjectIndex first = RevokedSubjectIndex.acquire(path, 16, LIFETIME);
+    RevokedSubjectIndex second = RevokedSubjectIndex.acquire(path, 16, LIFETIME);
+    assertSame(first, second);
+
+    first.put(sub, AUDIENCE, 1000);
+    assertEquals(1000, second.revokedAt(sub, AUDIENCE));
+
+    /* still held by the second instance, so the files stay locked */
+    first.release();
+    assertThrows(IllegalStateException.class, () -> new RevokedSubjectIndex(path, 16, LIFETIME));
+
+    second.release();
+    RevokedSubjectIndex reopened = RevokedSubjectIndex.acquire(path, 16, LIFETIME);
+    assertEquals(1000, reopened.revokedAt(sub, AUDIENCE));
+    reopened.release();
+  }
+
+  @Test
+  @DisplayName("Cursor is not moved back")
+  void cursorNotMovedBack(@TempDir Path dir) throws Exception {
+    RevokedSubjectIndex index = new RevokedSubjectIndex(dir.resolve("index"), 16, LIFETIME);
+
+    index.setCursor(42);
+    index.setCursor(7);
+    assertEquals(42, index.cursor());
+    index.close();
+  }
+
+  @Test
+  @DisplayName("Entries are dropped once the index is full")
+  void full(@TempDir Path dir) throws Exception {
+    RevokedSubjectIndex index = new RevokedSubjectIndex(dir.resolve("index"), 16, LIFETIME);
+
+    /* a generation of 16 slots holds up to 12 entries */
+    for (int i = 0; i < 12; i++) {
+      assertTrue(index.put(UUID.randomUUID(), AUDIENCE, 1000));
+    }
+    UUID sub = UUID.randomUUID();
+    assertFalse(index.put(sub, AUDIENCE, 1000));
+    assertEquals(0, index.revokedAt(sub, AUDIENCE));
+    index.close();
+  }
+
+  @Test
+  @DisplayName("Lookups during puts see either no entry or the entry written")
+  void lookupsDuringPuts(@TempDir Path dir) throws Exception {
+    RevokedSubjectIndex index = new RevokedSubjectIndex(dir.resolve("index"), 1024, LIFETIME);
+    List<UUID> subs = new ArrayList<UUID>();
+    for (int i = 0; i < 500; i++) {
+      subs.add(UUID.randomUUID());
+    }
+
+    ExecutorService readers = Executors.newFixedThreadPool(2);
+    AtomicBoolean writing = new AtomicBoolean(true);
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (int r = 0; r < 2; r++) {
+      results.add(
+          readers.submit(
+              () -> {
+                boolean consistent = true;
+                while (writing.get()) {
+                  for (int i = 0; i < subs.size(); i++) {
+                    long revokedAt = index.revokedAt(subs.get(i), AUDIENCE);
+                    consistent &= revokedAt == 0 || revokedAt == 1000 + i;
+                  }
+                }
+                return consistent;
+              }));
+    }
+
+    for (int i = 0; i < subs.size(); i++) {
+      assertTrue(index.put(subs.get(i), AUDIENCE, 1000 + i));
+    }
+    writing.set(false);
+
+    for (Future<Boolean> result : results) {
+      assertTrue(result.get());
+    }
+    readers.shutdown();
+    for (int i = 0; i < subs.size(); i++) {
+      assertEquals(1000 + i, index.revokedAt(subs.get(i), AUDIENCE));
+    }
+    index.close();
+  }
+}
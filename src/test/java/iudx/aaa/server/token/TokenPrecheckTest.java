@@ -0,0 +1,107 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.CLAIM_ISSUER;
+import static iudx.aaa.server.token.Constants.EXP;
+import static iudx.aaa.server.token.Constants.ISS;
+import static iudx.aaa.server.token.Constants.SUB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import io.vertx.core.json.JsonObject;
+import iudx.aaa.server.token.TokenPrecheck.Rejection;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link TokenPrecheck}. */
+public class TokenPrecheckTest {
+
+  private static final long NOW = 1700000000;
+  private static final JsonObject HEADER = new JsonObject().put("typ", "JWT").put("alg", "ES256");
+
+  private static String encode(JsonObject json) {
+    return encode(json.encode());
+  }
+
+  private static String encode(String json) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String token(JsonObject header, JsonObject payload) {
+    return encode(header) + "." + encode(payload) + ".c2lnbmF0dXJl";
+  }
+
+  private static JsonObject payload(long exp) {
+    return new JsonObject()
+        .put(SUB, UUID.randomUUID().toString())
+        .put(ISS, CLAIM_ISSUER)
+        .put("aud", "rs.iudx.io")
+        .put(EXP, exp)
+        .put("cons", new JsonObject().put("access", new JsonObject().put(EXP, "nested")));
+  }
+
+  @Test
+  @DisplayName("Well formed, unexpired token from this server passes")
+  void validTokenPasses() {
+    assertNull(TokenPrecheck.evaluate(token(HEADER, payload(NOW + 100)), NOW));
+  }
+
+  @Test
+  @DisplayName("Expired tokens are rejected")
+  void expiredTokenRejected() {
+    assertEquals(Rejection.EXPIRED, TokenPrecheck.evaluate(token(HEADER, payload(NOW)), NOW));
+    assertEquals(Rejection.EXPIRED, TokenPrecheck.evaluate(token(HEADER, payload(NOW - 1)), NOW));
+  }
+
+  @Test
+  @DisplayName("Tokens from another issuer are rejected")
+  void foreignIssuerRejected() {
+    JsonObject payload = payload(NOW + 100).put(ISS, CLAIM_ISSUER + ".example.com");
+    assertEquals(Rejection.ISSUER, TokenPrecheck.evaluate(token(HEADER, payload), NOW));
+  }
+
+  @Test
+  @DisplayName("Structurally invalid tokens are rejected")
+  void malformedTokensRejected() {
+    String valid = token(HEADER, payload(NOW + 100));
+    String header = encode(HEADER);
+    String payload = encode(payload(NOW + 100));
+
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate("", NOW));
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate("abc", NOW));
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate(header + "." + payload, NOW));
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate(header + "." + payload + ".", NOW));
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate(valid + ".extra", NOW));
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate("." + payload + ".sig", NOW));
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate(header + "..sig", NOW));
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate(header + ".!!!.sig", NOW));
+
+    String truncated = header + "." + encode("{\"exp\":") + ".sig";
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate(truncated, NOW));
+    String array = header + "." + encode("[]") + ".sig";
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate(array, NOW));
+  }
+
+  @Test
+  @DisplayName("Tokens without alg, exp or iss are rejected")
+  void missingFieldsRejected() {
+    JsonObject noAlg = new JsonObject().put("typ", "JWT");
+    assertEquals(
+        Rejection.MALFORMED, TokenPrecheck.evaluate(token(noAlg, payload(NOW + 100)), NOW));
+
+    JsonObject noExp = payload(NOW + 100);
+    noExp.remove(EXP);
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate(token(HEADER, noExp), NOW));
+
+    JsonObject noIss = payload(NOW + 100);
+    noIss.remove(ISS);
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate(token(HEADER, noIss), NOW));
+
+    JsonObject stringExp = payload(NOW + 100).put(EXP, String.valueOf(NOW + 100));
+    assertEquals(Rejection.MALFORMED, TokenPrecheck.evaluate(token(HEADER, stringExp), NOW));
+  }
+}
@@ -0,0 +1,158 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.ACCESS_TOKEN;
+import static iudx.aaa.server.token.Constants.CLAIM_EXPIRY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.vertx.core.json.JsonObject;
+import iudx.aaa.server.apiserver.DelegationInformation;
+import iudx.aaa.server.apiserver.RequestToken;
+import iudx.aaa.server.apiserver.Roles;
+import iudx.aaa.server.apiserver.User;
+import iudx.aaa.server.apiserver.User.UserBuilder;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link TokenReuseCache}. */
+public class TokenReuseCacheTest {
+
+  private static final String RESOURCE_ITEM = UUID.randomUUID().toString();
+
+  private TokenReuseCache cache;
+  private User user;
+
+  @BeforeEach
+  void setup() {
+    cache = new TokenReuseCache(100, CLAIM_EXPIRY - 600);
+    user = new UserBuilder().userId(UUID.randomUUID()).name("aa", "bb").build();
+  }
+
+  private static RequestToken request(String role, JsonObject context) {
+    JsonObject req =
+        new JsonObject()
+            .put("itemId", RESOURCE_ITEM)
+            .put("itemType", "resource")
+            .put("role", role)
+            .put("context", context);
+    return new RequestToken(req);
+  }
+
+  private static JsonObject jwt(long expiry) {
+    return new JsonObject()
+        .put(ACCESS_TOKEN, UUID.randomUUID().toString())
+        .put("expiry", expiry)
+        .put("server", "rs.iudx.io");
+  }
+
+  private static long now() {
+    return System.currentTimeMillis() / 1000;
+  }
+
+  @Test
+  @DisplayName("Identical request reuses token")
+  void identicalRequestReusesToken() {
+    JsonObject issued = jwt(now() + CLAIM_EXPIRY);
+    cache.put(
+        TokenReuseCache.key(request("consumer", new JsonObject().put("a", 1)), null, user), issued);
+
+    JsonObject reused =
+        cache.get(
+            TokenReuseCache.key(request("consumer", new JsonObject().put("a", 1)), null, user));
+    assertNotNull(reused);
+    assertEquals(issued.getString(ACCESS_TOKEN), reused.getString(ACCESS_TOKEN));
+  }
+
+  @Test
+  @DisplayName("Request with different role or context does not reuse token")
+  void differentRequestDoesNotReuse() {
+    cache.put(
+        TokenReuseCache.key(request("consumer", new JsonObject()), null, user),
+        jwt(now() + CLAIM_EXPIRY));
+
+    assertNull(cache.get(TokenReuseCache.key(request("provider", new JsonObject()), null, user)));
+    assertNull(
+        cache.get(
+            TokenReuseCache.key(request("consumer", new JsonObject().put("a", 1)), null, user)));
+  }
+
+  @Test
+  @DisplayName("Token with less than the minimum remaining lifetime is not reused")
+  void tokenBelowThresholdNotReused() {
+    TokenReuseCache.Key key =
+        TokenReuseCache.key(request("consumer", new JsonObject()), null, user);
+    cache.put(key, jwt(now() + 60));
+
+    assertNull(cache.get(key));
+  }
+
+  @Test
+  @DisplayName("Invalidation removes tokens of user and tokens issued on behalf of delegator")
+  void invalidateByUserAndDelegator() {
+    UUID delegatorId = UUID.randomUUID();
+    DelegationInformation delegInfo =
+        new DelegationInformation(UUID.randomUUID(), delegatorId, Roles.CONSUMER, "rs.iudx.io");
+
+    TokenReuseCache.Key ownKey =
+        TokenReuseCache.key(request("consumer", new JsonObject()), null, user);
+    TokenReuseCache.Key delegKey =
+        TokenReuseCache.key(request("delegate", new JsonObject()), delegInfo, user);
+    cache.put(ownKey, jwt(now() + CLAIM_EXPIRY));
+    cache.put(delegKey, jwt(now() + CLAIM_EXPIRY));
+
+    cache.invalidate(List.of(delegatorId.toString()));
+    assertNotNull(cache.get(ownKey));
+    assertNull(cache.get(delegKey));
+
+    cache.invalidate(List.of(user.getUserId()));
+    assertNull(cache.get(ownKey));
+  }
+
+  @Test
+  @DisplayName("Invalidation for a server removes only tokens of the user for that server")
+  void invalidateByUserAndServer() {
+    TokenReuseCache.Key key =
+        TokenReuseCache.key(request("consumer", new JsonObject()), null, user);
+    cache.put(key, jwt(now() + CLAIM_EXPIRY));
+
+    cache.invalidate(List.of(user.getUserId()), "other.iudx.io");
+    assertNotNull(cache.get(key));
+
+    cache.invalidate(List.of(user.getUserId()), "rs.iudx.io");
+    assertNull(cache.get(key));
+  }
+
+  @Test
+  @DisplayName("Tokens replaced or cached again after an invalidation can still be invalidated")
+  void invalidateAfterReplaceAndReput() {
+    TokenReuseCache.Key key =
+        TokenReuseCache.key(request("consumer", new JsonObject()), null, user);
+    User other = new UserBuilder().userId(UUID.randomUUID()).name("cc", "dd").build();
+    TokenReuseCache.Key otherKey =
+        TokenReuseCache.key(request("consumer", new JsonObject()), null, other);
+    cache.put(otherKey, jwt(now() + CLAIM_EXPIRY));
+
+    cache.put(key, jwt(now() + CLAIM_EXPIRY));
+    cache.put(key, jwt(now() + CLAIM_EXPIRY));
+    cache.invalidate(List.of(user.getUserId()));
+    assertNull(cache.get(key));
+
+    cache.put(key, jwt(now() + CLAIM_EXPIRY));
+    assertNotNull(cache.get(key));
+    cache.invalidate(List.of(user.getUserId()));
+    assertNull(cache.get(key));
+    assertNotNull(cache.get(otherKey));
+  }
+
+  @Test
+  @DisplayName("Minimum remaining lifetime must be less than token lifetime")
+  void invalidThreshold() {
+    assertThrows(IllegalArgumentException.class, () -> new TokenReuseCache(100, CLAIM_EXPIRY));
+    assertThrows(IllegalArgumentException.class, () -> new TokenReuseCache(100, 0));
+  }
+}
@@ -0,0 +1,396 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.ACCESS_TOKEN;
+import static iudx.aaa.server.token.Constants.CLAIM_REVOKE_OUTBOX;
+import static iudx.aaa.server.token.Constants.COMPLETE_REVOKE_OUTBOX;
+import static iudx.aaa.server.token.Constants.RETRY_REVOKE_OUTBOX;
+import static iudx.aaa.server.token.Constants.RS_URL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.pgclient.PgPool;
+import io.vertx.sqlclient.PoolOptions;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import iudx.aaa.server.apiserver.User;
+import iudx.aaa.server.apiserver.User.UserBuilder;
+import iudx.aaa.server.configuration.Configuration;
+import iudx.aaa.server.registration.Utils;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+
+/** Unit tests for {@link TokenRevokeDispatcher} and the revocation outbox queries it uses. */
+@ExtendWith(VertxExtension.class)
+public class TokenRevokeDispatcherTest {
+  private static Logger LOGGER = LogManager.getLogger(TokenRevokeDispatcherTest.class);
+
+  /* Database Properties */
+  private static String databaseIP;
+  private static int databasePort;
+  private static String databaseName;
+  private static String databaseSchema;
+  private static String databaseUserName;
+  private static String databasePassword;
+  private static int poolSize;
+  private static PgPool pool;
+  private static PoolOptions poolOptions;
+  private static PgConnectOptions connectOptions;
+  private static Vertx vertxObj;
+
+  private static Utils utils;
+
+  private static final String SQL_INSERT_OUTBOX =
+      "INSERT INTO token_revoke_outbox (user_id, server_url, status, attempts, next_attempt_at,"
+          + " created_at, updated_at) VALUES ($1::uuid, $2::text, $3::token_revoke_status_enum,"
+          + " $4::integer, NOW() + $5::bigint * INTERVAL '1 millisecond', NOW(), NOW())"
+          + " RETURNING id";
+
+  private static final String SQL_GET_OUTBOX =
+      "SELECT status::text, attempts, last_error, next_attempt_at > NOW() AS deferred"
+          + " FROM token_revoke_outbox WHERE id = $1::uuid";
+
+  private static final String SQL_DELETE_OUTBOX =
+      "DELETE FROM token_revoke_outbox WHERE user_id = $1::uuid";
+
+  /* Lease long enough to not expire during a test */
+  private static final long LEASE_MS = 60 * 60 * 1000;
+
+  private static final User USER = new UserBuilder().userId(UUID.randomUUID()).build();
+
+  @BeforeAll
+  @DisplayName("Setting up the DB")
+  static void startVertx(Vertx vertx, VertxTestContext testContext) {
+    Configuration config = new Configuration();
+    vertxObj = vertx;
+    JsonObject dbConfig = config.configLoader(2, vertx);
+
+    databaseIP = dbConfig.getString("databaseIP");
+    databasePort = Integer.parseInt(dbConfig.getString("databasePort"));
+    databaseName = dbConfig.getString("databaseName");
+    databaseSchema = dbConfig.getString("databaseSchema");
+    databaseUserName = dbConfig.getString("databaseUserName");
+    databasePassword = dbConfig.getString("databasePassword");
+    poolSize = Integer.parseInt(dbConfig.getString("poolSize"));
+
+    if (connectOptions == null) {
+      Map<String, String> schemaProp = Map.of("search_path", databaseSchema);
+
+      connectOptions =
+          new PgConnectOptions()
+              .setPort(databasePort)
+              .setHost(databaseIP)
+              .setDatabase(databaseName)
+              .setUser(databaseUserName)
+              .setPassword(databasePassword)
+              .setProperties(schemaProp);
+    }
+
+    if (poolOptions == null) {
+      poolOptions = new PoolOptions().setMaxSize(poolSize);
+    }
+
+    pool = PgPool.pool(vertx, connectOptions, poolOptions);
+    utils = new Utils(pool);
+
+    utils
+        .createFakeUser(USER, false, false)
+        .onSuccess(res -> testContext.completeNow())
+        .onFailure(err -> testContext.failNow(err.getMessage()));
+  }
+
+  @AfterAll
+  public static void finish(VertxTestContext testContext) {
+    LOGGER.info("Finishing and resetting DB");
+
+    pool.withConnection(
+            conn ->
+                conn.preparedQuery(SQL_DELETE_OUTBOX)
+                    .execute(Tuple.of(UUID.fromString(USER.getUserId()))))
+        .compose(res -> utils.deleteFakeUser())
+        .onComplete(
+            x -> {
+              if (x.failed()) {
+                LOGGER.warn(x.cause().getMessage());
+              }
+              vertxObj.close(testContext.succeeding(response -> testContext.completeNow()));
+            });
+  }
+
+  private static String randomUrl() {
+    return "dummy" + RandomStringUtils.randomAlphabetic(8).toLowerCase() + ".iudx.io";
+  }
+
+  /* Insert an outbox row for the test user, due after the given delay */
+  private static Future<UUID> insert(String url, String status, int attempts, long dueInMs) {
+    Tuple tuple = Tuple.of(UUID.fromString(USER.getUserId()), url, status, attempts, dueInMs);
+    return pool.withConnection(conn -> conn.preparedQuery(SQL_INSERT_OUTBOX).execute(tuple))
+        .map(rows -> rows.iterator().next().getUUID("id"));
+  }
+
+  private static Future<Row> get(UUID id) {
+    return pool.withConnection(conn -> conn.preparedQuery(SQL_GET_OUTBOX).execute(Tuple.of(id)))
+        .map(rows -> rows.iterator().next());
+  }
+
+  /* Claim due rows, returning the attempts of the claimed rows by ID */
+  private static Future<Map<UUID, Integer>> claim(long leaseMs) {
+    Tuple tuple = Tuple.of(1000, leaseMs);
+    return pool.withConnection(conn -> conn.preparedQuery(CLAIM_REVOKE_OUTBOX).execute(tuple))
+        .map(TokenRevokeDispatcherTest::attemptsById);
+  }
+
+  private static Map<UUID, Integer> attemptsById(RowSet<Row> rows) {
+    Map<UUID, Integer> attempts = new HashMap<UUID, Integer>();
+    rows.forEach(row -> attempts.put(row.getUUID("id"), row.getInteger("attempts")));
+    return attempts;
+  }
+
+  /* Poll the status of a row until it is no longer the given status */
+  private static Future<Row> awaitChange(UUID id, String status, int tries) {
+    return get(id)
+        .compose(
+            row -> {
+              if (!row.getString("status").equals(status) || tries == 0) {
+                return Future.succeededFuture(row);
+              }
+              Promise<Row> promise = Promise.promise();
+              vertxObj.setTimer(100, t -> awaitChange(id, status, tries - 1).onComplete(promise));
+              return promise.future();
+            });
+  }
+
+  @Test
+  @DisplayName("Backoff doubles after every attempt")
+  void backoffDoubles() {
+    assertEquals(1000, TokenRevokeDispatcher.backoffMs(1, 1000, 60000));
+    assertEquals(2000, TokenRevokeDispatcher.backoffMs(2, 1000, 60000));
+    assertEquals(4000, TokenRevokeDispatcher.backoffMs(3, 1000, 60000));
+    assertEquals(32000, TokenRevokeDispatcher.backoffMs(6, 1000, 60000));
+  }
+
+  @Test
+  @DisplayName("Backoff is capped at the maximum backoff")
+  void backoffCapped() {
+    assertEquals(60000, TokenRevokeDispatcher.backoffMs(7, 1000, 60000));
+    assertEquals(60000, TokenRevokeDispatcher.backoffMs(100, 1000, 60000));
+    assertEquals(
+        Long.MAX_VALUE / 2, TokenRevokeDispatcher.backoffMs(100, 1000, Long.MAX_VALUE / 2));
+  }
+
+  @Test
+  @DisplayName("Only due pending revocations are claimed, and not claimed again during the lease")
+  void claimDuePending(VertxTestContext testContext) {
+    Future<UUID> due = insert(randomUrl(), "PENDING", 0, -1000);
+    Future<UUID> notDue = insert(randomUrl(), "PENDING", 0, LEASE_MS);
+    Future<UUID> done = insert(randomUrl(), "SUCCEEDED", 1, -1000);
+    Future<UUID> failed = insert(randomUrl(), "FAILED", 5, -1000);
+
+    CompositeFuture.all(due, notDue, done, failed)
+        .compose(res -> claim(LEASE_MS))
+        .compose(
+            claimed -> {
+              testContext.verify(
+                  () -> {
+                    assertEquals(1, claimed.get(due.result()));
+                    assertFalse(claimed.containsKey(notDue.result()));
+                    assertFalse(claimed.containsKey(done.result()));
+                    assertFalse(claimed.containsKey(failed.result()));
+                  });
+              return claim(LEASE_MS);
+            })
+        .compose(
+            claimed -> {
+              testContext.verify(() -> assertFalse(claimed.containsKey(due.result())));
+              return get(due.result());
+            })
+        .onComplete(
+            testContext.succeeding(
+                row ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals("PENDING", row.getString("status"));
+                          assertEquals(1, row.getInteger("attempts"));
+                          assertTrue(row.getBoolean("deferred"));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("A claimed revocation is claimed again once the lease expires")
+  void claimAfterLeaseExpiry(VertxTestContext testContext) {
+    Future<UUID> id = insert(randomUrl(), "PENDING", 0, -1000);
+
+    id.compose(res -> claim(0))
+        .compose(
+            claimed -> {
+              testContext.verify(() -> assertEquals(1, claimed.get(id.result())));
+              return claim(LEASE_MS);
+            })
+        .onComplete(
+            testContext.succeeding(
+                claimed ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(2, claimed.get(id.result()));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("Completing a revocation marks it as succeeded and clears the error")
+  void completeRevocation(VertxTestContext testContext) {
+    insert(randomUrl(), "PENDING", 0, -1000)
+        .compose(
+            id ->
+                pool.withConnection(
+                        conn ->
+                            conn.preparedQuery(RETRY_REVOKE_OUTBOX)
+                                .execute(Tuple.of(id, "PENDING", -1000L, "timeout")))
+                    .compose(
+                        res ->
+                            pool.withConnection(
+                                conn ->
+                                    conn.preparedQuery(COMPLETE_REVOKE_OUTBOX)
+                                        .execute(Tuple.of(id))))
+                    .compose(res -> get(id)))
+        .onComplete(
+            testContext.succeeding(
+                row ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals("SUCCEEDED", row.getString("status"));
+                          assertNull(row.getString("last_error"));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("Retrying a revocation defers it and records the error; failing it ends retries")
+  void retryAndFailRevocation(VertxTestContext testContext) {
+    Future<UUID> retry = insert(randomUrl(), "PENDING", 0, -1000);
+    Future<UUID> fail = insert(randomUrl(), "PENDING", 0, -1000);
+
+    CompositeFuture.all(retry, fail)
+        .compose(
+            res ->
+                pool.withConnection(
+                    conn ->
+                        conn.preparedQuery(RETRY_REVOKE_OUTBOX)
+                            .execute(Tuple.of(retry.result(), "PENDING", LEASE_MS, "timeout"))
+                            .compose(
+                                r ->
+                                    conn.preparedQuery(RETRY_REVOKE_OUTBOX)
+                                        .execute(Tuple.of(fail.result(), "FAILED", 0L, "gone")))))
+        .compose(res -> claim(LEASE_MS))
+        .compose(
+            claimed -> {
+              testContext.verify(
+                  () -> {
+                    assertFalse(claimed.containsKey(retry.result()));
+                    assertFalse(claimed.containsKey(fail.result()));
+                  });
+              return CompositeFuture.all(get(retry.result()), get(fail.result()));
+            })
+        .onComplete(
+            testContext.succeeding(
+                rows ->
+                    testContext.verify(
+                        () -> {
+                          Row retried = rows.resultAt(0);
+                          assertEquals("PENDING", retried.getString("status"));
+                          assertEquals("timeout", retried.getString("last_error"));
+                          assertTrue(retried.getBoolean("deferred"));
+
+                          Row failedRow = rows.resultAt(1);
+                          assertEquals("FAILED", failedRow.getString("status"));
+                          assertEquals("gone", failedRow.getString("last_error"));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("Dispatcher completes delivered revocations and fails undeliverable ones")
+  void dispatchOutbox(VertxTestContext testContext) {
+    String goodUrl = randomUrl();
+    String badUrl = randomUrl();
+
+    TokenRevokeService revokeService = Mockito.mock(TokenRevokeService.class);
+    Mockito.when(revokeService.httpRevokeRequest(Mockito.any(), Mockito.any()))
+        .thenAnswer(
+            inv -> {
+              JsonObject request = inv.getArgument(0);
+              if (badUrl.equals(request.getString(RS_URL))) {
+                return Future.failedFuture("unreachable");
+              }
+              return Future.succeededFuture(new JsonObject());
+            });
+
+    Future<UUID> good = insert(goodUrl, "PENDING", 0, -1000);
+    Future<UUID> bad = insert(badUrl, "PENDING", 0, -1000);
+
+    CompositeFuture.all(good, bad)
+        .compose(
+            res -> {
+              TokenRevokeDispatcher dispatcher =
+                  new TokenRevokeDispatcher(
+                      vertxObj,
+                      pool,
+                      revokeService,
+                      url -> Future.succeededFuture(new JsonObject().put(ACCESS_TOKEN, "jwt")),
+                      50,
+                      100,
+                      1,
+                      1000,
+                      1000);
+              dispatcher.start();
+              return CompositeFuture.all(
+                      awaitChange(good.result(), "PENDING", 50),
+                      awaitChange(bad.result(), "PENDING", 50))
+                  .onComplete(r -> dispatcher.close());
+            })
+        .onComplete(
+            testContext.succeeding(
+                rows ->
+                    testContext.verify(
+                        () -> {
+                          Row delivered = rows.resultAt(0);
+                          assertEquals("SUCCEEDED", delivered.getString("status"));
+                          assertEquals(1, delivered.getInteger("attempts"));
+
+                          Row undeliverable = rows.resultAt(1);
+                          assertEquals("FAILED", undeliverable.getString("status"));
+                          assertEquals("unreachable", undeliverable.getString("last_error"));
+
+                          List<String> urls =
+                              Mockito.mockingDetails(revokeService).getInvocations().stream()
+                                  .map(inv -> ((JsonObject) inv.getArgument(0)).getString(RS_URL))
+                                  .filter(url -> url.equals(goodUrl) || url.equals(badUrl))
+                                  .collect(Collectors.toList());
+                          assertEquals(2, urls.size());
+                          testContext.completeNow();
+                        })));
+  }
+}
@@ -0,0 +1,137 @@
+package iudx.aaa.server.token;
+
+import static iudx.aaa.server.token.Constants.FAILED_USER_IDS;
+import static iudx.aaa.server.token.Constants.RS_REVOKE_BODY_SUB;
+import static iudx.aaa.server.token.Constants.RS_REVOKE_BODY_SUBS;
+import static iudx.aaa.server.token.Constants.USER_IDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(VertxExtension.class)
+public class TokenRevokeServiceTest {
+
+  private static final String PER_SUB_SERVER = "rs.iudx.io";
+  private static final String BULK_SERVER = "bulk.iudx.io";
+  private static final List<String> USERS = List.of("u1", "u2", "u3");
+
+  private TokenRevokeService revokeService(Vertx vertx, WebClient client) {
+    return new TokenRevokeService(vertx, client, 4, 1000, 2, Set.of(BULK_SERVER));
+  }
+
+  @SuppressWarnings("rawtypes")
+  private Future<List<JsonObject>> all(List<Future<JsonObject>> batches) {
+    List<Future> futures = new ArrayList<Future>(batches);
+    return CompositeFuture.all(futures).map(done -> done.<JsonObject>list());
+  }
+
+  @Test
+  @DisplayName("Test a server not listed for bulk gets a request per user")
+  void perSubRequests(Vertx vertx, VertxTestContext testContext) {
+    List<JsonObject> sent = new ArrayList<JsonObject>();
+    WebClient client = MockHttpWebClient.stubWebClient(body -> true, sent);
+
+    all(revokeService(vertx, client).httpBulkRevokeRequest(PER_SUB_SERVER, USERS, "token"))
+        .onComplete(
+            testContext.succeeding(
+                batches ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(2, batches.size());
+                          assertEquals(
+                              new JsonArray().add("u1").add("u2"),
+                              batches.get(0).getJsonArray(USER_IDS));
+                          assertEquals(
+                              new JsonArray().add("u3"), batches.get(1).getJsonArray(USER_IDS));
+                          assertEquals(
+                              new JsonArray(), batches.get(0).getJsonArray(FAILED_USER_IDS));
+
+                          assertEquals(3, sent.size());
+                          sent.forEach(
+                              body -> assertEquals(Set.of(RS_REVOKE_BODY_SUB), body.fieldNames()));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("Test a server listed for bulk gets a request per batch")
+  void bulkRequests(Vertx vertx, VertxTestContext testContext) {
+    List<JsonObject> sent = new ArrayList<JsonObject>();
+    WebClient client = MockHttpWebClient.stubWebClient(body -> true, sent);
+
+    all(revokeService(vertx, client).httpBulkRevokeRequest(BULK_SERVER, USERS, "token"))
+        .onComplete(
+            testContext.succeeding(
+                batches ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(2, batches.size());
+                          JsonArray first = new JsonArray().add("u1").add("u2");
+                          JsonArray second = new JsonArray().add("u3");
+                          assertEquals(
+                              List.of(
+                                  new JsonObject().put(RS_REVOKE_BODY_SUBS, first),
+                                  new JsonObject().put(RS_REVOKE_BODY_SUBS, second)),
+                              sent);
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("Test only the users the server did not revoke are reported as failed")
+  void failedUsersReported(Vertx vertx, VertxTestContext testContext) {
+    WebClient client =
+        MockHttpWebClient.stubWebClient(
+            body -> !"u2".equals(body.getString(RS_REVOKE_BODY_SUB)), new ArrayList<JsonObject>());
+
+    all(revokeService(vertx, client).httpBulkRevokeRequest(PER_SUB_SERVER, USERS, "token"))
+        .onComplete(
+            testContext.succeeding(
+                batches ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(
+                              new JsonArray().add("u2"),
+                              batches.get(0).getJsonArray(FAILED_USER_IDS));
+                          assertEquals(
+                              new JsonArray(), batches.get(1).getJsonArray(FAILED_USER_IDS));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("Test a failed bulk request reports all users of the batch as failed")
+  void failedBatchReported(Vertx vertx, VertxTestContext testContext) {
+    WebClient client =
+        MockHttpWebClient.stubWebClient(
+            body -> body.getJsonArray(RS_REVOKE_BODY_SUBS).size() == 1,
+            new ArrayList<JsonObject>());
+
+    all(revokeService(vertx, client).httpBulkRevokeRequest(BULK_SERVER, USERS, "token"))
+        .onComplete(
+            testContext.succeeding(
+                batches ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(
+                              new JsonArray().add("u1").add("u2"),
+                              batches.get(0).getJsonArray(FAILED_USER_IDS));
+                          assertEquals(
+                              new JsonArray(), batches.get(1).getJsonArray(FAILED_USER_IDS));
+                          testContext.completeNow();
+                        })));
+  }
+}
@@ -12,10 +12,17 @@ import static iudx.aaa.server.token.Constants.ACCESS_DENIED;
 import static iudx.aaa.server.token.Constants.ACCESS_TOKEN;
 import static iudx.aaa.server.token.Constants.APD_TOKEN;
 import static iudx.aaa.server.token.Constants.AUD;
+import static iudx.aaa.server.token.Constants.BATCH;
+import static iudx.aaa.server.token.Constants.BATCH_INTROSPECT_PROCESSED;
+import static iudx.aaa.server.token.Constants.BATCH_TOKEN_PROCESSED;
+import static iudx.aaa.server.token.Constants.BULK_REVOKE_PROCESSED;
+import static iudx.aaa.server.token.Constants.CLAIM_EXPIRY;
 import static iudx.aaa.server.token.Constants.CLAIM_ISSUER;
 import static iudx.aaa.server.token.Constants.CONS;
 import static iudx.aaa.server.token.Constants.CONSTRAINTS;
+import static iudx.aaa.server.token.Constants.COUNT;
 import static iudx.aaa.server.token.Constants.CREATE_TOKEN_DID;
+import static iudx.aaa.server.token.Constants.CURSOR;
 import static iudx.aaa.server.token.Constants.CREATE_TOKEN_DRL;
 import static iudx.aaa.server.token.Constants.CREATE_TOKEN_RG;
 import static iudx.aaa.server.token.Constants.DENY;
@@ -27,6 +34,7 @@ import static iudx.aaa.server.token.Constants.ERR_DETAIL_DELEGATION_INFO_MISSING
 import static iudx.aaa.server.token.Constants.ERR_DETAIL_INVALID_COS_URL;
 import static iudx.aaa.server.token.Constants.ERR_DETAIL_INVALID_ROLE_FOR_COS;
 import static iudx.aaa.server.token.Constants.ERR_DETAIL_INVALID_RS;
+import static iudx.aaa.server.token.Constants.ERR_DETAIL_NOT_RS_ADMIN;
 import static iudx.aaa.server.token.Constants.ERR_DETAIL_NO_RES_GRP_TOKEN;
 import static iudx.aaa.server.token.Constants.ERR_DETAIL_ROLE_NOT_OWNED;
 import static iudx.aaa.server.token.Constants.ERR_DOES_NOT_HAVE_ROLE_FOR_RS;
@@ -35,17 +43,25 @@ import static iudx.aaa.server.token.Constants.ERR_TITLE_DELEGATION_INFO_MISSING;
 import static iudx.aaa.server.token.Constants.ERR_TITLE_INVALID_COS_URL;
 import static iudx.aaa.server.token.Constants.ERR_TITLE_INVALID_ROLE_FOR_COS;
 import static iudx.aaa.server.token.Constants.ERR_TITLE_INVALID_RS;
+import static iudx.aaa.server.token.Constants.ERR_TITLE_NOT_RS_ADMIN;
 import static iudx.aaa.server.token.Constants.ERR_TITLE_NO_RES_GRP_TOKEN;
 import static iudx.aaa.server.token.Constants.ERR_TITLE_ROLE_NOT_OWNED;
 import static iudx.aaa.server.token.Constants.EXP;
+import static iudx.aaa.server.token.Constants.FAILED_REVOKE;
 import static iudx.aaa.server.token.Constants.IID;
+import static iudx.aaa.server.token.Constants.INVALIDATE_RS_URL;
+import static iudx.aaa.server.token.Constants.INVALIDATE_USER_IDS;
 import static iudx.aaa.server.token.Constants.INTROSPECT_USERINFO;
 import static iudx.aaa.server.token.Constants.ISS;
 import static iudx.aaa.server.token.Constants.ITEM_ID;
 import static iudx.aaa.server.token.Constants.ITEM_TYPE;
+import static iudx.aaa.server.token.Constants.KID;
 import static iudx.aaa.server.token.Constants.LINK;
 import static iudx.aaa.server.token.Constants.PG_CONNECTION_TIMEOUT;
 import static iudx.aaa.server.token.Constants.RESOURCE_SVR;
+import static iudx.aaa.server.token.Constants.REVOCATIONS;
+import static iudx.aaa.server.token.Constants.REVOKED;
+import static iudx.aaa.server.token.Constants.REVOKED_AT;
 import static iudx.aaa.server.token.Constants.RG;
 import static iudx.aaa.server.token.Constants.ROLE;
 import static iudx.aaa.server.token.Constants.RS_URL;
@@ -54,12 +70,15 @@ import static iudx.aaa.server.token.Constants.SID;
 import static iudx.aaa.server.token.Constants.STATUS;
 import static iudx.aaa.server.token.Constants.SUB;
 import static iudx.aaa.server.token.Constants.SUCCESS;
+import static iudx.aaa.server.token.Constants.TOKEN_CACHE_INVALIDATE_ADDRESS;
 import static iudx.aaa.server.token.Constants.TYPE;
 import static iudx.aaa.server.token.Constants.URL;
 import static iudx.aaa.server.token.Constants.USER_ID;
+import static iudx.aaa.server.token.Constants.USER_IDS;
 import static iudx.aaa.server.token.RequestPayload.expiredTipPayload;
 import static iudx.aaa.server.token.RequestPayload.mapToInspctToken;
 import static iudx.aaa.server.token.RequestPayload.mapToRevToken;
+import static iudx.aaa.server.token.RequestPayload.mapToRevTokenBulk;
 import static iudx.aaa.server.token.RequestPayload.randomToken;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -67,12 +86,13 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.auth.KeyStoreOptions;
-import io.vertx.ext.auth.jwt.JWTAuth;
-import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.core.net.JksOptions;
+import io.vertx.ext.web.client.WebClient;
 import io.vertx.junit5.Checkpoint;
 import io.vertx.junit5.VertxExtension;
 import io.vertx.junit5.VertxTestContext;
@@ -91,12 +111,18 @@ import iudx.aaa.server.policy.MockRegistrationFactory;
 import iudx.aaa.server.policy.PolicyService;
 import iudx.aaa.server.registration.RegistrationService;
 import iudx.aaa.server.registration.Utils;
+import iudx.aaa.server.token.TokenServiceImpl.TokenServiceImplBuilder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -105,6 +131,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 /** Unit tests for token creation, introspection, revocation. */
@@ -130,12 +157,14 @@ public class TokenServiceTest {
   private static Vertx vertxObj;
   private static String keystorePath;
   private static String keystorePassword;
-  private static JWTAuth provider;
+  private static JwtVerifier verifier;
   private static PolicyService policyService;
   private static RegistrationService registrationService;
   private static MockRegistrationFactory mockRegistrationFactory;
   private static MockPolicyFactory mockPolicy;
   private static TokenRevokeService httpWebClient;
+  private static JwtSigningEngine signingEngine;
+  private static JwtVerificationEngine verificationEngine;
   private static MockHttpWebClient mockHttpWebClient;
 
   private static final String DUMMY_COS_URL =
@@ -160,7 +189,7 @@ public class TokenServiceTest {
 
   @BeforeAll
   @DisplayName("Deploying Verticle")
-  static void startVertx(Vertx vertx, VertxTestContext testContext) {
+  static void startVertx(Vertx vertx, VertxTestContext testContext) throws Exception {
 
     config = new Configuration();
     vertxObj = vertx;
@@ -209,7 +238,12 @@ public class TokenServiceTest {
     }
 
     /* Initializing the services */
-    provider = jwtInitConfig(vertx);
+    KeyStore keyStore =
+        new JksOptions().setPath(keystorePath).setPassword(keystorePassword).loadKeyStore(vertx);
+    JwtKeySet keySet = JwtKeySet.load(keyStore, keystorePassword, JwtSigningAlgorithm.ES256);
+    verifier = new JwtVerifier(keySet);
+    signingEngine = new JwtSigningEngine(vertx, jwtEncoderInit(keySet), 2, 100);
+    verificationEngine = new JwtVerificationEngine(vertx, 2, 100);
     pgPool = PgPool.pool(vertx, connectOptions, poolOptions);
 
     utils = new Utils(pgPool);
@@ -242,21 +276,32 @@ public class TokenServiceTest {
           mockRegistrationFactory = new MockRegistrationFactory();
           registrationService = mockRegistrationFactory.getInstance();
           tokenServiceImplObj =
-              new TokenServiceImpl(
-                  pgPool, policyService, registrationService, provider, httpWebClient);
+              new TokenServiceImplBuilder()
+                  .pgPool(pgPool)
+                  .policyService(policyService)
+                  .registrationService(registrationService)
+                  .verifier(verifier)
+                  .revokeService(httpWebClient)
+                  .signingEngine(signingEngine)
+                  .verificationEngine(verificationEngine)
+                  .revocationLog(new RevocationLog(vertx, pgPool))
+                  .build();
           tokenService = tokenServiceImplObj;
 
           testContext.completeNow();
         });
   }
 
-  /* Initializing JwtProvider */
-  public static JWTAuth jwtInitConfig(Vertx vertx) {
-    JWTAuthOptions config = new JWTAuthOptions();
-    config.setKeyStore(new KeyStoreOptions().setPath(keystorePath).setPassword(keystorePassword));
-
-    JWTAuth provider = JWTAuth.create(vertx, config);
-    return provider;
+  /* Initializing JwtEncoder with the signing key of the key set, as the token verticle does */
+  public static JwtEncoder jwtEncoderInit(JwtKeySet keySet) {
+    JsonObject header =
+        new JsonObject()
+            .put("typ", "JWT")
+            .put("alg", JwtSigningAlgorithm.ES256.getJwtName())
+            .put(ISS, CLAIM_ISSUER)
+            .put(KID, keySet.getSigningKey().getKid());
+    return JwtEncoder.create(
+        header, keySet.getSigningPrivateKey(), JwtSigningAlgorithm.ES256.getJcaAlgorithm());
   }
 
   private static JsonObject getJwtPayload(String jwt) {
@@ -277,6 +322,8 @@ public class TokenServiceTest {
               if (x.failed()) {
                 LOGGER.warn(x.cause().getMessage());
               }
+              signingEngine.close();
+              verificationEngine.close();
               vertxObj.close(testContext.succeeding(response -> testContext.completeNow()));
             });
   }
@@ -1357,6 +1404,146 @@ public class TokenServiceTest {
                         })));
   }
 
+  @Test
+  @DisplayName("Create Token Batch - No approved roles - Fail")
+  void createTokenBatchNoUserProfile(VertxTestContext testContext) {
+
+    JsonObject jsonReq =
+        new JsonObject()
+            .put("itemId", RESOURCE_ITEM)
+            .put("itemType", "resource")
+            .put("role", "consumer");
+    List<RequestToken> request =
+        RequestToken.jsonArrayToList(new JsonArray().add(jsonReq).add(jsonReq.copy()));
+
+    tokenService
+        .createTokenBatch(request, null, normalUser)
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(URN_MISSING_INFO.toString(), response.getString(TYPE));
+                          assertEquals(ERR_TITLE_NO_APPROVED_ROLES, response.getString("title"));
+                          assertEquals(404, response.getInteger("status"));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("Create Token Batch - per item results in request order - Multi-Status")
+  void createTokenBatchPerItemResults(VertxTestContext testContext) {
+
+    User consumerUser = new User(normalUser.toJson());
+    consumerUser.setRoles(List.of(Roles.CONSUMER));
+    consumerUser.setRolesToRsMapping(
+        Map.of(Roles.CONSUMER.toString(), new JsonArray().add(DUMMY_SERVER)));
+
+    JsonArray jsonReq =
+        new JsonArray()
+            .add(
+                new JsonObject()
+                    .put("itemId", RESOURCE_ITEM)
+                    .put("itemType", "resource")
+                    .put("role", "consumer"))
+            .add(
+                new JsonObject()
+                    .put("itemId", RESOURCE_GROUP)
+                    .put("itemType", "resource_group")
+                    .put("role", "consumer"))
+            .add(
+                new JsonObject()
+                    .put("itemId", DUMMY_COS_URL)
+                    .put("itemType", "cos")
+                    .put("role", "consumer"));
+    List<RequestToken> request = RequestToken.jsonArrayToList(jsonReq);
+
+    JsonObject policyResponse =
+        new JsonObject()
+            .put(STATUS, SUCCESS)
+            .put(CAT_ID, RESOURCE_ITEM)
+            .put(CREATE_TOKEN_RG, RESOURCE_GROUP)
+            .put(CONSTRAINTS, new JsonObject())
+            .put(URL, DUMMY_SERVER);
+    mockPolicy.setResponse(policyResponse);
+
+    tokenService
+        .createTokenBatch(request, null, consumerUser)
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(URN_SUCCESS.toString(), response.getString(TYPE));
+                          assertEquals(BATCH_TOKEN_PROCESSED, response.getString("title"));
+                          assertEquals(207, response.getInteger("status"));
+
+                          JsonArray results = response.getJsonArray("results");
+                          assertEquals(3, results.size());
+
+                          JsonObject resItem = results.getJsonObject(0);
+                          assertEquals(200, resItem.getInteger("status"));
+                          JsonObject payload =
+                              getJwtPayload(
+                                  resItem.getJsonObject("results").getString(ACCESS_TOKEN));
+                          assertEquals(payload.getString(SUB), consumerUser.getUserId());
+                          assertEquals(payload.getString(IID), "ri:" + RESOURCE_ITEM);
+
+                          JsonObject rgItem = results.getJsonObject(1);
+                          assertEquals(403, rgItem.getInteger("status"));
+                          assertEquals(ERR_TITLE_NO_RES_GRP_TOKEN, rgItem.getString("title"));
+
+                          JsonObject cosItem = results.getJsonObject(2);
+                          assertEquals(403, cosItem.getInteger("status"));
+                          assertEquals(ERR_TITLE_ROLE_NOT_OWNED, cosItem.getString("title"));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("Create Token Batch - all items issued - Success")
+  void createTokenBatchAllIssued(VertxTestContext testContext) {
+
+    User consumerUser = new User(normalUser.toJson());
+    consumerUser.setRoles(List.of(Roles.CONSUMER));
+    consumerUser.setRolesToRsMapping(
+        Map.of(Roles.CONSUMER.toString(), new JsonArray().add(DUMMY_SERVER)));
+
+    JsonObject item =
+        new JsonObject()
+            .put("itemId", RESOURCE_ITEM)
+            .put("itemType", "resource")
+            .put("role", "consumer");
+    List<RequestToken> request =
+        RequestToken.jsonArrayToList(new JsonArray().add(item).add(item.copy()));
+
+    JsonObject policyResponse =
+        new JsonObject()
+            .put(STATUS, SUCCESS)
+            .put(CAT_ID, RESOURCE_ITEM)
+            .put(CREATE_TOKEN_RG, RESOURCE_GROUP)
+            .put(CONSTRAINTS, new JsonObject())
+            .put(URL, DUMMY_SERVER);
+    mockPolicy.setResponse(policyResponse);
+
+    tokenService
+        .createTokenBatch(request, null, consumerUser)
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(URN_SUCCESS.toString(), response.getString(TYPE));
+                          assertEquals(200, response.getInteger("status"));
+
+                          JsonArray results = response.getJsonArray("results");
+                          assertEquals(2, results.size());
+                          assertEquals(200, results.getJsonObject(0).getInteger("status"));
+                          assertEquals(200, results.getJsonObject(1).getInteger("status"));
+                          testContext.completeNow();
+                        })));
+  }
+
   @Test
   @DisplayName("revokeToken [Success - revoke for RS]")
   void revokeTokenSuccessRs(VertxTestContext testContext) {
@@ -1403,6 +1590,195 @@ public class TokenServiceTest {
                         })));
   }
 
+  @Test
+  @DisplayName("createToken after revokeToken does not reuse the revoked token [Success]")
+  void createTokenAfterRevokeNotReused(Vertx vertx, VertxTestContext testContext) {
+    TokenReuseCache reuseCache = new TokenReuseCache(100, CLAIM_EXPIRY - 600);
+    WebClient client = MockHttpWebClient.stubWebClient(body -> true, new ArrayList<JsonObject>());
+    TokenService reusingService =
+        new TokenServiceImplBuilder()
+            .pgPool(pgPool)
+            .policyService(policyService)
+            .registrationService(registrationService)
+            .verifier(verifier)
+            .revokeService(new TokenRevokeService(vertx, client, 4, 1000, 100, Set.of()))
+            .signingEngine(signingEngine)
+            .reuseCache(reuseCache)
+            .revocationLog(new RevocationLog(vertx, pgPool))
+            .build();
+
+    User consumerUser = new User(normalUser.toJson());
+    consumerUser.setRoles(List.of(Roles.CONSUMER));
+    consumerUser.setRolesToRsMapping(
+        Map.of(Roles.CONSUMER.toString(), new JsonArray().add(DUMMY_SERVER)));
+
+    JsonObject tokenRequest =
+        new JsonObject()
+            .put("itemId", DUMMY_SERVER)
+            .put("itemType", "resource_server")
+            .put("role", "consumer");
+
+    /* the reuse cache is invalidated by the event published once the server revoked the tokens,
+     * as the token verticle does */
+    Promise<Void> invalidated = Promise.promise();
+    MessageConsumer<JsonObject> invalidation =
+        vertx
+            .eventBus()
+            .consumer(
+                TOKEN_CACHE_INVALIDATE_ADDRESS,
+                msg -> {
+                  @SuppressWarnings("unchecked")
+                  List<String> userIds = msg.body().getJsonArray(INVALIDATE_USER_IDS).getList();
+                  reuseCache.invalidate(userIds, msg.body().getString(INVALIDATE_RS_URL));
+                  invalidated.tryComplete();
+                });
+
+    Future<String> issued =
+        reusingService
+            .createToken(new RequestToken(tokenRequest), null, consumerUser)
+            .map(res -> res.getJsonObject("results").getString(ACCESS_TOKEN));
+    Future<String> reused =
+        issued.compose(
+            first ->
+                reusingService
+                    .createToken(new RequestToken(tokenRequest), null, consumerUser)
+                    .map(res -> res.getJsonObject("results").getString(ACCESS_TOKEN)));
+    Future<String> afterRevoke =
+        reused
+            .compose(
+                second ->
+                    reusingService.revokeToken(
+                        mapToRevToken(new JsonObject().put(RS_URL, DUMMY_SERVER)), consumerUser))
+            .compose(revoked -> invalidated.future())
+            .compose(
+                revoked ->
+                    reusingService
+                        .createToken(new RequestToken(tokenRequest), null, consumerUser)
+                        .map(res -> res.getJsonObject("results").getString(ACCESS_TOKEN)));
+
+    afterRevoke.onComplete(
+        testContext.succeeding(
+            third ->
+                testContext.verify(
+                    () -> {
+                      invalidation.unregister();
+                      assertEquals(issued.result(), reused.result());
+                      assertNotNull(third);
+                      assertFalse(issued.result().equals(third));
+                      testContext.completeNow();
+                    })));
+  }
+
+  @Test
+  @DisplayName("createToken does not reuse resource tokens, so policy changes apply [Success]")
+  void createTokenResourceNotReused(VertxTestContext testContext) {
+    TokenService reusingService =
+        new TokenServiceImplBuilder()
+            .pgPool(pgPool)
+            .policyService(policyService)
+            .registrationService(registrationService)
+            .verifier(verifier)
+            .revokeService(httpWebClient)
+            .signingEngine(signingEngine)
+            .reuseCache(new TokenReuseCache(100, CLAIM_EXPIRY - 600))
+            .build();
+
+    User consumerUser = new User(normalUser.toJson());
+    consumerUser.setRoles(List.of(Roles.CONSUMER));
+    consumerUser.setRolesToRsMapping(
+        Map.of(Roles.CONSUMER.toString(), new JsonArray().add(DUMMY_SERVER)));
+
+    JsonObject tokenRequest =
+        new JsonObject()
+            .put("itemId", RESOURCE_ITEM)
+            .put("itemType", "resource")
+            .put("role", "consumer");
+
+    JsonObject policyResponse =
+        new JsonObject()
+            .put(STATUS, SUCCESS)
+            .put(CAT_ID, RESOURCE_ITEM)
+            .put(CREATE_TOKEN_RG, RESOURCE_GROUP)
+            .put(CONSTRAINTS, new JsonObject().put("access", new JsonArray().add("api")))
+            .put(URL, DUMMY_SERVER);
+    mockPolicy.setResponse(policyResponse);
+
+    reusingService
+        .createToken(new RequestToken(tokenRequest), null, consumerUser)
+        .compose(
+            first -> {
+              /* the policy of the item changes after the first token is issued */
+              JsonObject changed = new JsonObject().put("access", new JsonArray().add("sub"));
+              mockPolicy.setResponse(policyResponse.copy().put(CONSTRAINTS, changed));
+              return reusingService.createToken(new RequestToken(tokenRequest), null, consumerUser);
+            })
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          JsonObject payload =
+                              getJwtPayload(
+                                  response.getJsonObject("results").getString(ACCESS_TOKEN));
+                          assertEquals(
+                              new JsonObject().put("access", new JsonArray().add("sub")),
+                              payload.getJsonObject(CONS));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("getRevocations - revoked user is in the revocation log after revocation")
+  void getRevocationsAfterRevoke(Vertx vertx, VertxTestContext testContext) {
+    User consumerUser = new User(normalUser.toJson());
+    consumerUser.setRoles(List.of(Roles.CONSUMER));
+    consumerUser.setRolesToRsMapping(
+        Map.of(Roles.CONSUMER.toString(), new JsonArray().add(DUMMY_SERVER)));
+
+    JsonObject request = new JsonObject().put(RS_URL, DUMMY_SERVER);
+    long revokedAfter = System.currentTimeMillis() / 1000 - 1;
+
+    mockHttpWebClient.setResponse("valid");
+    Future<JsonObject> revocations =
+        tokenService
+            .revokeToken(mapToRevToken(request), consumerUser)
+            .compose(res -> tokenService.getRevocations(DUMMY_SERVER, 0, 1000));
+
+    revocations.onComplete(
+        testContext.succeeding(
+            response ->
+                testContext.verify(
+                    () -> {
+                      assertEquals(URN_SUCCESS.toString(), response.getString(TYPE));
+                      JsonObject results = response.getJsonObject("results");
+                      long cursor = results.getLong(CURSOR);
+                      JsonArray entries = results.getJsonArray(REVOCATIONS);
+                      JsonObject entry =
+                          entries.stream()
+                              .map(obj -> (JsonObject) obj)
+                              .filter(obj -> obj.getString(SUB).equals(normalUser.getUserId()))
+                              .findFirst()
+                              .orElseThrow();
+                      assertTrue(entry.getLong(REVOKED_AT) >= revokedAfter);
+                      assertTrue(cursor > 0);
+
+                      /* nothing new after the returned cursor */
+                      tokenService
+                          .getRevocations(DUMMY_SERVER, cursor, 1000)
+                          .onComplete(
+                              testContext.succeeding(
+                                  next ->
+                                      testContext.verify(
+                                          () -> {
+                                            JsonObject nextResults = next.getJsonObject("results");
+                                            assertEquals(cursor, nextResults.getLong(CURSOR));
+                                            assertTrue(
+                                                nextResults.getJsonArray(REVOCATIONS).isEmpty());
+                                            testContext.completeNow();
+                                          })));
+                    })));
+  }
+
   @Test
   @DisplayName("revokeToken [Failed-01 Failure in RS]")
   void revokeTokenFailed01(VertxTestContext testContext) {
@@ -1519,6 +1895,156 @@ public class TokenServiceTest {
                         })));
   }
 
+  /* A token service sending revocations through a stubbed WebClient, so that the requests sent
+   * to the server can be checked */
+  private TokenService bulkRevokeService(Vertx vertx, WebClient client) {
+    return new TokenServiceImplBuilder()
+        .pgPool(pgPool)
+        .policyService(policyService)
+        .registrationService(registrationService)
+        .verifier(verifier)
+        .revokeService(new TokenRevokeService(vertx, client, 4, 1000, 100, Set.of()))
+        .signingEngine(signingEngine)
+        .revocationLog(new RevocationLog(vertx, pgPool))
+        .build();
+  }
+
+  private User rsAdmin() {
+    User adminUser = new User(normalUser.toJson());
+    adminUser.setRoles(List.of(Roles.ADMIN));
+    adminUser.setRolesToRsMapping(
+        Map.of(Roles.ADMIN.toString(), new JsonArray().add(DUMMY_SERVER)));
+    return adminUser;
+  }
+
+  @Test
+  @DisplayName("revokeTokenBulk [Success - duplicate users revoked once, one request per user]")
+  void revokeTokenBulkSuccess(Vertx vertx, VertxTestContext testContext) {
+    String userId = UUID.randomUUID().toString();
+    JsonObject request =
+        new JsonObject()
+            .put(RS_URL, DUMMY_SERVER)
+            .put(
+                USER_IDS,
+                new JsonArray().add(normalUser.getUserId()).add(userId).add(userId));
+
+    List<JsonObject> sent = new ArrayList<JsonObject>();
+    WebClient client = MockHttpWebClient.stubWebClient(body -> true, sent);
+
+    bulkRevokeService(vertx, client)
+        .revokeTokenBulk(mapToRevTokenBulk(request), rsAdmin())
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(200, response.getInteger(STATUS));
+                          assertEquals(URN_SUCCESS.toString(), response.getString(TYPE));
+                          assertEquals(BULK_REVOKE_PROCESSED, response.getString("title"));
+                          JsonArray results = response.getJsonArray("results");
+                          assertEquals(1, results.size());
+                          JsonObject batch = results.getJsonObject(0);
+                          assertEquals(1, batch.getInteger(BATCH));
+                          assertEquals(2, batch.getInteger(COUNT));
+                          assertTrue(batch.getBoolean(REVOKED));
+                          assertFalse(batch.containsKey(USER_IDS));
+
+                          assertEquals(
+                              List.of(
+                                  new JsonObject().put(SUB, normalUser.getUserId()),
+                                  new JsonObject().put(SUB, userId)),
+                              sent);
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("revokeTokenBulk [Partial failure in RS - 207 with users not revoked]")
+  void revokeTokenBulkPartialFailureInRs(Vertx vertx, VertxTestContext testContext) {
+    String revokedId = UUID.randomUUID().toString();
+    String failedId = UUID.randomUUID().toString();
+    JsonObject request =
+        new JsonObject()
+            .put(RS_URL, DUMMY_SERVER)
+            .put(USER_IDS, new JsonArray().add(revokedId).add(failedId));
+
+    WebClient client =
+        MockHttpWebClient.stubWebClient(
+            body -> !failedId.equals(body.getString(SUB)), new ArrayList<JsonObject>());
+
+    bulkRevokeService(vertx, client)
+        .revokeTokenBulk(mapToRevTokenBulk(request), rsAdmin())
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(207, response.getInteger(STATUS));
+                          assertEquals(URN_SUCCESS.toString(), response.getString(TYPE));
+                          JsonObject batch = response.getJsonArray("results").getJsonObject(0);
+                          assertEquals(2, batch.getInteger(COUNT));
+                          assertFalse(batch.getBoolean(REVOKED));
+                          assertEquals(
+                              new JsonArray().add(failedId), batch.getJsonArray(USER_IDS));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("revokeTokenBulk [Failure in RS - no user revoked]")
+  void revokeTokenBulkFailureInRs(Vertx vertx, VertxTestContext testContext) {
+    String userId = UUID.randomUUID().toString();
+    JsonObject request =
+        new JsonObject().put(RS_URL, DUMMY_SERVER).put(USER_IDS, new JsonArray().add(userId));
+
+    WebClient client = MockHttpWebClient.stubWebClient(body -> false, new ArrayList<JsonObject>());
+
+    bulkRevokeService(vertx, client)
+        .revokeTokenBulk(mapToRevTokenBulk(request), rsAdmin())
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(400, response.getInteger(STATUS));
+                          assertEquals(URN_INVALID_INPUT.toString(), response.getString(TYPE));
+                          assertEquals(FAILED_REVOKE, response.getString("title"));
+                          JsonObject batch = response.getJsonArray("results").getJsonObject(0);
+                          assertFalse(batch.getBoolean(REVOKED));
+                          assertEquals(new JsonArray().add(userId), batch.getJsonArray(USER_IDS));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("revokeTokenBulk [Failed - not admin of RS]")
+  void revokeTokenBulkNotAdmin(VertxTestContext testContext) {
+    User consumerUser = new User(normalUser.toJson());
+    consumerUser.setRoles(List.of(Roles.CONSUMER));
+    consumerUser.setRolesToRsMapping(
+        Map.of(Roles.CONSUMER.toString(), new JsonArray().add(DUMMY_SERVER)));
+
+    JsonObject request =
+        new JsonObject()
+            .put(RS_URL, DUMMY_SERVER)
+            .put(USER_IDS, new JsonArray().add(UUID.randomUUID().toString()));
+
+    mockHttpWebClient.setResponse("valid");
+    tokenService
+        .revokeTokenBulk(mapToRevTokenBulk(request), consumerUser)
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(URN_INVALID_ROLE.toString(), response.getString(TYPE));
+                          assertEquals(ERR_TITLE_NOT_RS_ADMIN, response.getString("title"));
+                          assertEquals(ERR_DETAIL_NOT_RS_ADMIN, response.getString("detail"));
+                          assertEquals(403, response.getInteger(STATUS));
+                          testContext.completeNow();
+                        })));
+  }
+
   @Test
   @DisplayName("validateToken [Success]")
   void validateTokenSuccess(VertxTestContext testContext) {
@@ -1529,12 +2055,14 @@ public class TokenServiceTest {
             .put(USER_ID, normalUser.getUserId())
             .put(URL, DUMMY_SERVER)
             .put(ROLE, Roles.CONSUMER.toString().toLowerCase());
-    JsonObject token = tokenServiceImplObj.getJwt(tokenRequest);
-    token.remove("expiry");
-    token.remove("server");
-
-    tokenService
-        .validateToken(mapToInspctToken(token))
+    tokenServiceImplObj
+        .getJwt(tokenRequest)
+        .compose(
+            token -> {
+              token.remove("expiry");
+              token.remove("server");
+              return tokenService.validateToken(mapToInspctToken(token));
+            })
         .onComplete(
             testContext.succeeding(
                 response ->
@@ -1571,12 +2099,14 @@ public class TokenServiceTest {
             .put(USER_ID, normalUser.getUserId())
             .put(URL, DUMMY_SERVER)
             .put(ROLE, Roles.CONSUMER.toString().toLowerCase());
-    JsonObject token = tokenServiceImplObj.getJwt(tokenRequest);
-    token.remove("expiry");
-    token.remove("server");
-
-    tokenService
-        .validateToken(mapToInspctToken(token))
+    tokenServiceImplObj
+        .getJwt(tokenRequest)
+        .compose(
+            token -> {
+              token.remove("expiry");
+              token.remove("server");
+              return tokenService.validateToken(mapToInspctToken(token));
+            })
         .onComplete(
             testContext.succeeding(
                 response ->
@@ -1602,6 +2132,41 @@ public class TokenServiceTest {
                         })));
   }
 
+  @Test
+  @DisplayName("validateToken resource server token with user info opted out [Success]")
+  void validateResourceServerTokenNoUserInfo(VertxTestContext testContext) {
+    mockRegistrationFactory.setResponse("invalid");
+
+    JsonObject tokenRequest =
+        new JsonObject()
+            .put(ITEM_TYPE, RESOURCE_SVR)
+            .put(ITEM_ID, DUMMY_SERVER)
+            .put(USER_ID, normalUser.getUserId())
+            .put(URL, DUMMY_SERVER)
+            .put(ROLE, Roles.CONSUMER.toString().toLowerCase());
+    tokenServiceImplObj
+        .getJwt(tokenRequest)
+        .compose(
+            token -> {
+              token.remove("expiry");
+              token.remove("server");
+              IntrospectToken introspect = mapToInspctToken(token);
+              introspect.setIncludeUserInfo(false);
+              return tokenService.validateToken(introspect);
+            })
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(URN_SUCCESS.toString(), response.getString(TYPE));
+                          JsonObject payload = response.getJsonObject("results");
+                          assertEquals(payload.getString(IID), "rs:" + DUMMY_SERVER);
+                          assertFalse(payload.containsKey(INTROSPECT_USERINFO));
+                          testContext.completeNow();
+                        })));
+  }
+
   @DisplayName("validateToken resource server token - registration service fails [Fail]")
   void validateResourceServerTokenRegServiceFails(VertxTestContext testContext) {
 
@@ -1614,12 +2179,14 @@ public class TokenServiceTest {
             .put(USER_ID, normalUser.getUserId())
             .put(URL, DUMMY_SERVER)
             .put(ROLE, Roles.CONSUMER.toString().toLowerCase());
-    JsonObject token = tokenServiceImplObj.getJwt(tokenRequest);
-    token.remove("expiry");
-    token.remove("server");
-
-    tokenService
-        .validateToken(mapToInspctToken(token))
+    tokenServiceImplObj
+        .getJwt(tokenRequest)
+        .compose(
+            token -> {
+              token.remove("expiry");
+              token.remove("server");
+              return tokenService.validateToken(mapToInspctToken(token));
+            })
         .onComplete(
             testContext.failing(
                 response ->
@@ -1630,6 +2197,110 @@ public class TokenServiceTest {
                         })));
   }
 
+  @Test
+  @DisplayName("validateToken token issued before revocation [Fail]")
+  void validateTokenRevoked(Vertx vertx, @TempDir Path tempDir, VertxTestContext testContext)
+      throws Exception {
+    RevokedSubjectIndex index = new RevokedSubjectIndex(tempDir.resolve("revoked"), 16, 3600);
+    TokenService revocationAwareService =
+        new TokenServiceImplBuilder()
+            .pgPool(pgPool)
+            .policyService(policyService)
+            .registrationService(registrationService)
+            .verifier(verifier)
+            .revokeService(httpWebClient)
+            .signingEngine(signingEngine)
+            .revocationLog(new RevocationLog(vertx, pgPool))
+            .revokedIndex(index)
+            .build();
+
+    JsonObject tokenRequest =
+        new JsonObject()
+            .put(ITEM_TYPE, "resource_group")
+            .put(ITEM_ID, RESOURCE_GROUP)
+            .put(USER_ID, normalUser.getUserId())
+            .put(URL, DUMMY_SERVER)
+            .put(ROLE, Roles.CONSUMER.toString().toLowerCase());
+    tokenServiceImplObj
+        .getJwt(tokenRequest)
+        .compose(
+            token -> {
+              token.remove("expiry");
+              token.remove("server");
+              /* tokens of the user revoked after the token was issued */
+              long revokedAt = System.currentTimeMillis() / 1000 + 1;
+              index.put(UUID.fromString(normalUser.getUserId()), DUMMY_SERVER, revokedAt);
+              return revocationAwareService.validateToken(mapToInspctToken(token));
+            })
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          index.close();
+                          assertEquals(URN_INVALID_AUTH_TOKEN.toString(), response.getString(TYPE));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("validateToken token issued in the same second as a revocation [Success]")
+  void validateTokenIssuedInRevocationSecond(
+      Vertx vertx, @TempDir Path tempDir, VertxTestContext testContext) throws Exception {
+    RevokedSubjectIndex index = new RevokedSubjectIndex(tempDir.resolve("revoked"), 16, 3600);
+    TokenService revocationAwareService =
+        new TokenServiceImplBuilder()
+            .pgPool(pgPool)
+            .policyService(policyService)
+            .registrationService(registrationService)
+            .verifier(verifier)
+            .revokeService(httpWebClient)
+            .signingEngine(signingEngine)
+            .revocationLog(new RevocationLog(vertx, pgPool))
+            .revokedIndex(index)
+            .build();
+
+    User consumerUser = new User(normalUser.toJson());
+    consumerUser.setRoles(List.of(Roles.CONSUMER));
+    consumerUser.setRolesToRsMapping(
+        Map.of(Roles.CONSUMER.toString(), new JsonArray().add(DUMMY_SERVER)));
+    JsonObject revokeRequest = new JsonObject().put(RS_URL, DUMMY_SERVER);
+
+    JsonObject tokenRequest =
+        new JsonObject()
+            .put(ITEM_TYPE, "resource_group")
+            .put(ITEM_ID, RESOURCE_GROUP)
+            .put(USER_ID, normalUser.getUserId())
+            .put(URL, DUMMY_SERVER)
+            .put(ROLE, Roles.CONSUMER.toString().toLowerCase());
+
+    /* revoke in the second half of a second, where rounding the revocation time would move it to
+     * the next second and reject a token issued right after */
+    long delay = (1500 - System.currentTimeMillis() % 1000) % 1000;
+    mockHttpWebClient.setResponse("valid");
+    vertx.setTimer(
+        Math.max(delay, 1),
+        timer ->
+            revocationAwareService
+                .revokeToken(mapToRevToken(revokeRequest), consumerUser)
+                .compose(revoked -> tokenServiceImplObj.getJwt(tokenRequest))
+                .compose(
+                    token -> {
+                      token.remove("expiry");
+                      token.remove("server");
+                      return revocationAwareService.validateToken(mapToInspctToken(token));
+                    })
+                .onComplete(
+                    testContext.succeeding(
+                        response ->
+                            testContext.verify(
+                                () -> {
+                                  index.close();
+                                  assertEquals(URN_SUCCESS.toString(), response.getString(TYPE));
+                                  testContext.completeNow();
+                                }))));
+  }
+
   @Test
   @DisplayName("validateToken [Failed-02 invalidToken]")
   void validateTokenFailed02(VertxTestContext testContext) {
@@ -1641,14 +2312,15 @@ public class TokenServiceTest {
             .put(USER_ID, normalUser.getUserId())
             .put(URL, DUMMY_SERVER)
             .put(ROLE, Roles.CONSUMER.toString().toLowerCase());
-    JsonObject token = tokenServiceImplObj.getJwt(tokenRequest);
-
-    /* add extra data to token */
-    JsonObject invalidToken =
-        new JsonObject().put("accessToken", token.getString("accessToken") + "abc");
-
-    tokenService
-        .validateToken(mapToInspctToken(invalidToken))
+    tokenServiceImplObj
+        .getJwt(tokenRequest)
+        .compose(
+            token -> {
+              /* add extra data to token */
+              JsonObject invalidToken =
+                  new JsonObject().put("accessToken", token.getString("accessToken") + "abc");
+              return tokenService.validateToken(mapToInspctToken(invalidToken));
+            })
         .onComplete(
             testContext.succeeding(
                 response ->
@@ -1727,6 +2399,126 @@ public class TokenServiceTest {
                         })));
   }
 
+  @Test
+  @DisplayName("validateTokenBatch - per token results in request order [Success]")
+  void validateTokenBatchSuccess(VertxTestContext testContext) {
+    JsonObject userDetailsResp =
+        new JsonObject().put(normalUser.getUserId(), utils.getKcAdminJson(normalUser));
+    mockRegistrationFactory.setResponse(userDetailsResp);
+
+    JsonObject tokenRequest =
+        new JsonObject()
+            .put(ITEM_TYPE, RESOURCE_SVR)
+            .put(ITEM_ID, DUMMY_SERVER)
+            .put(USER_ID, normalUser.getUserId())
+            .put(URL, DUMMY_SERVER)
+            .put(ROLE, Roles.CONSUMER.toString().toLowerCase());
+    tokenServiceImplObj
+        .getJwt(tokenRequest)
+        .compose(
+            token -> {
+              token.remove("expiry");
+              token.remove("server");
+              List<IntrospectToken> batch =
+                  List.of(
+                      mapToInspctToken(randomToken),
+                      mapToInspctToken(token),
+                      new IntrospectToken(),
+                      mapToInspctToken(expiredTipPayload));
+              return tokenService.validateTokenBatch(batch);
+            })
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          assertEquals(URN_SUCCESS.toString(), response.getString(TYPE));
+                          assertEquals(BATCH_INTROSPECT_PROCESSED, response.getString("title"));
+                          JsonArray results = response.getJsonArray("results");
+                          assertEquals(4, results.size());
+
+                          JsonObject random = results.getJsonObject(0);
+                          assertEquals(401, random.getInteger("status"));
+                          assertEquals(URN_INVALID_AUTH_TOKEN.toString(), random.getString(TYPE));
+
+                          JsonObject valid = results.getJsonObject(1);
+                          assertEquals(200, valid.getInteger("status"));
+                          assertEquals(URN_SUCCESS.toString(), valid.getString(TYPE));
+                          JsonObject payload = valid.getJsonObject("results");
+                          assertEquals(payload.getString(SUB), normalUser.getUserId());
+                          assertEquals(payload.getString(IID), "rs:" + DUMMY_SERVER);
+                          assertTrue(
+                              payload.getJsonObject(INTROSPECT_USERINFO).containsKey("email"));
+
+                          JsonObject missing = results.getJsonObject(2);
+                          assertEquals(400, missing.getInteger("status"));
+                          assertEquals(URN_MISSING_INFO.toString(), missing.getString(TYPE));
+
+                          JsonObject expired = results.getJsonObject(3);
+                          assertEquals(401, expired.getInteger("status"));
+                          assertEquals(URN_INVALID_AUTH_TOKEN.toString(), expired.getString(TYPE));
+                          testContext.completeNow();
+                        })));
+  }
+
+  @Test
+  @DisplayName("validateTokenBatch - full size batch verified on signer threads [Success]")
+  void validateTokenBatchFullSize(Vertx vertx, VertxTestContext testContext) {
+    TokenService verifyingService =
+        new TokenServiceImplBuilder()
+            .pgPool(pgPool)
+            .policyService(policyService)
+            .registrationService(registrationService)
+            .revokeService(httpWebClient)
+            .signingEngine(signingEngine)
+            .verifier(verifier)
+            .revocationLog(new RevocationLog(vertx, pgPool))
+            .build();
+
+    JsonObject tokenRequest =
+        new JsonObject()
+            .put(ITEM_TYPE, RESOURCE_SVR)
+            .put(ITEM_ID, DUMMY_SERVER)
+            .put(USER_ID, normalUser.getUserId())
+            .put(URL, DUMMY_SERVER)
+            .put(ROLE, Roles.CONSUMER.toString().toLowerCase());
+    tokenServiceImplObj
+        .getJwt(tokenRequest)
+        .compose(
+            token -> {
+              String accessToken = token.getString(ACCESS_TOKEN);
+              JsonObject valid = new JsonObject().put(ACCESS_TOKEN, accessToken);
+              JsonObject tampered = new JsonObject().put(ACCESS_TOKEN, accessToken + "abc");
+
+              /* valid, tampered and missing tokens in turn */
+              List<IntrospectToken> batch =
+                  IntStream.range(0, 200)
+                      .mapToObj(
+                          i ->
+                              i % 3 == 0
+                                  ? mapToInspctToken(valid)
+                                  : i % 3 == 1 ? mapToInspctToken(tampered) : new IntrospectToken())
+                      .collect(Collectors.toList());
+              return verifyingService.validateTokenBatch(batch);
+            })
+        .onComplete(
+            testContext.succeeding(
+                response ->
+                    testContext.verify(
+                        () -> {
+                          JsonArray results = response.getJsonArray("results");
+                          assertEquals(200, results.size());
+                          for (int i = 0; i < results.size(); i++) {
+                            int expected = i % 3 == 0 ? 200 : i % 3 == 1 ? 401 : 400;
+                            assertEquals(expected, results.getJsonObject(i).getInteger("status"));
+                          }
+                          assertEquals(
+                              normalUser.getUserId(),
+                              results.getJsonObject(0).getJsonObject("results").getString(SUB));
+                          testContext.completeNow();
+                        })));
+  }
+
   @Test
   @DisplayName("validateToken success [APD token]")
   void validateTokenFailed06(VertxTestContext testContext) {
@@ -1738,16 +2530,18 @@ public class TokenServiceTest {
             .put(SESSION_ID, sessId)
             .put(USER_ID, normalUser.getUserId())
             .put(LINK, DUMMY_SERVER + "/apd");
-    JsonObject token = tokenServiceImplObj.getApdJwt(apdTokenRequest);
-    token.remove("expiry");
-    token.remove("server");
-    token.remove("link");
-
-    /* The JWT response has the key `apdToken`, introspect expects `accessToken`*/
-    token.put(ACCESS_TOKEN, token.remove(APD_TOKEN));
-
-    tokenService
-        .validateToken(mapToInspctToken(token))
+    tokenServiceImplObj
+        .getApdJwt(apdTokenRequest)
+        .compose(
+            token -> {
+              token.remove("expiry");
+              token.remove("server");
+              token.remove("link");
+
+              /* The JWT response has the key `apdToken`, introspect expects `accessToken`*/
+              token.put(ACCESS_TOKEN, token.remove(APD_TOKEN));
+              return tokenService.validateToken(mapToInspctToken(token));
+            })
         .onComplete(
             testContext.succeeding(
                 response ->
@@ -1783,12 +2577,14 @@ public class TokenServiceTest {
             .put(ROLE, "")
             .put(ITEM_TYPE, "")
             .put(ITEM_ID, "");
-    JsonObject token = tokenServiceImplObj.getJwt(adminTokenReq);
-    token.remove("expiry");
-    token.remove("server");
-
-    tokenService
-        .validateToken(mapToInspctToken(token))
+    tokenServiceImplObj
+        .getJwt(adminTokenReq)
+        .compose(
+            token -> {
+              token.remove("expiry");
+              token.remove("server");
+              return tokenService.validateToken(mapToInspctToken(token));
+            })
         .onComplete(
             testContext.succeeding(
                 response ->
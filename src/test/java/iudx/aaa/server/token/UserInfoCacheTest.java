@@ -0,0 +1,83 @@
+package iudx.aaa.server.token;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link UserInfoCache}. */
+public class UserInfoCacheTest {
+
+  private UserInfoCache cache;
+  private List<List<String>> loaderCalls;
+  private Function<List<String>, Future<JsonObject>> loader;
+
+  @BeforeEach
+  void setup() {
+    cache = new UserInfoCache(100, 300);
+    loaderCalls = new ArrayList<List<String>>();
+    loader =
+        userIds -> {
+          loaderCalls.add(userIds);
+          JsonObject details = new JsonObject();
+          userIds.forEach(id -> details.put(id, new JsonObject().put("email", email(id))));
+          return Future.succeededFuture(details);
+        };
+  }
+
+  private static String email(String userId) {
+    return userId + "@example.com";
+  }
+
+  @Test
+  @DisplayName("Only users that are not cached are loaded, in one call")
+  void onlyMissingUsersLoaded() {
+    String cached = UUID.randomUUID().toString();
+    String notCached = UUID.randomUUID().toString();
+
+    cache.get(List.of(cached), loader);
+    JsonObject result = cache.get(List.of(cached, notCached), loader).result();
+
+    assertEquals(2, loaderCalls.size());
+    assertEquals(List.of(notCached), loaderCalls.get(1));
+    assertEquals(email(cached), result.getJsonObject(cached).getString("email"));
+    assertEquals(email(notCached), result.getJsonObject(notCached).getString("email"));
+
+    cache.get(List.of(cached, notCached), loader);
+    assertEquals(2, loaderCalls.size());
+  }
+
+  @Test
+  @DisplayName("Users not returned by the loader are not cached")
+  void unknownUsersNotCached() {
+    String unknown = UUID.randomUUID().toString();
+    Function<List<String>, Future<JsonObject>> emptyLoader =
+        userIds -> {
+          loaderCalls.add(userIds);
+          return Future.succeededFuture(new JsonObject());
+        };
+
+    assertFalse(cache.get(List.of(unknown), emptyLoader).result().containsKey(unknown));
+    cache.get(List.of(unknown), emptyLoader);
+    assertEquals(2, loaderCalls.size());
+  }
+
+  @Test
+  @DisplayName("Loader failure fails the lookup and caches nothing")
+  void loaderFailure() {
+    String userId = UUID.randomUUID().toString();
+
+    assertTrue(cache.get(List.of(userId), ids -> Future.failedFuture("Internal error")).failed());
+    assertTrue(cache.get(List.of(userId), loader).succeeded());
+    assertEquals(1, loaderCalls.size());
+  }
+}